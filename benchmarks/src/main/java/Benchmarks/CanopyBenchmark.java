@@ -0,0 +1,99 @@
+package Benchmarks;
+
+import Clustering.IndexedCanopyBuilder;
+import Clustering.PointMatrix;
+import org.apache.mahout.clustering.canopy.Canopy;
+import org.apache.mahout.clustering.canopy.CanopyClusterer;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
+import org.apache.mahout.math.Vector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Canopy clustering of rows points, all of them per operation:
+ * <ul>
+ * <li>addPointToCanopies, the canopies of Mahout's CanopyClusterer, which compares every point with every canopy;</li>
+ * <li>indexed, the canopies of IndexedCanopyBuilder and its spatial index;</li>
+ * <li>membership, the canopies covering every point, as the canopy classification step tests them.</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CanopyBenchmark {
+
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"6.0"})
+    public double t1;
+
+    @Param({"4.0"})
+    public double t2;
+
+    private final DistanceMeasure measure = new EuclideanDistanceMeasure();
+
+    private PointMatrix points;
+
+    private Vector[] vectors;
+
+    private CanopyClusterer clusterer;
+
+    private List<Canopy> canopies;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        points = new SyntheticData(LogisticRegressionBenchmark.SEED).points(rows);
+        vectors = new Vector[rows];
+        for (int row = 0; row < rows; row++) {
+            vectors[row] = points.rowVector(row);
+        }
+        clusterer = new CanopyClusterer(measure, t1, t2);
+        canopies = addPointToCanopies();
+    }
+
+    @Benchmark
+    public List<Canopy> addPointToCanopies() {
+        List<Canopy> canopies = new ArrayList<Canopy>();
+        for (Vector vector : vectors) {
+            clusterer.addPointToCanopies(vector, canopies);
+        }
+        return canopies;
+    }
+
+    @Benchmark
+    public List<Canopy> indexed() {
+        return new IndexedCanopyBuilder(measure, t1, t2, LogisticRegressionBenchmark.SEED).build(points, 0);
+    }
+
+    @Benchmark
+    public long membership() {
+        long memberships = 0;
+        for (Vector vector : vectors) {
+            for (Canopy canopy : canopies) {
+                if (clusterer.canopyCovers(canopy, vector)) {
+                    memberships++;
+                }
+            }
+        }
+        return memberships;
+    }
+}
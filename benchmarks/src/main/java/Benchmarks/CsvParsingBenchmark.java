@@ -0,0 +1,88 @@
+package Benchmarks;
+
+import Clustering.CsvVectorizer;
+import Clustering.PointMatrix;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.mahout.classifier.sgd.CsvRecordFactory;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CSV parsing: CsvRecordFactory.processLine, one line of the logistic regression input per operation, and
+ * CsvVectorizer over a file of rows lines, the whole file per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvParsingBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"100"})
+    public int numFeatures;
+
+    private String[] lines;
+
+    private CsvRecordFactory csv;
+
+    private int next;
+
+    private File file;
+
+    private Configuration conf;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        lines = new SyntheticData(LogisticRegressionBenchmark.SEED).lines(rows, true, true);
+        csv = LogisticRegressionBenchmark.parameters(numFeatures).getCsvRecordFactory();
+        csv.firstLine(SyntheticData.header());
+        file = File.createTempFile("breastCancer", ".csv");
+        new SyntheticData(LogisticRegressionBenchmark.SEED).write(file, rows, false, false, false);
+        conf = new Configuration();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public Vector processLine() {
+        Vector input = new RandomAccessSparseVector(numFeatures);
+        csv.processLine(lines[next], input);
+        next = next + 1 == lines.length ? 0 : next + 1;
+        return input;
+    }
+
+    @Benchmark
+    public PointMatrix vectorize() throws IOException, InterruptedException, ExecutionException {
+        CsvVectorizer vectorizer = new CsvVectorizer(conf);
+        vectorizer.setCollectPoints(true);
+        vectorizer.vectorize(file, null);
+        return vectorizer.getPoints();
+    }
+}
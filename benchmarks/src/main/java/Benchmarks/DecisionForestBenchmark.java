@@ -0,0 +1,74 @@
+package Benchmarks;
+
+import org.apache.mahout.classifier.df.DecisionForest;
+import org.apache.mahout.classifier.df.builder.DecisionTreeBuilder;
+import org.apache.mahout.classifier.df.data.Data;
+import org.apache.mahout.classifier.df.data.DataLoader;
+import org.apache.mahout.classifier.df.data.Dataset;
+import org.apache.mahout.classifier.df.data.DescriptorException;
+import org.apache.mahout.classifier.df.data.Instance;
+import org.apache.mahout.classifier.df.ref.SequentialBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DecisionForest.classify, one instance per operation, with a forest of trees grown over rows instances
+ * by the sequential builder, as RadomForest builds it from breastCancer.csv.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecisionForestBenchmark {
+
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"30"})
+    public int trees;
+
+    private Dataset dataset;
+
+    private DecisionForest forest;
+
+    private Instance[] instances;
+
+    private Random rng;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws DescriptorException {
+        String[] lines = new SyntheticData(LogisticRegressionBenchmark.SEED).lines(rows, true, true);
+        dataset = DataLoader.generateDataset(SyntheticData.DESCRIPTOR, false, lines);
+        Data data = DataLoader.loadData(dataset, lines);
+        rng = new Random(LogisticRegressionBenchmark.SEED);
+        forest = new SequentialBuilder(rng, new DecisionTreeBuilder(), data).build(trees);
+        instances = new Instance[data.size()];
+        for (int i = 0; i < instances.length; i++) {
+            instances[i] = data.get(i);
+        }
+    }
+
+    @Benchmark
+    public double classify() {
+        double prediction = forest.classify(dataset, rng, instances[next]);
+        next = next + 1 == instances.length ? 0 : next + 1;
+        return prediction;
+    }
+}
@@ -0,0 +1,149 @@
+package Benchmarks;
+
+import Common.DriverStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Runs driver main methods one after the other in this JVM, a ScalingSuite child, and writes whether they
+ * completed, their wall time and the peak resident set size of the JVM to a properties file:
+ * <pre>
+ *     DriverLauncher resultFile class [args...] [-- class [args...]]...
+ * </pre>
+ * The drivers log the exceptions of their runs rather than throw them, so a driver completed when its main
+ * method neither threw nor recorded a failure in DriverStatus. The first driver that did not complete stops
+ * the run, and the JVM then exits with status 1.
+ * The peak resident set size is VmHWM of /proc/self/status; where there is no such file, the sum of the peak
+ * usages of the memory pools is reported instead, under PEAK_HEAP_KB.
+ */
+public final class DriverLauncher {
+
+    private static final Logger log = LoggerFactory.getLogger(DriverLauncher.class);
+
+    static final String SEPARATOR = "--";
+
+    static final String COMPLETED = "completed";
+
+    static final String FAILED_DRIVER = "failedDriver";
+
+    static final String FAILURE = "failure";
+
+    static final String WALL_MILLIS = "wallMillis";
+
+    static final String PEAK_RSS_KB = "peakRssKb";
+
+    static final String PEAK_HEAP_KB = "peakHeapKb";
+
+    private DriverLauncher() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        File resultFile = new File(args[0]);
+        List<List<String>> invocations = new ArrayList<List<String>>();
+        List<String> current = null;
+        for (String arg : Arrays.asList(args).subList(1, args.length)) {
+            if (current == null || SEPARATOR.equals(arg)) {
+                current = new ArrayList<String>();
+                invocations.add(current);
+                if (SEPARATOR.equals(arg)) {
+                    continue;
+                }
+            }
+            current.add(arg);
+        }
+
+        long start = System.nanoTime();
+        String failedDriver = null;
+        Throwable failure = null;
+        for (List<String> invocation : invocations) {
+            String[] driverArgs = invocation.subList(1, invocation.size()).toArray(new String[invocation.size() - 1]);
+            DriverStatus.clear();
+            try {
+                Class.forName(invocation.get(0)).getMethod("main", String[].class).invoke(null,
+                        (Object) driverArgs);
+            } catch (InvocationTargetException e) {
+                DriverStatus.failed(e.getCause());
+            }
+            failure = DriverStatus.getFailure();
+            if (failure != null) {
+                failedDriver = invocation.get(0);
+                log.error(failedDriver + " did not complete", failure);
+                break;
+            }
+        }
+        long wallMillis = (System.nanoTime() - start) / 1000000;
+
+        Properties result = new Properties();
+        result.setProperty(COMPLETED, Boolean.toString(failure == null));
+        if (failure != null) {
+            result.setProperty(FAILED_DRIVER, failedDriver);
+            result.setProperty(FAILURE, failure.toString());
+        }
+        result.setProperty(WALL_MILLIS, Long.toString(wallMillis));
+        result.setProperty(PEAK_RSS_KB, Long.toString(peakRssKb()));
+        result.setProperty(PEAK_HEAP_KB, Long.toString(peakHeapKb()));
+        OutputStream out = new FileOutputStream(resultFile);
+        try {
+            result.store(out, null);
+        } finally {
+            out.close();
+        }
+        // driver thread pools or Hadoop may leave non-daemon threads behind
+        System.exit(failure == null ? 0 : 1);
+    }
+
+    /**
+     * @return VmHWM of /proc/self/status, -1 if it cannot be read
+     */
+    static long peakRssKb() {
+        File status = new File("/proc/self/status");
+        if (!status.isFile()) {
+            return -1;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(status),
+                    StandardCharsets.US_ASCII));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("VmHWM:")) {
+                        return Long.parseLong(line.substring("VmHWM:".length()).replace("kB", "").trim());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            return -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    static long peakHeapKb() {
+        long bytes = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getPeakUsage() != null) {
+                bytes += pool.getPeakUsage().getUsed();
+            }
+        }
+        return bytes / 1024;
+    }
+}
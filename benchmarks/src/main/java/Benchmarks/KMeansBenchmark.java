@@ -0,0 +1,111 @@
+package Benchmarks;
+
+import Clustering.ClusterAssignments;
+import Clustering.DistanceKernel;
+import Clustering.InMemoryKMeans;
+import Clustering.KMeansSeeder;
+import Clustering.PointMatrix;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.kmeans.Kluster;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.common.distance.SquaredEuclideanDistanceMeasure;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * K-means over rows points, all of them per operation:
+ * <ul>
+ * <li>assignment, the nearest of the k centers of every point with the squared euclidean DistanceKernel;</li>
+ * <li>iteration, one iteration of InMemoryKMeans, assignment and centroid update, on numThreads threads;</li>
+ * <li>classify, the classification of every point against the final clusters.</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KMeansBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"2", "16"})
+    public int k;
+
+    @Param({"1", "4"})
+    public int numThreads;
+
+    private final DistanceMeasure measure = new SquaredEuclideanDistanceMeasure();
+
+    private PointMatrix points;
+
+    private List<Kluster> initialClusters;
+
+    private double[] centers;
+
+    private double[] norms;
+
+    private int[] assignments;
+
+    private List<Cluster> clusters;
+
+    private InMemoryKMeans trained;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException, ExecutionException {
+        points = new SyntheticData(LogisticRegressionBenchmark.SEED).points(rows);
+        int dims = points.numCols();
+        int[] seeds = new KMeansSeeder(points, measure, LogisticRegressionBenchmark.SEED).kMeansPlusPlus(k);
+        initialClusters = new ArrayList<Kluster>(k);
+        centers = new double[k * dims];
+        for (int c = 0; c < k; c++) {
+            initialClusters.add(new Kluster(points.rowVector(seeds[c]), c, measure));
+            System.arraycopy(points.values(), points.offset(seeds[c]), centers, c * dims, dims);
+        }
+        norms = DistanceKernel.SQUARED_EUCLIDEAN.norms(centers, k, dims);
+        assignments = new int[rows];
+
+        trained = new InMemoryKMeans(points, initialClusters, measure, numThreads);
+        trained.run(0.001, 10);
+        clusters = trained.getClusters(0.001);
+    }
+
+    @Benchmark
+    public int[] assignment() {
+        double[] values = points.values();
+        int dims = points.numCols();
+        for (int row = 0; row < rows; row++) {
+            assignments[row] = DistanceKernel.SQUARED_EUCLIDEAN.nearest(values, row * dims, centers, norms, k, dims);
+        }
+        return assignments;
+    }
+
+    @Benchmark
+    public InMemoryKMeans iteration() throws InterruptedException, ExecutionException {
+        InMemoryKMeans kmeans = new InMemoryKMeans(points, initialClusters, measure, numThreads);
+        kmeans.run(0, 1);
+        return kmeans;
+    }
+
+    @Benchmark
+    public ClusterAssignments classify() throws InterruptedException, ExecutionException {
+        return trained.classify(clusters);
+    }
+}
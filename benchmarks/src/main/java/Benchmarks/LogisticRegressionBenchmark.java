@@ -0,0 +1,128 @@
+package Benchmarks;
+
+import Classification.LogisticModelParameters;
+import Classification.QuantizedLogisticModel;
+import org.apache.mahout.classifier.sgd.CsvRecordFactory;
+import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OnlineLogisticRegression.train and classifyScalar, one encoded row per operation. The rows are encoded
+ * once by the CsvRecordFactory of the model, as RandomAccessSparseVectors for training and
+ * SequentialAccessSparseVectors for classification like LogisticRegression, and the model classifying
+ * them has been trained over all of them once. The classifyScalar of its float32 and int8
+ * QuantizedLogisticModels is measured alongside.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogisticRegressionBenchmark {
+
+    static final long SEED = 42;
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"100"})
+    public int numFeatures;
+
+    private Vector[] trainVectors;
+
+    private Vector[] testVectors;
+
+    private int[] targets;
+
+    private OnlineLogisticRegression olr;
+
+    private QuantizedLogisticModel float32;
+
+    private QuantizedLogisticModel int8;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] lines = new SyntheticData(SEED).lines(rows, true, true);
+        LogisticModelParameters lmp = parameters(numFeatures);
+        CsvRecordFactory csv = lmp.getCsvRecordFactory();
+        csv.firstLine(SyntheticData.header());
+        trainVectors = new Vector[rows];
+        testVectors = new Vector[rows];
+        targets = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            trainVectors[i] = new RandomAccessSparseVector(numFeatures);
+            targets[i] = csv.processLine(lines[i], trainVectors[i]);
+            testVectors[i] = new SequentialAccessSparseVector(trainVectors[i]);
+        }
+        olr = lmp.createRegression();
+        for (int i = 0; i < rows; i++) {
+            olr.train(targets[i], trainVectors[i]);
+        }
+        float32 = QuantizedLogisticModel.quantize(lmp, QuantizedLogisticModel.Precision.FLOAT32);
+        int8 = QuantizedLogisticModel.quantize(lmp, QuantizedLogisticModel.Precision.INT8);
+    }
+
+    @Benchmark
+    public OnlineLogisticRegression train() {
+        olr.train(targets[next], trainVectors[next]);
+        next = next + 1 == rows ? 0 : next + 1;
+        return olr;
+    }
+
+    @Benchmark
+    public double classifyScalar() {
+        double score = olr.classifyScalar(testVectors[next]);
+        next = next + 1 == rows ? 0 : next + 1;
+        return score;
+    }
+
+    @Benchmark
+    public double classifyScalarFloat32() {
+        double score = float32.classifyScalar(testVectors[next]);
+        next = next + 1 == rows ? 0 : next + 1;
+        return score;
+    }
+
+    @Benchmark
+    public double classifyScalarInt8() {
+        double score = int8.classifyScalar(testVectors[next]);
+        next = next + 1 == rows ? 0 : next + 1;
+        return score;
+    }
+
+    /**
+     * @return the parameters of the logistic regression of breastCancer.csv, as LogisticRegression.main
+     * sets them
+     */
+    static LogisticModelParameters parameters(int numFeatures) {
+        LogisticModelParameters lmp = new LogisticModelParameters();
+        lmp.setTypeMap(Arrays.asList(SyntheticData.FEATURE_NAMES), Arrays.asList("numeric"));
+        lmp.setTargetVariable(SyntheticData.TARGET);
+        lmp.setMaxTargetCategories(2);
+        lmp.setNumFeatures(numFeatures);
+        lmp.setLambda(1e-4);
+        lmp.setLearningRate(1);
+        lmp.setUseBias(false);
+        return lmp;
+    }
+}
@@ -0,0 +1,429 @@
+package Benchmarks;
+
+import Common.ColumnarCache;
+import org.apache.commons.cli2.CommandLine;
+import org.apache.commons.cli2.Group;
+import org.apache.commons.cli2.Option;
+import org.apache.commons.cli2.builder.ArgumentBuilder;
+import org.apache.commons.cli2.builder.DefaultOptionBuilder;
+import org.apache.commons.cli2.builder.GroupBuilder;
+import org.apache.commons.cli2.commandline.Parser;
+import org.apache.mahout.common.CommandLineUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Macro-benchmark of the drivers end to end, over SyntheticDataset inputs of every size of a sweep and
+ * with every thread count of another. Every run is a DriverLauncher child JVM started in its own working
+ * directory, limited to the thread count with -XX:ActiveProcessorCount, which every pool and the
+ * ExecutionPlanner size themselves from; the drivers that have an execution mode are run PARALLEL so that
+ * they use them all. Older JVMs than JDK 8u191 do not have the option: on them the sweep is reduced to the
+ * processors of the machine. A run records whether its drivers completed, its wall time, the peak resident
+ * set size of its JVM and its throughput in input rows per second, and the results are rewritten after
+ * every run to OUTPUT.csv and OUTPUT.json, to be kept for trend tracking:
+ * <pre>
+ *     java -cp benchmarks/target/benchmarks.jar Benchmarks.ScalingSuite -r 100000,1000000 -th 1,2,4,8
+ * </pre>
+ * The column caches of the inputs are built before the runs, unless --coldCache has every run build them.
+ * The working directory of a run is deleted once it succeeded; the one of a failed run, whose JVM failed or
+ * one of whose drivers did not complete, keeps its run.log.
+ */
+public final class ScalingSuite {
+
+    private static final Logger log = LoggerFactory.getLogger(ScalingSuite.class);
+
+    private static final String[] CSV_COLUMNS = {"driver", "rows", "dims", "clusters", "classes", "threads",
+        "repeat", "exitCode", "completed", "wallMillis", "processMillis", "peakRssKb", "peakHeapKb", "rowsPerSecond"};
+
+    /**
+     * Driver run end to end, with the invocations of its main method.
+     */
+    enum Driver {
+        KMEANS("kmeans"), CANOPY("canopy"), FUZZY_KMEANS("fuzzykmeans"), RANDOM_FOREST("randomforest"),
+        LOGISTIC_REGRESSION("logisticregression");
+
+        private final String id;
+
+        Driver(String id) {
+            this.id = id;
+        }
+
+        static Driver fromId(String id) {
+            for (Driver driver : values()) {
+                if (driver.id.equals(id.trim().toLowerCase(Locale.ENGLISH))) {
+                    return driver;
+                }
+            }
+            throw new IllegalArgumentException("Unknown driver: " + id);
+        }
+    }
+
+    private final List<String[]> results = new ArrayList<String[]>();
+
+    private File work;
+
+    private File output;
+
+    private String heap;
+
+    private int iterations;
+
+    private int trees;
+
+    private int passes;
+
+    private boolean coldCache;
+
+    private boolean keep;
+
+    private boolean limitThreads; // the runs are limited with -XX:ActiveProcessorCount
+
+    private ScalingSuite() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        new ScalingSuite().run(args);
+    }
+
+    private void run(String[] args) throws Exception {
+        DefaultOptionBuilder obuilder = new DefaultOptionBuilder();
+        GroupBuilder gbuilder = new GroupBuilder();
+
+        Option rowsOpt = option(obuilder, "rows", "r", "100000", "comma separated input sizes, in rows");
+        Option dimsOpt = option(obuilder, "dims", "d", "10", "features of the inputs");
+        Option clustersOpt = option(obuilder, "clusters", "k", "5", "clusters of the inputs, and k of the runs");
+        Option classesOpt = option(obuilder, "classes", "c", "2", "classes of the inputs");
+        Option threadsOpt = option(obuilder, "threads", "th", "1,2,4", "comma separated thread counts");
+        Option driversOpt = option(obuilder, "drivers", "dr", "kmeans,canopy,fuzzykmeans,randomforest,"
+                + "logisticregression", "comma separated drivers to run");
+        Option repeatOpt = option(obuilder, "repeat", "rp", "1", "runs of every driver, size and thread count");
+        Option iterationsOpt = option(obuilder, "iterations", "x", "10", "maximum iterations of the clusterings");
+        Option treesOpt = option(obuilder, "trees", "t", "30", "trees of the random forests");
+        Option passesOpt = option(obuilder, "passes", "ps", "10", "passes of the logistic regressions");
+        Option seedOpt = option(obuilder, "seed", "sd", "42", "seed of the inputs");
+        Option workOpt = option(obuilder, "work", "w", "scaling-work", "directory of the inputs and of the runs");
+        Option outputOpt = option(obuilder, "output", "o", "scaling-results",
+                "results file name, without the .csv and .json extensions");
+        Option heapOpt = obuilder.withLongName("heap").withShortName("hp").withRequired(false)
+                .withArgument(new ArgumentBuilder().withName("heap").withMinimum(1).withMaximum(1).create())
+                .withDescription("maximum heap of the runs, as for -Xmx").create();
+        Option coldCacheOpt = obuilder.withLongName("coldCache").withShortName("cc").withRequired(false)
+                .withDescription("build the column caches of the inputs in every run").create();
+        Option keepOpt = obuilder.withLongName("keep").withShortName("kp").withRequired(false)
+                .withDescription("keep the working directories of the successful runs").create();
+        Option helpOpt = obuilder.withLongName("help").withShortName("h").withDescription("Print out help").create();
+
+        Group group = gbuilder.withName("Options").withOption(rowsOpt).withOption(dimsOpt).withOption(clustersOpt)
+                .withOption(classesOpt).withOption(threadsOpt).withOption(driversOpt).withOption(repeatOpt)
+                .withOption(iterationsOpt).withOption(treesOpt).withOption(passesOpt).withOption(seedOpt)
+                .withOption(workOpt).withOption(outputOpt).withOption(heapOpt).withOption(coldCacheOpt)
+                .withOption(keepOpt).withOption(helpOpt).create();
+
+        Parser parser = new Parser();
+        parser.setGroup(group);
+        CommandLine cmdLine = parser.parseAndHelp(args);
+        if (cmdLine == null || cmdLine.hasOption(helpOpt)) {
+            CommandLineUtil.printHelp(group);
+            return;
+        }
+
+        int[] sizes = ints(cmdLine.getValue(rowsOpt).toString());
+        int[] threadCounts = ints(cmdLine.getValue(threadsOpt).toString());
+        limitThreads = supportsActiveProcessorCount(System.getProperty("java.version"));
+        if (!limitThreads) {
+            int processors = Runtime.getRuntime().availableProcessors();
+            log.warn("Java {} cannot limit the processors of a run with -XX:ActiveProcessorCount, which needs JDK "
+                    + "8u191 or later: running on the {} processors of the machine only",
+                    System.getProperty("java.version"), processors);
+            threadCounts = new int[] {processors};
+        }
+        List<Driver> drivers = new ArrayList<Driver>();
+        for (String id : cmdLine.getValue(driversOpt).toString().split(",")) {
+            drivers.add(Driver.fromId(id));
+        }
+        int repeat = Integer.parseInt(cmdLine.getValue(repeatOpt).toString());
+        SyntheticDataset dataset = new SyntheticDataset(Integer.parseInt(cmdLine.getValue(dimsOpt).toString()),
+                Integer.parseInt(cmdLine.getValue(clustersOpt).toString()),
+                Integer.parseInt(cmdLine.getValue(classesOpt).toString()),
+                Long.parseLong(cmdLine.getValue(seedOpt).toString()));
+        iterations = Integer.parseInt(cmdLine.getValue(iterationsOpt).toString());
+        trees = Integer.parseInt(cmdLine.getValue(treesOpt).toString());
+        passes = Integer.parseInt(cmdLine.getValue(passesOpt).toString());
+        work = new File(cmdLine.getValue(workOpt).toString()).getAbsoluteFile();
+        output = new File(cmdLine.getValue(outputOpt).toString()).getAbsoluteFile();
+        heap = cmdLine.hasOption(heapOpt) ? cmdLine.getValue(heapOpt).toString() : null;
+        coldCache = cmdLine.hasOption(coldCacheOpt);
+        keep = cmdLine.hasOption(keepOpt);
+
+        for (int rows : sizes) {
+            log.info("Generating {} rows of {} features", rows, dataset.getDims());
+            File data = dataset.write(work, rows);
+            if (!coldCache) {
+                ColumnarCache.open(new File(data, SyntheticDataset.POINTS_FILE), false);
+                ColumnarCache.open(new File(data, SyntheticDataset.LABELED_FILE), false);
+                ColumnarCache.open(new File(data, SyntheticDataset.LOGISTIC_FILE), true);
+            }
+            for (Driver driver : drivers) {
+                for (int threads : threadCounts) {
+                    for (int r = 0; r < repeat; r++) {
+                        run(driver, dataset, data, rows, threads, r);
+                    }
+                }
+            }
+        }
+        log.info("Wrote {} results to {}.csv and {}.json", results.size(), output, output);
+    }
+
+    private void run(Driver driver, SyntheticDataset dataset, File data, int rows, int threads, int repeat)
+            throws IOException, InterruptedException {
+        File runDirectory = new File(work, String.format(Locale.ENGLISH, "%s-%d-%d-%d", driver.id, rows, threads,
+                repeat));
+        delete(runDirectory);
+        mkdirs(new File(runDirectory, "ClassificationDir/LogisticRegressionDir"));
+        mkdirs(new File(runDirectory, "ClassificationDir/RandomForestDir"));
+        if (coldCache) {
+            for (String name : new String[] {SyntheticDataset.POINTS_FILE, SyntheticDataset.LABELED_FILE,
+                SyntheticDataset.LOGISTIC_FILE}) {
+                delete(ColumnarCache.cacheFile(new File(data, name)));
+            }
+        }
+
+        File resultFile = new File(runDirectory, "result.properties");
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        if (limitThreads) {
+            command.add("-XX:ActiveProcessorCount=" + threads);
+        }
+        if (heap != null) {
+            command.add("-Xmx" + heap);
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(DriverLauncher.class.getName());
+        command.add(resultFile.getPath());
+        command.addAll(invocations(driver, dataset, data));
+
+        log.info("Running {} over {} rows on {} threads", driver.id, rows, threads);
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).directory(runDirectory).redirectErrorStream(true)
+                .redirectOutput(new File(runDirectory, "run.log")).start();
+        int exitCode = process.waitFor();
+        long processMillis = (System.nanoTime() - start) / 1000000;
+
+        Properties result = new Properties();
+        if (resultFile.isFile()) {
+            InputStream in = new FileInputStream(resultFile);
+            try {
+                result.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        boolean completed = exitCode == 0 && Boolean.parseBoolean(result.getProperty(DriverLauncher.COMPLETED));
+        long wallMillis = Long.parseLong(result.getProperty(DriverLauncher.WALL_MILLIS, "-1"));
+        double rowsPerSecond = wallMillis > 0 ? rows * 1000.0 / wallMillis : 0;
+        results.add(new String[] {driver.id, Integer.toString(rows), Integer.toString(dataset.getDims()),
+            Integer.toString(dataset.getClusters()), Integer.toString(dataset.getClasses()),
+            Integer.toString(threads), Integer.toString(repeat), Integer.toString(exitCode),
+            Boolean.toString(completed),
+            Long.toString(wallMillis), Long.toString(processMillis),
+            result.getProperty(DriverLauncher.PEAK_RSS_KB, "-1"), result.getProperty(DriverLauncher.PEAK_HEAP_KB, "-1"),
+            String.format(Locale.ENGLISH, "%.1f", rowsPerSecond)});
+        writeResults();
+
+        if (!completed) {
+            log.warn("{} failed with exit code {} in {}: {}, see {}", driver.id, exitCode,
+                    result.getProperty(DriverLauncher.FAILED_DRIVER, "the JVM"),
+                    result.getProperty(DriverLauncher.FAILURE, "no result"), new File(runDirectory, "run.log"));
+        } else {
+            log.info(String.format(Locale.ENGLISH, "%s: %d ms, %.0f rows/s", driver.id, wallMillis, rowsPerSecond));
+            if (!keep) {
+                delete(runDirectory);
+            }
+        }
+    }
+
+    /**
+     * @return the DriverLauncher arguments of a run of the driver over the data, relative paths being in the
+     * working directory of the run
+     */
+    private List<String> invocations(Driver driver, SyntheticDataset dataset, File data) {
+        String points = new File(data, SyntheticDataset.POINTS_FILE).getPath();
+        String labeled = new File(data, SyntheticDataset.LABELED_FILE).getPath();
+        String logistic = new File(data, SyntheticDataset.LOGISTIC_FILE).getPath();
+        String k = Integer.toString(dataset.getClusters());
+        String maxIterations = Integer.toString(iterations);
+        // points of a blob are about SPREAD * sqrt(2 * dims) apart
+        double t2 = SyntheticDataset.SPREAD * Math.sqrt(2.0 * dataset.getDims());
+        List<String> args = new ArrayList<String>();
+        switch (driver) {
+            case KMEANS:
+                args.addAll(Arrays.asList("Clustering.Kmeans", "-i", points, "-k", k, "-cd", "0.001",
+                        "-x", maxIterations, "-xm", "parallel"));
+                break;
+            case CANOPY:
+                args.addAll(Arrays.asList("Clustering.Canopy", "-i", points,
+                        "-dm", "org.apache.mahout.common.distance.EuclideanDistanceMeasure",
+                        "-t1", Double.toString(1.5 * t2), "-t2", Double.toString(t2), "-cd", "0.001",
+                        "-x", maxIterations, "-ow", "-xm", "parallel"));
+                break;
+            case FUZZY_KMEANS:
+                args.addAll(Arrays.asList("Clustering.FuzzyKmeans", "-i", points, "-k", k, "-m", "2.0",
+                        "-cd", "0.001", "-x", maxIterations, "-ow", "-xm", "parallel"));
+                break;
+            case RANDOM_FOREST:
+                args.addAll(Arrays.asList("Classification.RadomForest", "describe", "-p", labeled,
+                        "-f", "labeled.info", "-d", Integer.toString(dataset.getDims()), "N", "L"));
+                args.addAll(Arrays.asList(DriverLauncher.SEPARATOR, "Classification.RadomForest", "build",
+                        "-d", labeled, "-ds", "labeled.info", "-o", "model", "-t", Integer.toString(trees),
+                        "-xm", "parallel"));
+                args.addAll(Arrays.asList(DriverLauncher.SEPARATOR, "Classification.RadomForest", "test",
+                        "-i", labeled, "-ds", "labeled.info", "-m", "model/forest.seq", "-o", "prediction",
+                        "-a", "-xm", "parallel"));
+                break;
+            default:
+                args.addAll(Arrays.asList("Classification.LogisticRegression", "train", "-i", logistic,
+                        "-o", "model", "--predictors"));
+                args.addAll(Arrays.asList(dataset.featureNames()));
+                args.addAll(Arrays.asList("--types", "numeric", "--target", SyntheticDataset.TARGET,
+                        "--categories", "2", "--passes", Integer.toString(passes),
+                        "--features", Integer.toString(Math.max(100, 2 * dataset.getDims())), "--rate", "1"));
+                args.addAll(Arrays.asList(DriverLauncher.SEPARATOR, "Classification.LogisticRegression", "test",
+                        "--input", logistic, "--model", "model", "--auc", "--confusion"));
+        }
+        return args;
+    }
+
+    /**
+     * @return whether the JVM of the java.version takes -XX:ActiveProcessorCount: JDK 8u191 or later
+     */
+    static boolean supportsActiveProcessorCount(String javaVersion) {
+        // 1.7.0_80, 1.8.0_191, then 9.0.4, 10, 11.0.2, 17-ea...
+        String[] parts = javaVersion.split("[._\\-+]");
+        int major = number(parts[0]);
+        if (major == 1 && parts.length > 1) {
+            major = number(parts[1]);
+            int update = javaVersion.indexOf('_') > 0 ? number(javaVersion.substring(javaVersion.indexOf('_') + 1))
+                    : 0;
+            return major > 8 || major == 8 && update >= 191;
+        }
+        return major >= 10;
+    }
+
+    /**
+     * @return the number the text starts with, 0 if none
+     */
+    private static int number(String text) {
+        int end = 0;
+        while (end < text.length() && Character.isDigit(text.charAt(end))) {
+            end++;
+        }
+        return end == 0 ? 0 : Integer.parseInt(text.substring(0, end));
+    }
+
+    private void writeResults() throws IOException {
+        PrintWriter csv = new PrintWriter(new OutputStreamWriter(new FileOutputStream(output.getPath() + ".csv"),
+                StandardCharsets.UTF_8));
+        try {
+            csv.println(join(CSV_COLUMNS));
+            for (String[] result : results) {
+                csv.println(join(result));
+            }
+        } finally {
+            csv.close();
+        }
+
+        PrintWriter json = new PrintWriter(new OutputStreamWriter(new FileOutputStream(output.getPath() + ".json"),
+                StandardCharsets.UTF_8));
+        try {
+            json.println("{");
+            json.printf(Locale.ENGLISH, "  \"date\": \"%tFT%<tT%<tz\",%n", new Date());
+            json.printf(Locale.ENGLISH, "  \"javaVersion\": \"%s\",%n", System.getProperty("java.version"));
+            json.printf(Locale.ENGLISH, "  \"availableProcessors\": %d,%n",
+                    Runtime.getRuntime().availableProcessors());
+            json.println("  \"results\": [");
+            for (int i = 0; i < results.size(); i++) {
+                String[] result = results.get(i);
+                StringBuilder object = new StringBuilder("    {");
+                for (int column = 0; column < CSV_COLUMNS.length; column++) {
+                    if (column > 0) {
+                        object.append(", ");
+                    }
+                    object.append('"').append(CSV_COLUMNS[column]).append("\": ");
+                    // the driver is the only text column
+                    if (column == 0) {
+                        object.append('"').append(result[column]).append('"');
+                    } else {
+                        object.append(result[column]);
+                    }
+                }
+                json.println(object.append(i + 1 < results.size() ? "}," : "}"));
+            }
+            json.println("  ]");
+            json.println("}");
+        } finally {
+            json.close();
+        }
+    }
+
+    private static Option option(DefaultOptionBuilder obuilder, String longName, String shortName,
+                                 String defaultValue, String description) {
+        return obuilder.withLongName(longName).withShortName(shortName).withRequired(false)
+                .withArgument(new ArgumentBuilder().withName(longName).withMinimum(1).withMaximum(1)
+                        .withDefault(defaultValue).create())
+                .withDescription(description + ", " + defaultValue + " by default").create();
+    }
+
+    private static int[] ints(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static String join(String[] fields) {
+        StringBuilder line = new StringBuilder();
+        for (String field : fields) {
+            if (line.length() > 0) {
+                line.append(',');
+            }
+            line.append(field);
+        }
+        return line.toString();
+    }
+
+    private static void mkdirs(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+    }
+
+    private static void delete(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Cannot delete " + file);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package Benchmarks;
+
+import Clustering.PointMatrix;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.VectorWritable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sequence files of rows LongWritable, VectorWritable points, as CsvVectorizer writes them and the
+ * clustering drivers read them, on the local file system: the whole file per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SequenceFileBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    private Configuration conf;
+
+    private File directory;
+
+    private PointMatrix points;
+
+    private Path written;
+
+    private Path read;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        conf = new Configuration();
+        directory = Files.createTempDirectory("sequence-files").toFile();
+        points = new SyntheticData(LogisticRegressionBenchmark.SEED).points(rows);
+        written = new Path(directory.getPath(), "written");
+        read = new Path(directory.getPath(), "read");
+        write(read);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileSystem.getLocal(conf).delete(new Path(directory.getPath()), true);
+    }
+
+    @Benchmark
+    public Path write() throws IOException {
+        write(written);
+        return written;
+    }
+
+    @Benchmark
+    public double read() throws IOException {
+        SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(read));
+        LongWritable key = new LongWritable();
+        VectorWritable value = new VectorWritable();
+        double sum = 0;
+        try {
+            while (reader.next(key, value)) {
+                sum += value.get().getQuick(0);
+            }
+        } finally {
+            reader.close();
+        }
+        return sum;
+    }
+
+    private void write(Path path) throws IOException {
+        SequenceFile.Writer writer = SequenceFile.createWriter(conf, SequenceFile.Writer.file(path),
+                SequenceFile.Writer.keyClass(LongWritable.class),
+                SequenceFile.Writer.valueClass(VectorWritable.class));
+        LongWritable key = new LongWritable();
+        VectorWritable value = new VectorWritable();
+        double[] row = new double[points.numCols()];
+        try {
+            for (int i = 0; i < rows; i++) {
+                System.arraycopy(points.values(), points.offset(i), row, 0, row.length);
+                key.set(i);
+                value.set(new DenseVector(row, true));
+                writer.append(key, value);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package Benchmarks;
+
+import Clustering.PointMatrix;
+import com.google.common.base.Charsets;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Synthetic data shaped like the Wisconsin breast cancer inputs: an id, NUM_FEATURES integer features from
+ * 1 to 10 and a class of 2 (benign) or 4 (malignant). Benign rows have mostly low features, malignant rows
+ * spread over the whole range, so the classes stay separable and the clusters meaningful at any size.
+ * The rows are generated from a seed, one at a time, so files of millions of rows are written without
+ * holding them in memory.
+ */
+public final class SyntheticData {
+
+    public static final int NUM_FEATURES = 9;
+
+    public static final String[] FEATURE_NAMES = {"Clump Thickness", "Uniformity of Cell Size",
+            "Uniformity of Cell Shape", "Marginal Adhesion", "Single Epithelial Cell Size", "Bare Nuclei",
+            "Bland Chromatin", "Normal Nucleoli", "Mitoses"};
+
+    public static final String TARGET = "Class";
+
+    /**
+     * Descriptor of the rows for the decision forest DataLoader: the id is ignored, the label last.
+     */
+    public static final String DESCRIPTOR = "I " + NUM_FEATURES + " N L";
+
+    static final double MALIGNANT_FRACTION = 0.35; // as in the original data
+
+    private final Random random;
+
+    public SyntheticData(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Generates the features of the next row into features.
+     *
+     * @return the class of the row, 2 or 4
+     */
+    public int next(int[] features) {
+        boolean malignant = random.nextDouble() < MALIGNANT_FRACTION;
+        for (int f = 0; f < NUM_FEATURES; f++) {
+            features[f] = malignant ? 3 + random.nextInt(8)
+                    : 1 + Math.min(9, (int) (-2 * Math.log(random.nextDouble()))); // exponential, mean 2
+        }
+        return malignant ? 4 : 2;
+    }
+
+    /**
+     * @param withId    start with an id column, as the classification inputs do
+     * @param withClass end with the class column, which the clustering inputs leave out
+     * @return the next row as a CSV line
+     */
+    public String nextLine(boolean withId, boolean withClass) {
+        int[] features = new int[NUM_FEATURES];
+        int label = next(features);
+        StringBuilder line = new StringBuilder(32);
+        if (withId) {
+            line.append(1000000 + random.nextInt(9000000)).append(',');
+        }
+        for (int f = 0; f < NUM_FEATURES; f++) {
+            if (f > 0) {
+                line.append(',');
+            }
+            line.append(features[f]);
+        }
+        if (withClass) {
+            line.append(',').append(label);
+        }
+        return line.toString();
+    }
+
+    public String[] lines(int rows, boolean withId, boolean withClass) {
+        String[] lines = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            lines[i] = nextLine(withId, withClass);
+        }
+        return lines;
+    }
+
+    /**
+     * @return the header of the logistic regression input, quoted as in breastCancer.csv
+     */
+    public static String header() {
+        StringBuilder header = new StringBuilder("\"id\"");
+        for (String name : FEATURE_NAMES) {
+            header.append(",\"").append(name).append('"');
+        }
+        return header.append(",\"").append(TARGET).append('"').toString();
+    }
+
+    /**
+     * Writes rows lines to file, preceded by the header if withHeader.
+     */
+    public void write(File file, int rows, boolean withId, boolean withClass, boolean withHeader)
+            throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8),
+                1 << 16);
+        try {
+            if (withHeader) {
+                writer.write(header());
+                writer.write('\n');
+            }
+            for (int i = 0; i < rows; i++) {
+                writer.write(nextLine(withId, withClass));
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return rows points of the features, as the clustering drivers read them
+     */
+    public PointMatrix points(int rows) {
+        PointMatrix points = new PointMatrix(rows, NUM_FEATURES);
+        int[] features = new int[NUM_FEATURES];
+        for (int row = 0; row < rows; row++) {
+            next(features);
+            for (int f = 0; f < NUM_FEATURES; f++) {
+                points.set(row, f, features[f]);
+            }
+        }
+        return points;
+    }
+}
@@ -0,0 +1,144 @@
+package Benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Labeled synthetic dataset of any size: gaussian blobs of SPREAD standard deviation around clusters centers
+ * drawn uniformly in [-CENTER_RANGE, CENTER_RANGE] along every dimension, the points of cluster c being of
+ * class c % classes. The centers and the points only depend on the seed, so that a size is the same data on
+ * every run. It is written as the three files the drivers read:
+ * <ul>
+ * <li>POINTS_FILE, the features, for the clustering drivers;</li>
+ * <li>LABELED_FILE, the features and the class, for RadomForest;</li>
+ * <li>LOGISTIC_FILE, a header, the features and whether the class is not 0, for LogisticRegression.</li>
+ * </ul>
+ */
+public final class SyntheticDataset {
+
+    public static final String POINTS_FILE = "points.csv";
+
+    public static final String LABELED_FILE = "labeled.csv";
+
+    public static final String LOGISTIC_FILE = "logistic.csv";
+
+    public static final String TARGET = "label";
+
+    static final double CENTER_RANGE = 10;
+
+    static final double SPREAD = 1;
+
+    private static final String COMPLETE_MARKER = ".complete";
+
+    private final int dims;
+
+    private final int clusters;
+
+    private final int classes;
+
+    private final long seed;
+
+    private final double[][] centers;
+
+    public SyntheticDataset(int dims, int clusters, int classes, long seed) {
+        if (dims < 1 || clusters < 1 || classes < 2) {
+            throw new IllegalArgumentException("dims and clusters must be positive, and classes at least 2");
+        }
+        this.dims = dims;
+        this.clusters = clusters;
+        this.classes = classes;
+        this.seed = seed;
+        Random random = new Random(seed);
+        centers = new double[clusters][dims];
+        for (double[] center : centers) {
+            for (int d = 0; d < dims; d++) {
+                center[d] = (2 * random.nextDouble() - 1) * CENTER_RANGE;
+            }
+        }
+    }
+
+    public int getDims() {
+        return dims;
+    }
+
+    public int getClusters() {
+        return clusters;
+    }
+
+    public int getClasses() {
+        return classes;
+    }
+
+    /**
+     * @return the names of the feature columns of LOGISTIC_FILE
+     */
+    public String[] featureNames() {
+        String[] names = new String[dims];
+        for (int d = 0; d < dims; d++) {
+            names[d] = "x" + d;
+        }
+        return names;
+    }
+
+    /**
+     * @return the directory of the files of rows points under parent, written unless a previous call
+     * completed them
+     */
+    public File write(File parent, int rows) throws IOException {
+        File directory = new File(parent, String.format("data-%d-%d-%d-%d-%d", rows, dims, clusters, classes, seed));
+        File marker = new File(directory, COMPLETE_MARKER);
+        if (marker.isFile()) {
+            return directory;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        Writer points = open(new File(directory, POINTS_FILE));
+        Writer labeled = open(new File(directory, LABELED_FILE));
+        Writer logistic = open(new File(directory, LOGISTIC_FILE));
+        try {
+            StringBuilder header = new StringBuilder();
+            for (String name : featureNames()) {
+                header.append('"').append(name).append("\",");
+            }
+            logistic.write(header.append('"').append(TARGET).append("\"\n").toString());
+
+            Random random = new Random(seed + rows);
+            StringBuilder features = new StringBuilder();
+            for (int row = 0; row < rows; row++) {
+                int cluster = random.nextInt(clusters);
+                int label = cluster % classes;
+                features.setLength(0);
+                for (int d = 0; d < dims; d++) {
+                    if (d > 0) {
+                        features.append(',');
+                    }
+                    double value = centers[cluster][d] + random.nextGaussian() * SPREAD;
+                    features.append(Math.round(value * 1e4) / 1e4);
+                }
+                points.append(features).append('\n');
+                labeled.append(features).append(',').append(Integer.toString(label)).append('\n');
+                logistic.append(features).append(',').append(label == 0 ? "0" : "1").append('\n');
+            }
+        } finally {
+            points.close();
+            labeled.close();
+            logistic.close();
+        }
+        if (!marker.createNewFile() && !marker.isFile()) {
+            throw new IOException("Cannot create " + marker);
+        }
+        return directory;
+    }
+
+    private static Writer open(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8),
+                1 << 16);
+    }
+}
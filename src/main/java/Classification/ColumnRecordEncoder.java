@@ -0,0 +1,143 @@
+package Classification;
+
+import Common.ColumnarCache;
+import com.google.common.base.Preconditions;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.vectorizer.encoders.ConstantValueEncoder;
+import org.apache.mahout.vectorizer.encoders.ContinuousValueEncoder;
+import org.apache.mahout.vectorizer.encoders.FeatureVectorEncoder;
+import org.apache.mahout.vectorizer.encoders.StaticWordValueEncoder;
+import org.apache.mahout.vectorizer.encoders.TextValueEncoder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the rows of a ColumnarCache as CsvRecordFactory encodes the lines of the cached CSV file, with
+ * encoders of the same types and names, hence hashing the features to the same positions, but from the
+ * typed columns: the fields of the numeric columns are added as they are stored, with no text parsed, and
+ * the other fields are read from the dictionaries of their columns. The targets are numbered in the order
+ * they are met, after the target categories given, as CsvRecordFactory does.
+ */
+public class ColumnRecordEncoder {
+
+    // as CsvRecordFactory
+    private static final String INTERCEPT_TERM = "Intercept Term";
+
+    private final ColumnarCache cache;
+
+    private final int target; // column of the target
+
+    private final int[] predictors; // columns of the predictors in increasing order, -1 for the intercept term
+
+    private final FeatureVectorEncoder[] encoders;
+
+    private final boolean[] typed; // whether a predictor is added from the number stored in its column
+
+    private final int maxTargetCategories;
+
+    private final List<String> targetCategories = new ArrayList<String>();
+
+    private final Map<String, Integer> targetValues = new HashMap<String, Integer>();
+
+    public ColumnRecordEncoder(String targetVariable, Map<String, String> typeMap, boolean useBias,
+                               int maxTargetCategories, List<String> targetCategories, ColumnarCache cache) {
+        this.cache = cache;
+        this.maxTargetCategories = maxTargetCategories;
+        Map<String, Integer> columns = new HashMap<String, Integer>();
+        for (int column = 0; column < cache.getNumColumns(); column++) {
+            columns.put(cache.getName(column), column);
+        }
+        Integer targetColumn = columns.get(targetVariable);
+        Preconditions.checkArgument(targetColumn != null, "Can't find variable %s, only know about %s",
+                targetVariable, columns.keySet());
+        target = targetColumn;
+
+        List<Integer> predictorList = new ArrayList<Integer>();
+        for (String name : typeMap.keySet()) {
+            Integer column = columns.get(name);
+            Preconditions.checkArgument(column != null, "Can't find variable %s, only know about %s", name,
+                    columns.keySet());
+            predictorList.add(column);
+        }
+        if (useBias) {
+            predictorList.add(-1);
+        }
+        Collections.sort(predictorList);
+        predictors = new int[predictorList.size()];
+        encoders = new FeatureVectorEncoder[predictors.length];
+        typed = new boolean[predictors.length];
+        for (int i = 0; i < predictors.length; i++) {
+            predictors[i] = predictorList.get(i);
+            if (predictors[i] < 0) {
+                encoders[i] = new ConstantValueEncoder(INTERCEPT_TERM);
+            } else {
+                String name = cache.getName(predictors[i]);
+                encoders[i] = encoder(typeMap.get(name), name);
+                typed[i] = encoders[i] instanceof ContinuousValueEncoder
+                        && cache.getType(predictors[i]) != ColumnarCache.ColumnType.CATEGORICAL;
+            }
+        }
+
+        if (targetCategories != null) {
+            for (String category : targetCategories) {
+                targetValue(category);
+            }
+        }
+    }
+
+    /**
+     * @return the encoder of the CsvRecordFactory type of a variable
+     */
+    private static FeatureVectorEncoder encoder(String type, String name) {
+        if ("continuous".equals(type) || "numeric".equals(type) || "n".equals(type)) {
+            return new ContinuousValueEncoder(name);
+        }
+        if ("word".equals(type) || "w".equals(type)) {
+            return new StaticWordValueEncoder(name);
+        }
+        if ("text".equals(type) || "t".equals(type)) {
+            return new TextValueEncoder(name);
+        }
+        throw new IllegalArgumentException("Invalid type of variable " + name + ": " + type);
+    }
+
+    /**
+     * Adds the features of a row to a vector, as CsvRecordFactory.processLine does for its line.
+     *
+     * @return the target of the row
+     */
+    public int encode(int row, Vector featureVector) {
+        for (int i = 0; i < predictors.length; i++) {
+            int column = predictors[i];
+            if (column < 0) {
+                encoders[i].addToVector((String) null, featureVector);
+            } else if (typed[i]) {
+                encoders[i].addToVector((byte[]) null, cache.getDouble(column, row), featureVector);
+            } else {
+                encoders[i].addToVector(cache.getString(column, row), featureVector);
+            }
+        }
+        return Math.min(targetValue(cache.getString(target, row)), maxTargetCategories - 1);
+    }
+
+    /**
+     * @return the target categories met so far, numbered in this order
+     */
+    public List<String> getTargetCategories() {
+        return Collections.unmodifiableList(targetCategories);
+    }
+
+    private int targetValue(String category) {
+        Integer value = targetValues.get(category);
+        if (value == null) {
+            value = targetCategories.size();
+            targetCategories.add(category);
+            targetValues.put(category, value);
+        }
+        return value;
+    }
+}
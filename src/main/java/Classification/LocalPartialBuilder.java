@@ -0,0 +1,275 @@
+package Classification;
+
+import Common.MappedLineRanges;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.classifier.df.Bagging;
+import org.apache.mahout.classifier.df.DecisionForest;
+import org.apache.mahout.classifier.df.builder.DecisionTreeBuilder;
+import org.apache.mahout.classifier.df.data.Data;
+import org.apache.mahout.classifier.df.data.DataConverter;
+import org.apache.mahout.classifier.df.data.Dataset;
+import org.apache.mahout.classifier.df.data.Instance;
+import org.apache.mahout.classifier.df.node.Node;
+import org.apache.mahout.common.RandomUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local counterpart of the Partial Data MapReduce builder. The data file is memory-mapped and cut into
+ * byte ranges aligned on line boundaries; every range grows its share of the trees on its own thread, with
+ * a DecisionTreeBuilder of its own, using only the instances of that range, exactly like a Step1Mapper
+ * would on its split. At most {@code numThreads} partitions are materialized at the same time. Unless set,
+ * the number of partitions is the smallest multiple of numThreads that keeps the instances of numThreads
+ * partitions within HEAP_FRACTION of the maximum heap, so that the heap is bounded by the partition size
+ * rather than by the size of the whole data file. There are never more partitions than trees, so that
+ * every partition grows at least one tree and no instance is left out of the forest.
+ */
+public class LocalPartialBuilder {
+    private static final Logger log = LoggerFactory.getLogger(LocalPartialBuilder.class);
+
+    static final double HEAP_FRACTION = 0.5; // of the maximum heap the partitions being grown may take
+
+    static final int INSTANCE_EXPANSION = 4; // bytes of heap of the instances of a byte of text
+
+    // the parameters of the DecisionTreeBuilder of every partition, null for the defaults
+    private Integer m;
+
+    private boolean complemented = true;
+
+    private Integer minSplitNum;
+
+    private Double minVarianceProportion;
+
+    private final Path dataPath;
+
+    private final Path datasetPath;
+
+    private final Long seed; // Random seed, null to use a random one
+
+    private final Configuration conf;
+
+    private Integer numPartitions; // null to size the partitions from the heap
+
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    private final AtomicLong numInstances = new AtomicLong(); // read by the last build
+
+    public LocalPartialBuilder(Path dataPath, Path datasetPath, Long seed, Configuration conf) {
+        this.dataPath = dataPath;
+        this.datasetPath = datasetPath;
+        this.seed = seed;
+        this.conf = conf;
+    }
+
+    /**
+     * Sets the number of attributes selected at each node, as DecisionTreeBuilder.setM.
+     */
+    public void setM(int m) {
+        this.m = m;
+    }
+
+    public void setComplemented(boolean complemented) {
+        this.complemented = complemented;
+    }
+
+    public void setMinSplitNum(int minSplitNum) {
+        this.minSplitNum = minSplitNum;
+    }
+
+    public void setMinVarianceProportion(double minVarianceProportion) {
+        this.minVarianceProportion = minVarianceProportion;
+    }
+
+    /**
+     * Sets the number of byte-range partitions the data file is divided into.
+     */
+    public void setNumPartitions(int numPartitions) {
+        Preconditions.checkArgument(numPartitions > 0, "numPartitions must be positive");
+        this.numPartitions = numPartitions;
+    }
+
+    /**
+     * Sets the number of partitions grown concurrently.
+     */
+    public void setNumThreads(int numThreads) {
+        Preconditions.checkArgument(numThreads > 0, "numThreads must be positive");
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * @return the number of instances the last build grew its trees on
+     */
+    public long getNumInstances() {
+        return numInstances.get();
+    }
+
+    /**
+     * Grows nbTrees trees over the partitions and merges them into a single forest.
+     *
+     * @return the forest, or null if the data file is empty
+     */
+    public DecisionForest build(int nbTrees) throws IOException, InterruptedException, ExecutionException {
+        Preconditions.checkArgument(nbTrees > 0, "nbTrees must be positive");
+        numInstances.set(0);
+        final Dataset dataset = Dataset.load(conf, datasetPath);
+        File file = new File(dataPath.toUri().getPath());
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("The local partial builder needs a local data file: " + dataPath);
+        }
+
+        FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            int requested = numPartitions != null ? numPartitions
+                    : partitions(file.length(), numThreads, Runtime.getRuntime().maxMemory());
+            if (requested > nbTrees) {
+                // a partition without a tree would leave its instances out of the forest
+                log.warn("{} partitions for {} trees, growing one tree on each of {} larger partitions", requested,
+                        nbTrees, nbTrees);
+                requested = nbTrees;
+            }
+            long[] bounds = MappedLineRanges.split(channel, requested);
+            int partitions = bounds.length - 1;
+            if (partitions == 0) {
+                log.warn("No data in {}", dataPath);
+                return null;
+            }
+            log.info("Growing {} trees over {} partitions with {} threads", nbTrees, partitions, numThreads);
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, partitions));
+            try {
+                List<Future<List<Node>>> futures = Lists.newArrayListWithCapacity(partitions);
+                for (int partition = 0; partition < partitions; partition++) {
+                    final int id = partition;
+                    final long start = bounds[partition];
+                    final long end = bounds[partition + 1];
+                    final int partitionTrees = nbTrees(partitions, nbTrees, partition);
+                    futures.add(executor.submit(new Callable<List<Node>>() {
+                        @Override
+                        public List<Node> call() throws IOException {
+                            return growPartition(channel, dataset, id, start, end, partitionTrees);
+                        }
+                    }));
+                }
+
+                List<Node> trees = Lists.newArrayListWithCapacity(nbTrees);
+                for (Future<List<Node>> future : futures) {
+                    trees.addAll(future.get());
+                }
+                return new DecisionForest(trees);
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            Closeables.close(in, true);
+        }
+    }
+
+    private List<Node> growPartition(FileChannel channel, Dataset dataset, int partition, long start, long end,
+                                     int partitionTrees) throws IOException {
+        List<Node> trees = Lists.newArrayListWithCapacity(partitionTrees);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        DataConverter converter = new DataConverter(dataset);
+        List<Instance> instances = Lists.newArrayList();
+        byte[] line = new byte[256];
+        int length = 0;
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                addInstance(converter, instances, line, length);
+                length = 0;
+            } else {
+                if (length == line.length) {
+                    byte[] grown = new byte[line.length * 2];
+                    System.arraycopy(line, 0, grown, 0, length);
+                    line = grown;
+                }
+                line[length++] = b;
+            }
+        }
+        addInstance(converter, instances, line, length);
+
+        numInstances.addAndGet(instances.size());
+        Data data = new Data(dataset, instances);
+        // a DecisionTreeBuilder keeps the state of the tree it builds, it cannot be shared between partitions
+        Bagging bagging = new Bagging(newTreeBuilder(), data);
+        Random rng = seed == null ? RandomUtils.getRandom() : RandomUtils.getRandom(seed + partition);
+        for (int treeId = 0; treeId < partitionTrees; treeId++) {
+            trees.add(bagging.build(rng));
+        }
+        log.info("Partition {}: {} instances, {} trees", partition, instances.size(), partitionTrees);
+        return trees;
+    }
+
+    private static void addInstance(DataConverter converter, List<Instance> instances, byte[] line, int length) {
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        if (length == 0) {
+            return;
+        }
+        String value = new String(line, 0, length, Charsets.UTF_8);
+        // same filtering as DataLoader: skip the lines with missing values
+        if (value.indexOf('?') >= 0) {
+            return;
+        }
+        instances.add(converter.convert(value));
+    }
+
+    private DecisionTreeBuilder newTreeBuilder() {
+        DecisionTreeBuilder treeBuilder = new DecisionTreeBuilder();
+        if (m != null) {
+            treeBuilder.setM(m);
+        }
+        treeBuilder.setComplemented(complemented);
+        if (minSplitNum != null) {
+            treeBuilder.setMinSplitNum(minSplitNum);
+        }
+        if (minVarianceProportion != null) {
+            treeBuilder.setMinVarianceProportion(minVarianceProportion);
+        }
+        return treeBuilder;
+    }
+
+    /**
+     * @return the smallest multiple of numThreads partitions of a file of length bytes of which numThreads
+     * fit in HEAP_FRACTION of maxMemory
+     */
+    static int partitions(long length, int numThreads, long maxMemory) {
+        long partitionBytes = Math.max(1, (long) (maxMemory * HEAP_FRACTION) / INSTANCE_EXPANSION / numThreads);
+        long partitions = (length + partitionBytes - 1) / partitionBytes;
+        long waves = Math.max(1, (partitions + numThreads - 1) / numThreads);
+        return (int) Math.min(Integer.MAX_VALUE, waves * numThreads);
+    }
+
+    /**
+     * Number of trees grown by the given partition, the remaining trees going to the first partitions.
+     */
+    static int nbTrees(int numPartitions, int numTrees, int partition) {
+        int treesPerPartition = numTrees / numPartitions;
+        int remainingTrees = numTrees % numPartitions;
+        if (partition < remainingTrees) {
+            treesPerPartition++;
+        }
+        return treesPerPartition;
+    }
+}
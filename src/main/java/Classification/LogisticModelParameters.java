@@ -1,5 +1,7 @@
 package Classification;
 
+import Common.ColumnarCache;
+import Common.ModelCache;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -36,16 +38,40 @@ public class LogisticModelParameters implements Writable {
      */
     public CsvRecordFactory getCsvRecordFactory() {
         if (csv == null) {
-            csv = new CsvRecordFactory(getTargetVariable(), getTypeMap())
-                    .maxTargetValue(getMaxTargetCategories())
-                    .includeBiasTerm(useBias());
-            if (targetCategories != null) {
-                csv.defineTargetCategories(targetCategories);
-            }
+            csv = newCsvRecordFactory();
         }
         return csv;
     }
 
+    /**
+     * Returns a new CsvRecordFactory compatible with this logistic model, not kept by the model, for the
+     * threads scoring with a model shared through loadCached, the record factory reading the header of a
+     * file and interning the targets it meets.
+     *
+     * @return The new CsvRecordFactory.
+     */
+    public CsvRecordFactory newCsvRecordFactory() {
+        CsvRecordFactory factory = new CsvRecordFactory(getTargetVariable(), getTypeMap())
+                .maxTargetValue(getMaxTargetCategories())
+                .includeBiasTerm(useBias());
+        if (targetCategories != null) {
+            factory.defineTargetCategories(targetCategories);
+        }
+        return factory;
+    }
+
+    /**
+     * Returns a new ColumnRecordEncoder encoding the rows of a cached CSV file as newCsvRecordFactory
+     * encodes its lines, from the typed columns of the cache.
+     *
+     * @param cache The columns of the CSV file.
+     * @return The new ColumnRecordEncoder.
+     */
+    public ColumnRecordEncoder newColumnRecordEncoder(ColumnarCache cache) {
+        return new ColumnRecordEncoder(getTargetVariable(), getTypeMap(), useBias(), getMaxTargetCategories(),
+                targetCategories, cache);
+    }
+
     /**
      * Creates a logistic regression trainer using the parameters collected here.
      *
@@ -70,6 +96,15 @@ public class LogisticModelParameters implements Writable {
         write(new DataOutputStream(out));
     }
 
+    /**
+     * Records the target categories seen so far so that write captures a model still being trained, as
+     * the state of a checkpoint. Unlike saveTo, the regression is not closed and its training goes on
+     * unchanged.
+     */
+    void prepareCheckpoint() {
+        targetCategories = getCsvRecordFactory().getTargetCategories();
+    }
+
     /**
      * Reads a model from a stream.
      */
@@ -92,6 +127,30 @@ public class LogisticModelParameters implements Writable {
         }
     }
 
+    /**
+     * Returns the model of a file from the process-wide ModelCache, read on the first call and read again
+     * when the file changes. The model is shared: score with createRegression and a newCsvRecordFactory,
+     * but do not train or save it.
+     * @throws IOException If the file is not cached and cannot be read.
+     */
+    public static LogisticModelParameters loadCached(File in) throws IOException {
+        return ModelCache.shared().get(in, LOADER);
+    }
+
+    private static final ModelCache.Loader<LogisticModelParameters> LOADER =
+            new ModelCache.Loader<LogisticModelParameters>() {
+                @Override
+                public LogisticModelParameters load(File file) throws IOException {
+                    return loadFrom(file);
+                }
+
+                @Override
+                public long estimateBytes(LogisticModelParameters model, long fileBytes) {
+                    // the coefficients, a row per category but the first, and the per feature update counts
+                    return Math.max(fileBytes, 8L * model.getNumFeatures() * (model.getMaxTargetCategories() + 1));
+                }
+            };
+
 
     public void write(DataOutput out) throws IOException {
         out.writeUTF(targetVariable);
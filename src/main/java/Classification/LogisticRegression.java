@@ -1,5 +1,11 @@
 package Classification;
 
+import Common.CheckpointStore;
+import Common.ColumnarCache;
+import Common.DriverStatus;
+import Common.ModelCache;
+import Common.StageEvent;
+
 import java.io.*;
 import java.util.*;
 
@@ -14,6 +20,7 @@ import org.apache.commons.cli2.builder.GroupBuilder;
 import org.apache.commons.cli2.commandline.Parser;
 import org.apache.commons.io.Charsets;
 import org.apache.commons.io.FileUtils;
+import org.apache.mahout.classifier.AbstractVectorClassifier;
 import org.apache.mahout.classifier.evaluation.Auc;
 import org.apache.mahout.classifier.sgd.CsvRecordFactory;
 import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
@@ -34,8 +41,27 @@ public class LogisticRegression {
     private String outputFile;
     private int passes;
     private boolean scores;
+    private int checkpointInterval; // passes between two checkpoints, 0 for none
 
+    /**
+     * Trains and tests the model of the sample breastCancer.csv without arguments; otherwise runs the phase
+     * named by the first argument, train, export or test, with the others.
+     */
     public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            LogisticRegression application = new LogisticRegression();
+            String[] phaseArgs = Arrays.copyOfRange(args, 1, args.length);
+            if ("train".equals(args[0])) {
+                application.train(phaseArgs);
+            } else if ("export".equals(args[0])) {
+                application.exportModel(phaseArgs);
+            } else if ("test".equals(args[0])) {
+                application.testModel(phaseArgs);
+            } else {
+                throw new IllegalArgumentException("Unknown phase: " + args[0]);
+            }
+            return;
+        }
         String[] trainArg = new String[] {"-i","ClassificationDir/LogisticRegressionDir/input/breastCancer.csv",
                 "-o", "ClassificationDir/LogisticRegressionDir/model/modelOutput",
                 "--predictors", "Clump Thickness","Uniformity of Cell Size","Uniformity of Cell Shape","Marginal Adhesion"
@@ -103,12 +129,20 @@ public class LogisticRegression {
                 .withDescription("don't include a bias term")
                 .create();
 
+        Option checkpointIntervalOpt = obuilder.withLongName("checkpointInterval")
+                .withArgument(argumentBuilder.withName("passes").withDefault("10").withMaximum(1).create())
+                .withDescription("the number of passes between two checkpoints of the model, 0 for none").create();
+
+        Option resumeOpt = obuilder.withLongName("resume")
+                .withDescription("continue from the latest valid checkpoint of an interrupted training").create();
+
         Option helpOpt = obuilder.withLongName("help").withShortName("h")
                 .withDescription("Print out help").create();
 
         Group group = new GroupBuilder().withOption(helpOpt).withOption(inputFileOpt).withOption(outputFileOpt).withOption(noBiasOpt)
                 .withOption(targetOpt).withOption(targetCategoriesOpt).withOption(predictorsOpt).withOption(typesOpt)
-                .withOption(passesOpt).withOption(lambdaOpt).withOption(rateOpt).withOption(featuresOpt).create();
+                .withOption(passesOpt).withOption(lambdaOpt).withOption(rateOpt).withOption(featuresOpt)
+                .withOption(checkpointIntervalOpt).withOption(resumeOpt).create();
 
         Parser parser = new Parser();
         parser.setGroup(group);
@@ -138,27 +172,65 @@ public class LogisticRegression {
         passes = Integer.parseInt(cmdLine.getValue(passesOpt).toString());
         inputFile = cmdLine.getValue(inputFileOpt).toString();
         outputFile = cmdLine.getValue(outputFileOpt).toString();
-
-        List<String> raw = FileUtils.readLines(new File(inputFile));
-        String header = raw.get(0);
-        List<String> content = raw.subList(1, raw.size());
-        // parse data
-        CsvRecordFactory csv = lmp.getCsvRecordFactory();
-        OnlineLogisticRegression olr = lmp.createRegression();
-        csv.firstLine(header);
-
-        for(int pass = 0; pass < passes; pass++) {
-            for (String line : content) {
-                Vector input = new RandomAccessSparseVector(lmp.getNumFeatures());
-                int targetValue = csv.processLine(line, input);
-                olr.train(targetValue, input);
+        checkpointInterval = Integer.parseInt(cmdLine.getValue(checkpointIntervalOpt).toString());
+        boolean resume = cmdLine.hasOption(resumeOpt);
+
+        // the checkpoints hold the parameters, the regression and its pass counter; they are kept per input and
+        // parameters, so that --resume never continues the training of another model
+        File input = new File(inputFile).getAbsoluteFile();
+        String run = input + "|" + input.length() + "|" + lmp.getTargetVariable() + "|" + predictorList + "|"
+                + typeList + "|" + lmp.getMaxTargetCategories() + "|" + lmp.getNumFeatures() + "|" + lmp.getLambda()
+                + "|" + lmp.getLearningRate() + "|" + lmp.useBias();
+        CheckpointStore checkpoints = new CheckpointStore(
+                CheckpointStore.runDirectory(new File(outputFile + ".checkpoints"), run), checkpointInterval);
+        StageEvent stage = StageEvent.begin("LogisticRegression", "train");
+        try {
+            int completed = 0;
+            if (resume) {
+                LogisticModelParameters restored = new LogisticModelParameters();
+                completed = checkpoints.restore(restored);
+                if (completed > 0) {
+                    log.info("Resuming the training after pass {} of {}", completed, passes);
+                    lmp = restored;
+                }
+            }
+            // parse data
+            CsvRecordFactory csv = lmp.getCsvRecordFactory();
+            OnlineLogisticRegression olr = lmp.createRegression();
+            // the rows are encoded once, every pass training over the same vectors
+            List<Vector> inputs = new ArrayList<Vector>();
+            int[] targets = encode(inputFile, lmp, csv, inputs);
+
+            for(int pass = completed; pass < passes; pass++) {
+                for (int i = 0; i < targets.length; i++) {
+                    olr.train(targets[i], inputs.get(i));
+                }
+                if (pass + 1 < passes && checkpoints.isDue(pass + 1)) {
+                    lmp.prepareCheckpoint();
+                    try {
+                        checkpoints.save(pass + 1, lmp);
+                    } catch (IOException e) {
+                        log.warn("Could not checkpoint pass " + (pass + 1), e);
+                    }
+                }
             }
+            stage.addRows((long) targets.length * (passes - completed));
+            stage.addBytesRead(new File(inputFile).length());
+        } finally {
+            stage.commit();
         }
+
+        stage = StageEvent.begin("LogisticRegression", "save");
         try {
             OutputStream modelOutput = new FileOutputStream(outputFile);
             lmp.saveTo(modelOutput);
+            checkpoints.clear();
+            stage.addBytesWritten(new File(outputFile).length());
         } catch (Exception e){
             log.error("Save to file fail...");
+            DriverStatus.failed(e);
+        } finally {
+            stage.commit();
         }
     }
 
@@ -187,9 +259,13 @@ public class LogisticRegression {
                 .withDescription("where to get a model")
                 .create();
 
+        Option quantized = builder.withLongName("quantized")
+                .withDescription("the model is a quantized model written by export")
+                .create();
+
         Group group = new GroupBuilder().withOption(help).withOption(quiet)
                 .withOption(auc).withOption(scores).withOption(confusion)
-                .withOption(inputFileOption).withOption(modelFileOption)
+                .withOption(inputFileOption).withOption(modelFileOption).withOption(quantized)
                 .create();
 
         Parser parser = new Parser();
@@ -211,34 +287,74 @@ public class LogisticRegression {
         }
 
         Auc collector = new Auc();
-        LogisticModelParameters lmp = LogisticModelParameters.loadFrom(new File(modelFile));
-
-        CsvRecordFactory csv = lmp.getCsvRecordFactory();
-        OnlineLogisticRegression lr = lmp.createRegression();
-        BufferedReader in = open(inputFile);
-        String line = in.readLine();
-        csv.firstLine(line);
-        line = in.readLine();
-        File file = new File("ClassificationDir/LogisticRegressionDir/result.txt");
-        if (!file.exists()) {
-            file.createNewFile();
-        }
-        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream("ClassificationDir/LogisticRegressionDir/result.txt")));
-        System.setOut(out);
-        if (showScores) {
-            System.out.println("\"target\",\"model-output\",\"log-likelihood\"");
-        }
-        while (line != null) {
-            Vector v = new SequentialAccessSparseVector(lmp.getNumFeatures());
-            int target = csv.processLine(line, v);
-
-            double score = lr.classifyScalar(v);
+        StageEvent stage = StageEvent.begin("LogisticRegression", "test");
+        PrintStream out;
+        try {
+            AbstractVectorClassifier lr;
+            CsvRecordFactory csv;
+            ColumnRecordEncoder encoder = null;
+            int numFeatures;
+            ColumnarCache cache = openCache(inputFile);
+            if (cmdLine.hasOption(quantized)) {
+                QuantizedLogisticModel model = QuantizedLogisticModel.loadCached(new File(modelFile));
+                lr = model;
+                csv = model.newCsvRecordFactory();
+                if (cache != null) {
+                    encoder = model.newColumnRecordEncoder(cache);
+                }
+                numFeatures = model.getNumFeatures();
+            } else {
+                LogisticModelParameters lmp = LogisticModelParameters.loadCached(new File(modelFile));
+                lr = lmp.createRegression();
+                csv = lmp.newCsvRecordFactory();
+                if (cache != null) {
+                    encoder = lmp.newColumnRecordEncoder(cache);
+                }
+                numFeatures = lmp.getNumFeatures();
+            }
+            // the rows are encoded from the typed columns of the file when it can be cached, from its lines otherwise
+            BufferedReader in = null;
+            String line = null;
+            if (encoder == null) {
+                in = open(inputFile);
+                csv.firstLine(in.readLine());
+                line = in.readLine();
+            }
+            File file = new File("ClassificationDir/LogisticRegressionDir/result.txt");
+            if (!file.exists()) {
+                file.createNewFile();
+            }
+            out = new PrintStream(new BufferedOutputStream(new FileOutputStream("ClassificationDir/LogisticRegressionDir/result.txt")));
+            System.setOut(out);
             if (showScores) {
-                System.out.printf(Locale.ENGLISH, "%d,%.3f,%.6f%n", target, score, lr.logLikelihood(target, v));
+                System.out.println("\"target\",\"model-output\",\"log-likelihood\"");
             }
-            collector.add(target, score);
-            line = in.readLine();
+            int row = 0;
+            while (encoder != null ? row < cache.getNumRows() : line != null) {
+                Vector v = new SequentialAccessSparseVector(numFeatures);
+                int target;
+                if (encoder != null) {
+                    target = encoder.encode(row++, v);
+                } else {
+                    target = csv.processLine(line, v);
+                    line = in.readLine();
+                }
+
+                double score = lr.classifyScalar(v);
+                if (showScores) {
+                    System.out.printf(Locale.ENGLISH, "%d,%.3f,%.6f%n", target, score, lr.logLikelihood(target, v));
+                }
+                collector.add(target, score);
+                stage.addRows(1);
+            }
+            if (in != null) {
+                in.close();
+            }
+            stage.addBytesRead(new File(inputFile).length());
+        } finally {
+            stage.commit();
         }
+        log.info("Model cache: {}", ModelCache.shared().stats());
 
         if (showAuc) {
             System.out.printf(Locale.ENGLISH, "AUC = %.3f%n", collector.auc());
@@ -255,6 +371,113 @@ public class LogisticRegression {
         System.setOut(System.out);
     }
 
+    /**
+     * Writes the quantized copy of a trained model that test scores with when given --quantized, and
+     * reports how far it scores from the model, over the rows of a CSV file when one is given.
+     */
+    void exportModel(String[] arg) throws Exception {
+        DefaultOptionBuilder builder = new DefaultOptionBuilder();
+
+        Option help = builder.withLongName("help").withDescription("print this list").create();
+
+        ArgumentBuilder argumentBuilder = new ArgumentBuilder();
+        Option modelFileOption = builder.withLongName("model")
+                .withRequired(true)
+                .withArgument(argumentBuilder.withName("model").withMaximum(1).create())
+                .withDescription("where to get the trained model")
+                .create();
+
+        Option outputFileOption = builder.withLongName("output")
+                .withRequired(true)
+                .withArgument(argumentBuilder.withName("output").withMaximum(1).create())
+                .withDescription("where to write the quantized model")
+                .create();
+
+        Option precisionOption = builder.withLongName("precision")
+                .withArgument(argumentBuilder.withName("precision").withDefault("int8").withMaximum(1).create())
+                .withDescription("how to store the coefficients: int8 (default) or float32")
+                .create();
+
+        Option inputFileOption = builder.withLongName("input")
+                .withArgument(argumentBuilder.withName("input").withMaximum(1).create())
+                .withDescription("CSV data, with a header, to measure the accuracy of the quantized model over")
+                .create();
+
+        Group group = new GroupBuilder().withOption(help)
+                .withOption(modelFileOption).withOption(outputFileOption).withOption(precisionOption)
+                .withOption(inputFileOption)
+                .create();
+
+        Parser parser = new Parser();
+        parser.setGroup(group);
+        CommandLine cmdLine = parser.parseAndHelp(arg);
+        if (cmdLine.hasOption("help")) {
+            CommandLineUtil.printHelp(group);
+            return;
+        }
+        LogisticModelParameters lmp = LogisticModelParameters.loadFrom(
+                new File(cmdLine.getValue(modelFileOption).toString()));
+        QuantizedLogisticModel model = QuantizedLogisticModel.quantize(lmp,
+                QuantizedLogisticModel.Precision.fromName(cmdLine.getValue(precisionOption).toString()));
+
+        List<Vector> instances = new ArrayList<Vector>();
+        int[] targets = new int[0];
+        if (cmdLine.hasOption(inputFileOption)) {
+            targets = encode(cmdLine.getValue(inputFileOption).toString(), lmp, lmp.newCsvRecordFactory(), instances);
+        }
+        QuantizedLogisticModel.Accuracy accuracy = QuantizedLogisticModel.compare(lmp.createRegression(), model,
+                instances, targets);
+
+        File outputFile = new File(cmdLine.getValue(outputFileOption).toString());
+        OutputStream out = new FileOutputStream(outputFile);
+        try {
+            model.saveTo(out);
+        } finally {
+            out.close();
+        }
+        log.info("Quantized model written to {}, {} bytes:\n{}", outputFile, outputFile.length(), accuracy);
+    }
+
+    /**
+     * @return the column cache of a CSV file with a header, null when the file can't be cached
+     */
+    static ColumnarCache openCache(String inputFile) throws IOException {
+        File file = new File(inputFile);
+        return file.isFile() ? ColumnarCache.open(file, true) : null;
+    }
+
+    /**
+     * Encodes the rows of a CSV file with a header as csv, the record factory of lmp, encodes them: from the
+     * typed columns of its cache when the file can be cached, the target categories met being then defined
+     * in csv, and by parsing its lines otherwise.
+     *
+     * @return the targets of the rows, whose vectors are added to inputs
+     */
+    static int[] encode(String inputFile, LogisticModelParameters lmp, CsvRecordFactory csv, List<Vector> inputs)
+            throws IOException {
+        ColumnarCache cache = openCache(inputFile);
+        if (cache == null) {
+            List<String> lines = FileUtils.readLines(new File(inputFile));
+            csv.firstLine(lines.get(0));
+            int[] targets = new int[lines.size() - 1];
+            for (int i = 1; i < lines.size(); i++) {
+                Vector input = new RandomAccessSparseVector(lmp.getNumFeatures());
+                targets[i - 1] = csv.processLine(lines.get(i), input);
+                inputs.add(input);
+            }
+            return targets;
+        }
+        ColumnRecordEncoder encoder = lmp.newColumnRecordEncoder(cache);
+        int[] targets = new int[cache.getNumRows()];
+        for (int row = 0; row < targets.length; row++) {
+            Vector input = new RandomAccessSparseVector(lmp.getNumFeatures());
+            targets[row] = encoder.encode(row, input);
+            inputs.add(input);
+        }
+        csv.defineTargetCategories(encoder.getTargetCategories());
+        return targets;
+    }
+
     static BufferedReader open(String inputFile) throws IOException {
         InputStream in;
         try {
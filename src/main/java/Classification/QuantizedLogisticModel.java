@@ -0,0 +1,514 @@
+package Classification;
+
+import Common.ColumnarCache;
+import Common.ModelCache;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+import org.apache.hadoop.io.Writable;
+import org.apache.mahout.classifier.AbstractVectorClassifier;
+import org.apache.mahout.classifier.evaluation.Auc;
+import org.apache.mahout.classifier.sgd.CsvRecordFactory;
+import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.Vector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Inference-only copy of a trained logistic regression, its coefficients stored as floats or as bytes
+ * scaled per category, for scoring with a fraction of the memory traffic of the doubles of
+ * OnlineLogisticRegression. The coefficients are laid out feature by feature, the categories of a feature
+ * side by side, so that scoring a sparse instance reads them in a single pass over its non-zero elements.
+ * It scores as OnlineLogisticRegression does, up to the rounding of the coefficients that compare measures.
+ */
+public class QuantizedLogisticModel extends AbstractVectorClassifier implements Writable {
+
+    static final int MAGIC = 0x514c5247; // "QLRG"
+
+    static final int VERSION = 1;
+
+    /**
+     * How the coefficients are stored.
+     */
+    public enum Precision {
+        FLOAT32, INT8;
+
+        /**
+         * @param name float32 or int8
+         */
+        public static Precision fromName(String name) {
+            String lower = name.toLowerCase(Locale.ENGLISH);
+            if ("float32".equals(lower) || "float".equals(lower)) {
+                return FLOAT32;
+            }
+            if ("int8".equals(lower)) {
+                return INT8;
+            }
+            throw new IllegalArgumentException("Unknown precision: " + name);
+        }
+    }
+
+    private Precision precision;
+
+    // what newCsvRecordFactory needs, as LogisticModelParameters keeps it
+    private String targetVariable;
+    private Map<String, String> typeMap;
+    private boolean useBias;
+    private int maxTargetCategories;
+    private List<String> targetCategories;
+
+    private int numFeatures;
+    private int rows; // the categories but the first, whose score is 0
+
+    private float[] floats; // FLOAT32 coefficients, at feature * rows + row
+    private byte[] bytes; // INT8 coefficients, at feature * rows + row
+    private float[] scales; // INT8 scale of each row
+
+    /**
+     * Quantizes the regression of a trained model.
+     */
+    public static QuantizedLogisticModel quantize(LogisticModelParameters lmp, Precision precision) {
+        OnlineLogisticRegression lr = lmp.createRegression();
+        Matrix beta = lr.getBeta();
+        QuantizedLogisticModel model = new QuantizedLogisticModel();
+        model.precision = precision;
+        model.targetVariable = lmp.getTargetVariable();
+        model.typeMap = lmp.getTypeMap();
+        model.useBias = lmp.useBias();
+        model.maxTargetCategories = lmp.getMaxTargetCategories();
+        model.targetCategories = lmp.getTargetCategories();
+        model.numFeatures = beta.columnSize();
+        model.rows = beta.rowSize();
+        int rows = model.rows;
+        if (precision == Precision.FLOAT32) {
+            model.floats = new float[model.numFeatures * rows];
+            for (int row = 0; row < rows; row++) {
+                for (int feature = 0; feature < model.numFeatures; feature++) {
+                    model.floats[feature * rows + row] = (float) beta.getQuick(row, feature);
+                }
+            }
+        } else {
+            model.bytes = new byte[model.numFeatures * rows];
+            model.scales = new float[rows];
+            for (int row = 0; row < rows; row++) {
+                double max = 0;
+                for (int feature = 0; feature < model.numFeatures; feature++) {
+                    max = Math.max(max, Math.abs(beta.getQuick(row, feature)));
+                }
+                float scale = (float) (max / Byte.MAX_VALUE);
+                model.scales[row] = scale;
+                for (int feature = 0; feature < model.numFeatures; feature++) {
+                    model.bytes[feature * rows + row] = scale == 0 ? 0
+                            : (byte) Math.round(beta.getQuick(row, feature) / scale);
+                }
+            }
+        }
+        return model;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    /**
+     * @return the coefficient of a feature for a category but the first, as it is scored
+     */
+    public double getCoefficient(int row, int feature) {
+        int index = feature * rows + row;
+        return precision == Precision.FLOAT32 ? floats[index] : bytes[index] * scales[row];
+    }
+
+    /**
+     * Returns a new CsvRecordFactory reading the CSV data of the model, as
+     * LogisticModelParameters.newCsvRecordFactory does.
+     *
+     * @return The new CsvRecordFactory.
+     */
+    public CsvRecordFactory newCsvRecordFactory() {
+        CsvRecordFactory factory = new CsvRecordFactory(targetVariable, typeMap)
+                .maxTargetValue(maxTargetCategories)
+                .includeBiasTerm(useBias);
+        if (targetCategories != null) {
+            factory.defineTargetCategories(targetCategories);
+        }
+        return factory;
+    }
+
+    /**
+     * Returns a new ColumnRecordEncoder encoding the rows of a cached CSV file as newCsvRecordFactory
+     * encodes its lines.
+     *
+     * @param cache The columns of the CSV file.
+     * @return The new ColumnRecordEncoder.
+     */
+    public ColumnRecordEncoder newColumnRecordEncoder(ColumnarCache cache) {
+        return new ColumnRecordEncoder(targetVariable, typeMap, useBias, maxTargetCategories, targetCategories, cache);
+    }
+
+    @Override
+    public int numCategories() {
+        return rows + 1;
+    }
+
+    @Override
+    public double classifyScalar(Vector instance) {
+        Preconditions.checkArgument(rows == 1, "Can only call classifyScalar with two categories");
+        double r = classifyScalarNoLink(instance);
+        // as OnlineLogisticRegression.link
+        if (r < 0) {
+            double s = Math.exp(r);
+            return s / (1 + s);
+        }
+        return 1 / (1 + Math.exp(-r));
+    }
+
+    /**
+     * @return the score of the second category before the link function, with two categories
+     */
+    public double classifyScalarNoLink(Vector instance) {
+        checkSize(instance);
+        double sum = 0;
+        if (precision == Precision.FLOAT32) {
+            for (Vector.Element element : instance.nonZeroes()) {
+                sum += floats[element.index() * rows] * element.get();
+            }
+            return sum;
+        }
+        for (Vector.Element element : instance.nonZeroes()) {
+            sum += bytes[element.index() * rows] * element.get();
+        }
+        return sum * scales[0];
+    }
+
+    @Override
+    public Vector classifyNoLink(Vector instance) {
+        return new DenseVector(sums(instance), true);
+    }
+
+    @Override
+    public Vector classify(Vector instance) {
+        // as OnlineLogisticRegression.link, the first category scoring 0
+        double[] sums = sums(instance);
+        double max = 0;
+        for (double sum : sums) {
+            max = Math.max(max, sum);
+        }
+        double total = Math.exp(-max);
+        for (int row = 0; row < rows; row++) {
+            sums[row] = Math.exp(sums[row] - max);
+            total += sums[row];
+        }
+        for (int row = 0; row < rows; row++) {
+            sums[row] /= total;
+        }
+        return new DenseVector(sums, true);
+    }
+
+    /**
+     * @return the scores of the categories but the first before the link function
+     */
+    private double[] sums(Vector instance) {
+        checkSize(instance);
+        double[] sums = new double[rows];
+        if (precision == Precision.FLOAT32) {
+            for (Vector.Element element : instance.nonZeroes()) {
+                int base = element.index() * rows;
+                double value = element.get();
+                for (int row = 0; row < rows; row++) {
+                    sums[row] += floats[base + row] * value;
+                }
+            }
+        } else {
+            for (Vector.Element element : instance.nonZeroes()) {
+                int base = element.index() * rows;
+                double value = element.get();
+                for (int row = 0; row < rows; row++) {
+                    sums[row] += bytes[base + row] * value;
+                }
+            }
+            for (int row = 0; row < rows; row++) {
+                sums[row] *= scales[row];
+            }
+        }
+        return sums;
+    }
+
+    private void checkSize(Vector instance) {
+        Preconditions.checkArgument(instance.size() == numFeatures, "Expected %s features, got %s", numFeatures,
+                instance.size());
+    }
+
+    /**
+     * Saves a model to an output stream.
+     */
+    public void saveTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        write(data);
+        data.flush();
+    }
+
+    /**
+     * Reads a model from a file.
+     * @throws IOException If there is an error opening or closing the file, or it is not such a model.
+     */
+    public static QuantizedLogisticModel loadFrom(File in) throws IOException {
+        InputStream input = new BufferedInputStream(new FileInputStream(in));
+        try {
+            QuantizedLogisticModel model = new QuantizedLogisticModel();
+            model.readFields(new DataInputStream(input));
+            return model;
+        } finally {
+            Closeables.close(input, true);
+        }
+    }
+
+    /**
+     * Returns the model of a file from the process-wide ModelCache, as LogisticModelParameters.loadCached.
+     * @throws IOException If the file is not cached and cannot be read.
+     */
+    public static QuantizedLogisticModel loadCached(File in) throws IOException {
+        return ModelCache.shared().get(in, LOADER);
+    }
+
+    private static final ModelCache.Loader<QuantizedLogisticModel> LOADER =
+            new ModelCache.Loader<QuantizedLogisticModel>() {
+                @Override
+                public QuantizedLogisticModel load(File file) throws IOException {
+                    return loadFrom(file);
+                }
+            };
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(precision.ordinal());
+        out.writeUTF(targetVariable);
+        out.writeInt(typeMap.size());
+        for (Map.Entry<String, String> entry : typeMap.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+        out.writeBoolean(useBias);
+        out.writeInt(maxTargetCategories);
+        if (targetCategories == null) {
+            out.writeInt(0);
+        } else {
+            out.writeInt(targetCategories.size());
+            for (String category : targetCategories) {
+                out.writeUTF(category);
+            }
+        }
+        out.writeInt(numFeatures);
+        out.writeInt(rows);
+        if (precision == Precision.FLOAT32) {
+            for (float coefficient : floats) {
+                out.writeFloat(coefficient);
+            }
+        } else {
+            for (float scale : scales) {
+                out.writeFloat(scale);
+            }
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a quantized logistic model");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported quantized logistic model version " + version);
+        }
+        precision = Precision.values()[in.readInt()];
+        targetVariable = in.readUTF();
+        int typeMapSize = in.readInt();
+        typeMap = Maps.newHashMapWithExpectedSize(typeMapSize);
+        for (int i = 0; i < typeMapSize; i++) {
+            String key = in.readUTF();
+            String value = in.readUTF();
+            typeMap.put(key, value);
+        }
+        useBias = in.readBoolean();
+        maxTargetCategories = in.readInt();
+        int targetCategoriesSize = in.readInt();
+        targetCategories = Lists.newArrayListWithCapacity(targetCategoriesSize);
+        for (int i = 0; i < targetCategoriesSize; i++) {
+            targetCategories.add(in.readUTF());
+        }
+        numFeatures = in.readInt();
+        rows = in.readInt();
+        if (precision == Precision.FLOAT32) {
+            floats = new float[numFeatures * rows];
+            for (int i = 0; i < floats.length; i++) {
+                floats[i] = in.readFloat();
+            }
+            bytes = null;
+            scales = null;
+        } else {
+            scales = new float[rows];
+            for (int row = 0; row < rows; row++) {
+                scales[row] = in.readFloat();
+            }
+            bytes = new byte[numFeatures * rows];
+            in.readFully(bytes);
+            floats = null;
+        }
+    }
+
+    /**
+     * Measures how far a quantized model scores from the regression it was quantized from: the error of its
+     * coefficients and, over encoded instances, of its scores and its decisions.
+     */
+    public static Accuracy compare(OnlineLogisticRegression reference, QuantizedLogisticModel model,
+                                   List<Vector> instances, int[] targets) {
+        Matrix beta = reference.getBeta();
+        double squaredError = 0;
+        double squaredNorm = 0;
+        double maxCoefficientError = 0;
+        for (int row = 0; row < beta.rowSize(); row++) {
+            for (int feature = 0; feature < beta.columnSize(); feature++) {
+                double coefficient = beta.getQuick(row, feature);
+                double error = Math.abs(model.getCoefficient(row, feature) - coefficient);
+                squaredError += error * error;
+                squaredNorm += coefficient * coefficient;
+                maxCoefficientError = Math.max(maxCoefficientError, error);
+            }
+        }
+
+        double coefficientError = squaredNorm == 0 ? 0 : Math.sqrt(squaredError / squaredNorm);
+        Accuracy accuracy = new Accuracy(model.precision, coefficientError, maxCoefficientError);
+        boolean binary = model.numCategories() == 2;
+        Auc referenceAuc = new Auc();
+        Auc quantizedAuc = new Auc();
+        for (int i = 0; i < instances.size(); i++) {
+            Vector instance = instances.get(i);
+            Vector expected = reference.classifyFull(instance);
+            Vector actual = model.classifyFull(instance);
+            accuracy.rows++;
+            if (expected.maxValueIndex() == actual.maxValueIndex()) {
+                accuracy.agreements++;
+            }
+            for (int category = 0; category < expected.size(); category++) {
+                double error = Math.abs(actual.getQuick(category) - expected.getQuick(category));
+                accuracy.scoreErrorSum += error;
+                accuracy.scores++;
+                accuracy.maxScoreError = Math.max(accuracy.maxScoreError, error);
+            }
+            if (binary) {
+                referenceAuc.add(targets[i], expected.getQuick(1));
+                quantizedAuc.add(targets[i], actual.getQuick(1));
+            }
+        }
+        if (binary && accuracy.rows > 0) {
+            accuracy.referenceAuc = referenceAuc.auc();
+            accuracy.quantizedAuc = quantizedAuc.auc();
+        }
+        return accuracy;
+    }
+
+    /**
+     * Result of compare.
+     */
+    public static final class Accuracy {
+        private final Precision precision;
+        private final double coefficientError;
+        private final double maxCoefficientError;
+        private int rows;
+        private int agreements;
+        private double scoreErrorSum;
+        private long scores;
+        private double maxScoreError;
+        private double referenceAuc = Double.NaN;
+        private double quantizedAuc = Double.NaN;
+
+        Accuracy(Precision precision, double coefficientError, double maxCoefficientError) {
+            this.precision = precision;
+            this.coefficientError = coefficientError;
+            this.maxCoefficientError = maxCoefficientError;
+        }
+
+        /**
+         * @return the norm of the error of the coefficients relative to the norm of the coefficients
+         */
+        public double getCoefficientError() {
+            return coefficientError;
+        }
+
+        public double getMaxCoefficientError() {
+            return maxCoefficientError;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        /**
+         * @return the fraction of the instances classified in the same category, 1 without instances
+         */
+        public double getAgreement() {
+            return rows == 0 ? 1 : (double) agreements / rows;
+        }
+
+        /**
+         * @return the largest error of the probability of a category
+         */
+        public double getMaxScoreError() {
+            return maxScoreError;
+        }
+
+        public double getMeanScoreError() {
+            return scores == 0 ? 0 : scoreErrorSum / scores;
+        }
+
+        /**
+         * @return the AUC of the reference and of the quantized model, NaN unless there are two categories
+         */
+        public double getReferenceAuc() {
+            return referenceAuc;
+        }
+
+        public double getQuantizedAuc() {
+            return quantizedAuc;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format(Locale.ENGLISH, "%s coefficients: relative error %.3g, max error %.3g%n",
+                    precision, coefficientError, maxCoefficientError));
+            if (rows > 0) {
+                report.append(String.format(Locale.ENGLISH,
+                        "over %d rows: same category %.4f, score error mean %.3g max %.3g%n",
+                        rows, getAgreement(), getMeanScoreError(), maxScoreError));
+            }
+            if (!Double.isNaN(referenceAuc)) {
+                report.append(String.format(Locale.ENGLISH, "AUC = %.4f, %.4f before quantization%n",
+                        quantizedAuc, referenceAuc));
+            }
+            return report.toString();
+        }
+    }
+}
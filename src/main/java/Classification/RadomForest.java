@@ -1,6 +1,10 @@
 package Classification;
 
-
+import Common.ColumnarCache;
+import Common.DriverStatus;
+import Common.ExecutionPlanner;
+import Common.ModelCache;
+import Common.StageEvent;
 import org.apache.commons.cli2.CommandLine;
 import org.apache.commons.cli2.Group;
 import org.apache.commons.cli2.Option;
@@ -17,22 +21,33 @@ import org.apache.mahout.classifier.ResultAnalyzer;
 import org.apache.mahout.classifier.df.DFUtils;
 import org.apache.mahout.classifier.df.DecisionForest;
 import org.apache.mahout.classifier.df.builder.DecisionTreeBuilder;
+import org.apache.mahout.classifier.df.data.Data;
+import org.apache.mahout.classifier.df.data.DataConverter;
+import org.apache.mahout.classifier.df.data.DataLoader;
 import org.apache.mahout.classifier.df.data.Dataset;
 import org.apache.mahout.classifier.df.data.DescriptorException;
+import org.apache.mahout.classifier.df.data.Instance;
 import org.apache.mahout.classifier.df.mapreduce.Builder;
 import org.apache.mahout.classifier.df.mapreduce.Classifier;
 import org.apache.mahout.classifier.df.mapreduce.inmem.InMemBuilder;
 import org.apache.mahout.classifier.df.mapreduce.partial.PartialBuilder;
+import org.apache.mahout.classifier.df.ref.SequentialBuilder;
 import org.apache.mahout.classifier.df.tools.Describe;
 import org.apache.mahout.classifier.evaluation.Auc;
 import org.apache.mahout.common.CommandLineUtil;
 import org.apache.mahout.common.HadoopUtil;
+import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.common.commandline.DefaultOptionCreator;
+import org.apache.mahout.math.DenseVector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class RadomForest {
     private static final Logger log = LoggerFactory.getLogger(RadomForest.class);
@@ -61,9 +76,15 @@ public class RadomForest {
 
     private boolean isPartial; // use partial data implementation
 
+    private boolean isLocal; // grow the partial forest on local threads instead of a mapreduce job
+
+    private Integer numPartitions; // number of partitions for the local partial implementation
+
+    private Integer numThreads; // number of partitions grown concurrently by the local partial implementation
+
     private boolean analyze; // analyze the classification results ?
 
-    private boolean useMapreduce; // use the mapreduce classifier ?
+    private ExecutionPlanner.Mode execution; // how the forest is built or tested, null to choose from the data size
 
     private Path modelPath; // path where the forest is stored
 
@@ -71,7 +92,25 @@ public class RadomForest {
 
 
 
+    /**
+     * Describes, builds and tests the forest of the sample breastCancer.csv without arguments; otherwise runs
+     * the phase named by the first argument, describe, build or test, with the others.
+     */
     public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            RadomForest application = new RadomForest();
+            String[] phaseArgs = Arrays.copyOfRange(args, 1, args.length);
+            if ("describe".equals(args[0])) {
+                application.describeForest(phaseArgs);
+            } else if ("build".equals(args[0])) {
+                application.buildForest(phaseArgs);
+            } else if ("test".equals(args[0])) {
+                application.testForest(phaseArgs);
+            } else {
+                throw new IllegalArgumentException("Unknown phase: " + args[0]);
+            }
+            return;
+        }
         String[] describeArgs = new String[] {"-p","ClassificationDir/RandomForestDir/input/breastCancer.csv",
                 "-f", "ClassificationDir/RandomForestDir/input/breastCancer.info", "-d", "I","9","N","L"};
 
@@ -92,15 +131,24 @@ public class RadomForest {
         }
         catch (final Exception e) {
             log.error("Classification.RandomForest failed", e);
+            DriverStatus.failed(e);
         }
     }
 
     private void describeForest(String[] args) throws IOException, DescriptorException {
-        HadoopUtil.delete(new Configuration(), new Path(args[Arrays.asList(args).indexOf("-f")+1]));
+        Configuration conf = new Configuration();
+        Path descriptor = new Path(args[Arrays.asList(args).indexOf("-f")+1]);
+        HadoopUtil.delete(conf, descriptor);
+        StageEvent stage = StageEvent.begin("RadomForest", "describe");
         try {
             Describe.main(args);
+            stage.addBytesRead(conf, new Path(args[Arrays.asList(args).indexOf("-p")+1]));
+            stage.addBytesWritten(conf, descriptor);
         } catch (Exception e) {
             log.error("Exception", e);
+            DriverStatus.failed(e);
+        } finally {
+            stage.commit();
         }
     }
 
@@ -147,6 +195,28 @@ public class RadomForest {
         Option partialOpt = obuilder.withLongName("partial").withShortName("p").withRequired(false)
                 .withDescription("Optional, use the Partial Data implementation").create();
 
+        Option localOpt = obuilder.withLongName("local").withShortName("l").withRequired(false)
+                .withDescription("Optional, with -p grow the partitions on local threads over a memory-mapped "
+                        + "data file instead of running a MapReduce job").create();
+
+        Option partitionsOpt = obuilder.withLongName("partitions").withShortName("np").withRequired(false)
+                .withArgument(abuilder.withName("partitions").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, number of partitions used by the local partial implementation.\n"
+                        + "The default is the smallest multiple of the threads whose partitions fit in half the "
+                        + "heap.").create();
+
+        Option threadsOpt = obuilder.withLongName("threads").withShortName("th").withRequired(false)
+                .withArgument(abuilder.withName("threads").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, number of partitions grown concurrently by the local partial "
+                        + "implementation.\nThe default is the number of available processors.").create();
+
+        Option executionOpt = obuilder.withLongName("execution").withShortName("xm").withRequired(false)
+                .withArgument(abuilder.withName("execution").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, how the forest is grown: sequential (in-process, one thread), parallel "
+                        + "(local partial implementation), mapreduce (InMem, or Partial with -p) or auto, chosen "
+                        + "from the size of the data, the cores and the free heap.\nThe default is auto, -p "
+                        + "forces mapreduce and -p -l parallel.").create();
+
         Option nbtreesOpt = obuilder.withLongName("nbtrees").withShortName("t").withRequired(true)
                 .withArgument(abuilder.withName("nbtrees").withMinimum(1).withMaximum(1).create())
                 .withDescription("Number of trees to grow").create();
@@ -160,7 +230,8 @@ public class RadomForest {
 
         Group group = gbuilder.withName("Options").withOption(dataOpt).withOption(datasetOpt)
                 .withOption(selectionOpt).withOption(noCompleteOpt).withOption(minSplitOpt)
-                .withOption(minPropOpt).withOption(seedOpt).withOption(partialOpt).withOption(nbtreesOpt)
+                .withOption(minPropOpt).withOption(seedOpt).withOption(partialOpt).withOption(localOpt)
+                .withOption(partitionsOpt).withOption(threadsOpt).withOption(executionOpt).withOption(nbtreesOpt)
                 .withOption(outputOpt).withOption(helpOpt).create();
 
         Parser parser = new Parser();
@@ -172,6 +243,26 @@ public class RadomForest {
         }
 
         isPartial = cmdLine.hasOption(partialOpt);
+        isLocal = cmdLine.hasOption(localOpt);
+        execution = null;
+        if (isPartial && isLocal) {
+            execution = ExecutionPlanner.Mode.PARALLEL;
+        } else if (cmdLine.hasOption(executionOpt)) {
+            execution = ExecutionPlanner.Mode.fromName(cmdLine.getValue(executionOpt).toString());
+            if (isPartial && execution != ExecutionPlanner.Mode.MAPREDUCE) {
+                log.warn("-p only applies to the MapReduce implementation, ignored with -xm {}",
+                        cmdLine.getValue(executionOpt));
+            }
+        } else if (isPartial) {
+            // the Partial Data implementation only exists as MapReduce, or locally with -l
+            execution = ExecutionPlanner.Mode.MAPREDUCE;
+        }
+        if (cmdLine.hasOption(partitionsOpt)) {
+            numPartitions = Integer.parseInt(cmdLine.getValue(partitionsOpt).toString());
+        }
+        if (cmdLine.hasOption(threadsOpt)) {
+            numThreads = Integer.parseInt(cmdLine.getValue(threadsOpt).toString());
+        }
         String dataName = cmdLine.getValue(dataOpt).toString();
         String datasetName = cmdLine.getValue(datasetOpt).toString();
         String outputName = cmdLine.getValue(outputOpt).toString();
@@ -211,36 +302,74 @@ public class RadomForest {
         if (minVarianceProportion != null) {
             treeBuilder.setMinVarianceProportion(minVarianceProportion);
         }
-        Builder forestBuilder;
-        if (isPartial) {
-            log.info("Partial Mapred implementation");
-            forestBuilder = new PartialBuilder(treeBuilder, dataPath, datasetPath, seed, configuration);
-        } else {
-            log.info("InMem Mapred implementation");
-            forestBuilder = new InMemBuilder(treeBuilder, dataPath, datasetPath, seed, configuration);
-        }
-
-        forestBuilder.setOutputDirName(outputPath.getName());
-
         log.info("Building the forest...");
         long time = System.currentTimeMillis();
 
-        DecisionForest forest = forestBuilder.build(nbTrees);
+        StageEvent stage = StageEvent.begin("RadomForest", "build");
+        try {
+            ExecutionPlanner.Plan plan = plan("random forest", configuration, dataPath);
+            DecisionForest forest;
+            if (plan.getMode() == ExecutionPlanner.Mode.SEQUENTIAL) {
+                log.info("Sequential implementation");
+                Dataset dataset = Dataset.load(configuration, datasetPath);
+                List<Instance> instances = cachedInstances(configuration, dataset, dataPath);
+                Data data = instances != null ? new Data(dataset, instances)
+                        : DataLoader.loadData(dataset, dataPath.getFileSystem(configuration), dataPath);
+                Random rng = seed == null ? RandomUtils.getRandom() : RandomUtils.getRandom(seed);
+                forest = new SequentialBuilder(rng, treeBuilder, data).build(nbTrees);
+                stage.addRows(data.size());
+            } else if (plan.getMode() == ExecutionPlanner.Mode.PARALLEL) {
+                log.info("Partial local implementation");
+                LocalPartialBuilder localBuilder = new LocalPartialBuilder(dataPath, datasetPath, seed, configuration);
+                if (m != null) {
+                    localBuilder.setM(m);
+                }
+                localBuilder.setComplemented(complemented);
+                if (minSplitNum != null) {
+                    localBuilder.setMinSplitNum(minSplitNum);
+                }
+                if (minVarianceProportion != null) {
+                    localBuilder.setMinVarianceProportion(minVarianceProportion);
+                }
+                if (numPartitions != null) {
+                    localBuilder.setNumPartitions(numPartitions);
+                }
+                localBuilder.setNumThreads(numThreads != null ? numThreads : plan.getNumThreads());
+                forest = localBuilder.build(nbTrees);
+                stage.addRows(localBuilder.getNumInstances());
+            } else {
+                Builder forestBuilder;
+                if (isPartial) {
+                    log.info("Partial Mapred implementation");
+                    forestBuilder = new PartialBuilder(treeBuilder, dataPath, datasetPath, seed, configuration);
+                } else {
+                    log.info("InMem Mapred implementation");
+                    forestBuilder = new InMemBuilder(treeBuilder, dataPath, datasetPath, seed, configuration);
+                }
 
-        if (forest == null) {
-            return;
-        }
+                forestBuilder.setOutputDirName(outputPath.getName());
+                forest = forestBuilder.build(nbTrees);
+            }
 
-        time = System.currentTimeMillis() - time;
-        log.info("Build Time: {}", DFUtils.elapsedTime(time));
-        log.info("Forest num Nodes: {}", forest.nbNodes());
-        log.info("Forest mean num Nodes: {}", forest.meanNbNodes());
-        log.info("Forest mean max Depth: {}", forest.meanMaxDepth());
+            if (forest == null) {
+                return;
+            }
 
-        // store the decision forest in the output path
-        Path forestPath = new Path(outputPath, "forest.seq");
-        log.info("Storing the forest in: {}", forestPath);
-        DFUtils.storeWritable(configuration, forestPath, forest);
+            time = System.currentTimeMillis() - time;
+            log.info("Build Time: {}", DFUtils.elapsedTime(time));
+            log.info("Forest num Nodes: {}", forest.nbNodes());
+            log.info("Forest mean num Nodes: {}", forest.meanNbNodes());
+            log.info("Forest mean max Depth: {}", forest.meanMaxDepth());
+
+            // store the decision forest in the output path
+            Path forestPath = new Path(outputPath, "forest.seq");
+            log.info("Storing the forest in: {}", forestPath);
+            DFUtils.storeWritable(configuration, forestPath, forest);
+            stage.addBytesRead(configuration, dataPath);
+            stage.addBytesWritten(configuration, forestPath);
+        } finally {
+            stage.commit();
+        }
 
     }
 
@@ -265,12 +394,20 @@ public class RadomForest {
 
         Option analyzeOpt = obuilder.withLongName("analyze").withShortName("a").withRequired(false).create();
 
-        Option mrOpt = obuilder.withLongName("mapreduce").withShortName("mr").withRequired(false).create();
+        Option mrOpt = obuilder.withLongName("mapreduce").withShortName("mr").withRequired(false)
+                .withDescription("Optional, classify with a MapReduce job, as -xm mapreduce").create();
+
+        Option executionOpt = obuilder.withLongName("execution").withShortName("xm").withRequired(false)
+                .withArgument(abuilder.withName("execution").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, how the data is classified: sequential (in-process, one thread), "
+                        + "parallel (in-process, on multiple threads), mapreduce or auto, chosen from the size of "
+                        + "the data, the cores and the free heap.\nThe default is auto.").create();
 
         Option helpOpt = DefaultOptionCreator.helpOption();
 
         Group group = gbuilder.withName("Options").withOption(inputOpt).withOption(datasetOpt).withOption(modelOpt)
-                .withOption(outputOpt).withOption(analyzeOpt).withOption(mrOpt).withOption(helpOpt).create();
+                .withOption(outputOpt).withOption(analyzeOpt).withOption(mrOpt).withOption(executionOpt)
+                .withOption(helpOpt).create();
 
         Parser parser = new Parser();
         parser.setGroup(group);
@@ -286,7 +423,12 @@ public class RadomForest {
         String modelName = cmdLine.getValue(modelOpt).toString();
         String outputName = cmdLine.hasOption(outputOpt) ? cmdLine.getValue(outputOpt).toString() : null;
         analyze = cmdLine.hasOption(analyzeOpt);
-        useMapreduce = true;
+        execution = null;
+        if (cmdLine.hasOption(mrOpt)) {
+            execution = ExecutionPlanner.Mode.MAPREDUCE;
+        } else if (cmdLine.hasOption(executionOpt)) {
+            execution = ExecutionPlanner.Mode.fromName(cmdLine.getValue(executionOpt).toString());
+        }
 
         dataPath = new Path(dataName);
         datasetPath = new Path(datasetName);
@@ -314,15 +456,86 @@ public class RadomForest {
         if (!dataFS.exists(dataPath)) {
             throw new IllegalArgumentException("The Test data path does not exist");
         }
-        if (useMapreduce) {
-            mapreduce(configuration);
+        ExecutionPlanner.Plan plan = plan("random forest test", configuration, dataPath);
+        double[][] results;
+        StageEvent stage = StageEvent.begin("RadomForest", "classify");
+        try {
+            if (plan.getMode() == ExecutionPlanner.Mode.MAPREDUCE) {
+                results = mapreduce(configuration);
+            } else {
+                results = inProcess(configuration, plan.getNumThreads());
+            }
+            stage.addRows(results != null ? results.length : 0);
+            stage.addBytesRead(configuration, dataPath);
+            stage.addBytesWritten(configuration, outputPath);
+        } finally {
+            stage.commit();
+        }
+        if (analyze) {
+            analyze(configuration, results);
         }
 
         Auc collector = new Auc();
 
     }
 
-    private void mapreduce(Configuration conf) throws ClassNotFoundException, IOException, InterruptedException {
+    /**
+     * Plans a job over the data file: its rows are the lines of the file and its dimensions the attributes
+     * of the dataset. Data that is not on the local file system is left to MapReduce.
+     */
+    private ExecutionPlanner.Plan plan(String job, Configuration conf, Path data) throws IOException {
+        ExecutionPlanner planner = new ExecutionPlanner();
+        FileSystem fs = data.getFileSystem(conf);
+        if (!"file".equals(fs.getUri().getScheme()) || fs.getFileStatus(data).isDirectory()) {
+            return planner.plan(job, fs.getContentSummary(data).getLength() / 8, 1,
+                    execution != null ? execution : ExecutionPlanner.Mode.MAPREDUCE);
+        }
+        int dims = Dataset.load(conf, datasetPath).nbAttributes();
+        return planner.plan(job, new File(data.toUri().getPath()), dims, execution);
+    }
+
+    /**
+     * @return the forest of the model path, from the process-wide ModelCache when it is on the local file system
+     */
+    private DecisionForest loadForest(Configuration conf) throws IOException {
+        FileSystem fs = modelPath.getFileSystem(conf);
+        if (!"file".equals(fs.getUri().getScheme())) {
+            return DecisionForest.load(conf, modelPath);
+        }
+        DecisionForest forest = ModelCache.shared().get(new File(modelPath.toUri().getPath()), new ForestLoader(conf));
+        log.info("Model cache: {}", ModelCache.shared().stats());
+        return forest;
+    }
+
+    /**
+     * Loads the forests of ModelCache, from a file or the directory of the files of the trees.
+     */
+    private static final class ForestLoader extends ModelCache.Loader<DecisionForest> {
+
+        // rough heap size of the nodes of a tree per byte of it serialized
+        private static final int EXPANSION = 4;
+
+        private final Configuration conf;
+
+        ForestLoader(Configuration conf) {
+            this.conf = conf;
+        }
+
+        @Override
+        public DecisionForest load(File file) throws IOException {
+            return DecisionForest.load(conf, new Path(file.toURI()));
+        }
+
+        @Override
+        public long estimateBytes(DecisionForest forest, long fileBytes) {
+            return EXPANSION * fileBytes;
+        }
+    }
+
+    /**
+     * @return the actual and predicted labels
+     */
+    private double[][] mapreduce(Configuration conf) throws ClassNotFoundException, IOException, InterruptedException {
         if (outputPath == null) {
             throw new IllegalArgumentException("You must specify the ouputPath when using the mapreduce implementation");
         }
@@ -330,34 +543,190 @@ public class RadomForest {
         Classifier classifier = new Classifier(modelPath, dataPath, datasetPath, outputPath, conf);
 
         classifier.run();
+        return classifier.getResults();
+    }
 
-        if (analyze) {
-            File file = new File(BASE_PATH+"result.txt");
-            if (!file.exists()) {
-                file.createNewFile();
+    /**
+     * Classifies the lines of the data file in this process, split in contiguous chunks over numThreads
+     * threads, and writes the predictions to a file named after the data in the output path, as the
+     * MapReduce classifier does.
+     *
+     * @return the actual and predicted labels
+     */
+    private double[][] inProcess(Configuration conf, int numThreads) throws Exception {
+        final Dataset dataset = Dataset.load(conf, datasetPath);
+        final DecisionForest forest = loadForest(conf);
+        final List<Instance> instances = cachedInstances(conf, dataset, dataPath);
+        final List<String> lines = new ArrayList<String>();
+        if (instances == null) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(dataFS.open(dataPath), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        lines.add(line);
+                    }
+                }
+            } finally {
+                reader.close();
             }
-            FileWriter fileWriter = new FileWriter(file.getAbsoluteFile());
-            BufferedWriter bufferedWriter = new BufferedWriter(fileWriter);
-            double[][] results = classifier.getResults();
-            if (results != null) {
-                Dataset dataset = Dataset.load(conf, datasetPath);
-                if (dataset.isNumerical(dataset.getLabelId())) {
-                    RegressionResultAnalyzer regressionAnalyzer = new RegressionResultAnalyzer();
-                    regressionAnalyzer.setInstances(results);
-                    bufferedWriter.write(regressionAnalyzer.toString());
-                    log.info("{}", regressionAnalyzer);
-                } else {
-                    ResultAnalyzer analyzer = new ResultAnalyzer(Arrays.asList(dataset.labels()), "unknown");
-                    for (double[] res : results) {
-                        analyzer.addInstance(dataset.getLabelString(res[0]),
-                                new ClassifierResult(dataset.getLabelString(res[1]), 1.0));
+        }
+
+        int size = instances != null ? instances.size() : lines.size();
+        final double[][] results = new double[size][];
+        int chunk = (size + numThreads - 1) / Math.max(1, numThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int start = 0; start < size; start += chunk) {
+                final int from = start;
+                final int to = Math.min(size, start + chunk);
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        DataConverter converter = new DataConverter(dataset);
+                        Random rng = RandomUtils.getRandom();
+                        for (int i = from; i < to; i++) {
+                            Instance instance = instances != null ? instances.get(i)
+                                    : converter.convert(lines.get(i));
+                            results[i] = new double[] {dataset.getLabel(instance),
+                                    forest.classify(dataset, rng, instance)};
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (outputPath != null) {
+            Path predictions = new Path(outputPath, dataPath.getName() + ".out");
+            Writer writer = new OutputStreamWriter(outFS.create(predictions), "UTF-8");
+            try {
+                for (double[] result : results) {
+                    writer.write(Double.toString(result[1]));
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Converts the rows of the column cache of a local data file into instances, as DataConverter converts
+     * its lines: the ignored columns are dropped, the categorical attributes take the index of their value in
+     * the dataset and the rows with a missing value, "?", are skipped.
+     *
+     * @return the instances, null if the file is not local, cannot be cached, or its cache does not match
+     * the dataset
+     */
+    private static List<Instance> cachedInstances(Configuration conf, Dataset dataset, Path data)
+            throws IOException {
+        FileSystem fs = data.getFileSystem(conf);
+        if (!"file".equals(fs.getUri().getScheme()) || fs.getFileStatus(data).isDirectory()) {
+            return null;
+        }
+        ColumnarCache cache = ColumnarCache.open(new File(data.toUri().getPath()), false);
+        int[] ignored = dataset.getIgnored();
+        int nbAttributes = dataset.nbAttributes();
+        if (cache == null || cache.getNumColumns() != nbAttributes + ignored.length) {
+            return null;
+        }
+
+        // the column of every attribute, and the index of every dictionary entry of the categorical ones
+        int[] columns = new int[nbAttributes];
+        double[][] categories = new double[nbAttributes][];
+        int attribute = 0;
+        for (int column = 0; column < cache.getNumColumns(); column++) {
+            if (Arrays.binarySearch(ignored, column) >= 0) {
+                continue;
+            }
+            columns[attribute] = column;
+            if (!dataset.isNumerical(attribute)) {
+                if (cache.getType(column) == ColumnarCache.ColumnType.DOUBLE) {
+                    return null; // its fields are not kept as written
+                }
+                if (cache.getType(column) == ColumnarCache.ColumnType.CATEGORICAL) {
+                    String[] dictionary = cache.getDictionary(column);
+                    categories[attribute] = new double[dictionary.length];
+                    for (int code = 0; code < dictionary.length; code++) {
+                        categories[attribute][code] = "?".equals(dictionary[code]) ? Double.NaN
+                                : dataset.valueOf(attribute, dictionary[code]);
                     }
-                    bufferedWriter.write(analyzer.toString());
-                    log.info("{}", analyzer);
                 }
             }
-            bufferedWriter.close();
+            attribute++;
+        }
+
+        List<Instance> instances = new ArrayList<Instance>(cache.getNumRows());
+        for (int row = 0; row < cache.getNumRows(); row++) {
+            DenseVector vector = new DenseVector(nbAttributes);
+            boolean missing = false;
+            for (int attr = 0; attr < nbAttributes && !missing; attr++) {
+                int column = columns[attr];
+                double value;
+                if (dataset.isNumerical(attr)) {
+                    value = cache.getDouble(column, row);
+                } else if (categories[attr] != null) {
+                    value = categories[attr][cache.getCode(column, row)];
+                } else {
+                    value = dataset.valueOf(attr, Integer.toString(cache.getInt(column, row)));
+                }
+                missing = Double.isNaN(value);
+                vector.set(attr, value);
+            }
+            if (!missing) {
+                instances.add(new Instance(vector));
+            }
+        }
+        return instances;
+    }
+
+    /**
+     * Writes the confusion matrix, or the regression statistics, of the actual and predicted labels.
+     */
+    private void analyze(Configuration conf, double[][] results) throws IOException {
+        StageEvent stage = StageEvent.begin("RadomForest", "analyze");
+        try {
+            writeAnalysis(conf, results);
+            stage.addRows(results != null ? results.length : 0);
+            stage.addBytesWritten(new File(BASE_PATH + "result.txt").length());
+        } finally {
+            stage.commit();
+        }
+    }
+
+    private void writeAnalysis(Configuration conf, double[][] results) throws IOException {
+        File file = new File(BASE_PATH+"result.txt");
+        if (!file.exists()) {
+            file.createNewFile();
+        }
+        FileWriter fileWriter = new FileWriter(file.getAbsoluteFile());
+        BufferedWriter bufferedWriter = new BufferedWriter(fileWriter);
+        if (results != null) {
+            Dataset dataset = Dataset.load(conf, datasetPath);
+            if (dataset.isNumerical(dataset.getLabelId())) {
+                RegressionResultAnalyzer regressionAnalyzer = new RegressionResultAnalyzer();
+                regressionAnalyzer.setInstances(results);
+                bufferedWriter.write(regressionAnalyzer.toString());
+                log.info("{}", regressionAnalyzer);
+            } else {
+                ResultAnalyzer analyzer = new ResultAnalyzer(Arrays.asList(dataset.labels()), "unknown");
+                for (double[] res : results) {
+                    analyzer.addInstance(dataset.getLabelString(res[0]),
+                            new ClassifierResult(dataset.getLabelString(res[1]), 1.0));
+                }
+                bufferedWriter.write(analyzer.toString());
+                log.info("{}", analyzer);
+            }
         }
+        bufferedWriter.close();
     }
 
 }
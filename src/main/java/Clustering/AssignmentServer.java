@@ -0,0 +1,354 @@
+package Clustering;
+
+import Common.DriverStatus;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.cli2.CommandLine;
+import org.apache.commons.cli2.Group;
+import org.apache.commons.cli2.Option;
+import org.apache.commons.cli2.builder.ArgumentBuilder;
+import org.apache.commons.cli2.builder.DefaultOptionBuilder;
+import org.apache.commons.cli2.builder.GroupBuilder;
+import org.apache.commons.cli2.commandline.Parser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.common.ClassUtils;
+import org.apache.mahout.common.CommandLineUtil;
+import org.apache.mahout.common.commandline.DefaultOptionCreator;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * Local HTTP endpoint over a ClusterAssigner:
+ * <ul>
+ * <li>POST /assign with one point per line, its features separated by commas and/or blanks, answers the
+ * cluster id and distance of every point as JSON, and their fuzzy memberships with ?memberships=true; a
+ * malformed request is answered 400 and a failed assignment 500, both counted as errors;</li>
+ * <li>GET /model describes the loaded clusters;</li>
+ * <li>GET /metrics gives the request and point counts and the p50, p99 and maximum latencies of the
+ * last LATENCY_WINDOW requests, in microseconds.</li>
+ * </ul>
+ */
+public class AssignmentServer {
+
+    private static final Logger log = LoggerFactory.getLogger(AssignmentServer.class);
+
+    static final int LATENCY_WINDOW = 10000;
+
+    private static final Pattern FIELD_SEPARATOR = Pattern.compile("[,\\s]+");
+
+    private final ClusterAssigner assigner;
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final long[] latencies = new long[LATENCY_WINDOW]; // nanoseconds, ring buffer
+
+    private long requests;
+
+    private long points;
+
+    private long errors;
+
+    public AssignmentServer(ClusterAssigner assigner, int port, int numThreads) throws IOException {
+        this.assigner = assigner;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        this.executor = Executors.newFixedThreadPool(numThreads);
+        server.setExecutor(executor);
+        server.createContext("/assign", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                assign(exchange);
+            }
+        });
+        server.createContext("/model", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                model(exchange);
+            }
+        });
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                metrics(exchange);
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+        log.info("Assigning points on http://{}:{}/assign", server.getAddress().getHostString(),
+                server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void assign(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "{\"error\":\"POST the points\"}");
+            return;
+        }
+        boolean withMemberships;
+        PointMatrix batch;
+        try {
+            withMemberships = booleanParameter(exchange.getRequestURI().getRawQuery(), "memberships");
+            batch = parse(new String(ByteStreams.toByteArray(exchange.getRequestBody()), Charsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            error(exchange, 400, e.getMessage());
+            return;
+        }
+        ClusterAssigner.Assignment[] assignments;
+        try {
+            assignments = assigner.assign(batch, withMemberships);
+        } catch (RuntimeException e) {
+            log.error("Cannot assign a batch of " + batch.numRows() + " points", e);
+            error(exchange, 500, "cannot assign the points: " + e);
+            return;
+        }
+
+        StringBuilder json = new StringBuilder(32 + assignments.length * (withMemberships ? 64 : 48));
+        json.append("{\"assignments\":[");
+        for (int i = 0; i < assignments.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"clusterId\":").append(assignments[i].getClusterId())
+                    .append(",\"distance\":").append(assignments[i].getDistance());
+            if (withMemberships) {
+                json.append(",\"memberships\":[");
+                double[] memberships = assignments[i].getMemberships();
+                for (int c = 0; c < memberships.length; c++) {
+                    if (c > 0) {
+                        json.append(',');
+                    }
+                    json.append(memberships[c]);
+                }
+                json.append(']');
+            }
+            json.append('}');
+        }
+        json.append("]}");
+        respond(exchange, 200, json.toString());
+        record(System.nanoTime() - start, assignments.length);
+    }
+
+    /**
+     * @return the value of the boolean parameter of the raw query string, false if it is absent
+     */
+    static boolean booleanParameter(String query, String name) {
+        if (query == null) {
+            return false;
+        }
+        boolean value = false;
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            String key = decode(equals < 0 ? parameter : parameter.substring(0, equals));
+            if (!key.equals(name)) {
+                continue;
+            }
+            String text = equals < 0 ? "true" : decode(parameter.substring(equals + 1));
+            if ("true".equalsIgnoreCase(text)) {
+                value = true;
+            } else if ("false".equalsIgnoreCase(text)) {
+                value = false;
+            } else {
+                throw new IllegalArgumentException(name + " must be true or false, got " + text);
+            }
+        }
+        return value;
+    }
+
+    private static String decode(String text) {
+        try {
+            return URLDecoder.decode(text, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Parses one point per non-blank line.
+     */
+    private PointMatrix parse(String body) {
+        int dims = assigner.getDimensions();
+        List<double[]> rows = Lists.newArrayList();
+        for (String line : body.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            String[] fields = FIELD_SEPARATOR.split(trimmed);
+            if (fields.length != dims) {
+                throw new IllegalArgumentException("expected " + dims + " features, got " + fields.length);
+            }
+            double[] row = new double[dims];
+            for (int d = 0; d < dims; d++) {
+                row[d] = Double.parseDouble(fields[d]); // a NumberFormatException is an IllegalArgumentException
+            }
+            rows.add(row);
+        }
+        PointMatrix batch = new PointMatrix(rows.size(), dims);
+        for (int row = 0; row < rows.size(); row++) {
+            System.arraycopy(rows.get(row), 0, batch.values(), batch.offset(row), dims);
+        }
+        return batch;
+    }
+
+    private void model(HttpExchange exchange) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"clusters\":").append(assigner.getNumClusters())
+                .append(",\"dimensions\":").append(assigner.getDimensions())
+                .append(",\"clusterIds\":").append(Arrays.toString(assigner.getClusterIds()).replace(" ", ""))
+                .append('}');
+        respond(exchange, 200, json.toString());
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        long[] window;
+        long requestCount;
+        long pointCount;
+        long errorCount;
+        synchronized (this) {
+            requestCount = requests;
+            pointCount = points;
+            errorCount = errors;
+            window = Arrays.copyOf(latencies, (int) Math.min(requests, LATENCY_WINDOW));
+        }
+        Arrays.sort(window);
+        StringBuilder json = new StringBuilder();
+        json.append("{\"requests\":").append(requestCount)
+                .append(",\"points\":").append(pointCount)
+                .append(",\"errors\":").append(errorCount)
+                .append(",\"window\":").append(window.length)
+                .append(",\"p50Micros\":").append(percentile(window, 0.50))
+                .append(",\"p99Micros\":").append(percentile(window, 0.99))
+                .append(",\"maxMicros\":").append(window.length == 0 ? 0 : window[window.length - 1] / 1000)
+                .append('}');
+        respond(exchange, 200, json.toString());
+    }
+
+    /**
+     * Counts a failed request and answers its error.
+     */
+    private void error(HttpExchange exchange, int status, String message) throws IOException {
+        synchronized (this) {
+            errors++;
+        }
+        respond(exchange, status, "{\"error\":\"" + String.valueOf(message).replace("\"", "'") + "\"}");
+    }
+
+    private synchronized void record(long nanos, int batchSize) {
+        latencies[(int) (requests % LATENCY_WINDOW)] = nanos;
+        requests++;
+        points += batchSize;
+    }
+
+    /**
+     * @return the nearest-rank percentile of the sorted latencies, in microseconds
+     */
+    private static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(fraction * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1000;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(Charsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            run(args);
+        } catch (final Exception e) {
+            log.error("Clustering.AssignmentServer failed", e);
+            DriverStatus.failed(e);
+        }
+    }
+
+    private static void run(String[] args) throws Exception {
+        DefaultOptionBuilder obuilder = new DefaultOptionBuilder();
+        ArgumentBuilder abuilder = new ArgumentBuilder();
+        GroupBuilder gbuilder = new GroupBuilder();
+
+        Option modelOpt = obuilder.withLongName("model").withShortName("md").withRequired(true)
+                .withArgument(abuilder.withName("model").withMinimum(1).withMaximum(1).create())
+                .withDescription("Output directory of a k-means or fuzzy k-means run, such as "
+                        + "ClusteringDir/KmeansDir/output").create();
+        Option distanceMeasureOpt = DefaultOptionCreator.distanceMeasureOption().create();
+        Option mOpt = obuilder.withLongName("m").withShortName("m").withRequired(false)
+                .withArgument(abuilder.withName("m").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, fuzziness of the memberships, greater than 1.\nThe default is 2.")
+                .create();
+        Option portOpt = obuilder.withLongName("port").withShortName("p").withRequired(false)
+                .withArgument(abuilder.withName("port").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, local port of the endpoint.\nThe default is 8080.").create();
+        Option threadsOpt = obuilder.withLongName("threads").withShortName("th").withRequired(false)
+                .withArgument(abuilder.withName("threads").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, threads serving the requests.\n"
+                        + "The default is the number of available processors.").create();
+        Option helpOpt = DefaultOptionCreator.helpOption();
+
+        Group group = gbuilder.withName("Options").withOption(modelOpt).withOption(distanceMeasureOpt)
+                .withOption(mOpt).withOption(portOpt).withOption(threadsOpt).withOption(helpOpt).create();
+        Parser parser = new Parser();
+        parser.setGroup(group);
+        CommandLine cmdLine = parser.parse(args);
+        if (cmdLine.hasOption("help")) {
+            CommandLineUtil.printHelp(group);
+            return;
+        }
+
+        DistanceMeasure measure = ClassUtils.instantiateAs(cmdLine.getValue(distanceMeasureOpt).toString(),
+                DistanceMeasure.class);
+        double m = cmdLine.hasOption(mOpt) ? Double.parseDouble(cmdLine.getValue(mOpt).toString()) : 2;
+        int port = cmdLine.hasOption(portOpt) ? Integer.parseInt(cmdLine.getValue(portOpt).toString()) : 8080;
+        int numThreads = cmdLine.hasOption(threadsOpt) ? Integer.parseInt(cmdLine.getValue(threadsOpt).toString())
+                : Runtime.getRuntime().availableProcessors();
+
+        ClusterAssigner assigner = ClusterAssigner.load(new Configuration(),
+                new Path(cmdLine.getValue(modelOpt).toString()), measure, m);
+        final AssignmentServer server = new AssignmentServer(assigner, port, numThreads);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.stop();
+            }
+        });
+        server.start();
+    }
+}
@@ -1,19 +1,23 @@
 package Clustering;
 
+import Common.DriverStatus;
+import Common.ExecutionPlanner;
+import Common.StageEvent;
+import com.google.common.io.Closeables;
 import org.apache.commons.cli2.CommandLine;
 import org.apache.commons.cli2.Group;
 import org.apache.commons.cli2.Option;
+import org.apache.commons.cli2.builder.ArgumentBuilder;
+import org.apache.commons.cli2.builder.DefaultOptionBuilder;
 import org.apache.commons.cli2.builder.GroupBuilder;
 import org.apache.commons.cli2.commandline.Parser;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.SequenceFile;
 import org.apache.mahout.clustering.Cluster;
 import org.apache.mahout.clustering.canopy.CanopyDriver;
-import org.apache.mahout.clustering.classify.WeightedPropertyVectorWritable;
-import org.apache.mahout.clustering.conversion.InputDriver;
+import org.apache.mahout.clustering.iterator.KMeansClusteringPolicy;
 import org.apache.mahout.clustering.kmeans.KMeansDriver;
+import org.apache.mahout.clustering.kmeans.Kluster;
 import org.apache.mahout.common.ClassUtils;
 import org.apache.mahout.common.CommandLineUtil;
 import org.apache.mahout.common.HadoopUtil;
@@ -24,10 +28,13 @@ import org.apache.mahout.utils.clustering.ClusterDumper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 public class Canopy {
 
@@ -46,22 +53,49 @@ public class Canopy {
 
     int maxIterations; // the int maximum number of iterations
 
+    private CsvVectorizer.VectorType vectorType = CsvVectorizer.VectorType.AUTO; // vectors of the converted input
+
+    private ClusteredPointsExporter.Format exportFormat = ClusteredPointsExporter.Format.TEXT; // format of the exported assignments
+
+    private File labelFile; // true labels of the points, null to evaluate without labels
+
+    private int labelColumn; // column of the labels in labelFile
+
+    private File telemetryFile; // JSON lines of the iteration telemetry, null to record none
+
+    private boolean indexed; // build the canopies with IndexedCanopyBuilder rather than CanopyDriver
+
+    private long seed = System.currentTimeMillis(); // seed of the random projections of the indexed canopies
+
+    private double driftThreshold = 0.5; // drift above which a warm start clusters all the input again
+
+    private boolean fused; // canopies and k-means in memory, from a single parse of the input
+
+    private ExecutionPlanner.Mode execution; // how the jobs run, null to choose from the input size
+
+    private int numThreads = Runtime.getRuntime().availableProcessors(); // threads of the in-memory runs
+
     private static final String DIRECTORY_CONTAINING_CONVERTED_INPUT = "data";
 
     public static void main(String[] args) throws Exception {
         final Canopy application = new Canopy();
-        args = new String[] {"-i","ClusteringDir/CanopyDir/breastCancer.csv","-cd","5","-x","10","-ow","-t1","23","-t2","14"};
+        if (args.length == 0) {
+            args = new String[] {"-i","ClusteringDir/CanopyDir/breastCancer.csv","-cd","5","-x","10","-ow",
+                    "-t1","23","-t2","14"};
+        }
         try {
             application.runCanopy(args);
         }
         catch (final Exception e) {
             log.error("Clustering.Canopy failed", e);
+            DriverStatus.failed(e);
         }
     }
 
     private void runCanopy(String[] args) throws Exception {
         final Configuration configuration = new Configuration();
 
+        DefaultOptionBuilder obuilder = new DefaultOptionBuilder();
         GroupBuilder gbuilder = new GroupBuilder();
 
         Option inputOpt = DefaultOptionCreator.inputOption().create();
@@ -71,11 +105,59 @@ public class Canopy {
         Option convergenceOpt = DefaultOptionCreator.convergenceOption().create();
         Option maxIterationsOpt = DefaultOptionCreator.maxIterationsOption().create();
         Option overwriteOpt = DefaultOptionCreator.overwriteOption().create();
+        Option vectorTypeOpt = obuilder.withLongName("vectorType").withShortName("vt").withRequired(false)
+                .withArgument(new ArgumentBuilder().withName("vectorType").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, vectors of the converted input: dense, sequential or random (sparse), "
+                        + "or auto to pick one from the density of a sample of the input.\nThe default is auto.")
+                .create();
+        Option indexedOpt = obuilder.withLongName("indexed").withShortName("ix").withRequired(false)
+                .withDescription("Optional, build the canopies in memory with a spatial index over their centers.")
+                .create();
+        Option seedOpt = obuilder.withLongName("seed").withShortName("sd").withRequired(false)
+                .withArgument(new ArgumentBuilder().withName("seed").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, seed value of the random projections of the indexed canopies").create();
+        Option exportFormatOpt = obuilder.withLongName("exportFormat").withShortName("ef").withRequired(false)
+                .withArgument(new ArgumentBuilder().withName("exportFormat").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, format of the exported point assignments: binary, csv or text (with the "
+                        + "vectors).\nThe default is text.").create();
+        Option labelsOpt = obuilder.withLongName("labels").withShortName("lb").withRequired(false)
+                .withArgument(new ArgumentBuilder().withName("labels").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, CSV file with the true label of every input line, to evaluate the "
+                        + "clustering with purity, NMI and ARI").create();
+        Option labelColumnOpt = obuilder.withLongName("labelColumn").withShortName("lc").withRequired(false)
+                .withArgument(new ArgumentBuilder().withName("labelColumn").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, column of the labels in the labels file.\nThe default is 0.")
+                .create();
+        Option telemetryOpt = obuilder.withLongName("telemetry").withShortName("tm").withRequired(false)
+                .withArgument(new ArgumentBuilder().withName("telemetry").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, file the convergence telemetry of every iteration is appended to as "
+                        + "JSON lines, also published over JMX").create();
+        Option fusedOpt = obuilder.withLongName("fused").withShortName("fu").withRequired(false)
+                .withDescription("Optional, parse the input once into memory, build the canopies and run k-means "
+                        + "from them there, and only write the final clusters and clustered points").create();
+        Option executionOpt = obuilder.withLongName("execution").withShortName("xm").withRequired(false)
+                .withArgument(new ArgumentBuilder().withName("execution").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, how the canopies and k-means run: sequential (in-process, one thread), "
+                        + "parallel (fused, in memory on multiple threads), mapreduce or auto, chosen from the size "
+                        + "of the input, the cores and the free heap.\nThe default is auto, -fu forces parallel.")
+                .create();
+        Option warmStartOpt = obuilder.withLongName("warmStart").withShortName("ws").withRequired(false)
+                .withDescription("Optional, start from the k-means model of the previous run instead of new "
+                        + "canopies and only cluster the lines appended to the input since, unless the new points "
+                        + "drifted from it").create();
+        Option driftThresholdOpt = obuilder.withLongName("driftThreshold").withShortName("dt").withRequired(false)
+                .withArgument(new ArgumentBuilder().withName("driftThreshold").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, relative increase of the mean squared distance of the new points to "
+                        + "the previous centers above which a warm start clusters all the input again.\n"
+                        + "The default is 0.5.").create();
         Option helpOpt = DefaultOptionCreator.helpOption();
 
         Group group = gbuilder.withName("Options").withOption(inputOpt).withOption(distanceMeasureOpt)
                 .withOption(convergenceOpt).withOption(maxIterationsOpt).withOption(t1Opt).withOption(t2Opt)
-                .withOption(overwriteOpt).withOption(helpOpt).create();
+                .withOption(overwriteOpt).withOption(vectorTypeOpt).withOption(indexedOpt).withOption(seedOpt)
+                .withOption(exportFormatOpt).withOption(labelsOpt)
+                .withOption(labelColumnOpt).withOption(telemetryOpt).withOption(fusedOpt).withOption(warmStartOpt)
+                .withOption(driftThresholdOpt).withOption(executionOpt).withOption(helpOpt).create();
         Parser parser = new Parser();
         parser.setGroup(group);
         CommandLine cmdLine = parser.parse(args);
@@ -92,8 +174,32 @@ public class Canopy {
         }
         convergenceDelta = Double.parseDouble(cmdLine.getValue(convergenceOpt).toString());
         maxIterations = Integer.parseInt(cmdLine.getValue(maxIterationsOpt).toString());
-        if (cmdLine.hasOption(overwriteOpt)) {
-            HadoopUtil.delete(configuration, output);
+        if (cmdLine.hasOption(vectorTypeOpt)) {
+            vectorType = CsvVectorizer.VectorType.fromName(cmdLine.getValue(vectorTypeOpt).toString());
+        }
+        indexed = cmdLine.hasOption(indexedOpt);
+        if (cmdLine.hasOption(seedOpt)) {
+            seed = Long.parseLong(cmdLine.getValue(seedOpt).toString());
+        }
+        if (cmdLine.hasOption(fusedOpt)) {
+            execution = ExecutionPlanner.Mode.PARALLEL;
+        } else if (cmdLine.hasOption(executionOpt)) {
+            execution = ExecutionPlanner.Mode.fromName(cmdLine.getValue(executionOpt).toString());
+        }
+        if (cmdLine.hasOption(exportFormatOpt)) {
+            exportFormat = ClusteredPointsExporter.Format.fromName(cmdLine.getValue(exportFormatOpt).toString());
+        }
+        if (cmdLine.hasOption(labelsOpt)) {
+            labelFile = new File(cmdLine.getValue(labelsOpt).toString());
+        }
+        if (cmdLine.hasOption(labelColumnOpt)) {
+            labelColumn = Integer.parseInt(cmdLine.getValue(labelColumnOpt).toString());
+        }
+        if (cmdLine.hasOption(telemetryOpt)) {
+            telemetryFile = new File(cmdLine.getValue(telemetryOpt).toString());
+        }
+        if (cmdLine.hasOption(driftThresholdOpt)) {
+            driftThreshold = Double.parseDouble(cmdLine.getValue(driftThresholdOpt).toString());
         }
 
         DistanceMeasure measure = ClassUtils.instantiateAs(measureClass, DistanceMeasure.class);
@@ -101,40 +207,200 @@ public class Canopy {
         double t2 = Double.parseDouble(cmdLine.getValue(t2Opt).toString());
 
         Path directoryContainingConvertedInput = new Path(output, DIRECTORY_CONTAINING_CONVERTED_INPUT);
-        InputDriver.runJob(input, directoryContainingConvertedInput, "org.apache.mahout.math.RandomAccessSparseVector");
-        Path canopyOutput = new Path(output, "canopies");
-        CanopyDriver.run(configuration, directoryContainingConvertedInput, canopyOutput, measure, t1, t2, false, 0.0,
-                false);
-        KMeansDriver.run(configuration, directoryContainingConvertedInput, new Path(canopyOutput, Cluster.INITIAL_CLUSTERS_DIR
-                + "-final"), output, convergenceDelta, maxIterations, true, 0.0, false);
+        CsvVectorizer vectorizer = new CsvVectorizer(configuration);
+        vectorizer.setVectorType(vectorType);
+        File inputFile = new File(input.toUri().getPath());
+        boolean warmStart = cmdLine.hasOption(warmStartOpt);
+        if (warmStart) {
+            // a line still being appended is left to the next run
+            vectorizer.setCompleteLines(true);
+            if (runWarmStart(configuration, measure, vectorizer, inputFile, directoryContainingConvertedInput)) {
+                readAndPrintOutputValues(configuration, output.toString());
+                return;
+            }
+            // the clusters of the previous run would mix with the new ones
+            HadoopUtil.delete(configuration, output);
+        } else if (cmdLine.hasOption(overwriteOpt)) {
+            HadoopUtil.delete(configuration, output);
+        }
+        vectorizer.setStartOffset(0);
+        vectorizer.setFirstKey(0);
+        ExecutionPlanner.Plan plan = new ExecutionPlanner().plan("canopy k-means", inputFile, 0, execution);
+        fused = plan.getMode() == ExecutionPlanner.Mode.PARALLEL;
+        numThreads = plan.getNumThreads();
+        boolean sequential = plan.getMode() == ExecutionPlanner.Mode.SEQUENTIAL;
+        if (fused) {
+            vectorizer.setCollectPoints(true);
+            vectorizer.vectorize(inputFile, null);
+            runFused(configuration, vectorizer.getPoints(), measure, t1, t2);
+        } else {
+            vectorizer.setCollectPoints(false);
+            long vectors = vectorizer.vectorize(inputFile, directoryContainingConvertedInput);
+            Path canopyOutput = new Path(output, "canopies");
+            IterationTelemetry canopyTelemetry = telemetry("canopy");
+            ClusterIterationMonitor canopyMonitor = ClusterIterationMonitor.start(configuration, canopyOutput, measure,
+                    0, canopyTelemetry);
+            StageEvent stage = StageEvent.begin("Canopy", "canopy");
+            try {
+                if (indexed) {
+                    new IndexedCanopyBuilder(measure, t1, t2, seed).run(configuration,
+                            directoryContainingConvertedInput, canopyOutput, 0.0);
+                } else {
+                    CanopyDriver.run(configuration, directoryContainingConvertedInput, canopyOutput, measure, t1, t2,
+                            false, 0.0, sequential);
+                }
+                stage.addRows(vectors);
+                stage.addBytesRead(configuration, directoryContainingConvertedInput);
+                stage.addBytesWritten(configuration, canopyOutput);
+            } finally {
+                Closeables.close(canopyMonitor, false);
+                Closeables.close(canopyTelemetry, false);
+                stage.commit();
+            }
+            IterationTelemetry telemetry = telemetry("canopy-kmeans");
+            ClusterIterationMonitor monitor = ClusterIterationMonitor.start(configuration, output, measure,
+                    convergenceDelta, telemetry);
+            stage = StageEvent.begin("Canopy", "iterate");
+            try {
+                KMeansDriver.run(configuration, directoryContainingConvertedInput, new Path(canopyOutput,
+                        Cluster.INITIAL_CLUSTERS_DIR + "-final"), output, convergenceDelta, maxIterations, true, 0.0,
+                        sequential);
+                stage.addRows(vectors);
+                stage.addBytesRead(configuration, directoryContainingConvertedInput);
+                stage.addBytesWritten(configuration, output);
+            } finally {
+                Closeables.close(monitor, false);
+                Closeables.close(telemetry, false);
+                stage.commit();
+            }
+        }
+        if (warmStart) {
+            WarmStartKMeans.saveState(configuration, output, inputFile, vectorizer.getEndOffset(),
+                    vectorizer.getNextKey());
+        }
         readAndPrintOutputValues(configuration, output.toString());
     }
 
-    private void readAndPrintOutputValues(Configuration conf, String outputPath)
-            throws IOException {
-        final Path input = new Path(outputPath + "/clusteredPoints/part-m-00000");
+    /**
+     * Clusters the lines appended to the input since the previous run from the k-means model of the previous
+     * run, without building canopies.
+     *
+     * @return false when there is no previous run of the input or its model drifted, the input then has to
+     * be clustered again
+     */
+    private boolean runWarmStart(Configuration conf, DistanceMeasure measure, CsvVectorizer vectorizer, File input,
+                                 Path vectors) throws Exception {
+        WarmStartKMeans kmeans = new WarmStartKMeans(conf, output, measure, numThreads);
+        if (!kmeans.load(input)) {
+            return false;
+        }
+        vectorizer.setStartOffset(kmeans.getOffset());
+        vectorizer.setFirstKey(kmeans.getNextKey());
+        vectorizer.setCollectPoints(true);
+        vectorizer.vectorize(input, vectors);
+        PointMatrix newPoints = vectorizer.getPoints();
+        if (newPoints == null) {
+            log.info("Nothing appended to {} since the previous run, the model is unchanged", input);
+            return true;
+        }
+        double drift = kmeans.drift(newPoints);
+        if (drift > driftThreshold) {
+            log.info("The new points drifted by {} from the previous model, above {}: clustering all the input",
+                    drift, driftThreshold);
+            return false;
+        }
+        kmeans.run(newPoints, convergenceDelta, maxIterations);
+        WarmStartKMeans.saveState(conf, output, input, vectorizer.getEndOffset(), vectorizer.getNextKey());
+        return true;
+    }
 
-        final SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(input));
-        final IntWritable key = new IntWritable();
-        final WeightedPropertyVectorWritable value = new WeightedPropertyVectorWritable();
+    /**
+     * Builds the canopies of the points with IndexedCanopyBuilder and hands their centers to InMemoryKMeans,
+     * writing neither the vectors nor the canopies.
+     */
+    private void runFused(Configuration conf, PointMatrix points, DistanceMeasure measure, double t1, double t2)
+            throws Exception {
+        if (points == null) {
+            throw new IllegalArgumentException("No data in " + input);
+        }
+        StageEvent stage = StageEvent.begin("Canopy", "canopy");
+        List<org.apache.mahout.clustering.canopy.Canopy> canopies;
+        try {
+            canopies = new IndexedCanopyBuilder(measure, t1, t2, seed).build(points, 0.0);
+            stage.addRows(points.numRows());
+        } finally {
+            stage.commit();
+        }
+        List<Kluster> initialClusters = new ArrayList<Kluster>(canopies.size());
+        for (org.apache.mahout.clustering.canopy.Canopy canopy : canopies) {
+            initialClusters.add(new Kluster(canopy.getCenter(), canopy.getId(), measure));
+        }
 
-        File file = new File(BASE_PATH+"result.txt");
-        if (!file.exists()) {
-            file.createNewFile();
+        InMemoryKMeans kmeans = new InMemoryKMeans(points, initialClusters, measure, numThreads);
+        IterationTelemetry telemetry = telemetry("canopy-kmeans");
+        kmeans.setTelemetry(telemetry);
+        int iterations;
+        stage = StageEvent.begin("Canopy", "iterate");
+        try {
+            try {
+                iterations = kmeans.run(convergenceDelta, maxIterations);
+            } finally {
+                Closeables.close(telemetry, false);
+            }
+            List<Cluster> clusters = kmeans.getClusters(convergenceDelta);
+            ClusteringOutputWriter.writeFinalClusters(output, iterations, clusters,
+                    new KMeansClusteringPolicy(convergenceDelta));
+            ClusteringOutputWriter.writeClusteredPoints(conf, output, points, clusters, kmeans.classify(clusters));
+            stage.addRows(points.numRows());
+            stage.addBytesWritten(conf, output);
+        } finally {
+            stage.commit();
         }
-        FileWriter fileWriter = new FileWriter(file.getAbsoluteFile());
-        BufferedWriter bufferedWriter = new BufferedWriter(fileWriter);
+    }
+
+    /**
+     * @return the telemetry of the run, null without a telemetry file
+     */
+    private IterationTelemetry telemetry(String run) throws IOException {
+        return telemetryFile == null ? null : new IterationTelemetry(run, telemetryFile);
+    }
 
-        Integer vecNum = 0;
-        while (reader.next(key, value)) {
-            String[] values = value.toString().split("vec");
-            String content = values[0]+"vec: "+vecNum+values[1].substring(1)+" belongs to cluster "+key.toString()+"\n";
-            bufferedWriter.write(content);
-            vecNum++;
+    private void readAndPrintOutputValues(Configuration conf, String outputPath)
+            throws IOException, InterruptedException, ExecutionException {
+        StageEvent stage = StageEvent.begin("Canopy", "readAndPrint");
+        try {
+            File file = printOutputValues(conf, outputPath, stage);
+            stage.addBytesRead(conf, new Path(outputPath));
+            stage.addBytesWritten(file.length());
+        } finally {
+            stage.commit();
         }
-        reader.close();
-        bufferedWriter.close();
+    }
 
+    /**
+     * @return the file the clustered points and the evaluation were written to
+     */
+    private File printOutputValues(Configuration conf, String outputPath, StageEvent stage)
+            throws IOException, InterruptedException, ExecutionException {
+        ClusteredPoints points = ClusteredPoints.read(conf, new Path(outputPath),
+                Runtime.getRuntime().availableProcessors(), exportFormat == ClusteredPointsExporter.Format.TEXT);
+        File file = new File(BASE_PATH + "result." + exportFormat.getExtension());
+        ClusteredPointsExporter.export(points, file, exportFormat);
+        stage.addRows(points.size());
+
+        ClusteringEvaluator evaluator = ClusteringEvaluator.evaluate(points,
+                measureClass.equals(SquaredEuclideanDistanceMeasure.class.getName()), labelFile, labelColumn, false);
+        String report = evaluator.report();
+        log.info("Clustering quality:\n{}", report);
+        if (exportFormat == ClusteredPointsExporter.Format.TEXT) {
+            Writer writer = new FileWriter(file, true);
+            try {
+                writer.write(report);
+            } finally {
+                writer.close();
+            }
+        }
+        return file;
     }
 
-}
\ No newline at end of file
+}
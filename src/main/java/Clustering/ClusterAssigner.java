@@ -0,0 +1,258 @@
+package Clustering;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.iterator.ClusterWritable;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.common.iterator.sequencefile.PathFilters;
+import org.apache.mahout.common.iterator.sequencefile.PathType;
+import org.apache.mahout.common.iterator.sequencefile.SequenceFileDirValueIterable;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Assigns points to the clusters of a trained model without running a clustering step over files. The
+ * model, the clusters-N-final directory of a k-means or fuzzy k-means output, is loaded once; the
+ * centers are held in a row-major array and each point is assigned to its nearest center, with the
+ * distance to it and, when asked, its fuzzy memberships in every cluster as FuzzyKMeansClusterer
+ * computes them. Instances are immutable once built and can be shared by any number of threads.
+ * <p>
+ * Up to VP_TREE_THRESHOLD centers the nearest one is found by a scan of all of them with the
+ * DistanceKernel of the measure; above, when the measure is a metric, by a VpTree over the centers.
+ * Memberships need the distances to every center and always scan them.
+ */
+public class ClusterAssigner {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterAssigner.class);
+
+    static final int VP_TREE_THRESHOLD = 64;
+
+    // distance FuzzyKMeansClusterer substitutes for a zero distance
+    private static final double MINIMAL_VALUE = 0.0000000001;
+
+    private final DistanceMeasure measure;
+
+    private final DistanceKernel kernel; // null when the measure has no kernel
+
+    private final int k;
+
+    private final int dims;
+
+    private final int[] clusterIds;
+
+    private final double[] centers; // k x dims, row-major
+
+    private final double[] norms; // kernel norms of the centers
+
+    private final double exponent; // 2 / (m - 1) of the memberships
+
+    private final VpTree tree; // null to scan the centers
+
+    private final boolean squaredTree; // the tree is euclidean and its distances must be squared
+
+    /**
+     * Result of the assignment of one point.
+     */
+    public static final class Assignment {
+        private final int clusterId;
+        private final double distance;
+        private final double[] memberships;
+
+        Assignment(int clusterId, double distance, double[] memberships) {
+            this.clusterId = clusterId;
+            this.distance = distance;
+            this.memberships = memberships;
+        }
+
+        public int getClusterId() {
+            return clusterId;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+
+        /**
+         * @return the membership of the point in every cluster, in the order of getClusterIds, or null if
+         * they were not asked for
+         */
+        public double[] getMemberships() {
+            return memberships;
+        }
+    }
+
+    /**
+     * @param m fuzziness of the memberships, greater than 1
+     */
+    public ClusterAssigner(List<Cluster> clusters, DistanceMeasure measure, double m) {
+        Preconditions.checkArgument(!clusters.isEmpty(), "no clusters");
+        Preconditions.checkArgument(m > 1, "m must be greater than 1");
+        this.measure = measure;
+        this.kernel = DistanceKernel.forMeasure(measure);
+        this.k = clusters.size();
+        this.dims = clusters.get(0).getCenter().size();
+        this.clusterIds = new int[k];
+        this.centers = new double[k * dims];
+        for (int c = 0; c < k; c++) {
+            Cluster cluster = clusters.get(c);
+            clusterIds[c] = cluster.getId();
+            for (Vector.Element element : cluster.getCenter().nonZeroes()) {
+                centers[c * dims + element.index()] = element.get();
+            }
+        }
+        this.norms = kernel == null ? null : kernel.norms(centers, k, dims);
+        this.exponent = 2.0 / (m - 1);
+        // the tree needs the triangle inequality, which squared distances do not satisfy but their roots do
+        DistanceKernel metric = kernel == DistanceKernel.SQUARED_EUCLIDEAN ? DistanceKernel.EUCLIDEAN
+                : kernel == DistanceKernel.EUCLIDEAN || kernel == DistanceKernel.MANHATTAN ? kernel : null;
+        this.squaredTree = kernel == DistanceKernel.SQUARED_EUCLIDEAN;
+        this.tree = k > VP_TREE_THRESHOLD && metric != null ? new VpTree(centers, k, dims, metric, 0) : null;
+        log.info("Assigning to {} clusters of {} dimensions by {}", k, dims, tree == null ? "scan" : "VP-tree");
+    }
+
+    /**
+     * Loads the clusters of the last clusters-N-final directory of a clustering output.
+     */
+    public static ClusterAssigner load(Configuration conf, Path output, DistanceMeasure measure, double m)
+            throws IOException {
+        FileSystem fs = output.getFileSystem(conf);
+        FileStatus[] finals = fs.globStatus(new Path(output,
+                Cluster.CLUSTERS_DIR + '*' + Cluster.FINAL_ITERATION_SUFFIX));
+        if (finals == null || finals.length == 0) {
+            throw new IllegalArgumentException("No final clusters in " + output);
+        }
+        Path last = finals[0].getPath();
+        for (FileStatus status : finals) {
+            if (iteration(status.getPath()) > iteration(last)) {
+                last = status.getPath();
+            }
+        }
+        List<Cluster> clusters = Lists.newArrayList();
+        for (ClusterWritable writable : new SequenceFileDirValueIterable<ClusterWritable>(last, PathType.LIST,
+                PathFilters.partFilter(), conf)) {
+            clusters.add(writable.getValue());
+        }
+        log.info("Loaded {} clusters from {}", clusters.size(), last);
+        return new ClusterAssigner(clusters, measure, m);
+    }
+
+    private static int iteration(Path finalClusters) {
+        String name = finalClusters.getName();
+        return Integer.parseInt(name.substring(Cluster.CLUSTERS_DIR.length(),
+                name.length() - Cluster.FINAL_ITERATION_SUFFIX.length()));
+    }
+
+    public int getNumClusters() {
+        return k;
+    }
+
+    public int getDimensions() {
+        return dims;
+    }
+
+    public int[] getClusterIds() {
+        return clusterIds.clone();
+    }
+
+    /**
+     * Assigns the point read at offset in values to its nearest cluster.
+     */
+    public Assignment assign(double[] values, int offset, boolean withMemberships) {
+        if (withMemberships) {
+            double[] distances = new double[k];
+            distances(values, offset, distances);
+            int best = 0;
+            for (int c = 1; c < k; c++) {
+                if (distances[c] < distances[best]) {
+                    best = c;
+                }
+            }
+            return new Assignment(clusterIds[best], distances[best], memberships(distances));
+        }
+        if (tree != null) {
+            double[] distance = new double[1];
+            int nearest = tree.nearest(values, offset, distance);
+            return new Assignment(clusterIds[nearest], squaredTree ? distance[0] * distance[0] : distance[0], null);
+        }
+        int nearest;
+        if (kernel != null) {
+            nearest = kernel.nearest(values, offset, centers, norms, k, dims);
+        } else {
+            double[] distances = new double[k];
+            distances(values, offset, distances);
+            nearest = 0;
+            for (int c = 1; c < k; c++) {
+                if (distances[c] < distances[nearest]) {
+                    nearest = c;
+                }
+            }
+        }
+        return new Assignment(clusterIds[nearest], distance(values, offset, nearest), null);
+    }
+
+    /**
+     * Assigns every row of points.
+     */
+    public Assignment[] assign(PointMatrix points, boolean withMemberships) {
+        Preconditions.checkArgument(points.numCols() == dims, "expected %s dimensions, got %s", dims,
+                points.numCols());
+        Assignment[] assignments = new Assignment[points.numRows()];
+        for (int row = 0; row < points.numRows(); row++) {
+            assignments[row] = assign(points.values(), points.offset(row), withMemberships);
+        }
+        return assignments;
+    }
+
+    private void distances(double[] values, int offset, double[] distances) {
+        if (kernel != null) {
+            kernel.distances(values, offset, centers, norms, k, dims, distances);
+            return;
+        }
+        Vector point = copy(values, offset);
+        for (int c = 0; c < k; c++) {
+            distances[c] = measure.distance(copy(centers, c * dims), point);
+        }
+    }
+
+    private double distance(double[] values, int offset, int c) {
+        return kernel != null ? kernel.distance(centers, c * dims, values, offset, dims)
+                : measure.distance(copy(centers, c * dims), copy(values, offset));
+    }
+
+    /**
+     * Memberships as in InMemoryFuzzyKMeans: (min / d_c)^(2 / (m - 1)), normalized.
+     */
+    private double[] memberships(double[] distances) {
+        double min = Double.POSITIVE_INFINITY;
+        for (double distance : distances) {
+            min = Math.min(min, distance == 0 ? MINIMAL_VALUE : distance);
+        }
+        double[] memberships = new double[k];
+        double sum = 0;
+        for (int c = 0; c < k; c++) {
+            double ratio = min / (distances[c] == 0 ? MINIMAL_VALUE : distances[c]);
+            memberships[c] = exponent == 2 ? ratio * ratio : Math.pow(ratio, exponent);
+            sum += memberships[c];
+        }
+        for (int c = 0; c < k; c++) {
+            memberships[c] /= sum;
+        }
+        return memberships;
+    }
+
+    private Vector copy(double[] values, int offset) {
+        double[] copy = new double[dims];
+        System.arraycopy(values, offset, copy, 0, dims);
+        return new DenseVector(copy, true);
+    }
+}
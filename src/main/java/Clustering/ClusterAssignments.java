@@ -0,0 +1,42 @@
+package Clustering;
+
+/**
+ * Most likely cluster of every point of a PointMatrix, as emitted to clusteredPoints: the index of
+ * the cluster in the model list, the normalized pdf used as weight, and the distance to the center.
+ */
+public class ClusterAssignments {
+
+    private final int[] clusterIndexes;
+
+    private final double[] weights;
+
+    private final double[] distances;
+
+    public ClusterAssignments(int numPoints) {
+        this.clusterIndexes = new int[numPoints];
+        this.weights = new double[numPoints];
+        this.distances = new double[numPoints];
+    }
+
+    public int size() {
+        return clusterIndexes.length;
+    }
+
+    public int getClusterIndex(int point) {
+        return clusterIndexes[point];
+    }
+
+    public double getWeight(int point) {
+        return weights[point];
+    }
+
+    public double getDistance(int point) {
+        return distances[point];
+    }
+
+    public void set(int point, int clusterIndex, double weight, double distance) {
+        clusterIndexes[point] = clusterIndex;
+        weights[point] = weight;
+        distances[point] = distance;
+    }
+}
@@ -0,0 +1,51 @@
+package Clustering;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.iterator.ClusterWritable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Clusters of an iteration, as the state a CheckpointStore saves. Each cluster is written with its class,
+ * as ClusterWritable does, so the Klusters of k-means come back as Klusters.
+ */
+public class ClusterCheckpoint implements Writable {
+
+    private List<Cluster> clusters;
+
+    public ClusterCheckpoint() {
+        this(new ArrayList<Cluster>());
+    }
+
+    public ClusterCheckpoint(List<? extends Cluster> clusters) {
+        this.clusters = new ArrayList<Cluster>(clusters);
+    }
+
+    public List<Cluster> getClusters() {
+        return clusters;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(clusters.size());
+        for (Cluster cluster : clusters) {
+            new ClusterWritable(cluster).write(out);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        int size = in.readInt();
+        clusters = new ArrayList<Cluster>(size);
+        for (int i = 0; i < size; i++) {
+            ClusterWritable writable = new ClusterWritable();
+            writable.readFields(in);
+            clusters.add(writable.getValue());
+        }
+    }
+}
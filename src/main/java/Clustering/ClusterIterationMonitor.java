@@ -0,0 +1,218 @@
+package Clustering;
+
+import Common.CheckpointStore;
+import com.google.common.collect.Lists;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.iterator.ClusterWritable;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.common.iterator.sequencefile.PathFilters;
+import org.apache.mahout.common.iterator.sequencefile.PathType;
+import org.apache.mahout.common.iterator.sequencefile.SequenceFileDirValueIterable;
+import org.apache.mahout.math.Vector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Follows a Mahout clustering driver while it runs by polling its output for the clusters-N directories
+ * it writes after each iteration, and records every new one in an IterationTelemetry. The shifts are the
+ * distances between the centers of consecutive iterations, the sizes the numbers of observations, and the
+ * SSE n * |radius|^2 summed over the clusters, the radius being the standard deviation of every
+ * coordinate. The wall time of an iteration is the time between the appearance of two directories.
+ * <p>
+ * With a CheckpointStore it also saves the clusters of the iterations the store asks for, so that a run
+ * can be resumed from them even if its output is lost.
+ */
+public class ClusterIterationMonitor implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterIterationMonitor.class);
+
+    static final long POLL_INTERVAL_MILLIS = 500;
+
+    private final Configuration conf;
+
+    private final Path output;
+
+    private final DistanceMeasure measure;
+
+    private final double convergenceDelta;
+
+    private final IterationTelemetry telemetry;
+
+    private final Thread thread;
+
+    private CheckpointStore checkpoints; // null to checkpoint nothing
+
+    private int firstIteration; // iteration of a resumed run the clusters-0 directory stands for
+
+    private int nextIteration;
+
+    private long lastTime;
+
+    private Map<Integer, Vector> previousCenters;
+
+    private volatile boolean closed;
+
+    public ClusterIterationMonitor(Configuration conf, Path output, DistanceMeasure measure,
+                                   double convergenceDelta, IterationTelemetry telemetry) {
+        this.conf = conf;
+        this.output = output;
+        this.measure = measure;
+        this.convergenceDelta = convergenceDelta;
+        this.telemetry = telemetry;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, "cluster-iteration-monitor");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Saves the clusters of the iterations due in checkpoints, numbered from firstIteration, the
+     * iteration the driver was started from.
+     */
+    public void setCheckpoints(CheckpointStore checkpoints, int firstIteration) {
+        this.checkpoints = checkpoints;
+        this.firstIteration = firstIteration;
+    }
+
+    public void start() {
+        lastTime = System.currentTimeMillis();
+        thread.start();
+    }
+
+    /**
+     * Starts monitoring output, unless telemetry is null.
+     *
+     * @return the started monitor, null without telemetry
+     */
+    public static ClusterIterationMonitor start(Configuration conf, Path output, DistanceMeasure measure,
+                                                double convergenceDelta, IterationTelemetry telemetry) {
+        if (telemetry == null) {
+            return null;
+        }
+        ClusterIterationMonitor monitor = new ClusterIterationMonitor(conf, output, measure, convergenceDelta,
+                telemetry);
+        monitor.start();
+        return monitor;
+    }
+
+    /**
+     * Starts monitoring output, unless both telemetry and checkpoints are null.
+     *
+     * @return the started monitor, null without telemetry nor checkpoints
+     */
+    public static ClusterIterationMonitor start(Configuration conf, Path output, DistanceMeasure measure,
+                                                double convergenceDelta, IterationTelemetry telemetry,
+                                                CheckpointStore checkpoints, int firstIteration) {
+        if (telemetry == null && checkpoints == null) {
+            return null;
+        }
+        ClusterIterationMonitor monitor = new ClusterIterationMonitor(conf, output, measure, convergenceDelta,
+                telemetry);
+        monitor.setCheckpoints(checkpoints, firstIteration);
+        monitor.start();
+        return monitor;
+    }
+
+    private void poll() {
+        while (!closed) {
+            try {
+                scan();
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                // a directory being written can fail to read, it is read again at the next poll
+                log.debug("Could not read the clusters of iteration " + nextIteration, e);
+            }
+        }
+    }
+
+    /**
+     * Records the iterations completed since the last scan.
+     */
+    private synchronized void scan() throws IOException {
+        FileSystem fs = output.getFileSystem(conf);
+        while (true) {
+            Path clusters = new Path(output, Cluster.CLUSTERS_DIR + nextIteration);
+            Path finalClusters = new Path(output,
+                    Cluster.CLUSTERS_DIR + nextIteration + Cluster.FINAL_ITERATION_SUFFIX);
+            Path path;
+            if (fs.exists(finalClusters)) {
+                path = finalClusters;
+            } else if (fs.exists(clusters) && (nextIteration == 0 || fs.exists(new Path(clusters, "_SUCCESS"))
+                    || fs.exists(new Path(output, Cluster.CLUSTERS_DIR + (nextIteration + 1))))) {
+                path = clusters;
+            } else {
+                return;
+            }
+            record(path, path == finalClusters);
+            nextIteration++;
+        }
+    }
+
+    private void record(Path path, boolean last) throws IOException {
+        List<Cluster> clusters = Lists.newArrayList();
+        for (ClusterWritable writable : new SequenceFileDirValueIterable<ClusterWritable>(path, PathType.LIST,
+                PathFilters.partFilter(), conf)) {
+            clusters.add(writable.getValue());
+        }
+        long now = System.currentTimeMillis();
+        long[] sizes = new long[clusters.size()];
+        double[] shifts = new double[previousCenters == null ? 0 : clusters.size()];
+        Map<Integer, Vector> centers = new HashMap<Integer, Vector>();
+        long points = 0;
+        double sse = 0;
+        for (int c = 0; c < clusters.size(); c++) {
+            Cluster cluster = clusters.get(c);
+            sizes[c] = cluster.getNumObservations();
+            points += sizes[c];
+            Vector radius = cluster.getRadius();
+            sse += radius == null ? Double.NaN : cluster.getNumObservations() * radius.getLengthSquared();
+            centers.put(cluster.getId(), cluster.getCenter());
+            if (previousCenters != null) {
+                Vector previous = previousCenters.get(cluster.getId());
+                shifts[c] = previous == null ? 0 : measure.distance(previous, cluster.getCenter());
+            }
+        }
+        if (telemetry != null) {
+            telemetry.record(nextIteration, now - lastTime, points, shifts, convergenceDelta, sizes, sse);
+        }
+        int iteration = firstIteration + nextIteration;
+        if (checkpoints != null && nextIteration > 0 && !last && checkpoints.isDue(iteration)) {
+            try {
+                checkpoints.save(iteration, new ClusterCheckpoint(clusters));
+            } catch (IOException e) {
+                log.warn("Could not checkpoint iteration " + iteration, e);
+            }
+        }
+        previousCenters = centers;
+        lastTime = now;
+    }
+
+    /**
+     * Stops polling, after recording the iterations the driver completed since the last poll.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scan();
+    }
+}
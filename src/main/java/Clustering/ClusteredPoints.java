@@ -0,0 +1,279 @@
+package Clustering;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.mahout.clustering.classify.WeightedPropertyVectorWritable;
+import org.apache.mahout.clustering.topdown.PathDirectory;
+import org.apache.mahout.common.iterator.sequencefile.PathFilters;
+import org.apache.mahout.math.NamedVector;
+import org.apache.mahout.math.Vector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Columnar view of the clusteredPoints of a clustering output: for every point, in key order, its key,
+ * the id of its cluster, its weight and its distance to the cluster center (NaN when the classification
+ * did not record it). The key of a point is the name of its NamedVector, the number of its input line
+ * that CsvVectorizer names the vectors after and the classification carries along. Points without such
+ * a name are keyed by their position in the part files, which are read in name order. The vectors are
+ * only kept on request.
+ */
+public class ClusteredPoints {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusteredPoints.class);
+
+    private static final Text DISTANCE = new Text("distance");
+
+    private final long[] keys;
+
+    private final int[] clusterIds;
+
+    private final double[] weights;
+
+    private final double[] distances;
+
+    private final List<Vector> vectors; // null unless read with the vectors
+
+    ClusteredPoints(long[] keys, int[] clusterIds, double[] weights, double[] distances, List<Vector> vectors) {
+        this.keys = keys;
+        this.clusterIds = clusterIds;
+        this.weights = weights;
+        this.distances = distances;
+        this.vectors = vectors;
+    }
+
+    public int size() {
+        return clusterIds.length;
+    }
+
+    /**
+     * @return the key of the point, the number of its input line for vectors written by CsvVectorizer
+     */
+    public long getKey(int point) {
+        return keys[point];
+    }
+
+    public int getClusterId(int point) {
+        return clusterIds[point];
+    }
+
+    public double getWeight(int point) {
+        return weights[point];
+    }
+
+    public double getDistance(int point) {
+        return distances[point];
+    }
+
+    public boolean hasVectors() {
+        return vectors != null;
+    }
+
+    public Vector getVector(int point) {
+        Preconditions.checkState(vectors != null, "The points were read without their vectors");
+        return vectors.get(point);
+    }
+
+    /**
+     * Reads every part file of output/clusteredPoints, one thread per file up to numThreads.
+     *
+     * @param readVectors whether to keep the vectors of the points, only needed for a text dump
+     */
+    public static ClusteredPoints read(final Configuration conf, Path output, int numThreads,
+                                       final boolean readVectors)
+            throws IOException, InterruptedException, ExecutionException {
+        Path clusteredPoints = new Path(output, PathDirectory.CLUSTERED_POINTS_DIRECTORY);
+        FileSystem fs = clusteredPoints.getFileSystem(conf);
+        FileStatus[] parts = fs.listStatus(clusteredPoints, PathFilters.partFilter());
+        // the keys give the order of the points; the name order only numbers the points without one
+        Arrays.sort(parts);
+
+        List<Part> read = Lists.newArrayListWithCapacity(parts.length);
+        if (parts.length > 0) {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, parts.length)));
+            try {
+                List<Future<Part>> futures = Lists.newArrayListWithCapacity(parts.length);
+                for (final FileStatus part : parts) {
+                    futures.add(executor.submit(new Callable<Part>() {
+                        @Override
+                        public Part call() throws IOException {
+                            return readPart(conf, part.getPath(), readVectors);
+                        }
+                    }));
+                }
+                for (Future<Part> future : futures) {
+                    read.add(future.get());
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        int size = 0;
+        for (Part part : read) {
+            size += part.size;
+        }
+        long[] keys = new long[size];
+        int[] clusterIds = new int[size];
+        double[] weights = new double[size];
+        double[] distances = new double[size];
+        List<Vector> vectors = readVectors ? Lists.<Vector>newArrayListWithCapacity(size) : null;
+        int offset = 0;
+        int unnamed = 0;
+        for (Part part : read) {
+            for (int i = 0; i < part.size; i++) {
+                if (part.keys[i] < 0) {
+                    keys[offset + i] = offset + i;
+                    unnamed++;
+                } else {
+                    keys[offset + i] = part.keys[i];
+                }
+            }
+            System.arraycopy(part.clusterIds, 0, clusterIds, offset, part.size);
+            System.arraycopy(part.weights, 0, weights, offset, part.size);
+            System.arraycopy(part.distances, 0, distances, offset, part.size);
+            if (readVectors) {
+                vectors.addAll(part.vectors);
+            }
+            offset += part.size;
+        }
+        if (unnamed > 0) {
+            log.warn("{} of the {} clustered points have no key, keyed by their position instead", unnamed, size);
+        }
+        log.info("Read {} clustered points from {} part files", size, parts.length);
+        return sortByKey(new ClusteredPoints(keys, clusterIds, weights, distances, vectors));
+    }
+
+    private static ClusteredPoints sortByKey(final ClusteredPoints points) {
+        int size = points.size();
+        boolean sorted = true;
+        for (int point = 1; point < size && sorted; point++) {
+            sorted = points.keys[point - 1] <= points.keys[point];
+        }
+        if (sorted) {
+            return points;
+        }
+        Integer[] order = new Integer[size];
+        for (int point = 0; point < size; point++) {
+            order[point] = point;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(points.keys[a], points.keys[b]);
+            }
+        });
+        long[] keys = new long[size];
+        int[] clusterIds = new int[size];
+        double[] weights = new double[size];
+        double[] distances = new double[size];
+        List<Vector> vectors = points.vectors == null ? null : Lists.<Vector>newArrayListWithCapacity(size);
+        for (int point = 0; point < size; point++) {
+            int from = order[point];
+            keys[point] = points.keys[from];
+            clusterIds[point] = points.clusterIds[from];
+            weights[point] = points.weights[from];
+            distances[point] = points.distances[from];
+            if (vectors != null) {
+                vectors.add(points.vectors.get(from));
+            }
+        }
+        return new ClusteredPoints(keys, clusterIds, weights, distances, vectors);
+    }
+
+    /**
+     * @return the key the vector is named after, -1 if it has none
+     */
+    private static long key(Vector vector) {
+        if (vector instanceof NamedVector) {
+            try {
+                return Long.parseLong(((NamedVector) vector).getName());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static Part readPart(Configuration conf, Path path, boolean readVectors) throws IOException {
+        Part part = new Part(readVectors);
+        SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(path));
+        try {
+            IntWritable key = new IntWritable();
+            WeightedPropertyVectorWritable value = new WeightedPropertyVectorWritable();
+            while (reader.next(key, value)) {
+                Map<Text, Text> properties = value.getProperties();
+                Text distance = properties == null ? null : properties.get(DISTANCE);
+                Vector vector = value.getVector();
+                part.add(key(vector), key.get(), value.getWeight(),
+                        distance == null ? Double.NaN : Double.parseDouble(distance.toString()),
+                        readVectors ? unnamed(vector) : null);
+            }
+        } finally {
+            Closeables.close(reader, true);
+        }
+        return part;
+    }
+
+    private static Vector unnamed(Vector vector) {
+        return vector instanceof NamedVector ? ((NamedVector) vector).getDelegate() : vector;
+    }
+
+    /**
+     * Growable columns of a part file.
+     */
+    private static final class Part {
+
+        private long[] keys = new long[1024];
+
+        private int[] clusterIds = new int[1024];
+
+        private double[] weights = new double[1024];
+
+        private double[] distances = new double[1024];
+
+        private final List<Vector> vectors;
+
+        private int size;
+
+        private Part(boolean readVectors) {
+            vectors = readVectors ? Lists.<Vector>newArrayList() : null;
+        }
+
+        private void add(long key, int clusterId, double weight, double distance, Vector vector) {
+            if (size == clusterIds.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                clusterIds = Arrays.copyOf(clusterIds, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            keys[size] = key;
+            clusterIds[size] = clusterId;
+            weights[size] = weight;
+            distances[size] = distance;
+            if (vectors != null) {
+                vectors.add(vector);
+            }
+            size++;
+        }
+    }
+}
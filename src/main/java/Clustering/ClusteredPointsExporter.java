@@ -0,0 +1,136 @@
+package Clustering;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+import org.apache.mahout.clustering.AbstractCluster;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Exports ClusteredPoints as columns of point id, cluster id, weight and distance, either in binary or
+ * in CSV, or as a readable text dump that also prints the vectors. The point id is the key of the point,
+ * the number of its input line.
+ * <p>
+ * The binary layout is big-endian: the int {@link #MAGIC}, the int {@link #VERSION}, the long number of
+ * points n, then n long point ids, n int cluster ids, n double weights and n double distances.
+ */
+public final class ClusteredPointsExporter {
+
+    public static final int MAGIC = 0x43505453; // "CPTS"
+
+    public static final int VERSION = 1;
+
+    public enum Format {
+        BINARY("bin"), CSV("csv"), TEXT("txt");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * @return the usual file extension of the format, without the dot
+         */
+        public String getExtension() {
+            return extension;
+        }
+
+        public static Format fromName(String name) {
+            for (Format format : values()) {
+                if (format.name().equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unknown export format: " + name + ", expected binary, csv or text");
+        }
+    }
+
+    private ClusteredPointsExporter() {
+    }
+
+    public static void export(ClusteredPoints points, File file, Format format) throws IOException {
+        switch (format) {
+            case BINARY:
+                writeBinary(points, file);
+                break;
+            case CSV:
+                writeCsv(points, file);
+                break;
+            default:
+                writeText(points, file);
+                break;
+        }
+    }
+
+    private static void writeBinary(ClusteredPoints points, File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            int size = points.size();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(size);
+            for (int point = 0; point < size; point++) {
+                out.writeLong(points.getKey(point));
+            }
+            for (int point = 0; point < size; point++) {
+                out.writeInt(points.getClusterId(point));
+            }
+            for (int point = 0; point < size; point++) {
+                out.writeDouble(points.getWeight(point));
+            }
+            for (int point = 0; point < size; point++) {
+                out.writeDouble(points.getDistance(point));
+            }
+        } finally {
+            Closeables.close(out, false);
+        }
+    }
+
+    private static void writeCsv(ClusteredPoints points, File file) throws IOException {
+        Writer writer = newWriter(file);
+        try {
+            StringBuilder line = new StringBuilder(64);
+            writer.write("point,cluster,weight,distance\n");
+            for (int point = 0; point < points.size(); point++) {
+                line.setLength(0);
+                line.append(points.getKey(point)).append(',').append(points.getClusterId(point)).append(',')
+                        .append(points.getWeight(point)).append(',').append(points.getDistance(point)).append('\n');
+                writer.append(line);
+            }
+        } finally {
+            Closeables.close(writer, false);
+        }
+    }
+
+    private static void writeText(ClusteredPoints points, File file) throws IOException {
+        Writer writer = newWriter(file);
+        try {
+            StringBuilder line = new StringBuilder(256);
+            for (int point = 0; point < points.size(); point++) {
+                line.setLength(0);
+                line.append("wt: ").append(points.getWeight(point))
+                        .append(" distance: ").append(points.getDistance(point))
+                        .append(" vec: ").append(points.getKey(point));
+                if (points.hasVectors()) {
+                    line.append(' ').append(AbstractCluster.formatVector(points.getVector(point), null));
+                }
+                line.append(" belongs to cluster ").append(points.getClusterId(point)).append('\n');
+                writer.append(line);
+            }
+        } finally {
+            Closeables.close(writer, false);
+        }
+    }
+
+    private static Writer newWriter(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8), 1 << 16);
+    }
+}
@@ -0,0 +1,372 @@
+package Clustering;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Streaming quality evaluation of a clustering. Every assignment updates a contingency table of
+ * clusters by labels, so the memory is bounded by clusters x labels whatever the number of points, and
+ * the external measures (purity, normalized mutual information, adjusted Rand index) are computed from
+ * the table at the end. The within-cluster sum of squared errors and the cluster sizes do not need labels.
+ * <p>
+ * Cluster ids and labels are mapped to dense indexes in order of appearance, so they need not match:
+ * unlike the ratio of points whose cluster id equals their label, the measures do not depend on the
+ * numbering of the clusters.
+ */
+public class ClusteringEvaluator {
+
+    private final boolean squaredDistances; // the distances are already squared errors
+
+    private final Map<Integer, Integer> clusterIndexes = new HashMap<Integer, Integer>();
+
+    private final List<Integer> clusterIds = Lists.newArrayList();
+
+    private final Map<String, Integer> labelIndexes = new HashMap<String, Integer>();
+
+    private final List<String> labels = Lists.newArrayList();
+
+    private final List<long[]> counts = Lists.newArrayList(); // per cluster, points per label
+
+    private long[] sizes = new long[16];
+
+    private double[] errors = new double[16];
+
+    private long numPoints;
+
+    private long numLabeled;
+
+    private long numWithoutDistance;
+
+    /**
+     * @param squaredDistances whether the distances given to add are already squared, as those of the
+     *                         squared euclidean measure
+     */
+    public ClusteringEvaluator(boolean squaredDistances) {
+        this.squaredDistances = squaredDistances;
+    }
+
+    /**
+     * Adds an unlabeled point, only counted in the cluster sizes and errors.
+     *
+     * @param distance distance of the point to its cluster center, NaN if unknown
+     */
+    public void add(int clusterId, double distance) {
+        add(clusterId, null, distance);
+    }
+
+    /**
+     * Adds a point with its true label, or null if it has none.
+     *
+     * @param distance distance of the point to its cluster center, NaN if unknown
+     */
+    public void add(int clusterId, String label, double distance) {
+        int cluster = clusterIndex(clusterId);
+        numPoints++;
+        sizes[cluster]++;
+        if (Double.isNaN(distance)) {
+            numWithoutDistance++;
+        } else {
+            errors[cluster] += squaredDistances ? distance : distance * distance;
+        }
+        if (label != null) {
+            long[] row = counts.get(cluster);
+            int labelIndex = labelIndex(label);
+            if (labelIndex >= row.length) {
+                row = Arrays.copyOf(row, labels.size());
+                counts.set(cluster, row);
+            }
+            row[labelIndex]++;
+            numLabeled++;
+        }
+    }
+
+    public long getNumPoints() {
+        return numPoints;
+    }
+
+    public int getNumClusters() {
+        return clusterIds.size();
+    }
+
+    public int getNumLabels() {
+        return labels.size();
+    }
+
+    public long getClusterSize(int clusterId) {
+        Integer cluster = clusterIndexes.get(clusterId);
+        return cluster == null ? 0 : sizes[cluster];
+    }
+
+    /**
+     * @return the sum of the squared distances of the points of the cluster to its center
+     */
+    public double getClusterError(int clusterId) {
+        Integer cluster = clusterIndexes.get(clusterId);
+        return cluster == null ? 0 : errors[cluster];
+    }
+
+    /**
+     * @return the within-cluster sum of squared errors, NaN if some distances were unknown
+     */
+    public double getSse() {
+        if (numWithoutDistance > 0) {
+            return Double.NaN;
+        }
+        double sse = 0;
+        for (int cluster = 0; cluster < clusterIds.size(); cluster++) {
+            sse += errors[cluster];
+        }
+        return sse;
+    }
+
+    /**
+     * @return the fraction of the labeled points carrying the majority label of their cluster
+     */
+    public double getPurity() {
+        if (numLabeled == 0) {
+            return Double.NaN;
+        }
+        long majorities = 0;
+        for (long[] row : counts) {
+            long max = 0;
+            for (long count : row) {
+                max = Math.max(max, count);
+            }
+            majorities += max;
+        }
+        return (double) majorities / numLabeled;
+    }
+
+    /**
+     * @return the mutual information of the clusters and the labels normalized by the mean of their
+     * entropies, 1 for identical partitions
+     */
+    public double getNormalizedMutualInformation() {
+        if (numLabeled == 0) {
+            return Double.NaN;
+        }
+        long[] clusterTotals = clusterTotals();
+        long[] labelTotals = labelTotals();
+        double n = numLabeled;
+        double mutualInformation = 0;
+        for (int cluster = 0; cluster < counts.size(); cluster++) {
+            long[] row = counts.get(cluster);
+            for (int label = 0; label < row.length; label++) {
+                if (row[label] > 0) {
+                    mutualInformation += row[label] / n
+                            * Math.log(n * row[label] / ((double) clusterTotals[cluster] * labelTotals[label]));
+                }
+            }
+        }
+        double entropies = entropy(clusterTotals, n) + entropy(labelTotals, n);
+        return entropies == 0 ? 1 : 2 * mutualInformation / entropies;
+    }
+
+    /**
+     * @return the Rand index of the clusters and the labels adjusted for chance, 0 for random partitions
+     * and 1 for identical ones
+     */
+    public double getAdjustedRandIndex() {
+        if (numLabeled == 0) {
+            return Double.NaN;
+        }
+        double pairs = 0;
+        for (long[] row : counts) {
+            for (long count : row) {
+                pairs += pairs(count);
+            }
+        }
+        double clusterPairs = 0;
+        for (long total : clusterTotals()) {
+            clusterPairs += pairs(total);
+        }
+        double labelPairs = 0;
+        for (long total : labelTotals()) {
+            labelPairs += pairs(total);
+        }
+        double expected = clusterPairs * labelPairs / pairs(numLabeled);
+        double max = (clusterPairs + labelPairs) / 2;
+        return max == expected ? 1 : (pairs - expected) / (max - expected);
+    }
+
+    /**
+     * @return the measures and the size and error of every cluster, one per line
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder(256);
+        report.append(String.format(Locale.ENGLISH, "Points: %d, clusters: %d, SSE: %.6f%n",
+                numPoints, clusterIds.size(), getSse()));
+        if (numLabeled > 0) {
+            report.append(String.format(Locale.ENGLISH,
+                    "Labeled points: %d, labels: %d, purity: %.6f, NMI: %.6f, ARI: %.6f%n", numLabeled,
+                    labels.size(), getPurity(), getNormalizedMutualInformation(), getAdjustedRandIndex()));
+        }
+        for (int cluster = 0; cluster < clusterIds.size(); cluster++) {
+            report.append(String.format(Locale.ENGLISH, "Cluster %d: %d points, SSE %.6f", clusterIds.get(cluster),
+                    sizes[cluster], errors[cluster]));
+            if (numLabeled > 0) {
+                long[] row = counts.get(cluster);
+                report.append(", labels");
+                for (int label = 0; label < row.length; label++) {
+                    if (row[label] > 0) {
+                        report.append(' ').append(labels.get(label)).append('=').append(row[label]);
+                    }
+                }
+            }
+            report.append(String.format("%n"));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Evaluates the clustered points, reading their labels from the given column of a CSV file, such as the
+     * clustered input with its class column. The labels are matched to the points by the line keys of
+     * CsvVectorizer, the numbers of the non-blank data lines, that ClusteredPoints reads in increasing
+     * order: the lines without a point, those the vectorizer skipped, are passed over. Fields are separated
+     * by commas or blanks, as CsvVectorizer reads them.
+     *
+     * @param labelFile   the labels, or null to evaluate without labels
+     * @param labelColumn the column of the labels
+     * @param skipHeader  whether the first line of the label file is a header
+     */
+    public static ClusteringEvaluator evaluate(ClusteredPoints points, boolean squaredDistances, File labelFile,
+                                               int labelColumn, boolean skipHeader)
+            throws IOException {
+        ClusteringEvaluator evaluator = new ClusteringEvaluator(squaredDistances);
+        if (labelFile == null) {
+            for (int point = 0; point < points.size(); point++) {
+                evaluator.add(points.getClusterId(point), points.getDistance(point));
+            }
+            return evaluator;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(labelFile),
+                Charsets.UTF_8), 1 << 16);
+        try {
+            String line = skipHeader ? reader.readLine() : null;
+            long key = 0;
+            int point = 0;
+            while (point < points.size()) {
+                line = reader.readLine();
+                if (line == null) {
+                    throw new IllegalArgumentException(labelFile + " has no line for the key "
+                            + points.getKey(point) + " of a clustered point");
+                }
+                if (line.trim().isEmpty()) {
+                    continue; // not a data line, it has no key
+                }
+                // a point classified into several clusters appears once per cluster
+                while (point < points.size() && points.getKey(point) == key) {
+                    evaluator.add(points.getClusterId(point), field(line, labelColumn), points.getDistance(point));
+                    point++;
+                }
+                key++;
+            }
+        } finally {
+            Closeables.close(reader, true);
+        }
+        return evaluator;
+    }
+
+    private static String field(String line, int column) {
+        boolean commas = line.indexOf(',') >= 0;
+        int field = 0;
+        int start = 0;
+        int length = line.length();
+        if (!commas) {
+            while (start < length && Character.isWhitespace(line.charAt(start))) {
+                start++;
+            }
+        }
+        while (start <= length) {
+            int end = start;
+            while (end < length && (commas ? line.charAt(end) != ',' : !Character.isWhitespace(line.charAt(end)))) {
+                end++;
+            }
+            if (field == column) {
+                return line.substring(start, end).trim();
+            }
+            field++;
+            start = end + 1;
+            if (!commas) {
+                while (start < length && Character.isWhitespace(line.charAt(start))) {
+                    start++;
+                }
+                if (start == length) {
+                    break;
+                }
+            }
+        }
+        throw new IllegalArgumentException("No column " + column + " in: " + line);
+    }
+
+    private int clusterIndex(int clusterId) {
+        Integer index = clusterIndexes.get(clusterId);
+        if (index == null) {
+            index = clusterIds.size();
+            clusterIndexes.put(clusterId, index);
+            clusterIds.add(clusterId);
+            counts.add(new long[Math.max(1, labels.size())]);
+            if (index == sizes.length) {
+                sizes = Arrays.copyOf(sizes, index * 2);
+                errors = Arrays.copyOf(errors, index * 2);
+            }
+        }
+        return index;
+    }
+
+    private int labelIndex(String label) {
+        Integer index = labelIndexes.get(label);
+        if (index == null) {
+            index = labels.size();
+            labelIndexes.put(label, index);
+            labels.add(label);
+        }
+        return index;
+    }
+
+    private long[] clusterTotals() {
+        long[] totals = new long[counts.size()];
+        for (int cluster = 0; cluster < counts.size(); cluster++) {
+            for (long count : counts.get(cluster)) {
+                totals[cluster] += count;
+            }
+        }
+        return totals;
+    }
+
+    private long[] labelTotals() {
+        long[] totals = new long[labels.size()];
+        for (long[] row : counts) {
+            for (int label = 0; label < row.length; label++) {
+                totals[label] += row[label];
+            }
+        }
+        return totals;
+    }
+
+    private static double entropy(long[] totals, double n) {
+        double entropy = 0;
+        for (long total : totals) {
+            if (total > 0) {
+                entropy -= total / n * Math.log(total / n);
+            }
+        }
+        return entropy;
+    }
+
+    private static double pairs(long n) {
+        return n * (n - 1) / 2.0;
+    }
+}
@@ -0,0 +1,78 @@
+package Clustering;
+
+import com.google.common.io.Closeables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.classify.ClusterClassifier;
+import org.apache.mahout.clustering.classify.WeightedPropertyVectorWritable;
+import org.apache.mahout.clustering.iterator.ClusteringPolicy;
+import org.apache.mahout.clustering.topdown.PathDirectory;
+import org.apache.mahout.math.NamedVector;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the results of the in-memory clustering engines with the same layout as the Mahout drivers,
+ * so that ClusteredPoints, ClusterDumper and ClusterClassificationDriver read them unchanged.
+ */
+public final class ClusteringOutputWriter {
+
+    private static final String CLUSTERED_POINTS_FILE = "part-m-00000";
+
+    private ClusteringOutputWriter() {
+    }
+
+    /**
+     * Writes the clusters and the clustering policy to output/clusters-{iterations}-final.
+     *
+     * @return the final clusters path
+     */
+    public static Path writeFinalClusters(Path output, int iterations, List<Cluster> clusters,
+                                          ClusteringPolicy policy) throws IOException {
+        Path finalClustersPath = new Path(output, Cluster.CLUSTERS_DIR + iterations + Cluster.FINAL_ITERATION_SUFFIX);
+        new ClusterClassifier(clusters, policy).writeToSeqFiles(finalClustersPath);
+        return finalClustersPath;
+    }
+
+    /**
+     * Writes the most likely cluster of every point to output/clusteredPoints/part-m-00000, keyed by
+     * cluster id with the pdf as weight and the distance as property, like the emitMostLikely
+     * classification step. Each vector is named after the key of its row, as CsvVectorizer names them.
+     */
+    public static void writeClusteredPoints(Configuration conf, Path output, PointMatrix points,
+                                            List<Cluster> clusters, ClusterAssignments assignments)
+            throws IOException {
+        writeClusteredPoints(conf, output, CLUSTERED_POINTS_FILE, points, clusters, assignments);
+    }
+
+    /**
+     * Writes the most likely cluster of every point to the given part file of output/clusteredPoints.
+     */
+    public static void writeClusteredPoints(Configuration conf, Path output, String partName, PointMatrix points,
+                                            List<Cluster> clusters, ClusterAssignments assignments)
+            throws IOException {
+        Path path = new Path(new Path(output, PathDirectory.CLUSTERED_POINTS_DIRECTORY), partName);
+        SequenceFile.Writer writer = SequenceFile.createWriter(conf, SequenceFile.Writer.file(path),
+                SequenceFile.Writer.keyClass(IntWritable.class),
+                SequenceFile.Writer.valueClass(WeightedPropertyVectorWritable.class));
+        try {
+            IntWritable key = new IntWritable();
+            for (int row = 0; row < points.numRows(); row++) {
+                Map<Text, Text> props = new HashMap<Text, Text>();
+                props.put(new Text("distance"), new Text(Double.toString(assignments.getDistance(row))));
+                key.set(clusters.get(assignments.getClusterIndex(row)).getId());
+                writer.append(key, new WeightedPropertyVectorWritable(assignments.getWeight(row),
+                        new NamedVector(points.rowVector(row), Long.toString(points.getKey(row))), props));
+            }
+        } finally {
+            Closeables.close(writer, false);
+        }
+    }
+}
@@ -0,0 +1,921 @@
+package Clustering;
+
+import Common.ColumnarCache;
+import Common.MappedLineRanges;
+import Common.NumberParser;
+import Common.StageEvent;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.mahout.common.HadoopUtil;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.NamedVector;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Converts a delimited text file of numbers into VectorWritable sequence files, replacing both
+ * Kmeans.toDenseVector and InputDriver. The file is memory-mapped and cut into line-aligned ranges,
+ * each range being parsed on its own thread straight from the mapped bytes and written to its own
+ * block-compressed part-m-NNNNN file. Fields are separated by commas and/or blanks; the schema is the
+ * list of columns used as features (all of them by default) and the type of vector written. Keys are
+ * the LongWritable numbers of the non-blank data lines, the header excluded, counted from the first key
+ * (0 unless resuming a previous vectorization). Every vector is a NamedVector named after its key, so
+ * that the classification carries the key into clusteredPoints. Lines with an empty or non-numeric
+ * feature are skipped, their keys left out.
+ * <p>
+ * The AUTO vector type samples the first lines of every range and picks the vector implementation from
+ * the density of their features. The type picked and the sampled density are recorded in the metadata of
+ * every part file, under the VECTOR_TYPE_KEY and DENSITY_KEY keys.
+ * <p>
+ * Unless the column cache is turned off, a whole input is read from its ColumnarCache, built on the first
+ * vectorization of every version of the file, rather than parsed again; its rows are the non-blank data
+ * lines, numbered as the keys.
+ */
+public class CsvVectorizer {
+
+    private static final Logger log = LoggerFactory.getLogger(CsvVectorizer.class);
+
+    /**
+     * Vector implementation written to the sequence files.
+     */
+    public enum VectorType {
+        DENSE, SEQUENTIAL_SPARSE, RANDOM_SPARSE, AUTO;
+
+        /**
+         * @param name dense, sequential, random or auto
+         */
+        public static VectorType fromName(String name) {
+            String lower = name.toLowerCase(Locale.ENGLISH);
+            if ("auto".equals(lower)) {
+                return AUTO;
+            }
+            if ("dense".equals(lower)) {
+                return DENSE;
+            }
+            if ("sequential".equals(lower)) {
+                return SEQUENTIAL_SPARSE;
+            }
+            if ("random".equals(lower)) {
+                return RANDOM_SPARSE;
+            }
+            throw new IllegalArgumentException("Unknown vector type: " + name);
+        }
+    }
+
+    public static final String VECTOR_TYPE_KEY = "vectorType";
+
+    public static final String DENSITY_KEY = "density";
+
+    static final int DENSITY_SAMPLE_LINES = 1000; // lines sampled by AUTO, spread over the ranges
+
+    // a dense vector costs 8 bytes per feature, a sparse one 12 per non-zero plus its hashing or merging
+    static final double DENSE_THRESHOLD = 0.5;
+
+    // below this density the centers, which accumulate the non-zeros of all their points, are best updated
+    // in a hash map rather than by insertions in sorted arrays
+    static final double SEQUENTIAL_THRESHOLD = 0.01;
+
+    // largest array the JVMs allocate, a few header words below Integer.MAX_VALUE
+    static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    private final Configuration conf;
+
+    private int[] columns; // feature columns, null for all of them
+
+    private boolean skipHeader;
+
+    private VectorType vectorType = VectorType.AUTO;
+
+    private VectorType selectedType; // type written by the last vectorize call, AUTO resolved
+
+    private double density = Double.NaN; // sampled density of the last vectorize call, NaN if not sampled
+
+    private int numParts = Runtime.getRuntime().availableProcessors();
+
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    private boolean collectPoints; // also keep the points in a PointMatrix
+
+    private PointMatrix points;
+
+    private long skippedLines;
+
+    private long startOffset; // first byte of the input vectorized
+
+    private long endOffset; // end of the input vectorized, where to resume from
+
+    private long firstKey; // key of the first data line vectorized
+
+    private long nextKey; // key following the last data line vectorized, where to resume the numbering from
+
+    private boolean completeLines; // leave out an unterminated last line, for a later vectorization
+
+    private boolean skipFirstLine; // the header is skipped, vectorizing from the start of the input
+
+    private boolean columnCache = true; // read whole inputs from their ColumnarCache
+
+    public CsvVectorizer(Configuration conf) {
+        this.conf = conf;
+    }
+
+    /**
+     * Selects the feature columns, in the order of the vector indexes.
+     */
+    public void setColumns(int[] columns) {
+        this.columns = columns;
+    }
+
+    public void setSkipHeader(boolean skipHeader) {
+        this.skipHeader = skipHeader;
+    }
+
+    /**
+     * Vectorizes the input from the given byte offset only, which must be the start of a line, such as
+     * the end offset of a previous vectorization of a file that has been appended to since.
+     */
+    public void setStartOffset(long startOffset) {
+        Preconditions.checkArgument(startOffset >= 0, "startOffset must not be negative");
+        this.startOffset = startOffset;
+    }
+
+    /**
+     * Numbers the data lines from the given key rather than 0, such as the next key of the previous
+     * vectorization resumed from its end offset, so that the keys of the appended lines follow its keys.
+     */
+    public void setFirstKey(long firstKey) {
+        Preconditions.checkArgument(firstKey >= 0, "firstKey must not be negative");
+        this.firstKey = firstKey;
+    }
+
+    /**
+     * @return the key following the data lines numbered by the last vectorize call, skipped ones included,
+     * the first key of the vectorization resuming from the end offset
+     */
+    public long getNextKey() {
+        return nextKey;
+    }
+
+    /**
+     * Vectorizes only the lines ended by a newline, leaving a last line still being appended to for the
+     * vectorization resuming from the end offset.
+     */
+    public void setCompleteLines(boolean completeLines) {
+        this.completeLines = completeLines;
+    }
+
+    /**
+     * @return the end of the input vectorized by the last vectorize call, the offset to resume from once
+     * more lines have been appended to it: its size, or the end of its complete lines with setCompleteLines
+     */
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    public void setVectorType(VectorType vectorType) {
+        this.vectorType = vectorType;
+    }
+
+    /**
+     * @return the vector type the last vectorize call wrote, AUTO being resolved
+     */
+    public VectorType getSelectedType() {
+        return selectedType;
+    }
+
+    /**
+     * @return the fraction of non-zero features sampled by the last vectorize call, NaN unless its vector
+     * type was AUTO
+     */
+    public double getDensity() {
+        return density;
+    }
+
+    /**
+     * Sets the number of ranges, and part files, the input is divided into.
+     */
+    public void setNumParts(int numParts) {
+        Preconditions.checkArgument(numParts > 0, "numParts must be positive");
+        this.numParts = numParts;
+    }
+
+    public void setNumThreads(int numThreads) {
+        Preconditions.checkArgument(numThreads > 0, "numThreads must be positive");
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Sets whether whole inputs are read from their ColumnarCache, built next to them if need be.
+     */
+    public void setColumnCache(boolean columnCache) {
+        this.columnCache = columnCache;
+    }
+
+    public void setCollectPoints(boolean collectPoints) {
+        this.collectPoints = collectPoints;
+    }
+
+    /**
+     * @return the points written by the last vectorize call, in file order, when collectPoints is set
+     */
+    public PointMatrix getPoints() {
+        return points;
+    }
+
+    public long getSkippedLines() {
+        return skippedLines;
+    }
+
+    /**
+     * Parses a column list such as "0-8" or "1,3,5-7".
+     */
+    public static int[] parseColumns(String spec) {
+        List<Integer> result = Lists.newArrayList();
+        for (String part : spec.split(",")) {
+            String trimmed = part.trim();
+            int dash = trimmed.indexOf('-');
+            if (dash > 0) {
+                int from = Integer.parseInt(trimmed.substring(0, dash).trim());
+                int to = Integer.parseInt(trimmed.substring(dash + 1).trim());
+                for (int column = from; column <= to; column++) {
+                    result.add(column);
+                }
+            } else {
+                result.add(Integer.parseInt(trimmed));
+            }
+        }
+        int[] parsed = new int[result.size()];
+        for (int i = 0; i < parsed.length; i++) {
+            parsed[i] = result.get(i);
+        }
+        return parsed;
+    }
+
+    /**
+     * Vectorizes the input into output, which is replaced.
+     *
+     * @param output directory of the part files, or null to only collect the points
+     * @return the number of vectors written
+     */
+    public long vectorize(File input, Path output) throws IOException, InterruptedException, ExecutionException {
+        Preconditions.checkArgument(output != null || collectPoints, "no output and no points collected");
+        StageEvent stage = StageEvent.begin("CsvVectorizer", "vectorize");
+        try {
+            long vectors = vectorizeInput(input, output);
+            stage.addRows(vectors);
+            stage.addBytesRead(endOffset - startOffset);
+            stage.addBytesWritten(conf, output);
+            return vectors;
+        } finally {
+            stage.commit();
+        }
+    }
+
+    private long vectorizeInput(File input, Path output)
+            throws IOException, InterruptedException, ExecutionException {
+        if (output != null) {
+            HadoopUtil.delete(conf, output);
+        }
+        points = null;
+        skippedLines = 0;
+        nextKey = firstKey;
+        density = Double.NaN;
+        selectedType = vectorType;
+
+        FileInputStream in = new FileInputStream(input);
+        try {
+            final FileChannel channel = in.getChannel();
+            long inputEnd = completeLines ? MappedLineRanges.completeLinesEnd(channel, startOffset) : channel.size();
+            // the cache holds every line of the input, an unterminated last one included
+            if (columnCache && startOffset == 0 && inputEnd == channel.size()) {
+                ColumnarCache cache = ColumnarCache.open(input, skipHeader);
+                if (cache != null && covers(cache)) {
+                    return vectorize(cache, output);
+                }
+            }
+
+            long[] bounds = MappedLineRanges.split(channel, startOffset, inputEnd, numParts);
+            endOffset = bounds[bounds.length - 1];
+            skipFirstLine = skipHeader && startOffset == 0;
+            int parts = bounds.length - 1;
+            if (parts == 0) {
+                log.warn("No data in {} from offset {}", input, startOffset);
+                return 0;
+            }
+
+            final int[] columnToIndex = columnToIndex(channel, bounds[0], bounds[1]);
+            final int dims = dims(columnToIndex);
+            if (vectorType == VectorType.AUTO) {
+                selectType(input, sampleDensity(channel, bounds, columnToIndex, dims));
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, parts));
+            try {
+                // number the data lines: count the lines of every range first
+                long[] firstLine = countLines(executor, channel, bounds);
+                long totalLines = firstLine[parts];
+                nextKey = firstKey + totalLines;
+                final double[] values = collectPoints ? new double[collectedValues(totalLines, dims)] : null;
+                final boolean[] written = collectPoints ? new boolean[(int) totalLines] : null;
+
+                List<Future<long[]>> futures = Lists.newArrayList();
+                for (int part = 0; part < parts; part++) {
+                    final int id = part;
+                    final long start = bounds[part];
+                    final long end = bounds[part + 1];
+                    final long first = firstLine[part];
+                    final Path partPath = output == null ? null
+                            : new Path(output, String.format(Locale.ENGLISH, "part-m-%05d", part));
+                    futures.add(executor.submit(new Callable<long[]>() {
+                        @Override
+                        public long[] call() throws IOException {
+                            return vectorizePart(channel, id, start, end, first, columnToIndex, dims, partPath,
+                                    values, written);
+                        }
+                    }));
+                }
+                long vectors = 0;
+                for (Future<long[]> future : futures) {
+                    long[] counts = future.get();
+                    vectors += counts[0];
+                    skippedLines += counts[1];
+                }
+                if (collectPoints) {
+                    points = compact(values, written, dims, vectors, firstKey);
+                }
+                log.info("Vectorized {}: {} {} vectors of {} features in {} parts, {} lines skipped", input,
+                        vectors, selectedType, dims, parts, skippedLines);
+                return vectors;
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            Closeables.close(in, true);
+        }
+    }
+
+    /**
+     * Vectorizes the rows of the column cache of the input, cut into numParts contiguous ranges of rows.
+     */
+    private long vectorize(final ColumnarCache cache, Path output) throws InterruptedException, ExecutionException {
+        final int[] featureColumns = columns != null ? columns : allColumns(cache.getNumColumns());
+        final int dims = featureColumns.length;
+        int rows = cache.getNumRows();
+        endOffset = cache.getSource().length();
+        nextKey = firstKey + rows;
+        if (vectorType == VectorType.AUTO) {
+            selectType(cache.getSource(), sampleDensity(cache, featureColumns));
+        }
+
+        int parts = Math.min(numParts, rows);
+        final double[] values = collectPoints ? new double[collectedValues(rows, dims)] : null;
+        final boolean[] written = collectPoints ? new boolean[rows] : null;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, parts));
+        try {
+            List<Future<long[]>> futures = Lists.newArrayList();
+            for (int part = 0; part < parts; part++) {
+                final int from = (int) ((long) rows * part / parts);
+                final int to = (int) ((long) rows * (part + 1) / parts);
+                final Path partPath = output == null ? null
+                        : new Path(output, String.format(Locale.ENGLISH, "part-m-%05d", part));
+                futures.add(executor.submit(new Callable<long[]>() {
+                    @Override
+                    public long[] call() throws IOException {
+                        return vectorizeRows(cache, featureColumns, from, to, partPath, values, written);
+                    }
+                }));
+            }
+            long vectors = 0;
+            for (Future<long[]> future : futures) {
+                long[] counts = future.get();
+                vectors += counts[0];
+                skippedLines += counts[1];
+            }
+            if (collectPoints) {
+                points = compact(values, written, dims, vectors, firstKey);
+            }
+            log.info("Vectorized the column cache of {}: {} {} vectors of {} features in {} parts, {} rows skipped",
+                    cache.getSource(), vectors, selectedType, dims, parts, skippedLines);
+            return vectors;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the number of vectors written and of rows skipped
+     */
+    private long[] vectorizeRows(ColumnarCache cache, int[] featureColumns, int from, int to, Path partPath,
+                                 double[] values, boolean[] written) throws IOException {
+        SequenceFile.Writer writer = createWriter(partPath);
+        int dims = featureColumns.length;
+        long vectors = 0;
+        long skipped = 0;
+        try {
+            double[] features = new double[dims];
+            Vector dense = new DenseVector(features, true);
+            LongWritable key = new LongWritable();
+            VectorWritable value = new VectorWritable();
+            for (int row = from; row < to; row++) {
+                if (!readRow(cache, row, featureColumns, features)) {
+                    skipped++;
+                    continue;
+                }
+                if (writer != null) {
+                    key.set(firstKey + row);
+                    value.set(new NamedVector(selectedType == VectorType.DENSE ? dense : sparse(features),
+                            Long.toString(key.get())));
+                    writer.append(key, value);
+                }
+                if (values != null) {
+                    System.arraycopy(features, 0, values, row * dims, dims);
+                    written[row] = true;
+                }
+                vectors++;
+            }
+        } finally {
+            Closeables.close(writer, false);
+        }
+        return new long[] {vectors, skipped};
+    }
+
+    /**
+     * @return whether the cache has all the feature columns
+     */
+    private boolean covers(ColumnarCache cache) {
+        if (columns != null) {
+            for (int column : columns) {
+                if (column >= cache.getNumColumns()) {
+                    log.info("Column {} is not in the {} columns of the cache of {}, parsing it", column,
+                            cache.getNumColumns(), cache.getSource());
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int[] allColumns(int numColumns) {
+        int[] all = new int[numColumns];
+        for (int i = 0; i < numColumns; i++) {
+            all[i] = i;
+        }
+        return all;
+    }
+
+    /**
+     * Reads the feature columns of a row of the cache into features.
+     *
+     * @return false if a feature is not a number
+     */
+    private static boolean readRow(ColumnarCache cache, int row, int[] featureColumns, double[] features) {
+        for (int i = 0; i < featureColumns.length; i++) {
+            double feature = cache.getDouble(featureColumns[i], row);
+            if (Double.isNaN(feature)) {
+                return false;
+            }
+            features[i] = feature;
+        }
+        return true;
+    }
+
+    private void selectType(File input, double sampledDensity) {
+        density = sampledDensity;
+        selectedType = density >= DENSE_THRESHOLD ? VectorType.DENSE
+                : density >= SEQUENTIAL_THRESHOLD ? VectorType.SEQUENTIAL_SPARSE : VectorType.RANDOM_SPARSE;
+        log.info(String.format(Locale.ENGLISH, "Sampled density of %s: %.4f, writing %s vectors", input,
+                density, selectedType));
+    }
+
+    private SequenceFile.Writer createWriter(Path partPath) throws IOException {
+        if (partPath == null) {
+            return null;
+        }
+        SequenceFile.Metadata metadata = new SequenceFile.Metadata();
+        metadata.set(new Text(VECTOR_TYPE_KEY), new Text(selectedType.name()));
+        if (!Double.isNaN(density)) {
+            metadata.set(new Text(DENSITY_KEY), new Text(Double.toString(density)));
+        }
+        return SequenceFile.createWriter(conf,
+                SequenceFile.Writer.file(partPath),
+                SequenceFile.Writer.keyClass(LongWritable.class),
+                SequenceFile.Writer.valueClass(VectorWritable.class),
+                SequenceFile.Writer.compression(SequenceFile.CompressionType.BLOCK,
+                        ReflectionUtils.newInstance(DefaultCodec.class, conf)),
+                SequenceFile.Writer.metadata(metadata));
+    }
+
+    private long[] countLines(ExecutorService executor, final FileChannel channel, long[] bounds)
+            throws IOException, InterruptedException, ExecutionException {
+        int parts = bounds.length - 1;
+        List<Future<Long>> futures = Lists.newArrayList();
+        for (int part = 0; part < parts; part++) {
+            final long start = bounds[part];
+            final long end = bounds[part + 1];
+            futures.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws IOException {
+                    return countDataLines(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+                }
+            }));
+        }
+        long[] firstLine = new long[parts + 1];
+        for (int part = 0; part < parts; part++) {
+            long lines = futures.get(part).get();
+            if (part == 0 && skipFirstLine && lines > 0 && !isBlankLine(channel, bounds[0])) {
+                lines--;
+            }
+            firstLine[part + 1] = firstLine[part] + lines;
+        }
+        return firstLine;
+    }
+
+    /**
+     * @return the number of vectors written and of lines skipped
+     */
+    private long[] vectorizePart(FileChannel channel, int part, long start, long end, long firstLine,
+                                 int[] columnToIndex, int dims, Path partPath, double[] values, boolean[] written)
+            throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        SequenceFile.Writer writer = createWriter(partPath);
+        long vectors = 0;
+        long skipped = 0;
+        try {
+            double[] features = new double[dims];
+            // dense vectors wrap the feature buffer, the writer serializing them right away
+            Vector dense = new DenseVector(features, true);
+            LongWritable key = new LongWritable();
+            VectorWritable value = new VectorWritable();
+            long line = firstLine;
+            boolean header = skipFirstLine && part == 0;
+            int limit = buffer.limit();
+            int pos = 0;
+            while (pos < limit) {
+                int lineEnd = pos;
+                while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                int contentEnd = lineEnd;
+                if (contentEnd > pos && buffer.get(contentEnd - 1) == '\r') {
+                    contentEnd--;
+                }
+                if (header) {
+                    header = false;
+                } else {
+                    if (!isBlankLine(buffer, pos, contentEnd)) {
+                        if (parseLine(buffer, pos, contentEnd, columnToIndex, features, dims)) {
+                            if (writer != null) {
+                                key.set(firstKey + line);
+                                value.set(new NamedVector(
+                                        selectedType == VectorType.DENSE ? dense : sparse(features),
+                                        Long.toString(key.get())));
+                                writer.append(key, value);
+                            }
+                            if (values != null) {
+                                System.arraycopy(features, 0, values, (int) line * dims, dims);
+                                written[(int) line] = true;
+                            }
+                            vectors++;
+                        } else {
+                            skipped++;
+                        }
+                        line++;
+                    }
+                }
+                pos = lineEnd + 1;
+            }
+        } finally {
+            Closeables.close(writer, false);
+        }
+        return new long[] {vectors, skipped};
+    }
+
+    /**
+     * Parses the first lines of every range, DENSITY_SAMPLE_LINES in all.
+     *
+     * @return the fraction of the sampled features that are not zero, 1 if no line could be parsed
+     */
+    private double sampleDensity(FileChannel channel, long[] bounds, int[] columnToIndex, int dims)
+            throws IOException {
+        int parts = bounds.length - 1;
+        int linesPerPart = Math.max(1, DENSITY_SAMPLE_LINES / parts);
+        double[] features = new double[dims];
+        long nonZeros = 0;
+        long sampled = 0;
+        for (int part = 0; part < parts; part++) {
+            // only the start of the range is mapped, as much as the sampled lines may need
+            long length = Math.min(bounds[part + 1] - bounds[part], (long) linesPerPart * (dims + 1) * 32);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, bounds[part], length);
+            boolean header = skipFirstLine && part == 0;
+            int limit = buffer.limit();
+            int pos = 0;
+            int lines = 0;
+            while (pos < limit && lines < linesPerPart) {
+                int lineEnd = pos;
+                while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                if (lineEnd == limit && bounds[part] + limit < bounds[part + 1]) {
+                    break; // the line goes on past the mapped bytes
+                }
+                int contentEnd = lineEnd > pos && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                if (header) {
+                    header = false;
+                } else if (!isBlankLine(buffer, pos, contentEnd)
+                        && parseLine(buffer, pos, contentEnd, columnToIndex, features, dims)) {
+                    for (double feature : features) {
+                        if (feature != 0) {
+                            nonZeros++;
+                        }
+                    }
+                    sampled += dims;
+                    lines++;
+                }
+                pos = lineEnd + 1;
+            }
+        }
+        return sampled == 0 ? 1 : (double) nonZeros / sampled;
+    }
+
+    /**
+     * Reads DENSITY_SAMPLE_LINES rows of the cache, evenly spaced.
+     *
+     * @return the fraction of the sampled features that are not zero, 1 if no row could be read
+     */
+    private static double sampleDensity(ColumnarCache cache, int[] featureColumns) {
+        int rows = cache.getNumRows();
+        int step = Math.max(1, rows / DENSITY_SAMPLE_LINES);
+        double[] features = new double[featureColumns.length];
+        long nonZeros = 0;
+        long sampled = 0;
+        for (int row = 0; row < rows; row += step) {
+            if (readRow(cache, row, featureColumns, features)) {
+                for (double feature : features) {
+                    if (feature != 0) {
+                        nonZeros++;
+                    }
+                }
+                sampled += features.length;
+            }
+        }
+        return sampled == 0 ? 1 : (double) nonZeros / sampled;
+    }
+
+    private Vector sparse(double[] features) {
+        int nonZeros = 0;
+        for (double feature : features) {
+            if (feature != 0) {
+                nonZeros++;
+            }
+        }
+        Vector vector = selectedType == VectorType.SEQUENTIAL_SPARSE
+                ? new SequentialAccessSparseVector(features.length, nonZeros)
+                : new RandomAccessSparseVector(features.length, nonZeros);
+        for (int i = 0; i < features.length; i++) {
+            if (features[i] != 0) {
+                vector.setQuick(i, features[i]);
+            }
+        }
+        return vector;
+    }
+
+    /**
+     * Tokenizes [start, end) and parses the feature fields into features.
+     *
+     * @return false if a feature field is missing or not a number
+     */
+    private static boolean parseLine(ByteBuffer buffer, int start, int end, int[] columnToIndex,
+                                     double[] features, int dims) {
+        int field = 0;
+        int found = 0;
+        int i = start;
+        while (true) {
+            while (i < end && isBlank(buffer.get(i))) {
+                i++;
+            }
+            int tokenStart = i;
+            while (i < end && !isSeparator(buffer.get(i))) {
+                i++;
+            }
+            int index = field < columnToIndex.length ? columnToIndex[field] : -1;
+            if (index >= 0) {
+                if (i == tokenStart) {
+                    return false;
+                }
+                try {
+                    features[index] = NumberParser.parseDouble(buffer, tokenStart, i);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                found++;
+            }
+            field++;
+            while (i < end && isBlank(buffer.get(i))) {
+                i++;
+            }
+            if (i >= end) {
+                break;
+            }
+            if (buffer.get(i) == ',') {
+                i++;
+            }
+        }
+        return found == dims;
+    }
+
+    /**
+     * Maps every field number to its vector index, -1 for the fields that are not features. Without
+     * explicit columns all the fields of the first data line are features.
+     */
+    private int[] columnToIndex(FileChannel channel, long firstRangeStart, long firstRangeEnd) throws IOException {
+        if (columns != null) {
+            int max = 0;
+            for (int column : columns) {
+                max = Math.max(max, column);
+            }
+            int[] mapping = new int[max + 1];
+            Arrays.fill(mapping, -1);
+            for (int i = 0; i < columns.length; i++) {
+                mapping[columns[i]] = i;
+            }
+            return mapping;
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, firstRangeStart,
+                firstRangeEnd - firstRangeStart);
+        int limit = buffer.limit();
+        int pos = 0;
+        boolean header = skipFirstLine;
+        while (pos < limit) {
+            int lineEnd = pos;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int contentEnd = lineEnd > pos && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            if (header) {
+                header = false;
+            } else if (!isBlankLine(buffer, pos, contentEnd)) {
+                int fields = countFields(buffer, pos, contentEnd);
+                int[] mapping = new int[fields];
+                for (int i = 0; i < fields; i++) {
+                    mapping[i] = i;
+                }
+                return mapping;
+            }
+            pos = lineEnd + 1;
+        }
+        throw new IllegalArgumentException("No data line to infer the number of columns from");
+    }
+
+    private static int countFields(ByteBuffer buffer, int start, int end) {
+        int fields = 0;
+        int i = start;
+        while (true) {
+            while (i < end && isBlank(buffer.get(i))) {
+                i++;
+            }
+            while (i < end && !isSeparator(buffer.get(i))) {
+                i++;
+            }
+            fields++;
+            while (i < end && isBlank(buffer.get(i))) {
+                i++;
+            }
+            if (i >= end) {
+                return fields;
+            }
+            if (buffer.get(i) == ',') {
+                i++;
+            }
+        }
+    }
+
+    private static int dims(int[] columnToIndex) {
+        int dims = 0;
+        for (int index : columnToIndex) {
+            if (index >= 0) {
+                dims++;
+            }
+        }
+        return dims;
+    }
+
+    /**
+     * @return the number of values of the collected points of the lines, which must fit a single array
+     */
+    static int collectedValues(long lines, int dims) {
+        Preconditions.checkArgument(lines <= MAX_ARRAY_LENGTH && lines * dims <= MAX_ARRAY_LENGTH,
+                "%s lines of %s features are too many points to collect in memory, at most %s values",
+                lines, dims, MAX_ARRAY_LENGTH);
+        return (int) (lines * dims);
+    }
+
+    /**
+     * @return the points of the lines written, in key order, keyed by the number of their line
+     */
+    private static PointMatrix compact(double[] values, boolean[] written, int dims, long vectors, long firstKey) {
+        if (vectors == written.length && firstKey == 0) {
+            return new PointMatrix(values, dims);
+        }
+        double[] compacted = vectors == written.length ? values : new double[(int) (vectors * dims)];
+        long[] keys = new long[(int) vectors];
+        int row = 0;
+        for (int line = 0; line < written.length; line++) {
+            if (written[line]) {
+                if (compacted != values) {
+                    System.arraycopy(values, line * dims, compacted, row * dims, dims);
+                }
+                keys[row] = firstKey + line;
+                row++;
+            }
+        }
+        PointMatrix points = new PointMatrix(compacted, dims);
+        points.setKeys(keys);
+        return points;
+    }
+
+    /**
+     * @return the number of non-blank lines between the position and the limit of the buffer
+     */
+    private static long countDataLines(ByteBuffer buffer) {
+        long lines = 0;
+        boolean blank = true;
+        int limit = buffer.limit();
+        for (int i = buffer.position(); i < limit; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n') {
+                if (!blank) {
+                    lines++;
+                }
+                blank = true;
+            } else if (!isBlank(b) && b != '\r') {
+                blank = false;
+            }
+        }
+        return blank ? lines : lines + 1;
+    }
+
+    /**
+     * @return whether the line starting at the offset is blank
+     */
+    private static boolean isBlankLine(FileChannel channel, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        while (channel.read(buffer, offset) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n') {
+                    return true;
+                }
+                if (!isBlank(b) && b != '\r') {
+                    return false;
+                }
+            }
+            offset += buffer.limit();
+            buffer.clear();
+        }
+        return true;
+    }
+
+    private static boolean isBlankLine(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!isBlank(buffer.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == ',' || b == ' ' || b == '\t';
+    }
+}
@@ -0,0 +1,380 @@
+package Clustering;
+
+import org.apache.mahout.common.distance.CosineDistanceMeasure;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
+import org.apache.mahout.common.distance.ManhattanDistanceMeasure;
+import org.apache.mahout.common.distance.SquaredEuclideanDistanceMeasure;
+
+/**
+ * Distances between the rows of dense row-major arrays, such as those of a PointMatrix, computed in place
+ * with the same results as the Mahout measure they stand for but without copying the rows into Vectors
+ * nor iterating over their elements. The loops are unrolled by four with independent accumulators so
+ * that the JIT can keep them in registers and vectorize them.
+ * <p>
+ * The batched distances of a point to all the centers of a clustering expand |x - c|^2 into
+ * |x|^2 - 2 x.c + |c|^2 (and the cosine distance into 1 - x.c / (|x| |c|)) with the center norms computed
+ * once per iteration by norms, leaving a single dot product per center.
+ */
+public abstract class DistanceKernel {
+
+    public static final DistanceKernel SQUARED_EUCLIDEAN = new SquaredEuclidean();
+
+    public static final DistanceKernel EUCLIDEAN = new Euclidean();
+
+    public static final DistanceKernel COSINE = new Cosine();
+
+    public static final DistanceKernel MANHATTAN = new Manhattan();
+
+    /**
+     * @return the kernel computing the distances of measure, null when there is none and the measure itself
+     * has to be used
+     */
+    public static DistanceKernel forMeasure(DistanceMeasure measure) {
+        // the exact classes: a subclass may change the distance
+        Class<?> measureClass = measure.getClass();
+        if (measureClass == SquaredEuclideanDistanceMeasure.class) {
+            return SQUARED_EUCLIDEAN;
+        }
+        if (measureClass == EuclideanDistanceMeasure.class) {
+            return EUCLIDEAN;
+        }
+        if (measureClass == CosineDistanceMeasure.class) {
+            return COSINE;
+        }
+        if (measureClass == ManhattanDistanceMeasure.class) {
+            return MANHATTAN;
+        }
+        return null;
+    }
+
+    public abstract double distance(double[] a, int aOffset, double[] b, int bOffset, int dims);
+
+    public abstract double distance(float[] a, int aOffset, float[] b, int bOffset, int dims);
+
+    /**
+     * @return the norms of the k centers the batched methods need, null if they need none
+     */
+    public abstract double[] norms(double[] centers, int k, int dims);
+
+    /**
+     * Distances of the point to the k centers, into distances.
+     *
+     * @param norms the norms of the centers, as returned by norms
+     */
+    public abstract void distances(double[] values, int offset, double[] centers, double[] norms, int k, int dims,
+                                   double[] distances);
+
+    /**
+     * @return the index of the center nearest to the point, the first one on ties
+     */
+    public abstract int nearest(double[] values, int offset, double[] centers, double[] norms, int k, int dims);
+
+    public static double squaredEuclidean(double[] a, int aOffset, double[] b, int bOffset, int dims) {
+        double s0 = 0;
+        double s1 = 0;
+        double s2 = 0;
+        double s3 = 0;
+        int d = 0;
+        for (int end = dims - 3; d < end; d += 4) {
+            double d0 = a[aOffset + d] - b[bOffset + d];
+            double d1 = a[aOffset + d + 1] - b[bOffset + d + 1];
+            double d2 = a[aOffset + d + 2] - b[bOffset + d + 2];
+            double d3 = a[aOffset + d + 3] - b[bOffset + d + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; d < dims; d++) {
+            double diff = a[aOffset + d] - b[bOffset + d];
+            s0 += diff * diff;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static double squaredEuclidean(float[] a, int aOffset, float[] b, int bOffset, int dims) {
+        double s0 = 0;
+        double s1 = 0;
+        double s2 = 0;
+        double s3 = 0;
+        int d = 0;
+        for (int end = dims - 3; d < end; d += 4) {
+            double d0 = a[aOffset + d] - b[bOffset + d];
+            double d1 = a[aOffset + d + 1] - b[bOffset + d + 1];
+            double d2 = a[aOffset + d + 2] - b[bOffset + d + 2];
+            double d3 = a[aOffset + d + 3] - b[bOffset + d + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; d < dims; d++) {
+            double diff = a[aOffset + d] - b[bOffset + d];
+            s0 += diff * diff;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static double dot(double[] a, int aOffset, double[] b, int bOffset, int dims) {
+        double s0 = 0;
+        double s1 = 0;
+        double s2 = 0;
+        double s3 = 0;
+        int d = 0;
+        for (int end = dims - 3; d < end; d += 4) {
+            s0 += a[aOffset + d] * b[bOffset + d];
+            s1 += a[aOffset + d + 1] * b[bOffset + d + 1];
+            s2 += a[aOffset + d + 2] * b[bOffset + d + 2];
+            s3 += a[aOffset + d + 3] * b[bOffset + d + 3];
+        }
+        for (; d < dims; d++) {
+            s0 += a[aOffset + d] * b[bOffset + d];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static double dot(float[] a, int aOffset, float[] b, int bOffset, int dims) {
+        double s0 = 0;
+        double s1 = 0;
+        double s2 = 0;
+        double s3 = 0;
+        int d = 0;
+        for (int end = dims - 3; d < end; d += 4) {
+            s0 += (double) a[aOffset + d] * b[bOffset + d];
+            s1 += (double) a[aOffset + d + 1] * b[bOffset + d + 1];
+            s2 += (double) a[aOffset + d + 2] * b[bOffset + d + 2];
+            s3 += (double) a[aOffset + d + 3] * b[bOffset + d + 3];
+        }
+        for (; d < dims; d++) {
+            s0 += (double) a[aOffset + d] * b[bOffset + d];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static double manhattan(double[] a, int aOffset, double[] b, int bOffset, int dims) {
+        double s0 = 0;
+        double s1 = 0;
+        double s2 = 0;
+        double s3 = 0;
+        int d = 0;
+        for (int end = dims - 3; d < end; d += 4) {
+            s0 += Math.abs(a[aOffset + d] - b[bOffset + d]);
+            s1 += Math.abs(a[aOffset + d + 1] - b[bOffset + d + 1]);
+            s2 += Math.abs(a[aOffset + d + 2] - b[bOffset + d + 2]);
+            s3 += Math.abs(a[aOffset + d + 3] - b[bOffset + d + 3]);
+        }
+        for (; d < dims; d++) {
+            s0 += Math.abs(a[aOffset + d] - b[bOffset + d]);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static double manhattan(float[] a, int aOffset, float[] b, int bOffset, int dims) {
+        double s0 = 0;
+        double s1 = 0;
+        double s2 = 0;
+        double s3 = 0;
+        int d = 0;
+        for (int end = dims - 3; d < end; d += 4) {
+            s0 += Math.abs((double) a[aOffset + d] - b[bOffset + d]);
+            s1 += Math.abs((double) a[aOffset + d + 1] - b[bOffset + d + 1]);
+            s2 += Math.abs((double) a[aOffset + d + 2] - b[bOffset + d + 2]);
+            s3 += Math.abs((double) a[aOffset + d + 3] - b[bOffset + d + 3]);
+        }
+        for (; d < dims; d++) {
+            s0 += Math.abs((double) a[aOffset + d] - b[bOffset + d]);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * 1 - a.b / (|a| |b|) with the corrections of CosineDistanceMeasure.
+     */
+    static double cosine(double dot, double normA, double normB) {
+        double denominator = normA * normB;
+        // correct for floating-point rounding errors
+        if (denominator < dot) {
+            denominator = dot;
+        }
+        // correct for zero-vector corner case
+        if (denominator == 0 && dot == 0) {
+            return 0;
+        }
+        return 1.0 - dot / denominator;
+    }
+
+    private static double[] squaredNorms(double[] centers, int k, int dims) {
+        double[] norms = new double[k];
+        for (int c = 0; c < k; c++) {
+            norms[c] = dot(centers, c * dims, centers, c * dims, dims);
+        }
+        return norms;
+    }
+
+    /**
+     * Index of the center minimizing |c|^2 - 2 x.c, that is |x - c|^2 - |x|^2.
+     */
+    private static int nearestEuclidean(double[] values, int offset, double[] centers, double[] squaredNorms, int k,
+                                        int dims) {
+        int best = 0;
+        double bestScore = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < k; c++) {
+            double score = squaredNorms[c] - 2 * dot(values, offset, centers, c * dims, dims);
+            if (score < bestScore) {
+                bestScore = score;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private static final class SquaredEuclidean extends DistanceKernel {
+        @Override
+        public double distance(double[] a, int aOffset, double[] b, int bOffset, int dims) {
+            return squaredEuclidean(a, aOffset, b, bOffset, dims);
+        }
+
+        @Override
+        public double distance(float[] a, int aOffset, float[] b, int bOffset, int dims) {
+            return squaredEuclidean(a, aOffset, b, bOffset, dims);
+        }
+
+        @Override
+        public double[] norms(double[] centers, int k, int dims) {
+            return squaredNorms(centers, k, dims);
+        }
+
+        @Override
+        public void distances(double[] values, int offset, double[] centers, double[] norms, int k, int dims,
+                              double[] distances) {
+            double pointNorm = dot(values, offset, values, offset, dims);
+            for (int c = 0; c < k; c++) {
+                // the expansion can round slightly below 0 for a point on its center
+                distances[c] = Math.max(0, pointNorm + norms[c] - 2 * dot(values, offset, centers, c * dims, dims));
+            }
+        }
+
+        @Override
+        public int nearest(double[] values, int offset, double[] centers, double[] norms, int k, int dims) {
+            return nearestEuclidean(values, offset, centers, norms, k, dims);
+        }
+    }
+
+    private static final class Euclidean extends DistanceKernel {
+        @Override
+        public double distance(double[] a, int aOffset, double[] b, int bOffset, int dims) {
+            return Math.sqrt(squaredEuclidean(a, aOffset, b, bOffset, dims));
+        }
+
+        @Override
+        public double distance(float[] a, int aOffset, float[] b, int bOffset, int dims) {
+            return Math.sqrt(squaredEuclidean(a, aOffset, b, bOffset, dims));
+        }
+
+        @Override
+        public double[] norms(double[] centers, int k, int dims) {
+            return squaredNorms(centers, k, dims);
+        }
+
+        @Override
+        public void distances(double[] values, int offset, double[] centers, double[] norms, int k, int dims,
+                              double[] distances) {
+            SQUARED_EUCLIDEAN.distances(values, offset, centers, norms, k, dims, distances);
+            for (int c = 0; c < k; c++) {
+                distances[c] = Math.sqrt(distances[c]);
+            }
+        }
+
+        @Override
+        public int nearest(double[] values, int offset, double[] centers, double[] norms, int k, int dims) {
+            return nearestEuclidean(values, offset, centers, norms, k, dims);
+        }
+    }
+
+    private static final class Cosine extends DistanceKernel {
+        @Override
+        public double distance(double[] a, int aOffset, double[] b, int bOffset, int dims) {
+            return cosine(dot(a, aOffset, b, bOffset, dims), Math.sqrt(dot(a, aOffset, a, aOffset, dims)),
+                    Math.sqrt(dot(b, bOffset, b, bOffset, dims)));
+        }
+
+        @Override
+        public double distance(float[] a, int aOffset, float[] b, int bOffset, int dims) {
+            return cosine(dot(a, aOffset, b, bOffset, dims), Math.sqrt(dot(a, aOffset, a, aOffset, dims)),
+                    Math.sqrt(dot(b, bOffset, b, bOffset, dims)));
+        }
+
+        @Override
+        public double[] norms(double[] centers, int k, int dims) {
+            double[] norms = squaredNorms(centers, k, dims);
+            for (int c = 0; c < k; c++) {
+                norms[c] = Math.sqrt(norms[c]);
+            }
+            return norms;
+        }
+
+        @Override
+        public void distances(double[] values, int offset, double[] centers, double[] norms, int k, int dims,
+                              double[] distances) {
+            double pointNorm = Math.sqrt(dot(values, offset, values, offset, dims));
+            for (int c = 0; c < k; c++) {
+                distances[c] = cosine(dot(values, offset, centers, c * dims, dims), pointNorm, norms[c]);
+            }
+        }
+
+        @Override
+        public int nearest(double[] values, int offset, double[] centers, double[] norms, int k, int dims) {
+            double pointNorm = Math.sqrt(dot(values, offset, values, offset, dims));
+            int best = 0;
+            double bestDistance = Double.POSITIVE_INFINITY;
+            for (int c = 0; c < k; c++) {
+                double d = cosine(dot(values, offset, centers, c * dims, dims), pointNorm, norms[c]);
+                if (d < bestDistance) {
+                    bestDistance = d;
+                    best = c;
+                }
+            }
+            return best;
+        }
+    }
+
+    private static final class Manhattan extends DistanceKernel {
+        @Override
+        public double distance(double[] a, int aOffset, double[] b, int bOffset, int dims) {
+            return manhattan(a, aOffset, b, bOffset, dims);
+        }
+
+        @Override
+        public double distance(float[] a, int aOffset, float[] b, int bOffset, int dims) {
+            return manhattan(a, aOffset, b, bOffset, dims);
+        }
+
+        @Override
+        public double[] norms(double[] centers, int k, int dims) {
+            return null;
+        }
+
+        @Override
+        public void distances(double[] values, int offset, double[] centers, double[] norms, int k, int dims,
+                              double[] distances) {
+            for (int c = 0; c < k; c++) {
+                distances[c] = manhattan(values, offset, centers, c * dims, dims);
+            }
+        }
+
+        @Override
+        public int nearest(double[] values, int offset, double[] centers, double[] norms, int k, int dims) {
+            int best = 0;
+            double bestDistance = Double.POSITIVE_INFINITY;
+            for (int c = 0; c < k; c++) {
+                double d = manhattan(values, offset, centers, c * dims, dims);
+                if (d < bestDistance) {
+                    bestDistance = d;
+                    best = c;
+                }
+            }
+            return best;
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package Clustering;
 
+import Common.DriverStatus;
+import Common.ExecutionPlanner;
+import Common.StageEvent;
+import com.google.common.io.Closeables;
 import org.apache.commons.cli2.CommandLine;
 import org.apache.commons.cli2.Group;
 import org.apache.commons.cli2.Option;
@@ -9,20 +13,23 @@ import org.apache.commons.cli2.builder.GroupBuilder;
 import org.apache.commons.cli2.commandline.Parser;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.*;
-import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
+import org.apache.mahout.clustering.Cluster;
 import org.apache.mahout.clustering.canopy.CanopyDriver;
-import org.apache.mahout.clustering.classify.WeightedPropertyVectorWritable;
-import org.apache.mahout.clustering.conversion.InputDriver;
 import org.apache.mahout.clustering.fuzzykmeans.FuzzyKMeansDriver;
+import org.apache.mahout.clustering.iterator.ClusterWritable;
+import org.apache.mahout.clustering.iterator.FuzzyKMeansClusteringPolicy;
 import org.apache.mahout.clustering.kmeans.Kluster;
 import org.apache.mahout.common.ClassUtils;
 import org.apache.mahout.common.CommandLineUtil;
 import org.apache.mahout.common.HadoopUtil;
+import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.common.commandline.DefaultOptionCreator;
 import org.apache.mahout.common.distance.DistanceMeasure;
 import org.apache.mahout.common.distance.SquaredEuclideanDistanceMeasure;
+import org.apache.mahout.common.iterator.sequencefile.PathFilters;
+import org.apache.mahout.common.iterator.sequencefile.PathType;
+import org.apache.mahout.common.iterator.sequencefile.SequenceFileDirValueIterable;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.VectorWritable;
@@ -33,6 +40,7 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
 
 public class FuzzyKmeans {
 
@@ -62,16 +70,36 @@ public class FuzzyKmeans {
 
     float fuzziness;
 
+    private CsvVectorizer.VectorType vectorType = CsvVectorizer.VectorType.AUTO; // vectors of the converted input
+
+    private ClusteredPointsExporter.Format exportFormat = ClusteredPointsExporter.Format.TEXT; // format of the exported assignments
+
+    private File labelFile; // true labels of the points, null to evaluate without labels
+
+    private int labelColumn; // column of the labels in labelFile
+
+    private ExecutionPlanner.Mode execution; // how the iterations run, null to choose from the input size
+
+    private int numThreads = Runtime.getRuntime().availableProcessors(); // threads of the in-memory engine
+
+    private File telemetryFile; // JSON lines of the iteration telemetry, null to record none
+
+    private boolean indexed; // build the canopies with IndexedCanopyBuilder rather than CanopyDriver
+
     private static final String DIRECTORY_CONTAINING_CONVERTED_INPUT = "data";
 
     public static void main(String[] args) throws Exception {
         final FuzzyKmeans application = new FuzzyKmeans();
-        args = new String[] {"-i","ClusteringDir/FuzzyKmeansDir/breastCancer.csv","-cd","5","-x","10","-ow","-k","2","-m","2.0"};
+        if (args.length == 0) {
+            args = new String[] {"-i","ClusteringDir/FuzzyKmeansDir/breastCancer.csv","-cd","5","-x","10","-ow",
+                    "-k","2","-m","2.0"};
+        }
         try {
             application.runFuzzyKmeans(args);
         }
         catch (final Exception e) {
             log.error("Clustering.FuzzyKmeans failed", e);
+            DriverStatus.failed(e);
         }
     }
 
@@ -91,12 +119,51 @@ public class FuzzyKmeans {
         Option mOpt = obuilder.withLongName(M_OPTION).withShortName(M_OPTION).withRequired(true)
                 .withArgument(new ArgumentBuilder().withName(M_OPTION).withMinimum(1).withMaximum(1).create())
                 .withDescription("coefficient normalization factor, must be greater than 1").create();
+        Option vectorTypeOpt = obuilder.withLongName("vectorType").withShortName("vt").withRequired(false)
+                .withArgument(new ArgumentBuilder().withName("vectorType").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, vectors of the converted input: dense, sequential or random (sparse), "
+                        + "or auto to pick one from the density of a sample of the input.\nThe default is auto.")
+                .create();
+        Option indexedOpt = obuilder.withLongName("indexed").withShortName("ix").withRequired(false)
+                .withDescription("Optional, build the canopies in memory with a spatial index over their centers.")
+                .create();
+        Option exportFormatOpt = obuilder.withLongName("exportFormat").withShortName("ef").withRequired(false)
+                .withArgument(new ArgumentBuilder().withName("exportFormat").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, format of the exported point assignments: binary, csv or text (with the "
+                        + "vectors).\nThe default is text.").create();
+        Option labelsOpt = obuilder.withLongName("labels").withShortName("lb").withRequired(false)
+                .withArgument(new ArgumentBuilder().withName("labels").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, CSV file with the true label of every input line, to evaluate the "
+                        + "clustering with purity, NMI and ARI").create();
+        Option labelColumnOpt = obuilder.withLongName("labelColumn").withShortName("lc").withRequired(false)
+                .withArgument(new ArgumentBuilder().withName("labelColumn").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, column of the labels in the labels file.\nThe default is 0.")
+                .create();
+        Option inMemoryOpt = obuilder.withLongName("inMemory").withShortName("im").withRequired(false)
+                .withDescription("Optional, run the iterations in memory on multiple threads instead of "
+                        + "one MapReduce job per iteration").create();
+        Option threadsOpt = obuilder.withLongName("threads").withShortName("th").withRequired(false)
+                .withArgument(new ArgumentBuilder().withName("threads").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, number of threads of the in-memory engine.\n"
+                        + "The default is the number of available processors.").create();
+        Option executionOpt = obuilder.withLongName("execution").withShortName("xm").withRequired(false)
+                .withArgument(new ArgumentBuilder().withName("execution").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, how the iterations run: sequential (in-process, one thread), parallel "
+                        + "(in memory, on multiple threads), mapreduce or auto, chosen from the size of the input, "
+                        + "the cores and the free heap.\nThe default is auto, -im forces parallel.").create();
+        Option telemetryOpt = obuilder.withLongName("telemetry").withShortName("tm").withRequired(false)
+                .withArgument(new ArgumentBuilder().withName("telemetry").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, file the convergence telemetry of every iteration is appended to as "
+                        + "JSON lines, also published over JMX").create();
         Option helpOpt = DefaultOptionCreator.helpOption();
 
         Group group = gbuilder.withName("Options").withOption(inputOpt).withOption(mOpt)
                 .withOption(distanceMeasureOpt).withOption(convergenceOpt).withOption(maxIterationsOpt)
                 .withOption(t1Opt).withOption(t2Opt)
-                .withOption(overwriteOpt).withOption(helpOpt).create();
+                .withOption(overwriteOpt).withOption(vectorTypeOpt).withOption(indexedOpt)
+                .withOption(exportFormatOpt).withOption(labelsOpt)
+                .withOption(labelColumnOpt).withOption(telemetryOpt).withOption(inMemoryOpt).withOption(threadsOpt)
+                .withOption(executionOpt).withOption(helpOpt).create();
 
         Parser parser = new Parser();
         parser.setGroup(group);
@@ -115,6 +182,30 @@ public class FuzzyKmeans {
         maxIterations = Integer.parseInt(cmdLine.getValue(maxIterationsOpt).toString());
         fuzziness = Float.parseFloat(cmdLine.getValue(mOpt).toString());
 
+        if (cmdLine.hasOption(vectorTypeOpt)) {
+            vectorType = CsvVectorizer.VectorType.fromName(cmdLine.getValue(vectorTypeOpt).toString());
+        }
+        indexed = cmdLine.hasOption(indexedOpt);
+        if (cmdLine.hasOption(inMemoryOpt)) {
+            execution = ExecutionPlanner.Mode.PARALLEL;
+        } else if (cmdLine.hasOption(executionOpt)) {
+            execution = ExecutionPlanner.Mode.fromName(cmdLine.getValue(executionOpt).toString());
+        }
+        if (cmdLine.hasOption(threadsOpt)) {
+            numThreads = Integer.parseInt(cmdLine.getValue(threadsOpt).toString());
+        }
+        if (cmdLine.hasOption(exportFormatOpt)) {
+            exportFormat = ClusteredPointsExporter.Format.fromName(cmdLine.getValue(exportFormatOpt).toString());
+        }
+        if (cmdLine.hasOption(labelsOpt)) {
+            labelFile = new File(cmdLine.getValue(labelsOpt).toString());
+        }
+        if (cmdLine.hasOption(labelColumnOpt)) {
+            labelColumn = Integer.parseInt(cmdLine.getValue(labelColumnOpt).toString());
+        }
+        if (cmdLine.hasOption(telemetryOpt)) {
+            telemetryFile = new File(cmdLine.getValue(telemetryOpt).toString());
+        }
         if (cmdLine.hasOption(overwriteOpt)) {
             HadoopUtil.delete(configuration, output);
         }
@@ -123,42 +214,130 @@ public class FuzzyKmeans {
         double t1 = Double.parseDouble(cmdLine.getValue(t1Opt).toString());
         double t2 = Double.parseDouble(cmdLine.getValue(t2Opt).toString());
 
+        File inputFile = new File(input.toUri().getPath());
+        ExecutionPlanner.Plan plan = new ExecutionPlanner().plan("fuzzy k-means", inputFile, 0, execution);
+        boolean inMemory = plan.getMode() == ExecutionPlanner.Mode.PARALLEL;
+        boolean sequential = plan.getMode() == ExecutionPlanner.Mode.SEQUENTIAL;
+        if (inMemory && !cmdLine.hasOption(threadsOpt)) {
+            numThreads = plan.getNumThreads();
+        }
+
         Path directoryContainingConvertedInput = new Path(output, DIRECTORY_CONTAINING_CONVERTED_INPUT);
-        InputDriver.runJob(input, directoryContainingConvertedInput, "org.apache.mahout.math.RandomAccessSparseVector");
+        CsvVectorizer vectorizer = new CsvVectorizer(configuration);
+        vectorizer.setVectorType(vectorType);
+        vectorizer.setNumThreads(numThreads);
+        vectorizer.setCollectPoints(inMemory);
+        long vectors = vectorizer.vectorize(inputFile, directoryContainingConvertedInput);
         Path canopyOutput = new Path(output, "canopies");
-        CanopyDriver.run(configuration, directoryContainingConvertedInput, canopyOutput, measure, t1, t2, false, 0.0,
-                false);
-
+        IterationTelemetry canopyTelemetry = telemetry("canopy");
+        ClusterIterationMonitor canopyMonitor = ClusterIterationMonitor.start(configuration, canopyOutput, measure,
+                0, canopyTelemetry);
+        StageEvent stage = StageEvent.begin("FuzzyKmeans", "canopy");
+        try {
+            if (indexed) {
+                new IndexedCanopyBuilder(measure, t1, t2, RandomUtils.getRandom().nextLong()).run(configuration,
+                        directoryContainingConvertedInput, canopyOutput, 0.0);
+            } else {
+                // the canopies of a parallel plan are built in-process too, only the clustering is multi-threaded
+                CanopyDriver.run(configuration, directoryContainingConvertedInput, canopyOutput, measure, t1, t2,
+                        false, 0.0, plan.isInProcess());
+            }
+            stage.addRows(vectors);
+            stage.addBytesRead(configuration, directoryContainingConvertedInput);
+            stage.addBytesWritten(configuration, canopyOutput);
+        } finally {
+            Closeables.close(canopyMonitor, false);
+            Closeables.close(canopyTelemetry, false);
+            stage.commit();
+        }
 
-        FuzzyKMeansDriver.run(directoryContainingConvertedInput, new Path(canopyOutput, "clusters-0-final"), output,
-                convergenceDelta, maxIterations, fuzziness, true, true, 0.0, false);
+        Path canopies = new Path(canopyOutput, "clusters-0-final");
+        IterationTelemetry telemetry = telemetry("fuzzykmeans");
+        stage = StageEvent.begin("FuzzyKmeans", "iterate");
+        try {
+            if (inMemory) {
+                runInMemory(configuration, vectorizer.getPoints(), canopies, measure, telemetry);
+            } else {
+                ClusterIterationMonitor monitor = ClusterIterationMonitor.start(configuration, output, measure,
+                        convergenceDelta, telemetry);
+                try {
+                    FuzzyKMeansDriver.run(directoryContainingConvertedInput, canopies, output,
+                            convergenceDelta, maxIterations, fuzziness, true, true, 0.0, sequential);
+                } finally {
+                    Closeables.close(monitor, false);
+                }
+                stage.addBytesRead(configuration, directoryContainingConvertedInput);
+            }
+            stage.addRows(vectors);
+            stage.addBytesWritten(configuration, output);
+        } finally {
+            Closeables.close(telemetry, false);
+            stage.commit();
+        }
         readAndPrintOutputValues(configuration, output.toString());
     }
 
-    private void readAndPrintOutputValues(Configuration conf, String outputPath)
-            throws IOException {
-        final Path input = new Path(outputPath + "/clusteredPoints/part-m-00000");
-        final SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(input));
-        final IntWritable key = new IntWritable();
-        final WeightedPropertyVectorWritable value = new WeightedPropertyVectorWritable();
-
-        File file = new File(BASE_PATH+"result.txt");
-        if (!file.exists()) {
-            file.createNewFile();
+    private void runInMemory(Configuration conf, PointMatrix points, Path canopies, DistanceMeasure measure,
+                             IterationTelemetry telemetry) throws Exception {
+        List<Cluster> initialClusters = new ArrayList<Cluster>();
+        for (ClusterWritable writable : new SequenceFileDirValueIterable<ClusterWritable>(canopies, PathType.LIST,
+                PathFilters.partFilter(), conf)) {
+            initialClusters.add(writable.getValue());
         }
-        FileWriter fileWriter = new FileWriter(file.getAbsoluteFile());
-        BufferedWriter bufferedWriter = new BufferedWriter(fileWriter);
+        InMemoryFuzzyKMeans fuzzyKMeans = new InMemoryFuzzyKMeans(points, initialClusters, measure, fuzziness,
+                numThreads);
+        fuzzyKMeans.setTelemetry(telemetry);
+        int iterations = fuzzyKMeans.run(convergenceDelta, maxIterations);
+
+        List<Cluster> clusters = fuzzyKMeans.getClusters(convergenceDelta);
+        ClusteringOutputWriter.writeFinalClusters(output, iterations, clusters,
+                new FuzzyKMeansClusteringPolicy(fuzziness, convergenceDelta));
+        ClusteringOutputWriter.writeClusteredPoints(conf, output, points, clusters, fuzzyKMeans.classify(clusters));
+    }
+
+    /**
+     * @return the telemetry of the run, null without a telemetry file
+     */
+    private IterationTelemetry telemetry(String run) throws IOException {
+        return telemetryFile == null ? null : new IterationTelemetry(run, telemetryFile);
+    }
 
-        Integer vecNum = 0;
-        while (reader.next(key, value)) {
-            String[] values = value.toString().split("vec");
-            String content = values[0]+"vec: "+vecNum+values[1].substring(1)+" belongs to cluster "+key.toString()+"\n";
-            bufferedWriter.write(content);
-            vecNum++;
+    private void readAndPrintOutputValues(Configuration conf, String outputPath)
+            throws IOException, InterruptedException, ExecutionException {
+        StageEvent stage = StageEvent.begin("FuzzyKmeans", "readAndPrint");
+        try {
+            File file = printOutputValues(conf, outputPath, stage);
+            stage.addBytesRead(conf, new Path(outputPath));
+            stage.addBytesWritten(file.length());
+        } finally {
+            stage.commit();
         }
-        reader.close();
-        bufferedWriter.close();
+    }
 
+    /**
+     * @return the file the clustered points and the evaluation were written to
+     */
+    private File printOutputValues(Configuration conf, String outputPath, StageEvent stage)
+            throws IOException, InterruptedException, ExecutionException {
+        ClusteredPoints points = ClusteredPoints.read(conf, new Path(outputPath),
+                Runtime.getRuntime().availableProcessors(), exportFormat == ClusteredPointsExporter.Format.TEXT);
+        File file = new File(BASE_PATH + "result." + exportFormat.getExtension());
+        ClusteredPointsExporter.export(points, file, exportFormat);
+        stage.addRows(points.size());
+
+        ClusteringEvaluator evaluator = ClusteringEvaluator.evaluate(points,
+                measureClass.equals(SquaredEuclideanDistanceMeasure.class.getName()), labelFile, labelColumn, false);
+        String report = evaluator.report();
+        log.info("Clustering quality:\n{}", report);
+        if (exportFormat == ClusteredPointsExporter.Format.TEXT) {
+            Writer writer = new FileWriter(file, true);
+            try {
+                writer.write(report);
+            } finally {
+                writer.close();
+            }
+        }
+        return file;
     }
 
-}
\ No newline at end of file
+}
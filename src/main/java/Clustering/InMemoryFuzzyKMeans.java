@@ -0,0 +1,387 @@
+package Clustering;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.fuzzykmeans.SoftCluster;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.common.distance.SquaredEuclideanDistanceMeasure;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fuzzy k-means over a PointMatrix held in memory, with the semantics of FuzzyKMeansDriver: the
+ * membership of a point in cluster i is 1 / sum_j (d_i / d_j)^(2 / (m - 1)), and every cluster observes
+ * every point weighted by its membership. Convergence follows SoftCluster, as in InMemoryKMeans.
+ * <p>
+ * The memberships are computed as (d_min / d_i)^p normalized by their sum, which takes k powers per
+ * point instead of the k x k of FuzzyKMeansClusterer, none when m = 2, and cannot overflow. Each thread
+ * keeps its distance buffer and centroid sums across iterations, so an iteration allocates nothing.
+ */
+public class InMemoryFuzzyKMeans {
+
+    private static final Logger log = LoggerFactory.getLogger(InMemoryFuzzyKMeans.class);
+
+    // distance FuzzyKMeansClusterer substitutes for a zero distance
+    private static final double MINIMAL_VALUE = 0.0000000001;
+
+    private final PointMatrix points;
+
+    private final DistanceMeasure measure;
+
+    private final int numThreads;
+
+    private final int k;
+
+    private final int dims;
+
+    private final int[] clusterIds;
+
+    private final double exponent; // 2 / (m - 1)
+
+    private final boolean squaredEuclidean; // the distances are already squared errors
+
+    private final DistanceKernel kernel; // null when the measure has no kernel
+
+    private double[] centroids; // k x dims, row-major
+
+    private double[] previousCentroids; // centroids the last memberships were computed against
+
+    private final List<int[]> chunks;
+
+    private final List<Accumulator> accumulators; // one per chunk, reused by every iteration
+
+    private int iterations;
+
+    private double[] shifts; // distance each centroid moved by in the last update
+
+    private IterationTelemetry telemetry; // null to record nothing
+
+    public InMemoryFuzzyKMeans(PointMatrix points, List<? extends Cluster> initialClusters, DistanceMeasure measure,
+                               double m, int numThreads) {
+        Preconditions.checkArgument(!initialClusters.isEmpty(), "no initial clusters");
+        Preconditions.checkArgument(m > 1, "m must be greater than 1");
+        Preconditions.checkArgument(numThreads > 0, "numThreads must be positive");
+        this.points = points;
+        this.measure = measure;
+        this.numThreads = numThreads;
+        this.exponent = 2.0 / (m - 1);
+        this.k = initialClusters.size();
+        this.dims = points.numCols();
+        this.clusterIds = new int[k];
+        this.centroids = new double[k * dims];
+        for (int c = 0; c < k; c++) {
+            Cluster cluster = initialClusters.get(c);
+            clusterIds[c] = cluster.getId();
+            for (Vector.Element element : cluster.getCenter().nonZeroes()) {
+                centroids[c * dims + element.index()] = element.get();
+            }
+        }
+        this.squaredEuclidean = measure.getClass() == SquaredEuclideanDistanceMeasure.class;
+        this.kernel = DistanceKernel.forMeasure(measure);
+        this.chunks = chunks();
+        this.accumulators = Lists.newArrayListWithCapacity(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            accumulators.add(new Accumulator(k, dims));
+        }
+    }
+
+    /**
+     * Iterates until every cluster has converged or maxIterations iterations have run.
+     *
+     * @return the number of iterations run
+     */
+    public int run(double convergenceDelta, int maxIterations) throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            boolean converged = false;
+            while (!converged && iterations < maxIterations) {
+                long time = System.currentTimeMillis();
+                Accumulator total = accumulate(executor);
+                converged = update(total, convergenceDelta);
+                iterations++;
+                log.info("Iteration {} done in {} ms", iterations, System.currentTimeMillis() - time);
+                if (telemetry != null) {
+                    telemetry.record(iterations, System.currentTimeMillis() - time, points.numRows(), shifts,
+                            convergenceDelta, total.sizes, total.sse);
+                }
+            }
+            log.info("Fuzzy k-means {} after {} iterations", converged ? "converged" : "stopped", iterations);
+        } finally {
+            executor.shutdownNow();
+        }
+        return iterations;
+    }
+
+    /**
+     * Records every iteration in the given telemetry, the sizes being those of the most likely
+     * assignment and the SSE the membership-weighted sum of the squared distances.
+     */
+    public void setTelemetry(IterationTelemetry telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Builds the final SoftClusters the way FuzzyKMeansClusteringPolicy closes an iteration: each cluster
+     * observes every point weighted by its last membership, computes its convergence against the center
+     * the memberships were computed with, and then its new parameters.
+     */
+    public List<Cluster> getClusters(double convergenceDelta) {
+        double[] centers = previousCentroids == null ? centroids : previousCentroids;
+        List<SoftCluster> softClusters = Lists.newArrayListWithCapacity(k);
+        for (int c = 0; c < k; c++) {
+            softClusters.add(new SoftCluster(copyRow(centers, c * dims), clusterIds[c], measure));
+        }
+        if (previousCentroids != null) {
+            double[] memberships = new double[k];
+            double[] distances = new double[k];
+            double[] norms = kernel == null ? null : kernel.norms(centers, k, dims);
+            for (int row = 0; row < points.numRows(); row++) {
+                memberships(centers, norms, k, points.values(), points.offset(row), memberships, distances);
+                Vector point = points.rowVector(row);
+                for (int c = 0; c < k; c++) {
+                    if (memberships[c] > 0) {
+                        softClusters.get(c).observe(point, memberships[c]);
+                    }
+                }
+            }
+        }
+        List<Cluster> clusters = Lists.newArrayListWithCapacity(k);
+        for (SoftCluster softCluster : softClusters) {
+            softCluster.calculateConvergence(convergenceDelta);
+            softCluster.computeParameters();
+            clusters.add(softCluster);
+        }
+        return clusters;
+    }
+
+    /**
+     * Classifies every point against the given clusters like the emitMostLikely classification step of
+     * FuzzyKMeansDriver: the cluster of highest membership, the membership as weight, and the distance to
+     * the cluster center.
+     */
+    public ClusterAssignments classify(List<Cluster> clusters) throws InterruptedException, ExecutionException {
+        final double[] centers = new double[clusters.size() * dims];
+        for (int c = 0; c < clusters.size(); c++) {
+            for (Vector.Element element : clusters.get(c).getCenter().nonZeroes()) {
+                centers[c * dims + element.index()] = element.get();
+            }
+        }
+        final int numCenters = clusters.size();
+        final double[] norms = kernel == null ? null : kernel.norms(centers, numCenters, dims);
+        final ClusterAssignments result = new ClusterAssignments(points.numRows());
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Void>> futures = Lists.newArrayList();
+            for (final int[] range : chunks) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        double[] memberships = new double[numCenters];
+                        double[] distances = new double[numCenters];
+                        for (int row = range[0]; row < range[1]; row++) {
+                            memberships(centers, norms, numCenters, points.values(), points.offset(row),
+                                    memberships, distances);
+                            int best = 0;
+                            for (int c = 1; c < numCenters; c++) {
+                                if (memberships[c] > memberships[best]) {
+                                    best = c;
+                                }
+                            }
+                            result.set(row, best, memberships[best], distances[best]);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    private Accumulator accumulate(ExecutorService executor) throws InterruptedException, ExecutionException {
+        final double[] norms = kernel == null ? null : kernel.norms(centroids, k, dims);
+        List<Future<Accumulator>> futures = Lists.newArrayList();
+        for (int i = 0; i < chunks.size(); i++) {
+            final int[] range = chunks.get(i);
+            final Accumulator accumulator = accumulators.get(i);
+            futures.add(executor.submit(new Callable<Accumulator>() {
+                @Override
+                public Accumulator call() {
+                    accumulator.reset();
+                    double[] values = points.values();
+                    double[] memberships = accumulator.memberships;
+                    double[] sums = accumulator.sums;
+                    for (int row = range[0]; row < range[1]; row++) {
+                        int offset = points.offset(row);
+                        memberships(centroids, norms, k, values, offset, memberships, accumulator.distances);
+                        int mostLikely = 0;
+                        for (int c = 0; c < k; c++) {
+                            double u = memberships[c];
+                            if (u > memberships[mostLikely]) {
+                                mostLikely = c;
+                            }
+                            double distance = accumulator.distances[c];
+                            accumulator.sse += u * (squaredEuclidean ? distance : distance * distance);
+                            int base = c * dims;
+                            for (int d = 0; d < dims; d++) {
+                                sums[base + d] += u * values[offset + d];
+                            }
+                            accumulator.weights[c] += u;
+                        }
+                        accumulator.sizes[mostLikely]++;
+                    }
+                    return accumulator;
+                }
+            }));
+        }
+        Accumulator total = futures.get(0).get();
+        for (int i = 1; i < futures.size(); i++) {
+            total.merge(futures.get(i).get());
+        }
+        return total;
+    }
+
+    /**
+     * Computes the memberships of the row in the numCenters centers, and its distances to them.
+     *
+     * @param norms kernel norms of the centers, null without a kernel
+     */
+    private void memberships(double[] centers, double[] norms, int numCenters, double[] values, int offset,
+                             double[] memberships, double[] distances) {
+        if (kernel != null) {
+            kernel.distances(values, offset, centers, norms, numCenters, dims, distances);
+        } else {
+            for (int c = 0; c < numCenters; c++) {
+                distances[c] = distance(centers, c * dims, values, offset);
+            }
+        }
+        double min = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < numCenters; c++) {
+            min = Math.min(min, distances[c] == 0 ? MINIMAL_VALUE : distances[c]);
+        }
+        double sum = 0;
+        for (int c = 0; c < numCenters; c++) {
+            double ratio = min / (distances[c] == 0 ? MINIMAL_VALUE : distances[c]);
+            double weight = exponent == 2 ? ratio * ratio : Math.pow(ratio, exponent);
+            memberships[c] = weight;
+            sum += weight;
+        }
+        for (int c = 0; c < numCenters; c++) {
+            memberships[c] /= sum;
+        }
+    }
+
+    private boolean update(Accumulator total, double convergenceDelta) {
+        // the centroids the accumulators read are replaced, not overwritten
+        previousCentroids = centroids;
+        double[] next = new double[k * dims];
+        if (shifts == null) {
+            shifts = new double[k];
+        }
+        boolean converged = true;
+        for (int c = 0; c < k; c++) {
+            int offset = c * dims;
+            double weight = total.weights[c];
+            if (weight > 0) {
+                for (int d = 0; d < dims; d++) {
+                    next[offset + d] = total.sums[offset + d] / weight;
+                }
+            } else {
+                System.arraycopy(previousCentroids, offset, next, offset, dims);
+            }
+            shifts[c] = distance(previousCentroids, offset, next, offset);
+            if (shifts[c] > convergenceDelta) {
+                converged = false;
+            }
+        }
+        centroids = next;
+        return converged;
+    }
+
+    /**
+     * Distance between two rows, consistent with measure.distance(a, b).
+     */
+    private double distance(double[] a, int aOffset, double[] b, int bOffset) {
+        if (kernel != null) {
+            return kernel.distance(a, aOffset, b, bOffset, dims);
+        }
+        return measure.distance(copyRow(a, aOffset), copyRow(b, bOffset));
+    }
+
+    private Vector copyRow(double[] values, int offset) {
+        double[] copy = new double[dims];
+        System.arraycopy(values, offset, copy, 0, dims);
+        return new DenseVector(copy, true);
+    }
+
+    /**
+     * Splits the rows into at most numThreads contiguous [from, to) ranges.
+     */
+    private List<int[]> chunks() {
+        int rows = points.numRows();
+        int chunk = Math.max(1, (rows + numThreads - 1) / numThreads);
+        List<int[]> ranges = Lists.newArrayList();
+        for (int from = 0; from < rows; from += chunk) {
+            ranges.add(new int[] {from, Math.min(rows, from + chunk)});
+        }
+        return ranges;
+    }
+
+    /**
+     * Per-thread membership-weighted centroid sums and telemetry, with the buffers of the membership
+     * computation.
+     */
+    private static final class Accumulator {
+        private final double[] sums;
+        private final double[] weights;
+        private final double[] memberships;
+        private final double[] distances;
+        private final long[] sizes;
+        private double sse;
+
+        Accumulator(int k, int dims) {
+            this.sums = new double[k * dims];
+            this.weights = new double[k];
+            this.memberships = new double[k];
+            this.distances = new double[k];
+            this.sizes = new long[k];
+        }
+
+        void reset() {
+            Arrays.fill(sums, 0);
+            Arrays.fill(weights, 0);
+            Arrays.fill(sizes, 0);
+            sse = 0;
+        }
+
+        void merge(Accumulator other) {
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] += other.sums[i];
+            }
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] += other.weights[i];
+                sizes[i] += other.sizes[i];
+            }
+            sse += other.sse;
+        }
+    }
+}
@@ -0,0 +1,651 @@
+package Clustering;
+
+import Common.CheckpointStore;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.kmeans.Kluster;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
+import org.apache.mahout.common.distance.SquaredEuclideanDistanceMeasure;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Lloyd's k-means over a PointMatrix held in memory. Every iteration assigns the points to their
+ * nearest centroid on numThreads threads, each thread summing its points into its own accumulator,
+ * and the accumulators are merged into the new centroids. Convergence follows Kluster: a cluster has
+ * converged when its center moved by no more than convergenceDelta, and the run stops when all have.
+ * <p>
+ * With a euclidean or squared euclidean measure the assignment can skip most distance computations
+ * using the triangle inequality: HAMERLY keeps, per point, an upper bound on the distance to its center
+ * and one lower bound on the distance to any other center; ELKAN keeps one lower bound per point and
+ * center (n x k doubles) and prunes with the inter-center distances as well. Both give the same
+ * assignments as LLOYD, the number of distance computations saved being logged every iteration.
+ */
+public class InMemoryKMeans {
+
+    private static final Logger log = LoggerFactory.getLogger(InMemoryKMeans.class);
+
+    /**
+     * How the points are assigned to their nearest centroid.
+     */
+    public enum Assignment {
+        LLOYD, HAMERLY, ELKAN
+    }
+
+    private final PointMatrix points;
+
+    private final DistanceMeasure measure;
+
+    private final DistanceKernel kernel; // null when the measure has no kernel
+
+    private final int numThreads;
+
+    private final int k;
+
+    private final int dims;
+
+    private final int[] clusterIds;
+
+    private final boolean squaredEuclidean; // rank and measure on squared euclidean distances
+
+    private final boolean euclidean; // rank on squared euclidean distances, measure on their root
+
+    private double[] centroids; // k x dims, row-major
+
+    private double[] previousCentroids; // centroids the last assignment was made against
+
+    private double[] centroidNorms; // kernel norms of the centroids
+
+    private final int[] assignments;
+
+    private int iterations;
+
+    private Assignment assignment = Assignment.LLOYD;
+
+    private boolean boundsValid; // bounds hold for the current assignments and centroids
+
+    private double[] upperBounds; // per point, euclidean distance to its centroid or more
+
+    private double[] lowerBounds; // HAMERLY: per point, ELKAN: per point and centroid
+
+    private double[] drifts; // euclidean distance each centroid moved by in the last update
+
+    private double maxDrift; // largest of the drifts
+
+    private double secondMaxDrift; // largest of the drifts but the one of maxDriftCluster
+
+    private int maxDriftCluster;
+
+    private double[] halfSeparations; // per centroid, half the distance to its nearest other centroid
+
+    private double[] centerDistances; // ELKAN: k x k euclidean distances between centroids
+
+    private long distanceEvaluations; // point to centroid distances computed so far
+
+    private long possibleEvaluations; // point to centroid distances a plain assignment would have computed
+
+    private double[] shifts; // distance each centroid moved by in the last update, as measured
+
+    private double sumOfSquares = Double.NaN; // sum of the squared norms of the points, for the SSE
+
+    private IterationTelemetry telemetry; // null to record nothing
+
+    private CheckpointStore checkpoints; // null to checkpoint nothing
+
+    public InMemoryKMeans(PointMatrix points, List<? extends Cluster> initialClusters, DistanceMeasure measure,
+                          int numThreads) {
+        Preconditions.checkArgument(!initialClusters.isEmpty(), "no initial clusters");
+        Preconditions.checkArgument(numThreads > 0, "numThreads must be positive");
+        this.points = points;
+        this.measure = measure;
+        this.numThreads = numThreads;
+        this.k = initialClusters.size();
+        this.dims = points.numCols();
+        this.clusterIds = new int[k];
+        this.centroids = new double[k * dims];
+        for (int c = 0; c < k; c++) {
+            Cluster cluster = initialClusters.get(c);
+            clusterIds[c] = cluster.getId();
+            for (Vector.Element element : cluster.getCenter().nonZeroes()) {
+                centroids[c * dims + element.index()] = element.get();
+            }
+        }
+        this.euclidean = measure.getClass() == EuclideanDistanceMeasure.class;
+        this.squaredEuclidean = measure.getClass() == SquaredEuclideanDistanceMeasure.class;
+        this.kernel = DistanceKernel.forMeasure(measure);
+        this.assignments = new int[points.numRows()];
+    }
+
+    /**
+     * Selects the assignment strategy. The bounded strategies need the triangle inequality and fall back to
+     * LLOYD with any measure other than the (squared) euclidean one.
+     */
+    public void setAssignment(Assignment assignment) {
+        if (assignment != Assignment.LLOYD && !squaredEuclidean && !euclidean) {
+            log.warn("{} assignment needs a euclidean measure, using LLOYD with {}", assignment,
+                    measure.getClass().getSimpleName());
+            assignment = Assignment.LLOYD;
+        }
+        this.assignment = assignment;
+        this.boundsValid = false;
+        int n = points.numRows();
+        if (assignment != Assignment.LLOYD) {
+            upperBounds = new double[n];
+            lowerBounds = new double[assignment == Assignment.ELKAN ? n * k : n];
+            drifts = new double[k];
+            halfSeparations = new double[k];
+            centerDistances = new double[k * k];
+        } else {
+            upperBounds = null;
+            lowerBounds = null;
+            drifts = null;
+            halfSeparations = null;
+            centerDistances = null;
+        }
+    }
+
+    /**
+     * Records every iteration in the given telemetry.
+     */
+    public void setTelemetry(IterationTelemetry telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    /**
+     * Saves the centroids to the given store every time it is due, as a ClusterCheckpoint of Klusters.
+     */
+    public void setCheckpoints(CheckpointStore checkpoints) {
+        this.checkpoints = checkpoints;
+    }
+
+    /**
+     * Continues a run restored from a checkpoint: the initial clusters are the checkpointed ones, and run
+     * counts the iterations from the given number on.
+     */
+    public void setIterations(int iterations) {
+        Preconditions.checkArgument(iterations >= 0, "iterations must not be negative");
+        this.iterations = iterations;
+    }
+
+    /**
+     * @return the number of point to centroid distances computed by the assignments so far
+     */
+    public long getDistanceEvaluations() {
+        return distanceEvaluations;
+    }
+
+    /**
+     * @return the number of point to centroid distances the assignments so far did not need to compute
+     */
+    public long getPrunedEvaluations() {
+        return possibleEvaluations - distanceEvaluations;
+    }
+
+    /**
+     * Iterates until all the clusters converged or maxIterations is reached.
+     *
+     * @return the number of iterations run
+     */
+    public int run(double convergenceDelta, int maxIterations) throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            boolean converged = false;
+            while (!converged && iterations < maxIterations) {
+                long time = System.currentTimeMillis();
+                Accumulator total = assign(executor);
+                converged = update(total, convergenceDelta);
+                iterations++;
+                distanceEvaluations += total.evaluations;
+                possibleEvaluations += (long) points.numRows() * k;
+                log.info("Iteration {} done in {} ms, {} distances computed, {} pruned", iterations,
+                        System.currentTimeMillis() - time, total.evaluations,
+                        (long) points.numRows() * k - total.evaluations);
+                if (telemetry != null) {
+                    telemetry.record(iterations, System.currentTimeMillis() - time, points.numRows(), shifts,
+                            convergenceDelta, total.counts, sse(total));
+                }
+                if (checkpoints != null && !converged && iterations < maxIterations && checkpoints.isDue(iterations)) {
+                    checkpoint();
+                }
+            }
+            log.info("K-means {} after {} iterations, {} of {} distances pruned", converged ? "converged" : "stopped",
+                    iterations, getPrunedEvaluations(), possibleEvaluations);
+        } finally {
+            executor.shutdownNow();
+        }
+        return iterations;
+    }
+
+    /**
+     * Saves the current centroids; a failed checkpoint is logged and does not stop the run.
+     */
+    private void checkpoint() {
+        List<Kluster> klusters = Lists.newArrayListWithCapacity(k);
+        for (int c = 0; c < k; c++) {
+            klusters.add(new Kluster(centroidVector(centroids, c), clusterIds[c], measure));
+        }
+        try {
+            checkpoints.save(iterations, new ClusterCheckpoint(klusters));
+        } catch (IOException e) {
+            log.warn("Could not checkpoint iteration " + iterations, e);
+        }
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Builds the final Klusters the way KMeansClusteringPolicy closes an iteration: each cluster observes
+     * the points of the last assignment, computes its convergence against the center they were assigned
+     * to, and then its new parameters.
+     */
+    public List<Cluster> getClusters(double convergenceDelta) {
+        double[] centers = previousCentroids == null ? centroids : previousCentroids;
+        List<Kluster> klusters = Lists.newArrayListWithCapacity(k);
+        for (int c = 0; c < k; c++) {
+            klusters.add(new Kluster(centroidVector(centers, c), clusterIds[c], measure));
+        }
+        if (previousCentroids != null) {
+            for (int row = 0; row < points.numRows(); row++) {
+                klusters.get(assignments[row]).observe(points.rowVector(row));
+            }
+        }
+        List<Cluster> clusters = Lists.newArrayListWithCapacity(k);
+        for (Kluster kluster : klusters) {
+            kluster.calculateConvergence(convergenceDelta);
+            kluster.computeParameters();
+            clusters.add(kluster);
+        }
+        return clusters;
+    }
+
+    /**
+     * Classifies every point against the given clusters like the emitMostLikely classification step:
+     * most likely cluster, its normalized pdf 1 / (1 + distance) as weight, and the distance to it.
+     */
+    public ClusterAssignments classify(List<Cluster> clusters) throws InterruptedException, ExecutionException {
+        final double[] centers = new double[clusters.size() * dims];
+        for (int c = 0; c < clusters.size(); c++) {
+            for (Vector.Element element : clusters.get(c).getCenter().nonZeroes()) {
+                centers[c * dims + element.index()] = element.get();
+            }
+        }
+        final int numCenters = clusters.size();
+        final double[] norms = kernel == null ? null : kernel.norms(centers, numCenters, dims);
+        final ClusterAssignments result = new ClusterAssignments(points.numRows());
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Void>> futures = Lists.newArrayList();
+            for (final int[] range : chunks()) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        double[] distances = new double[numCenters];
+                        for (int row = range[0]; row < range[1]; row++) {
+                            int best = 0;
+                            double pdfSum = 0;
+                            if (kernel != null) {
+                                kernel.distances(points.values(), points.offset(row), centers, norms, numCenters,
+                                        dims, distances);
+                            }
+                            for (int c = 0; c < numCenters; c++) {
+                                if (kernel == null) {
+                                    distances[c] = distance(centers, c * dims, points.values(), points.offset(row));
+                                }
+                                pdfSum += 1.0 / (1.0 + distances[c]);
+                                if (distances[c] < distances[best]) {
+                                    best = c;
+                                }
+                            }
+                            result.set(row, best, 1.0 / (1.0 + distances[best]) / pdfSum, distances[best]);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    private Accumulator assign(ExecutorService executor) throws InterruptedException, ExecutionException {
+        if (assignment != Assignment.LLOYD) {
+            computeCenterSeparations();
+        } else if (kernel != null) {
+            centroidNorms = kernel.norms(centroids, k, dims);
+        }
+        final boolean initialize = !boundsValid;
+        List<Future<Accumulator>> futures = Lists.newArrayList();
+        for (final int[] range : chunks()) {
+            futures.add(executor.submit(new Callable<Accumulator>() {
+                @Override
+                public Accumulator call() {
+                    Accumulator accumulator = new Accumulator(k, dims);
+                    double[] values = points.values();
+                    for (int row = range[0]; row < range[1]; row++) {
+                        int offset = points.offset(row);
+                        int nearest;
+                        if (assignment == Assignment.HAMERLY) {
+                            nearest = initialize ? initializeBounds(row, values, offset, accumulator)
+                                    : hamerly(row, values, offset, accumulator);
+                        } else if (assignment == Assignment.ELKAN) {
+                            nearest = initialize ? initializeBounds(row, values, offset, accumulator)
+                                    : elkan(row, values, offset, accumulator);
+                        } else {
+                            nearest = nearest(values, offset);
+                            accumulator.evaluations += k;
+                        }
+                        assignments[row] = nearest;
+                        accumulator.add(nearest, values, offset);
+                    }
+                    return accumulator;
+                }
+            }));
+        }
+        Accumulator total = futures.get(0).get();
+        for (int i = 1; i < futures.size(); i++) {
+            total.merge(futures.get(i).get());
+        }
+        boundsValid = assignment != Assignment.LLOYD;
+        return total;
+    }
+
+    /**
+     * Computes all the distances of the row and sets its bounds from them.
+     */
+    private int initializeBounds(int row, double[] values, int offset, Accumulator accumulator) {
+        int best = 0;
+        double first = Double.POSITIVE_INFINITY;
+        double second = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < k; c++) {
+            double d = euclideanDistance(c, values, offset);
+            if (assignment == Assignment.ELKAN) {
+                lowerBounds[row * k + c] = d;
+            }
+            if (d < first) {
+                second = first;
+                first = d;
+                best = c;
+            } else if (d < second) {
+                second = d;
+            }
+        }
+        accumulator.evaluations += k;
+        upperBounds[row] = first;
+        if (assignment == Assignment.HAMERLY) {
+            lowerBounds[row] = second;
+        }
+        return best;
+    }
+
+    private int hamerly(int row, double[] values, int offset, Accumulator accumulator) {
+        int a = assignments[row];
+        double upper = upperBounds[row] + drifts[a];
+        double lower = lowerBounds[row] - maxDriftExcept(a);
+        double bound = Math.max(halfSeparations[a], lower);
+        if (upper > bound) {
+            upper = euclideanDistance(a, values, offset);
+            accumulator.evaluations++;
+            if (upper > bound) {
+                int best = a;
+                double first = upper;
+                double second = Double.POSITIVE_INFINITY;
+                for (int c = 0; c < k; c++) {
+                    if (c == a) {
+                        continue;
+                    }
+                    double d = euclideanDistance(c, values, offset);
+                    if (d < first) {
+                        second = first;
+                        first = d;
+                        best = c;
+                    } else if (d < second) {
+                        second = d;
+                    }
+                }
+                accumulator.evaluations += k - 1;
+                a = best;
+                upper = first;
+                lower = second;
+            }
+        }
+        upperBounds[row] = upper;
+        lowerBounds[row] = lower;
+        return a;
+    }
+
+    private int elkan(int row, double[] values, int offset, Accumulator accumulator) {
+        int a = assignments[row];
+        int base = row * k;
+        for (int c = 0; c < k; c++) {
+            lowerBounds[base + c] = Math.max(0, lowerBounds[base + c] - drifts[c]);
+        }
+        double upper = upperBounds[row] + drifts[a];
+        if (upper > halfSeparations[a]) {
+            boolean tight = false;
+            for (int c = 0; c < k; c++) {
+                if (c == a) {
+                    continue;
+                }
+                double bound = Math.max(lowerBounds[base + c], 0.5 * centerDistances[a * k + c]);
+                if (upper <= bound) {
+                    continue;
+                }
+                if (!tight) {
+                    upper = euclideanDistance(a, values, offset);
+                    lowerBounds[base + a] = upper;
+                    accumulator.evaluations++;
+                    tight = true;
+                    if (upper <= bound) {
+                        continue;
+                    }
+                }
+                double d = euclideanDistance(c, values, offset);
+                accumulator.evaluations++;
+                lowerBounds[base + c] = d;
+                if (d < upper) {
+                    a = c;
+                    upper = d;
+                }
+            }
+        }
+        upperBounds[row] = upper;
+        return a;
+    }
+
+    private double maxDriftExcept(int cluster) {
+        return cluster == maxDriftCluster ? secondMaxDrift : maxDrift;
+    }
+
+    private void computeCenterSeparations() {
+        maxDrift = 0;
+        secondMaxDrift = 0;
+        maxDriftCluster = -1;
+        for (int c = 0; c < k; c++) {
+            if (drifts[c] > maxDrift) {
+                secondMaxDrift = maxDrift;
+                maxDrift = drifts[c];
+                maxDriftCluster = c;
+            } else if (drifts[c] > secondMaxDrift) {
+                secondMaxDrift = drifts[c];
+            }
+        }
+        for (int c = 0; c < k; c++) {
+            halfSeparations[c] = Double.POSITIVE_INFINITY;
+        }
+        for (int c = 0; c < k; c++) {
+            for (int other = c + 1; other < k; other++) {
+                double d = Math.sqrt(squaredDistance(centroids, c * dims, centroids, other * dims));
+                centerDistances[c * k + other] = d;
+                centerDistances[other * k + c] = d;
+                halfSeparations[c] = Math.min(halfSeparations[c], 0.5 * d);
+                halfSeparations[other] = Math.min(halfSeparations[other], 0.5 * d);
+            }
+        }
+    }
+
+    private double euclideanDistance(int c, double[] values, int offset) {
+        return Math.sqrt(squaredDistance(centroids, c * dims, values, offset));
+    }
+
+    /**
+     * SSE of the last assignment to the centroids just updated from it: the sum of the squared norms of
+     * the points minus, for each cluster, the squared norm of the sum of its points over their count.
+     */
+    private double sse(Accumulator total) {
+        double[] values = points.values();
+        if (Double.isNaN(sumOfSquares)) {
+            double sum = 0;
+            for (int i = 0; i < points.numRows() * dims; i++) {
+                sum += values[i] * values[i];
+            }
+            sumOfSquares = sum;
+        }
+        double sse = sumOfSquares;
+        for (int c = 0; c < k; c++) {
+            if (total.counts[c] > 0) {
+                double squaredNorm = 0;
+                for (int d = 0; d < dims; d++) {
+                    double sum = total.sums[c * dims + d];
+                    squaredNorm += sum * sum;
+                }
+                sse -= squaredNorm / total.counts[c];
+            }
+        }
+        return Math.max(0, sse);
+    }
+
+    private boolean update(Accumulator total, double convergenceDelta) {
+        previousCentroids = centroids;
+        double[] next = new double[k * dims];
+        if (shifts == null) {
+            shifts = new double[k];
+        }
+        boolean converged = true;
+        for (int c = 0; c < k; c++) {
+            int offset = c * dims;
+            long count = total.counts[c];
+            if (count > 0) {
+                for (int d = 0; d < dims; d++) {
+                    next[offset + d] = total.sums[offset + d] / count;
+                }
+            } else {
+                // an empty cluster keeps its center, as AbstractCluster.computeParameters does
+                System.arraycopy(previousCentroids, offset, next, offset, dims);
+            }
+            shifts[c] = distance(previousCentroids, offset, next, offset);
+            if (shifts[c] > convergenceDelta) {
+                converged = false;
+            }
+            if (drifts != null) {
+                drifts[c] = Math.sqrt(squaredDistance(previousCentroids, offset, next, offset));
+            }
+        }
+        centroids = next;
+        return converged;
+    }
+
+    private int nearest(double[] values, int offset) {
+        if (kernel != null) {
+            return kernel.nearest(values, offset, centroids, centroidNorms, k, dims);
+        }
+        int best = 0;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < k; c++) {
+            double d = distance(centroids, c * dims, values, offset);
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Distance between two rows, consistent with measure.distance(a, b).
+     */
+    private double distance(double[] a, int aOffset, double[] b, int bOffset) {
+        if (kernel != null) {
+            return kernel.distance(a, aOffset, b, bOffset, dims);
+        }
+        return measure.distance(copyRow(a, aOffset), copyRow(b, bOffset));
+    }
+
+    private double squaredDistance(double[] a, int aOffset, double[] b, int bOffset) {
+        return DistanceKernel.squaredEuclidean(a, aOffset, b, bOffset, dims);
+    }
+
+    private Vector copyRow(double[] values, int offset) {
+        double[] copy = new double[dims];
+        System.arraycopy(values, offset, copy, 0, dims);
+        return new DenseVector(copy, true);
+    }
+
+    private Vector centroidVector(double[] centers, int c) {
+        return copyRow(centers, c * dims);
+    }
+
+    /**
+     * Splits the rows into at most numThreads contiguous [from, to) ranges.
+     */
+    private List<int[]> chunks() {
+        int rows = points.numRows();
+        int chunk = Math.max(1, (rows + numThreads - 1) / numThreads);
+        List<int[]> ranges = Lists.newArrayList();
+        for (int from = 0; from < rows; from += chunk) {
+            ranges.add(new int[] {from, Math.min(rows, from + chunk)});
+        }
+        return ranges;
+    }
+
+    /**
+     * Per-thread centroid sums and counts.
+     */
+    private static final class Accumulator {
+        private final int dims;
+        private final double[] sums;
+        private final long[] counts;
+        private long evaluations;
+
+        Accumulator(int k, int dims) {
+            this.dims = dims;
+            this.sums = new double[k * dims];
+            this.counts = new long[k];
+        }
+
+        void add(int cluster, double[] values, int offset) {
+            int base = cluster * dims;
+            for (int d = 0; d < dims; d++) {
+                sums[base + d] += values[offset + d];
+            }
+            counts[cluster]++;
+        }
+
+        void merge(Accumulator other) {
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] += other.sums[i];
+            }
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            evaluations += other.evaluations;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package Clustering;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.canopy.Canopy;
+import org.apache.mahout.clustering.iterator.ClusterWritable;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
+import org.apache.mahout.common.distance.ManhattanDistanceMeasure;
+import org.apache.mahout.common.distance.SquaredEuclideanDistanceMeasure;
+import org.apache.mahout.common.iterator.sequencefile.PathFilters;
+import org.apache.mahout.common.iterator.sequencefile.PathType;
+import org.apache.mahout.common.iterator.sequencefile.SequenceFileDirValueIterator;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Sequential canopy generation, as CanopyDriver runs it, with the canopy centers held in a spatial index
+ * so that each point is only compared with the centers that can be within T1 of it.
+ * <p>
+ * A canopy keeps the point that created it as center until computeParameters, so the index only ever
+ * grows. Up to MAX_KD_TREE_DIMS dimensions the centers are indexed by a k-d tree over their coordinates;
+ * above, by a k-d tree over NUM_PROJECTIONS random unit projections of them. A projection never
+ * increases a euclidean (or manhattan) distance, so both indexes return every center within T1, then
+ * checked with the real measure, and the canopies match those of the sequential CanopyDriver over the same
+ * points in the same order, as IndexedCanopyBuilderTest checks for both indexes; only rounding in the
+ * projections may differ at distances right at T1 or T2. The projections are drawn from the seed, so a run
+ * is repeatable. Measures without this property fall back to comparing with every center.
+ * <p>
+ * Only the drivers given the indexed option use this builder. Otherwise they run CanopyDriver, as a
+ * MapReduce job under a mapreduce plan, whose canopies, built per split and then merged, are not those of
+ * the sequential algorithm.
+ */
+public class IndexedCanopyBuilder {
+
+    private static final Logger log = LoggerFactory.getLogger(IndexedCanopyBuilder.class);
+
+    static final int MAX_KD_TREE_DIMS = 16;
+
+    static final int NUM_PROJECTIONS = 16;
+
+    private final DistanceMeasure measure;
+
+    private final double t1;
+
+    private final double t2;
+
+    private final long seed;
+
+    private final List<Canopy> canopies = Lists.newArrayList();
+
+    private KdTree index;
+
+    private double[] projections; // NUM_PROJECTIONS x dims unit vectors, null to index the coordinates
+
+    private int dims = -1;
+
+    private long comparisons;
+
+    private long points;
+
+    public IndexedCanopyBuilder(DistanceMeasure measure, double t1, double t2, long seed) {
+        this.measure = measure;
+        this.t1 = t1;
+        this.t2 = t2;
+        this.seed = seed;
+    }
+
+    /**
+     * Builds the canopies of the VectorWritable points under input and writes those with more than
+     * clusterFilter points to output/clusters-0-final, like the sequential CanopyDriver.
+     *
+     * @return the path of the canopies
+     */
+    public Path run(Configuration conf, Path input, Path output, double clusterFilter) throws IOException {
+        SequenceFileDirValueIterator<VectorWritable> iterator =
+                new SequenceFileDirValueIterator<VectorWritable>(input, PathType.LIST, PathFilters.logsCRCFilter(),
+                        null, true, conf);
+        try {
+            while (iterator.hasNext()) {
+                addPoint(iterator.next().get().clone());
+            }
+        } finally {
+            Closeables.close(iterator, true);
+        }
+        log.info("{} canopies from {} points, {} center comparisons instead of up to {}", canopies.size(), points,
+                comparisons, points * canopies.size());
+
+        Path canopyPath = new Path(output, Cluster.INITIAL_CLUSTERS_DIR + Cluster.FINAL_ITERATION_SUFFIX);
+        SequenceFile.Writer writer = SequenceFile.createWriter(conf,
+                SequenceFile.Writer.file(new Path(canopyPath, "part-r-00000")),
+                SequenceFile.Writer.keyClass(Text.class),
+                SequenceFile.Writer.valueClass(ClusterWritable.class));
+        try {
+            ClusterWritable writable = new ClusterWritable();
+            for (Canopy canopy : filter(clusterFilter)) {
+                writable.setValue(canopy);
+                writer.append(new Text(canopy.getIdentifier()), writable);
+            }
+        } finally {
+            Closeables.close(writer, false);
+        }
+        return canopyPath;
+    }
+
+    /**
+     * Builds the canopies of the rows of matrix, without reading or writing any file.
+     *
+     * @return the canopies with more than clusterFilter points, their parameters computed
+     */
+    public List<Canopy> build(PointMatrix matrix, double clusterFilter) {
+        for (int row = 0; row < matrix.numRows(); row++) {
+            addPoint(matrix.rowVector(row));
+        }
+        log.info("{} canopies from {} points, {} center comparisons instead of up to {}", canopies.size(), points,
+                comparisons, points * canopies.size());
+        return filter(clusterFilter);
+    }
+
+    private List<Canopy> filter(double clusterFilter) {
+        List<Canopy> kept = Lists.newArrayListWithCapacity(canopies.size());
+        for (Canopy canopy : canopies) {
+            canopy.computeParameters();
+            if (canopy.getNumObservations() > clusterFilter) {
+                kept.add(canopy);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Adds the point to every canopy within T1, and creates a new canopy centered on it unless one is
+     * within T2.
+     */
+    public void addPoint(final Vector point) {
+        points++;
+        if (dims < 0) {
+            initialize(point.size());
+        }
+        final boolean[] stronglyBound = new boolean[1];
+        if (index == null) {
+            for (Canopy canopy : canopies) {
+                stronglyBound[0] |= observe(canopy, point);
+            }
+        } else {
+            double[] key = key(point);
+            index.range(key, 0, radius(), new KdTree.Visitor() {
+                @Override
+                public void visit(int id) {
+                    stronglyBound[0] |= observe(canopies.get(id), point);
+                }
+            });
+            if (!stronglyBound[0]) {
+                index.add(key, 0);
+            }
+        }
+        if (!stronglyBound[0]) {
+            canopies.add(new Canopy(point, canopies.size(), measure));
+        }
+    }
+
+    public List<Canopy> getCanopies() {
+        return canopies;
+    }
+
+    /**
+     * @return true if the point is within T2 of the canopy, having been observed by it if within T1
+     */
+    private boolean observe(Canopy canopy, Vector point) {
+        comparisons++;
+        double distance = measure.distance(canopy.getCenter(), point);
+        if (distance < t1) {
+            canopy.observe(point);
+        }
+        return distance < t2;
+    }
+
+    private void initialize(int cardinality) {
+        dims = cardinality;
+        Class<?> measureClass = measure.getClass();
+        if (measureClass != SquaredEuclideanDistanceMeasure.class && measureClass != EuclideanDistanceMeasure.class
+                && measureClass != ManhattanDistanceMeasure.class) {
+            log.warn("No spatial index for {}, comparing every point with every canopy",
+                    measureClass.getSimpleName());
+            return;
+        }
+        if (dims <= MAX_KD_TREE_DIMS) {
+            index = new KdTree(dims);
+        } else {
+            Random random = new Random(seed);
+            projections = new double[NUM_PROJECTIONS * dims];
+            for (int p = 0; p < NUM_PROJECTIONS; p++) {
+                double norm = 0;
+                for (int d = 0; d < dims; d++) {
+                    double g = random.nextGaussian();
+                    projections[p * dims + d] = g;
+                    norm += g * g;
+                }
+                norm = Math.sqrt(norm);
+                for (int d = 0; d < dims; d++) {
+                    projections[p * dims + d] /= norm;
+                }
+            }
+            index = new KdTree(NUM_PROJECTIONS);
+        }
+        log.info("Indexing canopy centers with a k-d tree over {}", projections == null ? dims + " coordinates"
+                : NUM_PROJECTIONS + " random projections with seed " + seed);
+    }
+
+    /**
+     * @return the coordinates, or the projections, of the point in the index
+     */
+    private double[] key(Vector point) {
+        double[] key = new double[projections == null ? dims : NUM_PROJECTIONS];
+        if (projections == null) {
+            for (Vector.Element element : point.nonZeroes()) {
+                key[element.index()] = element.get();
+            }
+        } else {
+            for (Vector.Element element : point.nonZeroes()) {
+                for (int p = 0; p < NUM_PROJECTIONS; p++) {
+                    key[p] += projections[p * dims + element.index()] * element.get();
+                }
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return a bound, per index coordinate, of the difference between a point and the centers within T1
+     */
+    private double radius() {
+        // squared euclidean distances are compared with T1 before their root is taken
+        return measure.getClass() == SquaredEuclideanDistanceMeasure.class ? Math.sqrt(t1) : t1;
+    }
+}
@@ -0,0 +1,200 @@
+package Clustering;
+
+import com.google.common.base.Charsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Records the progress of a clustering run, one record per iteration: wall time and points per second,
+ * maximum and mean center shift against the convergence delta, cluster sizes and empty clusters, and
+ * the total SSE. Every record is appended as a JSON line to an optional file and published as the
+ * gauges of an MXBean named MahoutML:type=IterationTelemetry,name={run}.
+ */
+public class IterationTelemetry implements IterationTelemetryMXBean, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(IterationTelemetry.class);
+
+    private final String run;
+
+    private final Writer writer; // null without a JSON lines file
+
+    private volatile int iteration;
+
+    private volatile long wallMillis;
+
+    private volatile double pointsPerSecond;
+
+    private volatile double maxShift = Double.NaN;
+
+    private volatile double meanShift = Double.NaN;
+
+    private volatile double convergenceDelta;
+
+    private volatile long[] clusterSizes = new long[0];
+
+    private volatile int emptyClusters;
+
+    private volatile double sse = Double.NaN;
+
+    /**
+     * @param run       name of the run, in the records and the MXBean name
+     * @param jsonLines file the records are appended to, or null to only publish them over JMX
+     */
+    public IterationTelemetry(String run, File jsonLines) throws IOException {
+        this.run = run;
+        this.writer = jsonLines == null ? null : new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(jsonLines, true), Charsets.UTF_8));
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("MahoutML:type=IterationTelemetry,name=" + ObjectName.quote(run));
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            log.warn("Could not register the telemetry MXBean of " + run, e);
+        }
+    }
+
+    /**
+     * Records an iteration.
+     *
+     * @param points number of points, or total membership weight, the iteration went through
+     * @param shifts distance each center moved by in the iteration, empty for the first clusters
+     * @param sizes  points of each cluster after the iteration
+     * @param sse    sum of the squared distances of the points to their centers, NaN if unknown
+     */
+    public synchronized void record(int iteration, long wallMillis, double points, double[] shifts,
+                                    double convergenceDelta, long[] sizes, double sse) {
+        double max = shifts.length == 0 ? Double.NaN : 0;
+        double sum = 0;
+        for (double shift : shifts) {
+            max = Math.max(max, shift);
+            sum += shift;
+        }
+        int empty = 0;
+        for (long size : sizes) {
+            if (size == 0) {
+                empty++;
+            }
+        }
+        this.iteration = iteration;
+        this.wallMillis = wallMillis;
+        this.pointsPerSecond = wallMillis > 0 ? points * 1000 / wallMillis : Double.NaN;
+        this.maxShift = max;
+        this.meanShift = shifts.length == 0 ? Double.NaN : sum / shifts.length;
+        this.convergenceDelta = convergenceDelta;
+        this.clusterSizes = sizes.clone();
+        this.emptyClusters = empty;
+        this.sse = sse;
+
+        StringBuilder json = new StringBuilder(128 + sizes.length * 8);
+        json.append("{\"run\":\"").append(run.replace("\\", "\\\\").replace("\"", "\\\""))
+                .append("\",\"iteration\":").append(iteration)
+                .append(",\"timestamp\":").append(System.currentTimeMillis())
+                .append(",\"wallMillis\":").append(wallMillis)
+                .append(",\"points\":").append(number(points))
+                .append(",\"pointsPerSecond\":").append(number(pointsPerSecond))
+                .append(",\"maxShift\":").append(number(maxShift))
+                .append(",\"meanShift\":").append(number(meanShift))
+                .append(",\"convergenceDelta\":").append(number(convergenceDelta))
+                .append(",\"converged\":").append(shifts.length > 0 && max <= convergenceDelta)
+                .append(",\"clusters\":").append(sizes.length)
+                .append(",\"emptyClusters\":").append(empty)
+                .append(",\"sizes\":[");
+        for (int c = 0; c < sizes.length; c++) {
+            if (c > 0) {
+                json.append(',');
+            }
+            json.append(sizes[c]);
+        }
+        json.append("],\"sse\":").append(number(sse)).append('}');
+        log.info("{}", json);
+        if (writer != null) {
+            try {
+                writer.write(json.append('\n').toString());
+                writer.flush();
+            } catch (IOException e) {
+                // the telemetry must not fail the run it reports on
+                log.warn("Could not write the telemetry of " + run, e);
+            }
+        }
+    }
+
+    private static String number(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value);
+    }
+
+    @Override
+    public int getIteration() {
+        return iteration;
+    }
+
+    @Override
+    public long getWallMillis() {
+        return wallMillis;
+    }
+
+    @Override
+    public double getPointsPerSecond() {
+        return pointsPerSecond;
+    }
+
+    @Override
+    public double getMaxShift() {
+        return maxShift;
+    }
+
+    @Override
+    public double getMeanShift() {
+        return meanShift;
+    }
+
+    @Override
+    public double getConvergenceDelta() {
+        return convergenceDelta;
+    }
+
+    @Override
+    public int getNumClusters() {
+        return clusterSizes.length;
+    }
+
+    @Override
+    public int getEmptyClusters() {
+        return emptyClusters;
+    }
+
+    @Override
+    public long[] getClusterSizes() {
+        return clusterSizes.clone();
+    }
+
+    @Override
+    public double getSse() {
+        return sse;
+    }
+
+    /**
+     * Closes the JSON lines file. The MXBean stays registered so that the last iteration can still be
+     * read, until another run of the same name replaces it.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+}
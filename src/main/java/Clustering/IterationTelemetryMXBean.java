@@ -0,0 +1,27 @@
+package Clustering;
+
+/**
+ * JMX gauges of the last iteration recorded by an IterationTelemetry.
+ */
+public interface IterationTelemetryMXBean {
+
+    int getIteration();
+
+    long getWallMillis();
+
+    double getPointsPerSecond();
+
+    double getMaxShift();
+
+    double getMeanShift();
+
+    double getConvergenceDelta();
+
+    int getNumClusters();
+
+    int getEmptyClusters();
+
+    long[] getClusterSizes();
+
+    double getSse();
+}
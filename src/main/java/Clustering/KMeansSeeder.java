@@ -0,0 +1,301 @@
+package Clustering;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
+import org.apache.mahout.common.distance.SquaredEuclideanDistanceMeasure;
+import org.apache.mahout.math.Vector;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Picks the initial k-means centers among the rows of a PointMatrix.
+ * <ul>
+ * <li>random: k distinct rows drawn uniformly</li>
+ * <li>k-means++: every new center is drawn with probability proportional to its squared distance
+ * to the nearest center already chosen (Arthur and Vassilvitskii)</li>
+ * <li>k-means||: a few rounds of oversampling, each drawing every point independently with
+ * probability oversampling * D^2 / cost on parallel threads, followed by a weighted k-means++ over
+ * the candidates (Bahmani et al.)</li>
+ * </ul>
+ * All modes are reproducible for a given seed; k-means|| draws with one generator per fixed-size block
+ * of rows, so that its result does not depend on the number of threads either.
+ */
+public class KMeansSeeder {
+
+    private static final int BLOCK_SIZE = 4096;
+
+    private final PointMatrix points;
+
+    private final DistanceMeasure measure;
+
+    private final long seed;
+
+    private final boolean squaredEuclidean; // measure distances are already squared
+
+    private final boolean euclidean; // square the euclidean distances without taking their root
+
+    private final DistanceKernel kernel; // null when the measure has no kernel
+
+    public KMeansSeeder(PointMatrix points, DistanceMeasure measure, long seed) {
+        this.points = points;
+        this.measure = measure;
+        this.seed = seed;
+        this.squaredEuclidean = measure.getClass() == SquaredEuclideanDistanceMeasure.class;
+        this.euclidean = measure.getClass() == EuclideanDistanceMeasure.class;
+        this.kernel = DistanceKernel.forMeasure(measure);
+    }
+
+    /**
+     * @return k distinct rows drawn uniformly
+     */
+    public int[] random(int k) {
+        checkK(k);
+        Random random = new Random(seed);
+        int n = points.numRows();
+        // partial Fisher-Yates shuffle of the row indexes
+        int[] rows = new int[n];
+        for (int i = 0; i < n; i++) {
+            rows[i] = i;
+        }
+        int[] chosen = new int[k];
+        for (int c = 0; c < k; c++) {
+            int j = c + random.nextInt(n - c);
+            int tmp = rows[c];
+            rows[c] = rows[j];
+            rows[j] = tmp;
+            chosen[c] = rows[c];
+        }
+        return chosen;
+    }
+
+    /**
+     * @return the rows chosen by k-means++
+     */
+    public int[] kMeansPlusPlus(int k) {
+        checkK(k);
+        return kMeansPlusPlus(points, null, k, new Random(seed));
+    }
+
+    /**
+     * @param k            number of centers
+     * @param oversampling expected number of candidates drawn per round, typically 2k
+     * @param rounds       number of oversampling rounds, typically 5
+     * @param numThreads   number of threads sampling and updating the distances
+     * @return the rows chosen by k-means||
+     */
+    public int[] kMeansParallel(int k, double oversampling, int rounds, int numThreads)
+            throws InterruptedException, ExecutionException {
+        checkK(k);
+        Preconditions.checkArgument(oversampling > 0, "oversampling must be positive");
+        final int n = points.numRows();
+        Random random = new Random(seed);
+        final double[] cost = new double[n];
+        List<Integer> candidates = Lists.newArrayList();
+        candidates.add(random.nextInt(n));
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            updateCost(executor, cost, candidates, true);
+            for (int round = 0; round < rounds; round++) {
+                double total = 0;
+                for (double c : cost) {
+                    total += c;
+                }
+                if (total == 0) {
+                    break;
+                }
+                List<Integer> sampled = sample(executor, cost, oversampling / total, round);
+                candidates.addAll(sampled);
+                updateCost(executor, cost, sampled, false);
+            }
+
+            if (candidates.size() <= k) {
+                return kMeansPlusPlus(k);
+            }
+
+            // weight every candidate by the number of points it is the nearest candidate of
+            final double[] weights = new double[candidates.size()];
+            final PointMatrix candidateMatrix = new PointMatrix(candidates.size(), points.numCols());
+            for (int i = 0; i < candidates.size(); i++) {
+                System.arraycopy(points.values(), points.offset(candidates.get(i)), candidateMatrix.values(),
+                        candidateMatrix.offset(i), points.numCols());
+            }
+            List<Future<double[]>> futures = Lists.newArrayList();
+            for (int block = 0; block < n; block += BLOCK_SIZE) {
+                final int from = block;
+                final int to = Math.min(n, block + BLOCK_SIZE);
+                futures.add(executor.submit(new Callable<double[]>() {
+                    @Override
+                    public double[] call() {
+                        double[] counts = new double[weights.length];
+                        for (int row = from; row < to; row++) {
+                            int nearest = 0;
+                            double nearestCost = Double.POSITIVE_INFINITY;
+                            for (int c = 0; c < weights.length; c++) {
+                                double d = cost(points, row, candidateMatrix, c);
+                                if (d < nearestCost) {
+                                    nearestCost = d;
+                                    nearest = c;
+                                }
+                            }
+                            counts[nearest]++;
+                        }
+                        return counts;
+                    }
+                }));
+            }
+            for (Future<double[]> future : futures) {
+                double[] counts = future.get();
+                for (int c = 0; c < weights.length; c++) {
+                    weights[c] += counts[c];
+                }
+            }
+
+            int[] chosen = kMeansPlusPlus(candidateMatrix, weights, k, random);
+            for (int c = 0; c < k; c++) {
+                chosen[c] = candidates.get(chosen[c]);
+            }
+            return chosen;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Weighted k-means++ over the rows of matrix, weights being null for unit weights.
+     */
+    private int[] kMeansPlusPlus(PointMatrix matrix, double[] weights, int k, Random random) {
+        int n = matrix.numRows();
+        double[] cost = new double[n];
+        int[] chosen = new int[k];
+        chosen[0] = pickWeighted(n, weights, null, random);
+        for (int row = 0; row < n; row++) {
+            cost[row] = cost(matrix, row, matrix, chosen[0]);
+        }
+        for (int c = 1; c < k; c++) {
+            chosen[c] = pickWeighted(n, weights, cost, random);
+            for (int row = 0; row < n; row++) {
+                cost[row] = Math.min(cost[row], cost(matrix, row, matrix, chosen[c]));
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Draws a row with probability proportional to weight * cost, falling back to a uniform draw when
+     * all the remaining mass is zero (fewer distinct points than centers).
+     */
+    private static int pickWeighted(int n, double[] weights, double[] cost, Random random) {
+        double total = 0;
+        for (int row = 0; row < n; row++) {
+            total += (weights == null ? 1 : weights[row]) * (cost == null ? 1 : cost[row]);
+        }
+        if (total == 0) {
+            return random.nextInt(n);
+        }
+        double target = random.nextDouble() * total;
+        double cumulative = 0;
+        int last = 0;
+        for (int row = 0; row < n; row++) {
+            double mass = (weights == null ? 1 : weights[row]) * (cost == null ? 1 : cost[row]);
+            if (mass > 0) {
+                cumulative += mass;
+                last = row;
+                if (cumulative >= target) {
+                    return row;
+                }
+            }
+        }
+        return last;
+    }
+
+    private List<Integer> sample(ExecutorService executor, final double[] cost, final double factor,
+                                 final int round) throws InterruptedException, ExecutionException {
+        final int n = points.numRows();
+        List<Future<List<Integer>>> futures = Lists.newArrayList();
+        for (int block = 0; block < n; block += BLOCK_SIZE) {
+            final int from = block;
+            final int to = Math.min(n, block + BLOCK_SIZE);
+            futures.add(executor.submit(new Callable<List<Integer>>() {
+                @Override
+                public List<Integer> call() {
+                    Random random = new Random(seed * 31 + (long) round * 1000003 + from);
+                    List<Integer> sampled = Lists.newArrayList();
+                    for (int row = from; row < to; row++) {
+                        if (cost[row] > 0 && random.nextDouble() < cost[row] * factor) {
+                            sampled.add(row);
+                        }
+                    }
+                    return sampled;
+                }
+            }));
+        }
+        List<Integer> sampled = Lists.newArrayList();
+        for (Future<List<Integer>> future : futures) {
+            sampled.addAll(future.get());
+        }
+        return sampled;
+    }
+
+    /**
+     * Lowers cost[row] to the cost of the nearest of the new centers, or sets it when first is true.
+     */
+    private void updateCost(ExecutorService executor, final double[] cost, final List<Integer> centers,
+                            final boolean first) throws InterruptedException, ExecutionException {
+        if (centers.isEmpty()) {
+            return;
+        }
+        final int n = points.numRows();
+        List<Future<Void>> futures = Lists.newArrayList();
+        for (int block = 0; block < n; block += BLOCK_SIZE) {
+            final int from = block;
+            final int to = Math.min(n, block + BLOCK_SIZE);
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int row = from; row < to; row++) {
+                        double best = first ? Double.POSITIVE_INFINITY : cost[row];
+                        for (int center : centers) {
+                            best = Math.min(best, cost(points, row, points, center));
+                        }
+                        cost[row] = best;
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+    }
+
+    /**
+     * Squared distance between row a of ma and row b of mb.
+     */
+    private double cost(PointMatrix ma, int a, PointMatrix mb, int b) {
+        if (squaredEuclidean || euclidean) {
+            return DistanceKernel.squaredEuclidean(ma.values(), ma.offset(a), mb.values(), mb.offset(b), ma.numCols());
+        }
+        if (kernel != null) {
+            double distance = kernel.distance(ma.values(), ma.offset(a), mb.values(), mb.offset(b), ma.numCols());
+            return distance * distance;
+        }
+        Vector va = ma.rowVector(a);
+        Vector vb = mb.rowVector(b);
+        double distance = measure.distance(va, vb);
+        return distance * distance;
+    }
+
+    private void checkK(int k) {
+        Preconditions.checkArgument(k > 0 && k <= points.numRows(),
+                "k must be between 1 and the number of points: " + k);
+    }
+}
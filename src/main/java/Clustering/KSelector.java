@@ -0,0 +1,328 @@
+package Clustering;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.kmeans.Kluster;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.math.Vector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Picks the number of clusters by running InMemoryKMeans for every k of a range concurrently, all runs
+ * reading the same PointMatrix, and scoring each clustering by three criteria computed on euclidean
+ * distances: the elbow of the SSE curve, the silhouette of a sample of the points, and the
+ * Davies-Bouldin index. Each criterion votes for a k, the silhouette breaking ties, and only the
+ * clusters of the recommended k are kept.
+ */
+public class KSelector {
+
+    private static final Logger log = LoggerFactory.getLogger(KSelector.class);
+
+    static final int SILHOUETTE_SAMPLE_SIZE = 1000;
+
+    private final PointMatrix points;
+
+    private final DistanceMeasure measure;
+
+    private final long seed;
+
+    private final int numThreads;
+
+    private List<Score> scores;
+
+    private int recommendedK;
+
+    private int recommendedIterations;
+
+    /**
+     * Scores of the clustering of one k.
+     */
+    public static final class Score {
+        private final int k;
+        private final int iterations;
+        private final double sse;
+        private final double silhouette;
+        private final double daviesBouldin;
+
+        Score(int k, int iterations, double sse, double silhouette, double daviesBouldin) {
+            this.k = k;
+            this.iterations = iterations;
+            this.sse = sse;
+            this.silhouette = silhouette;
+            this.daviesBouldin = daviesBouldin;
+        }
+
+        public int getK() {
+            return k;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        public double getSse() {
+            return sse;
+        }
+
+        public double getSilhouette() {
+            return silhouette;
+        }
+
+        public double getDaviesBouldin() {
+            return daviesBouldin;
+        }
+    }
+
+    public KSelector(PointMatrix points, DistanceMeasure measure, long seed, int numThreads) {
+        Preconditions.checkArgument(numThreads > 0, "numThreads must be positive");
+        this.points = points;
+        this.measure = measure;
+        this.seed = seed;
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Clusters the points for every k from minK to maxK, each run seeded by k-means++, and recommends a k.
+     *
+     * @return the clusters of the recommended k
+     */
+    public List<Cluster> select(int minK, int maxK, final double convergenceDelta, final int maxIterations)
+            throws InterruptedException, ExecutionException {
+        Preconditions.checkArgument(minK >= 2 && minK <= maxK, "expected a k range such as 2-10, got %s-%s",
+                minK, maxK);
+        Preconditions.checkArgument(maxK <= points.numRows(), "more clusters than points");
+        int candidates = maxK - minK + 1;
+        // the runs share the threads: concurrent runs first, then threads within a run
+        final int threadsPerRun = Math.max(1, numThreads / candidates);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, candidates));
+        List<Future<Candidate>> futures = Lists.newArrayListWithCapacity(candidates);
+        try {
+            for (int k = minK; k <= maxK; k++) {
+                final int candidateK = k;
+                futures.add(executor.submit(new Callable<Candidate>() {
+                    @Override
+                    public Candidate call() throws Exception {
+                        return cluster(candidateK, convergenceDelta, maxIterations, threadsPerRun);
+                    }
+                }));
+            }
+            scores = Lists.newArrayListWithCapacity(candidates);
+            List<List<Cluster>> models = Lists.newArrayListWithCapacity(candidates);
+            for (Future<Candidate> future : futures) {
+                Candidate candidate = future.get();
+                scores.add(candidate.score);
+                models.add(candidate.clusters);
+            }
+            int best = recommend();
+            recommendedK = scores.get(best).getK();
+            recommendedIterations = scores.get(best).getIterations();
+            return models.get(best);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public List<Score> getScores() {
+        return scores;
+    }
+
+    public int getRecommendedK() {
+        return recommendedK;
+    }
+
+    public int getRecommendedIterations() {
+        return recommendedIterations;
+    }
+
+    private Candidate cluster(int k, double convergenceDelta, int maxIterations, int threads)
+            throws InterruptedException, ExecutionException {
+        int[] rows = new KMeansSeeder(points, measure, seed + k).kMeansPlusPlus(k);
+        List<Kluster> initialClusters = Lists.newArrayListWithCapacity(k);
+        for (int c = 0; c < k; c++) {
+            initialClusters.add(new Kluster(points.rowVector(rows[c]), c, measure));
+        }
+        InMemoryKMeans kmeans = new InMemoryKMeans(points, initialClusters, measure, threads);
+        int iterations = kmeans.run(convergenceDelta, maxIterations);
+        List<Cluster> clusters = kmeans.getClusters(convergenceDelta);
+        ClusterAssignments assignments = kmeans.classify(clusters);
+
+        int dims = points.numCols();
+        double[] centers = new double[k * dims];
+        for (int c = 0; c < k; c++) {
+            for (Vector.Element element : clusters.get(c).getCenter().nonZeroes()) {
+                centers[c * dims + element.index()] = element.get();
+            }
+        }
+        double sse = 0;
+        double[] spreads = new double[k]; // mean distance of the points of a cluster to its center
+        long[] sizes = new long[k];
+        for (int row = 0; row < points.numRows(); row++) {
+            int c = assignments.getClusterIndex(row);
+            double squared = squaredDistance(points.values(), points.offset(row), centers, c * dims, dims);
+            sse += squared;
+            spreads[c] += Math.sqrt(squared);
+            sizes[c]++;
+        }
+        for (int c = 0; c < k; c++) {
+            spreads[c] = sizes[c] == 0 ? 0 : spreads[c] / sizes[c];
+        }
+        Score score = new Score(k, iterations, sse, silhouette(assignments, k),
+                daviesBouldin(centers, spreads, sizes, k, dims));
+        log.info("k = {}: {} iterations, SSE {}, silhouette {}, Davies-Bouldin {}", k, iterations, score.sse,
+                score.silhouette, score.daviesBouldin);
+        return new Candidate(score, clusters);
+    }
+
+    /**
+     * Mean silhouette of a sample of the points, computed among the sample.
+     */
+    private double silhouette(ClusterAssignments assignments, int k) {
+        int n = points.numRows();
+        int size = Math.min(n, SILHOUETTE_SAMPLE_SIZE);
+        int[] sample = new int[n];
+        for (int i = 0; i < n; i++) {
+            sample[i] = i;
+        }
+        Random random = new Random(seed);
+        for (int i = 0; i < size; i++) {
+            int j = i + random.nextInt(n - i);
+            int swap = sample[i];
+            sample[i] = sample[j];
+            sample[j] = swap;
+        }
+        int dims = points.numCols();
+        double[] values = points.values();
+        double[] sums = new double[k];
+        int[] counts = new int[k];
+        for (int i = 0; i < size; i++) {
+            counts[assignments.getClusterIndex(sample[i])]++;
+        }
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            int row = sample[i];
+            int own = assignments.getClusterIndex(row);
+            if (counts[own] <= 1) {
+                continue; // silhouette 0 for singletons
+            }
+            Arrays.fill(sums, 0);
+            for (int j = 0; j < size; j++) {
+                if (j != i) {
+                    sums[assignments.getClusterIndex(sample[j])] += Math.sqrt(squaredDistance(values,
+                            points.offset(row), values, points.offset(sample[j]), dims));
+                }
+            }
+            double a = sums[own] / (counts[own] - 1);
+            double b = Double.POSITIVE_INFINITY;
+            for (int c = 0; c < k; c++) {
+                if (c != own && counts[c] > 0) {
+                    b = Math.min(b, sums[c] / counts[c]);
+                }
+            }
+            if (!Double.isInfinite(b)) {
+                total += (b - a) / Math.max(a, b);
+            }
+        }
+        return total / size;
+    }
+
+    /**
+     * Mean over the clusters of the worst ratio of their spreads to the distance of their centers.
+     */
+    private static double daviesBouldin(double[] centers, double[] spreads, long[] sizes, int k, int dims) {
+        double total = 0;
+        int nonEmpty = 0;
+        for (int i = 0; i < k; i++) {
+            if (sizes[i] == 0) {
+                continue;
+            }
+            double worst = 0;
+            for (int j = 0; j < k; j++) {
+                if (j != i && sizes[j] > 0) {
+                    double separation = Math.sqrt(squaredDistance(centers, i * dims, centers, j * dims, dims));
+                    worst = Math.max(worst, separation == 0 ? Double.POSITIVE_INFINITY
+                            : (spreads[i] + spreads[j]) / separation);
+                }
+            }
+            total += worst;
+            nonEmpty++;
+        }
+        return nonEmpty == 0 ? 0 : total / nonEmpty;
+    }
+
+    /**
+     * @return the index in scores of the recommended k
+     */
+    private int recommend() {
+        int candidates = scores.size();
+        int bestSilhouette = 0;
+        int bestDaviesBouldin = 0;
+        for (int i = 1; i < candidates; i++) {
+            if (scores.get(i).silhouette > scores.get(bestSilhouette).silhouette) {
+                bestSilhouette = i;
+            }
+            if (scores.get(i).daviesBouldin < scores.get(bestDaviesBouldin).daviesBouldin) {
+                bestDaviesBouldin = i;
+            }
+        }
+        int elbow = elbow();
+        log.info("Recommended k by elbow: {}, silhouette: {}, Davies-Bouldin: {}", scores.get(elbow).k,
+                scores.get(bestSilhouette).k, scores.get(bestDaviesBouldin).k);
+        if (elbow == bestDaviesBouldin) {
+            return elbow;
+        }
+        return bestSilhouette;
+    }
+
+    /**
+     * The k of the SSE curve farthest from the chord between its ends, once both axes are normalized.
+     */
+    private int elbow() {
+        int last = scores.size() - 1;
+        if (last < 2) {
+            return 0;
+        }
+        double firstSse = scores.get(0).sse;
+        double sseRange = firstSse - scores.get(last).sse;
+        if (sseRange <= 0) {
+            return 0;
+        }
+        int best = 0;
+        double bestGap = 0;
+        for (int i = 1; i < last; i++) {
+            double x = (double) i / last;
+            double y = (firstSse - scores.get(i).sse) / sseRange;
+            // the chord goes from (0, 0) to (1, 1) and the curve is above it
+            double gap = y - x;
+            if (gap > bestGap) {
+                bestGap = gap;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static final class Candidate {
+        private final Score score;
+        private final List<Cluster> clusters;
+
+        private Candidate(Score score, List<Cluster> clusters) {
+            this.score = score;
+            this.clusters = clusters;
+        }
+    }
+
+    private static double squaredDistance(double[] a, int aOffset, double[] b, int bOffset, int dims) {
+        return DistanceKernel.squaredEuclidean(a, aOffset, b, bOffset, dims);
+    }
+}
@@ -0,0 +1,125 @@
+package Clustering;
+
+import java.util.Arrays;
+
+/**
+ * Point k-d tree supporting insertion and box range queries, the split dimension cycling with the
+ * depth. Points are identified by their insertion order. The tree is not rebalanced, which suits
+ * indexes that grow while they are queried, such as canopy centers.
+ */
+public class KdTree {
+
+    /**
+     * Receives the ids of the points found by a range query.
+     */
+    public interface Visitor {
+        void visit(int id);
+    }
+
+    private final int dims;
+
+    private double[] coordinates; // size x dims, row-major
+
+    private int[] left;
+
+    private int[] right;
+
+    private int size;
+
+    private int[] stack = new int[64];
+
+    public KdTree(int dims) {
+        this.dims = dims;
+        this.coordinates = new double[16 * dims];
+        this.left = new int[16];
+        this.right = new int[16];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Inserts the point read at offset in values.
+     *
+     * @return the id of the point
+     */
+    public int add(double[] values, int offset) {
+        if (size == left.length) {
+            int capacity = size * 2;
+            coordinates = Arrays.copyOf(coordinates, capacity * dims);
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+        }
+        int id = size++;
+        System.arraycopy(values, offset, coordinates, id * dims, dims);
+        left[id] = -1;
+        right[id] = -1;
+        if (id == 0) {
+            return id;
+        }
+        int node = 0;
+        int depth = 0;
+        while (true) {
+            int axis = depth % dims;
+            if (values[offset + axis] < coordinates[node * dims + axis]) {
+                if (left[node] < 0) {
+                    left[node] = id;
+                    return id;
+                }
+                node = left[node];
+            } else {
+                if (right[node] < 0) {
+                    right[node] = id;
+                    return id;
+                }
+                node = right[node];
+            }
+            depth++;
+        }
+    }
+
+    /**
+     * Visits the points whose every coordinate is within radius of the query point read at offset.
+     * Not thread-safe.
+     */
+    public void range(double[] values, int offset, double radius, Visitor visitor) {
+        if (size == 0) {
+            return;
+        }
+        int top = 0;
+        push(top++, 0, 0);
+        while (top > 0) {
+            top--;
+            int node = stack[top * 2];
+            int depth = stack[top * 2 + 1];
+            int base = node * dims;
+            boolean inside = true;
+            for (int d = 0; d < dims; d++) {
+                if (Math.abs(coordinates[base + d] - values[offset + d]) > radius) {
+                    inside = false;
+                    break;
+                }
+            }
+            if (inside) {
+                visitor.visit(node);
+            }
+            int axis = depth % dims;
+            double diff = values[offset + axis] - coordinates[base + axis];
+            if (diff - radius < 0 && left[node] >= 0) {
+                push(top++, left[node], depth + 1);
+            }
+            if (diff + radius >= 0 && right[node] >= 0) {
+                push(top++, right[node], depth + 1);
+            }
+        }
+    }
+
+    private void push(int top, int node, int depth) {
+        if (top * 2 + 2 > stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[top * 2] = node;
+        stack[top * 2 + 1] = depth;
+    }
+}
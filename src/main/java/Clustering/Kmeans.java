@@ -1,20 +1,28 @@
 package Clustering;
 
+import Common.CheckpointStore;
+import Common.DriverStatus;
+import Common.ExecutionPlanner;
+import Common.StageEvent;
+import com.google.common.io.Closeables;
 import org.apache.commons.cli2.CommandLine;
 import org.apache.commons.cli2.Group;
 import org.apache.commons.cli2.Option;
+import org.apache.commons.cli2.builder.ArgumentBuilder;
+import org.apache.commons.cli2.builder.DefaultOptionBuilder;
 import org.apache.commons.cli2.builder.GroupBuilder;
 import org.apache.commons.cli2.commandline.Parser;
-import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.*;
-import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
-import org.apache.mahout.clustering.classify.WeightedPropertyVectorWritable;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.classify.ClusterClassificationDriver;
 import org.apache.mahout.clustering.fuzzykmeans.FuzzyKMeansDriver;
+import org.apache.mahout.clustering.iterator.KMeansClusteringPolicy;
 import org.apache.mahout.clustering.kmeans.KMeansDriver;
 import org.apache.mahout.clustering.kmeans.Kluster;
+import org.apache.mahout.clustering.topdown.PathDirectory;
 import org.apache.mahout.common.ClassUtils;
 import org.apache.mahout.common.CommandLineUtil;
 import org.apache.mahout.common.HadoopUtil;
@@ -22,16 +30,15 @@ import org.apache.mahout.common.commandline.DefaultOptionCreator;
 import org.apache.mahout.common.distance.DistanceMeasure;
 import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
 import org.apache.mahout.common.distance.SquaredEuclideanDistanceMeasure;
-import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Vector;
-import org.apache.mahout.math.VectorWritable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
 
 public class Kmeans {
     private static final Logger log = LoggerFactory.getLogger(Kmeans.class);
@@ -41,21 +48,45 @@ public class Kmeans {
     private final String POINTS_PATH = BASE_PATH + "points";
     private final String CLUSTERS_PATH = BASE_PATH + "clusters";
     private final String OUTPUT_PATH = BASE_PATH + "output";
+    private final String CHECKPOINT_PATH = BASE_PATH + "checkpoints"; // outside the output, which is deleted
     private Path inputPath;
     private Path outputPath;
     private int numberOfCluster;
     private String measureClass; // the DistanceMeasure to use
     private double convergenceDelta = 0.5; // the double convergence criteria for iterations
     int maxIterations = 10; // the int maximum number of iterations
+    private int numThreads = Runtime.getRuntime().availableProcessors(); // threads of the in-memory engine
+    private InMemoryKMeans.Assignment assignment = InMemoryKMeans.Assignment.LLOYD; // in-memory assignment
+    private String seeding = SEEDING_KMEANS_PLUS_PLUS; // how the initial centers are picked
+    private long seed = System.currentTimeMillis(); // seed of the initial centers
+    private File labelFile; // true labels of the points, null to evaluate without labels
+    private int labelColumn = 10; // column of the labels in labelFile
+    private File telemetryFile; // JSON lines of the iteration telemetry, null to record none
+    private double driftThreshold = 0.5; // drift above which a warm start clusters all the input again
+    private int checkpointInterval = 5; // iterations between two checkpoints, 0 for none
+    private ExecutionPlanner.Mode execution; // how the iterations run, null to choose from the input size
+    private ClusteredPointsExporter.Format exportFormat = ClusteredPointsExporter.Format.TEXT; // exported assignments
+    private static final String SEEDING_RANDOM = "random";
+    private static final String SEEDING_KMEANS_PLUS_PLUS = "kmeans++";
+    private static final String SEEDING_KMEANS_PARALLEL = "kmeans||";
+    private static final int KMEANS_PARALLEL_ROUNDS = 5;
+    private static final int MINI_BATCH_SAMPLE_SIZE = 10000; // points sampled to seed the mini-batch centers
+    private static final int SEEDING_SAMPLE_SIZE = 10000; // points sampled to seed a run whose points are not in memory
+    private static final int MINI_BATCH_BUFFERED_BATCHES = 10; // batches held by the mini-batch shuffle buffer
+    private static final double MINI_BATCH_SHIFT_DECAY = 0.1; // weight of the last batch in the smoothed shift
 
     public static void main(String[] args) {
         final Kmeans application = new Kmeans();
-        args = new String[] {"-i","ClusteringDir/KmeansDir/breastCancer.csv","-k","2","-cd","0.001","-x","10"};
+        if (args.length == 0) {
+            args = new String[] {"-i","ClusteringDir/KmeansDir/breastCancer.csv","-k","2","-cd","0.001",
+                    "-x","10","-lb","ClusteringDir/KmeansDir/breastCancerWithClass.csv"};
+        }
         try {
             application.runKmeans(args);
         }
         catch (final Exception e) {
             log.error("Clustering.Kmeans failed", e);
+            DriverStatus.failed(e);
         }
     }
 
@@ -63,6 +94,8 @@ public class Kmeans {
 
         final Configuration configuration = new Configuration();
 
+        DefaultOptionBuilder obuilder = new DefaultOptionBuilder();
+        ArgumentBuilder abuilder = new ArgumentBuilder();
         GroupBuilder gbuilder = new GroupBuilder();
 
         Option inputOpt = DefaultOptionCreator.inputOption().create();
@@ -70,11 +103,88 @@ public class Kmeans {
         Option numClustersOpt = DefaultOptionCreator.numClustersOption().create();
         Option convergenceOpt = DefaultOptionCreator.convergenceOption().create();
         Option maxIterationsOpt = DefaultOptionCreator.maxIterationsOption().create();
+        Option inMemoryOpt = obuilder.withLongName("inMemory").withShortName("im").withRequired(false)
+                .withDescription("Optional, run the iterations in memory on multiple threads instead of "
+                        + "one MapReduce job per iteration").create();
+        Option executionOpt = obuilder.withLongName("execution").withShortName("xm").withRequired(false)
+                .withArgument(abuilder.withName("execution").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, how the iterations run: sequential (in-process, one thread), parallel "
+                        + "(in memory, on multiple threads), mapreduce or auto, chosen from the size of the points, "
+                        + "the cores and the free heap.\nThe default is auto, -im forces parallel.").create();
+        Option threadsOpt = obuilder.withLongName("threads").withShortName("th").withRequired(false)
+                .withArgument(abuilder.withName("threads").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, number of threads of the in-memory engine.\n"
+                        + "The default is the number of available processors.").create();
+        Option assignmentOpt = obuilder.withLongName("assignment").withShortName("as").withRequired(false)
+                .withArgument(abuilder.withName("assignment").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, assignment of the in-memory engine: lloyd, hamerly or elkan. hamerly "
+                        + "and elkan skip distance computations with triangle inequality bounds and need a "
+                        + "euclidean measure.\nThe default is lloyd.").create();
+        Option seedingOpt = obuilder.withLongName("seeding").withShortName("sm").withRequired(false)
+                .withArgument(abuilder.withName("seeding").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, how the initial centers are picked: " + SEEDING_RANDOM + ", "
+                        + SEEDING_KMEANS_PLUS_PLUS + " or " + SEEDING_KMEANS_PARALLEL + " (oversampling, for large "
+                        + "data).\nThe default is " + SEEDING_KMEANS_PLUS_PLUS + ".").create();
+        Option seedOpt = obuilder.withLongName("seed").withShortName("sd").withRequired(false)
+                .withArgument(abuilder.withName("seed").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, seed value used to pick the initial centers").create();
+        Option miniBatchOpt = obuilder.withLongName("miniBatch").withShortName("mb").withRequired(false)
+                .withArgument(abuilder.withName("batchSize").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, run mini-batch k-means streaming random batches of this size from the "
+                        + "points, for data larger than memory. -x is then the maximum number of passes over the "
+                        + "points and -cd applies to the smoothed center shift per batch").create();
+        Option columnsOpt = obuilder.withLongName("columns").withShortName("cols").withRequired(false)
+                .withArgument(abuilder.withName("columns").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, feature columns of the input, such as 0-8 or 1,3,5-7.\n"
+                        + "The default is all the columns.").create();
+        Option kRangeOpt = obuilder.withLongName("kRange").withShortName("kr").withRequired(false)
+                .withArgument(abuilder.withName("kRange").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, range of k such as 2-10: cluster in memory for every k concurrently, "
+                        + "score each by SSE elbow, silhouette and Davies-Bouldin, and keep the recommended one "
+                        + "instead of -k").create();
+        Option telemetryOpt = obuilder.withLongName("telemetry").withShortName("tm").withRequired(false)
+                .withArgument(abuilder.withName("telemetry").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, file the convergence telemetry of every iteration is appended to as "
+                        + "JSON lines, also published over JMX").create();
+        Option warmStartOpt = obuilder.withLongName("warmStart").withShortName("ws").withRequired(false)
+                .withDescription("Optional, start from the model of the previous run and only cluster the lines "
+                        + "appended to the input since, unless the new points drifted from it").create();
+        Option driftThresholdOpt = obuilder.withLongName("driftThreshold").withShortName("dt").withRequired(false)
+                .withArgument(abuilder.withName("driftThreshold").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, relative increase of the mean squared distance of the new points to "
+                        + "the previous centers above which a warm start clusters all the input again.\n"
+                        + "The default is 0.5.").create();
+        Option checkpointIntervalOpt = obuilder.withLongName("checkpointInterval").withShortName("ci")
+                .withRequired(false)
+                .withArgument(abuilder.withName("checkpointInterval").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, iterations between two checkpoints of the centers, 0 for none.\n"
+                        + "The default is 5.").create();
+        Option resumeOpt = obuilder.withLongName("resume").withShortName("rs").withRequired(false)
+                .withDescription("Optional, continue from the latest valid checkpoint of an interrupted run with the "
+                        + "same input, k, distance measure and columns instead of new initial centers").create();
+        Option exportFormatOpt = obuilder.withLongName("exportFormat").withShortName("ef").withRequired(false)
+                .withArgument(abuilder.withName("exportFormat").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, format of the exported point assignments: binary, csv or text (with the "
+                        + "vectors).\nThe default is text.").create();
+        Option labelsOpt = obuilder.withLongName("labels").withShortName("lb").withRequired(false)
+                .withArgument(abuilder.withName("labels").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, CSV file with the true label of every input line, to evaluate the "
+                        + "clustering with purity, NMI and ARI").create();
+        Option labelColumnOpt = obuilder.withLongName("labelColumn").withShortName("lc").withRequired(false)
+                .withArgument(abuilder.withName("labelColumn").withMinimum(1).withMaximum(1).create())
+                .withDescription("Optional, column of the labels in the labels file.\nThe default is 10.")
+                .create();
         Option helpOpt = DefaultOptionCreator.helpOption();
 
         Group group = gbuilder.withName("Options").withOption(inputOpt).withOption(distanceMeasureOpt)
                 .withOption(numClustersOpt).withOption(convergenceOpt)
-                .withOption(maxIterationsOpt).withOption(helpOpt).create();
+                .withOption(maxIterationsOpt).withOption(inMemoryOpt).withOption(executionOpt)
+                .withOption(threadsOpt).withOption(assignmentOpt).withOption(seedingOpt).withOption(seedOpt)
+                .withOption(miniBatchOpt)
+                .withOption(columnsOpt).withOption(kRangeOpt).withOption(telemetryOpt).withOption(warmStartOpt)
+                .withOption(driftThresholdOpt).withOption(checkpointIntervalOpt).withOption(resumeOpt)
+                .withOption(exportFormatOpt).withOption(labelsOpt)
+                .withOption(labelColumnOpt).withOption(helpOpt).create();
 
         Parser parser = new Parser();
         parser.setGroup(group);
@@ -83,137 +193,372 @@ public class Kmeans {
             CommandLineUtil.printHelp(group);
             return;
         }
-        numberOfCluster = Integer.parseInt(cmdLine.getValue(numClustersOpt).toString());
-        // Create input directories for data
-        final File pointsDir = new File(POINTS_PATH);
-        if (!pointsDir.exists()) {
-            pointsDir.mkdir();
+        if (cmdLine.hasOption(numClustersOpt)) {
+            numberOfCluster = Integer.parseInt(cmdLine.getValue(numClustersOpt).toString());
+        }
+        if (numberOfCluster < 1 && !cmdLine.hasOption(kRangeOpt)) {
+            log.error("Missing the number of clusters: give -k, at least 1, or a range of k with -kr");
+            CommandLineUtil.printHelp(group);
+            return;
+        }
+        if (cmdLine.hasOption(assignmentOpt)) {
+            assignment = InMemoryKMeans.Assignment.valueOf(
+                    cmdLine.getValue(assignmentOpt).toString().toUpperCase(Locale.ENGLISH));
+        }
+        if (cmdLine.hasOption(seedingOpt)) {
+            seeding = cmdLine.getValue(seedingOpt).toString();
+        }
+        if (cmdLine.hasOption(seedOpt)) {
+            seed = Long.parseLong(cmdLine.getValue(seedOpt).toString());
+        }
+        if (cmdLine.hasOption(inMemoryOpt)) {
+            execution = ExecutionPlanner.Mode.PARALLEL;
+        } else if (cmdLine.hasOption(executionOpt)) {
+            execution = ExecutionPlanner.Mode.fromName(cmdLine.getValue(executionOpt).toString());
+        }
+        if (cmdLine.hasOption(threadsOpt)) {
+            numThreads = Integer.parseInt(cmdLine.getValue(threadsOpt).toString());
+        }
+        if (cmdLine.hasOption(exportFormatOpt)) {
+            exportFormat = ClusteredPointsExporter.Format.fromName(cmdLine.getValue(exportFormatOpt).toString());
         }
+        if (cmdLine.hasOption(labelsOpt)) {
+            labelFile = new File(cmdLine.getValue(labelsOpt).toString());
+        }
+        if (cmdLine.hasOption(labelColumnOpt)) {
+            labelColumn = Integer.parseInt(cmdLine.getValue(labelColumnOpt).toString());
+        }
+        if (cmdLine.hasOption(telemetryOpt)) {
+            telemetryFile = new File(cmdLine.getValue(telemetryOpt).toString());
+        }
+        if (cmdLine.hasOption(driftThresholdOpt)) {
+            driftThreshold = Double.parseDouble(cmdLine.getValue(driftThresholdOpt).toString());
+        }
+        if (cmdLine.hasOption(checkpointIntervalOpt)) {
+            checkpointInterval = Integer.parseInt(cmdLine.getValue(checkpointIntervalOpt).toString());
+        }
+        boolean resume = cmdLine.hasOption(resumeOpt);
+        if (measureClass == null) {
+            measureClass = SquaredEuclideanDistanceMeasure.class.getCanonicalName();
+//            measureClass = EuclideanDistanceMeasure.class.getName();
+        }
+        convergenceDelta = Double.parseDouble(cmdLine.getValue(convergenceOpt).toString());
+        maxIterations = Integer.parseInt(cmdLine.getValue(maxIterationsOpt).toString());
+        outputPath = new Path(OUTPUT_PATH);
         // read the point values and generate vectors from input data
 
         dataPath = cmdLine.getValue(inputOpt).toString();
         // Write data to sequence hadoop sequence files
-        List<DenseVector> vectors = toDenseVector(configuration);
-
-        if (measureClass == null) {
-            measureClass = SquaredEuclideanDistanceMeasure.class.getCanonicalName();
-//            measureClass = EuclideanDistanceMeasure.class.getName();
+        boolean miniBatch = cmdLine.hasOption(miniBatchOpt);
+        CsvVectorizer vectorizer = new CsvVectorizer(configuration);
+        if (cmdLine.hasOption(columnsOpt)) {
+            vectorizer.setColumns(CsvVectorizer.parseColumns(cmdLine.getValue(columnsOpt).toString()));
+        }
+        boolean warmStart = cmdLine.hasOption(warmStartOpt);
+        if (warmStart) {
+            // a line still being appended is left to the next run
+            vectorizer.setCompleteLines(true);
+            vectorizer.setNumThreads(numThreads);
+            if (runWarmStart(configuration, vectorizer)) {
+                readAndPrintOutputValues(configuration);
+                return;
+            }
+        }
+        boolean kRange = cmdLine.hasOption(kRangeOpt);
+        // planned from the file, before any point is loaded, so that a plan too big for the heap loads none
+        ExecutionPlanner.Plan plan = null;
+        if (!kRange && !miniBatch) {
+            int dims = cmdLine.hasOption(columnsOpt)
+                    ? CsvVectorizer.parseColumns(cmdLine.getValue(columnsOpt).toString()).length : 0;
+            plan = new ExecutionPlanner().plan("k-means", new File(dataPath), dims, execution);
+            if (plan.getMode() == ExecutionPlanner.Mode.PARALLEL && !cmdLine.hasOption(threadsOpt)) {
+                numThreads = plan.getNumThreads();
+            }
         }
-        // Write initial centers for clusters
-        writeClusterInitialCenters(configuration, measureClass, vectors);
+        // the points are only kept in memory when an in-memory path needs them
+        vectorizer.setNumThreads(numThreads);
+        vectorizer.setStartOffset(0);
+        vectorizer.setFirstKey(0);
+        vectorizer.setCollectPoints(kRange || plan != null && plan.getMode() == ExecutionPlanner.Mode.PARALLEL);
+        long vectors = vectorizer.vectorize(new File(dataPath), new Path(POINTS_PATH));
 
         // Run K-means algorithm
         inputPath = new Path(POINTS_PATH);
         final Path clustersPath = new Path(CLUSTERS_PATH);
-        outputPath = new Path(OUTPUT_PATH);
-        convergenceDelta = Double.parseDouble(cmdLine.getValue(convergenceOpt).toString());
-        maxIterations = Integer.parseInt(cmdLine.getValue(maxIterationsOpt).toString());
         HadoopUtil.delete(configuration, outputPath);
 
-        KMeansDriver.run(configuration, inputPath, clustersPath, outputPath, convergenceDelta, maxIterations, true, 0, false);
+        StageEvent stage = StageEvent.begin("Kmeans", "iterate");
+        try {
+            if (kRange) {
+                String[] range = cmdLine.getValue(kRangeOpt).toString().split("-");
+                runKRange(configuration, vectorizer.getPoints(), Integer.parseInt(range[0].trim()),
+                        Integer.parseInt(range[range.length - 1].trim()));
+            } else if (miniBatch) {
+                runMiniBatch(configuration, Integer.parseInt(cmdLine.getValue(miniBatchOpt).toString()));
+            } else {
+                PointMatrix points = vectorizer.getPoints();
+                String columns = cmdLine.hasOption(columnsOpt) ? cmdLine.getValue(columnsOpt).toString() : "";
+                CheckpointStore checkpoints = checkpointInterval > 0 || resume
+                        ? new CheckpointStore(checkpointDirectory(columns), checkpointInterval) : null;
+                ClusterCheckpoint checkpoint = new ClusterCheckpoint();
+                int completed = resume ? checkpoints.restore(checkpoint) : 0;
+                List<Kluster> initialClusters;
+                if (completed > 0) {
+                    log.info("Resuming k-means after iteration {}", completed);
+                    initialClusters = new ArrayList<Kluster>();
+                    for (Cluster cluster : checkpoint.getClusters()) {
+                        initialClusters.add((Kluster) cluster);
+                    }
+                    writeInitialClusters(configuration, initialClusters);
+                } else {
+                    // Write initial centers for clusters, seeded from a sample when the points are not in memory
+                    initialClusters = writeClusterInitialCenters(configuration, measureClass, points != null ? points
+                            : MiniBatchReader.sample(configuration, inputPath, SEEDING_SAMPLE_SIZE, seed));
+                }
+
+                if (plan.getMode() == ExecutionPlanner.Mode.PARALLEL) {
+                    runInMemory(configuration, points, initialClusters, checkpoints, completed);
+                } else {
+                    DistanceMeasure measure = ClassUtils.instantiateAs(measureClass, DistanceMeasure.class);
+                    IterationTelemetry telemetry = telemetry("kmeans");
+                    ClusterIterationMonitor monitor = ClusterIterationMonitor.start(configuration, outputPath, measure,
+                            convergenceDelta, telemetry, checkpointInterval > 0 ? checkpoints : null, completed);
+                    try {
+                        KMeansDriver.run(configuration, inputPath, clustersPath, outputPath, convergenceDelta,
+                                Math.max(1, maxIterations - completed), true, 0,
+                                plan.getMode() == ExecutionPlanner.Mode.SEQUENTIAL);
+                    } finally {
+                        Closeables.close(monitor, false);
+                        Closeables.close(telemetry, false);
+                    }
+                }
+                if (checkpoints != null) {
+                    checkpoints.clear();
+                }
+            }
+            stage.addRows(vectors);
+            stage.addBytesRead(configuration, inputPath);
+            stage.addBytesWritten(configuration, outputPath);
+        } finally {
+            stage.commit();
+        }
 
+        if (warmStart) {
+            WarmStartKMeans.saveState(configuration, outputPath, new File(dataPath), vectorizer.getEndOffset(),
+                    vectorizer.getNextKey());
+        }
         // Read and print output values
         readAndPrintOutputValues(configuration);
     }
 
-    private void writeClusterInitialCenters(final Configuration conf, String measureClass, List<DenseVector> points)
-            throws IOException {
-        final Path writerPath = new Path(CLUSTERS_PATH + "/part-00000");
+    /**
+     * Clusters the lines appended to the input since the previous run from the model of the previous run.
+     *
+     * @return false when there is no previous run of the input or its model drifted, the input then has to
+     * be clustered again
+     */
+    private boolean runWarmStart(Configuration conf, CsvVectorizer vectorizer) throws Exception {
+        DistanceMeasure measure = ClassUtils.instantiateAs(measureClass, DistanceMeasure.class);
+        WarmStartKMeans kmeans = new WarmStartKMeans(conf, outputPath, measure, numThreads);
+        File input = new File(dataPath);
+        if (!kmeans.load(input)) {
+            return false;
+        }
+        vectorizer.setStartOffset(kmeans.getOffset());
+        vectorizer.setFirstKey(kmeans.getNextKey());
+        vectorizer.setCollectPoints(true);
+        vectorizer.vectorize(input, new Path(POINTS_PATH));
+        PointMatrix newPoints = vectorizer.getPoints();
+        if (newPoints == null) {
+            log.info("Nothing appended to {} since the previous run, the model is unchanged", input);
+            return true;
+        }
+        double drift = kmeans.drift(newPoints);
+        if (drift > driftThreshold) {
+            log.info("The new points drifted by {} from the previous model, above {}: clustering all the input",
+                    drift, driftThreshold);
+            return false;
+        }
+        kmeans.run(newPoints, convergenceDelta, maxIterations);
+        WarmStartKMeans.saveState(conf, outputPath, input, vectorizer.getEndOffset(), vectorizer.getNextKey());
+        return true;
+    }
 
-        final SequenceFile.Writer writer =
-                SequenceFile.createWriter(conf, SequenceFile.Writer.file(writerPath),
-                        SequenceFile.Writer.keyClass(Text.class),
-                        SequenceFile.Writer.valueClass(Kluster.class));
+    /**
+     * @return the checkpoint directory of the run, named after its input, k, distance measure and columns, so
+     * that --resume only restores the checkpoints of the same clustering of the same input
+     */
+    private File checkpointDirectory(String columns) {
+        File input = new File(dataPath).getAbsoluteFile();
+        String run = input + "|" + input.length() + "|" + numberOfCluster + "|" + measureClass + "|" + columns;
+        return CheckpointStore.runDirectory(new File(CHECKPOINT_PATH), run);
+    }
 
-        Random rand = new Random();
-        for (int i = 0; i < numberOfCluster; i++) {
-            int randomNum = rand.nextInt((points.size() - 0) + 1);
-            final Vector vec = points.get(randomNum);
+    /**
+     * @param checkpoints store the centers are checkpointed to, null for none
+     * @param completed   iterations the initial clusters were checkpointed after, 0 for a new run
+     */
+    private void runInMemory(Configuration conf, PointMatrix points, List<Kluster> initialClusters,
+                             CheckpointStore checkpoints, int completed) throws Exception {
+        DistanceMeasure measure = ClassUtils.instantiateAs(measureClass, DistanceMeasure.class);
+        InMemoryKMeans kmeans = new InMemoryKMeans(points, initialClusters, measure, numThreads);
+        kmeans.setAssignment(assignment);
+        kmeans.setCheckpoints(checkpointInterval > 0 ? checkpoints : null);
+        kmeans.setIterations(completed);
+        IterationTelemetry telemetry = telemetry("kmeans");
+        kmeans.setTelemetry(telemetry);
+        int iterations;
+        try {
+            iterations = kmeans.run(convergenceDelta, maxIterations);
+        } finally {
+            Closeables.close(telemetry, false);
+        }
+
+        List<Cluster> clusters = kmeans.getClusters(convergenceDelta);
+        ClusteringOutputWriter.writeFinalClusters(outputPath, iterations, clusters,
+                new KMeansClusteringPolicy(convergenceDelta));
+        ClusteringOutputWriter.writeClusteredPoints(conf, outputPath, points, clusters, kmeans.classify(clusters));
+    }
+
+    /**
+     * @return the telemetry of the run, null without a telemetry file
+     */
+    private IterationTelemetry telemetry(String run) throws IOException {
+        return telemetryFile == null ? null : new IterationTelemetry(run, telemetryFile);
+    }
 
-            // write the initial centers
-            DistanceMeasure measure = ClassUtils.instantiateAs(measureClass, DistanceMeasure.class);
-            final Kluster cluster = new Kluster(vec, i, measure);
-            writer.append(new Text(cluster.getIdentifier()), cluster);
+    private void runKRange(Configuration conf, PointMatrix points, int minK, int maxK) throws Exception {
+        DistanceMeasure measure = ClassUtils.instantiateAs(measureClass, DistanceMeasure.class);
+        KSelector selector = new KSelector(points, measure, seed, numThreads);
+        List<Cluster> clusters = selector.select(minK, maxK, convergenceDelta, maxIterations);
+        numberOfCluster = selector.getRecommendedK();
+        for (KSelector.Score score : selector.getScores()) {
+            log.info("k = {}: SSE {}, silhouette {}, Davies-Bouldin {}", score.getK(), score.getSse(),
+                    score.getSilhouette(), score.getDaviesBouldin());
         }
-        writer.close();
+        log.info("Recommended k: {}", numberOfCluster);
+
+        // only the model of the recommended k is written
+        ClusteringOutputWriter.writeFinalClusters(outputPath, selector.getRecommendedIterations(), clusters,
+                new KMeansClusteringPolicy(convergenceDelta));
+        ClusterAssignments assignments = new InMemoryKMeans(points, clusters, measure, numThreads).classify(clusters);
+        ClusteringOutputWriter.writeClusteredPoints(conf, outputPath, points, clusters, assignments);
     }
 
-    private void readAndPrintOutputValues(final Configuration configuration)
-            throws IOException {
-        final Path input = new Path(OUTPUT_PATH + "/clusteredPoints/part-m-00000");
-        //final Path input = new Path(OUTPUT_PATH + "/" + Cluster.FINAL_ITERATION_SUFFIX + "/part-r-00000");
-
-        final SequenceFile.Reader reader = new SequenceFile.Reader(configuration, SequenceFile.Reader.file(input));
-        final IntWritable key = new IntWritable();
-        final WeightedPropertyVectorWritable value = new WeightedPropertyVectorWritable();
-
-        File file = new File(BASE_PATH+"result.txt");
-        if (!file.exists()) {
-            file.createNewFile();
-        }
-        FileWriter fileWriter = new FileWriter(file.getAbsoluteFile());
-        BufferedWriter bufferedWriter = new BufferedWriter(fileWriter);
-        Integer vecNum = 0;
-        int correctCount = 0;
-        List<String> raw = FileUtils.readLines(new File(BASE_PATH+"breastCancerWithClass.csv"));
-        int[] targets = new int[raw.size()];
-        int i = 0;
-        for (String line:raw) {
-            targets[i++] = Integer.parseInt(line.split(",")[10]) == 4? 1:0;
-        }
-        while (reader.next(key, value)) {
-            String[] values = value.toString().split("vec");
-            String content = values[0]+"vec: "+vecNum+values[1].substring(1)+" belongs to cluster "+key.toString()+"\n";
-            bufferedWriter.write(content);
-            if (key.get() == targets[vecNum]) {
-                correctCount++;
+    private void runMiniBatch(Configuration conf, int batchSize) throws Exception {
+        DistanceMeasure measure = ClassUtils.instantiateAs(measureClass, DistanceMeasure.class);
+        // seed from a bounded sample of the points
+        PointMatrix sample = MiniBatchReader.sample(conf, inputPath, Math.max(MINI_BATCH_SAMPLE_SIZE, batchSize), seed);
+        List<Kluster> initialClusters = writeClusterInitialCenters(conf, measureClass, sample);
+
+        MiniBatchKMeans kmeans = new MiniBatchKMeans(initialClusters, measure);
+        MiniBatchReader reader = new MiniBatchReader(conf, inputPath, batchSize,
+                batchSize * MINI_BATCH_BUFFERED_BATCHES, seed);
+        try {
+            double smoothedShift = Double.POSITIVE_INFINITY;
+            PointMatrix batch;
+            while (reader.getEpoch() < maxIterations && (batch = reader.nextBatch()) != null) {
+                double shift = kmeans.update(batch);
+                smoothedShift = Double.isInfinite(smoothedShift) ? shift
+                        : (1 - MINI_BATCH_SHIFT_DECAY) * smoothedShift + MINI_BATCH_SHIFT_DECAY * shift;
+                if (smoothedShift <= convergenceDelta) {
+                    break;
+                }
             }
-            vecNum++;
+            log.info("Mini-batch k-means stopped after {} batches, {} points, {} passes, smoothed shift {}",
+                    kmeans.getBatches(), kmeans.getPoints(), reader.getEpoch(), smoothedShift);
+        } finally {
+            Closeables.close(reader, true);
         }
-        reader.close();
-        float correctRatio = (float)correctCount/(float)targets.length;
-        int inCorrectCount = targets.length - correctCount;
-        float inCorrectRatio = 1 - correctRatio;
-        bufferedWriter.write("Correctly Clustered Instances: " + correctCount + " " + correctRatio + "\n");
-        bufferedWriter.write("Incorrectly Clustered Instances: " + inCorrectCount + " " + inCorrectRatio+ "\n");
-        bufferedWriter.close();
 
+        // same final clusters layout and clustered points step as KMeansDriver
+        ClusteringOutputWriter.writeFinalClusters(outputPath, (int) kmeans.getBatches(), kmeans.getClusters(),
+                new KMeansClusteringPolicy(convergenceDelta));
+        ClusterClassificationDriver.run(conf, inputPath, outputPath,
+                new Path(outputPath, PathDirectory.CLUSTERED_POINTS_DIRECTORY),
+                0.0, true, false);
     }
 
+    private List<Kluster> writeClusterInitialCenters(final Configuration conf, String measureClass,
+                                                     PointMatrix points) throws Exception {
+        DistanceMeasure measure = ClassUtils.instantiateAs(measureClass, DistanceMeasure.class);
+
+        KMeansSeeder seeder = new KMeansSeeder(points, measure, seed);
+        int[] rows;
+        if (SEEDING_RANDOM.equals(seeding)) {
+            rows = seeder.random(numberOfCluster);
+        } else if (SEEDING_KMEANS_PLUS_PLUS.equals(seeding)) {
+            rows = seeder.kMeansPlusPlus(numberOfCluster);
+        } else if (SEEDING_KMEANS_PARALLEL.equals(seeding)) {
+            rows = seeder.kMeansParallel(numberOfCluster, 2.0 * numberOfCluster, KMEANS_PARALLEL_ROUNDS, numThreads);
+        } else {
+            throw new IllegalArgumentException("Unknown seeding: " + seeding);
+        }
+        log.info("Initial centers picked by {} with seed {}", seeding, seed);
 
-    private List<DenseVector> toDenseVector(Configuration conf) throws FileNotFoundException, IOException{
-        List<DenseVector> positions = new ArrayList<DenseVector>();
-        DenseVector position;
-        BufferedReader br;
-        br = new BufferedReader(new FileReader(this.dataPath));
-
-        String sCurrentLine;
-        while ((sCurrentLine = br.readLine()) != null) {
-            double[] features = new double[9];
-            String[] values = sCurrentLine.split(",");
-            for(int indx=0; indx<features.length;indx++){
-                features[indx] = Float.parseFloat(values[indx]);
+        List<Kluster> clusters = new ArrayList<Kluster>(numberOfCluster);
+        for (int i = 0; i < numberOfCluster; i++) {
+            final Vector vec = points.rowVector(rows[i]);
+            clusters.add(new Kluster(vec, i, measure));
+        }
+        writeInitialClusters(conf, clusters);
+        return clusters;
+    }
 
+    /**
+     * Writes the initial centers the drivers start from.
+     */
+    private void writeInitialClusters(Configuration conf, List<Kluster> clusters) throws IOException {
+        final Path writerPath = new Path(CLUSTERS_PATH + "/part-00000");
+        final SequenceFile.Writer writer =
+                SequenceFile.createWriter(conf, SequenceFile.Writer.file(writerPath),
+                        SequenceFile.Writer.keyClass(Text.class),
+                        SequenceFile.Writer.valueClass(Kluster.class));
+        try {
+            for (Kluster cluster : clusters) {
+                writer.append(new Text(cluster.getIdentifier()), cluster);
             }
-            position = new DenseVector(features);
-            positions.add(position);
+        } finally {
+            writer.close();
         }
+    }
 
-        final Path path = new Path(POINTS_PATH + "/pointsFile");
-        FileSystem fs = FileSystem.get(conf);
-        SequenceFile.Writer writer = new SequenceFile.Writer(fs,  conf, path, Text.class, VectorWritable.class);
-
-        VectorWritable vec = new VectorWritable();
-        Integer count = 0;
+    private void readAndPrintOutputValues(final Configuration configuration)
+            throws IOException, InterruptedException, ExecutionException {
+        StageEvent stage = StageEvent.begin("Kmeans", "readAndPrint");
+        try {
+            File file = printOutputValues(configuration, stage);
+            stage.addBytesRead(configuration, new Path(OUTPUT_PATH));
+            stage.addBytesWritten(file.length());
+        } finally {
+            stage.commit();
+        }
+    }
 
-        for(DenseVector vector : positions){
-            vec.set(vector);
-            writer.append(new Text(count.toString()), vec);
-            count++;
+    /**
+     * @return the file the clustered points and the evaluation were written to
+     */
+    private File printOutputValues(final Configuration configuration, StageEvent stage)
+            throws IOException, InterruptedException, ExecutionException {
+        ClusteredPoints points = ClusteredPoints.read(configuration, new Path(OUTPUT_PATH), numThreads,
+                exportFormat == ClusteredPointsExporter.Format.TEXT);
+        File file = new File(BASE_PATH + "result." + exportFormat.getExtension());
+        ClusteredPointsExporter.export(points, file, exportFormat);
+        stage.addRows(points.size());
+
+        ClusteringEvaluator evaluator = ClusteringEvaluator.evaluate(points,
+                measureClass.equals(SquaredEuclideanDistanceMeasure.class.getName()), labelFile, labelColumn, false);
+        String report = evaluator.report();
+        log.info("Clustering quality:\n{}", report);
+        if (exportFormat == ClusteredPointsExporter.Format.TEXT) {
+            Writer writer = new FileWriter(file, true);
+            try {
+                writer.write(report);
+            } finally {
+                writer.close();
+            }
         }
-        writer.close();
-        return positions;
+        return file;
     }
 
 }
-
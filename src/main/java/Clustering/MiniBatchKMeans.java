@@ -0,0 +1,141 @@
+package Clustering;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.kmeans.Kluster;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+
+import java.util.List;
+
+/**
+ * Mini-batch k-means (Sculley, Web-scale k-means clustering). Every batch is first assigned to the
+ * current centers, then each point pulls its center towards itself with a per-center learning rate
+ * of 1 / (number of points the center has seen so far). The model is usable after any number of
+ * batches and only ever holds the centers and their counts.
+ */
+public class MiniBatchKMeans {
+
+    private final DistanceMeasure measure;
+
+    private final int k;
+
+    private final int dims;
+
+    private final int[] clusterIds;
+
+    private final double[] centers; // k x dims, row-major
+
+    private final long[] counts; // points seen by each center
+
+    private final DistanceKernel kernel; // null when the measure has no kernel
+
+    private long batches;
+
+    private long points;
+
+    public MiniBatchKMeans(List<? extends Cluster> initialClusters, DistanceMeasure measure) {
+        Preconditions.checkArgument(!initialClusters.isEmpty(), "no initial clusters");
+        this.measure = measure;
+        this.k = initialClusters.size();
+        this.dims = initialClusters.get(0).getCenter().size();
+        this.clusterIds = new int[k];
+        this.centers = new double[k * dims];
+        this.counts = new long[k];
+        for (int c = 0; c < k; c++) {
+            Cluster cluster = initialClusters.get(c);
+            clusterIds[c] = cluster.getId();
+            for (Vector.Element element : cluster.getCenter().nonZeroes()) {
+                centers[c * dims + element.index()] = element.get();
+            }
+        }
+        this.kernel = DistanceKernel.forMeasure(measure);
+    }
+
+    /**
+     * Runs one mini-batch step.
+     *
+     * @return the largest distance a center moved by during the step
+     */
+    public double update(PointMatrix batch) {
+        Preconditions.checkArgument(batch.numCols() == dims, "cardinality mismatch");
+        double[] before = centers.clone();
+        double[] values = batch.values();
+        int[] nearest = new int[batch.numRows()];
+        double[] norms = kernel == null ? null : kernel.norms(centers, k, dims);
+        for (int row = 0; row < batch.numRows(); row++) {
+            nearest[row] = nearest(values, batch.offset(row), norms);
+        }
+        for (int row = 0; row < batch.numRows(); row++) {
+            int c = nearest[row];
+            counts[c]++;
+            double rate = 1.0 / counts[c];
+            int base = c * dims;
+            int offset = batch.offset(row);
+            for (int d = 0; d < dims; d++) {
+                centers[base + d] += rate * (values[offset + d] - centers[base + d]);
+            }
+        }
+        batches++;
+        points += batch.numRows();
+
+        double maxShift = 0;
+        for (int c = 0; c < k; c++) {
+            maxShift = Math.max(maxShift, kernel != null ? kernel.distance(before, c * dims, centers, c * dims, dims)
+                    : measure.distance(centerVector(before, c), centerVector(centers, c)));
+        }
+        return maxShift;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public long getPoints() {
+        return points;
+    }
+
+    /**
+     * @return the current centers as Klusters, numObservations being the points each center has seen
+     */
+    public List<Cluster> getClusters() {
+        List<Cluster> clusters = Lists.newArrayListWithCapacity(k);
+        for (int c = 0; c < k; c++) {
+            Vector center = centerVector(centers, c);
+            Kluster kluster = new Kluster(center, clusterIds[c], measure);
+            if (counts[c] > 0) {
+                kluster.observe(center, counts[c]);
+                kluster.computeParameters();
+            }
+            clusters.add(kluster);
+        }
+        return clusters;
+    }
+
+    private int nearest(double[] values, int offset, double[] norms) {
+        if (kernel != null) {
+            return kernel.nearest(values, offset, centers, norms, k, dims);
+        }
+        int best = 0;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        double[] copy = new double[dims];
+        System.arraycopy(values, offset, copy, 0, dims);
+        Vector point = new DenseVector(copy, true);
+        for (int c = 0; c < k; c++) {
+            double d = measure.distance(centerVector(centers, c), point);
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private Vector centerVector(double[] values, int c) {
+        double[] copy = new double[dims];
+        System.arraycopy(values, c * dims, copy, 0, dims);
+        return new DenseVector(copy, true);
+    }
+}
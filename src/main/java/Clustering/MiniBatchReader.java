@@ -0,0 +1,160 @@
+package Clustering;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.common.iterator.sequencefile.PathFilters;
+import org.apache.mahout.common.iterator.sequencefile.PathType;
+import org.apache.mahout.common.iterator.sequencefile.SequenceFileDirValueIterator;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Streams the VectorWritable points of a sequence file directory as random fixed-size batches. Points
+ * are read into a shuffle buffer of bufferSize rows and every batch is drawn at random from it, the
+ * buffer being refilled from the stream, which starts over at the end of every pass (epoch). Memory
+ * is bounded by the buffer whatever the size of the input.
+ */
+public class MiniBatchReader implements Closeable {
+
+    private final Configuration conf;
+
+    private final Path input;
+
+    private final int batchSize;
+
+    private final int bufferSize;
+
+    private final Random random;
+
+    private final List<double[]> buffer;
+
+    private SequenceFileDirValueIterator<VectorWritable> iterator;
+
+    private long rowsInPass;
+
+    private int epoch; // passes over the input completed so far
+
+    private int dims = -1;
+
+    public MiniBatchReader(Configuration conf, Path input, int batchSize, int bufferSize, long seed) {
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be positive");
+        Preconditions.checkArgument(bufferSize >= batchSize, "bufferSize must be at least batchSize");
+        this.conf = conf;
+        this.input = input;
+        this.batchSize = batchSize;
+        this.bufferSize = bufferSize;
+        this.random = new Random(seed);
+        this.buffer = Lists.newArrayListWithCapacity(bufferSize);
+    }
+
+    /**
+     * @return the next random batch, smaller than batchSize only when the whole input is, or null when
+     * the input is empty
+     */
+    public PointMatrix nextBatch() throws IOException {
+        fill();
+        if (buffer.isEmpty()) {
+            return null;
+        }
+        int size = Math.min(batchSize, buffer.size());
+        PointMatrix batch = new PointMatrix(size, dims);
+        for (int i = 0; i < size; i++) {
+            int j = random.nextInt(buffer.size());
+            int last = buffer.size() - 1;
+            double[] row = buffer.get(j);
+            buffer.set(j, buffer.get(last));
+            buffer.remove(last);
+            System.arraycopy(row, 0, batch.values(), batch.offset(i), dims);
+        }
+        return batch;
+    }
+
+    /**
+     * @return the number of passes over the input completed so far
+     */
+    public int getEpoch() {
+        return epoch;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (iterator != null) {
+            Closeables.close(iterator, true);
+            iterator = null;
+        }
+    }
+
+    private void fill() throws IOException {
+        while (buffer.size() < bufferSize) {
+            if (iterator == null) {
+                iterator = open(conf, input);
+                rowsInPass = 0;
+            }
+            if (!iterator.hasNext()) {
+                close();
+                epoch++;
+                // stop at the end of a pass as soon as a batch can be drawn, and when the whole input is
+                // smaller than a batch rather than repeat its points in the batch
+                if (rowsInPass < batchSize || buffer.size() >= batchSize) {
+                    return;
+                }
+                continue;
+            }
+            buffer.add(toArray(iterator.next().get()));
+            rowsInPass++;
+        }
+    }
+
+    private double[] toArray(Vector vector) {
+        if (dims < 0) {
+            dims = vector.size();
+        }
+        Preconditions.checkArgument(vector.size() == dims, "cardinality mismatch");
+        double[] row = new double[dims];
+        for (Vector.Element element : vector.nonZeroes()) {
+            row[element.index()] = element.get();
+        }
+        return row;
+    }
+
+    /**
+     * Reservoir sample of at most size points, drawn in a single pass over the input.
+     */
+    public static PointMatrix sample(Configuration conf, Path input, int size, long seed) throws IOException {
+        Random random = new Random(seed);
+        List<Vector> reservoir = Lists.newArrayListWithCapacity(size);
+        SequenceFileDirValueIterator<VectorWritable> iterator = open(conf, input);
+        try {
+            long seen = 0;
+            while (iterator.hasNext()) {
+                Vector vector = iterator.next().get();
+                seen++;
+                if (reservoir.size() < size) {
+                    reservoir.add(vector.clone());
+                } else {
+                    long j = (long) (random.nextDouble() * seen);
+                    if (j < size) {
+                        reservoir.set((int) j, vector.clone());
+                    }
+                }
+            }
+        } finally {
+            Closeables.close(iterator, true);
+        }
+        return PointMatrix.fromVectors(reservoir);
+    }
+
+    private static SequenceFileDirValueIterator<VectorWritable> open(Configuration conf, Path input)
+            throws IOException {
+        return new SequenceFileDirValueIterator<VectorWritable>(input, PathType.LIST, PathFilters.logsCRCFilter(),
+                null, true, conf);
+    }
+}
@@ -0,0 +1,108 @@
+package Clustering;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Dense row-major point matrix backed by a single contiguous double[], so that the in-memory
+ * clustering engines walk rows with plain array arithmetic instead of Vector iterators.
+ */
+public class PointMatrix {
+
+    private final double[] values;
+
+    private final int numRows;
+
+    private final int numCols;
+
+    private long[] keys; // key of every row, null when it is the row index
+
+    public PointMatrix(int numRows, int numCols) {
+        this(new double[numRows * numCols], numCols);
+    }
+
+    public PointMatrix(double[] values, int numCols) {
+        Preconditions.checkArgument(numCols > 0, "numCols must be positive");
+        Preconditions.checkArgument(values.length % numCols == 0, "values length is not a multiple of numCols");
+        this.values = values;
+        this.numCols = numCols;
+        this.numRows = values.length / numCols;
+    }
+
+    /**
+     * Copies the vectors, which must all have the same cardinality, into a new matrix.
+     */
+    public static PointMatrix fromVectors(List<? extends Vector> vectors) {
+        Preconditions.checkArgument(!vectors.isEmpty(), "no vectors");
+        int numCols = vectors.get(0).size();
+        PointMatrix matrix = new PointMatrix(vectors.size(), numCols);
+        for (int row = 0; row < vectors.size(); row++) {
+            matrix.setRow(row, vectors.get(row));
+        }
+        return matrix;
+    }
+
+    public int numRows() {
+        return numRows;
+    }
+
+    public int numCols() {
+        return numCols;
+    }
+
+    /**
+     * The backing array, row i starting at offset(i).
+     */
+    public double[] values() {
+        return values;
+    }
+
+    /**
+     * Sets the key of every row, such as the line number of the input line a row was read from.
+     */
+    public void setKeys(long[] keys) {
+        Preconditions.checkArgument(keys == null || keys.length == numRows, "one key per row expected");
+        this.keys = keys;
+    }
+
+    /**
+     * @return the key of the row, its index unless keys were set
+     */
+    public long getKey(int row) {
+        return keys == null ? row : keys[row];
+    }
+
+    public int offset(int row) {
+        return row * numCols;
+    }
+
+    public double get(int row, int col) {
+        return values[row * numCols + col];
+    }
+
+    public void set(int row, int col, double value) {
+        values[row * numCols + col] = value;
+    }
+
+    public void setRow(int row, Vector vector) {
+        Preconditions.checkArgument(vector.size() == numCols, "cardinality mismatch");
+        int offset = row * numCols;
+        Arrays.fill(values, offset, offset + numCols, 0.0);
+        for (Vector.Element element : vector.nonZeroes()) {
+            values[offset + element.index()] = element.get();
+        }
+    }
+
+    /**
+     * @return a DenseVector copy of the row
+     */
+    public Vector rowVector(int row) {
+        double[] copy = new double[numCols];
+        System.arraycopy(values, row * numCols, copy, 0, numCols);
+        return new DenseVector(copy, true);
+    }
+}
@@ -0,0 +1,138 @@
+package Clustering;
+
+import java.util.Random;
+
+/**
+ * Vantage-point tree over the rows of a row-major array, answering nearest neighbor queries in a metric
+ * given by a DistanceKernel, which must satisfy the triangle inequality. Every node keeps a vantage row
+ * and the median distance of the rows of its subtree to it: the rows closer than the median go to the
+ * inside child, the others to the outside one. The tree is built once and never modified, which suits
+ * the centroids of a trained model.
+ */
+public class VpTree {
+
+    private final double[] values;
+
+    private final int dims;
+
+    private final DistanceKernel metric;
+
+    private final int[] rows; // the rows in tree order: a node is rows[lo] over [lo, hi)
+
+    private final double[] thresholds; // per position of a node, the median distance to its vantage row
+
+    private final int[] middles; // per position of a node, the first position of its outside child
+
+    public VpTree(double[] values, int numRows, int dims, DistanceKernel metric, long seed) {
+        this.values = values;
+        this.dims = dims;
+        this.metric = metric;
+        this.rows = new int[numRows];
+        for (int i = 0; i < numRows; i++) {
+            rows[i] = i;
+        }
+        this.thresholds = new double[numRows];
+        this.middles = new int[numRows];
+        build(0, numRows, new double[numRows], new Random(seed));
+    }
+
+    private void build(int lo, int hi, double[] distances, Random random) {
+        if (hi - lo <= 1) {
+            if (hi > lo) {
+                middles[lo] = hi;
+            }
+            return;
+        }
+        swap(lo, lo + random.nextInt(hi - lo));
+        int vantage = rows[lo];
+        for (int i = lo + 1; i < hi; i++) {
+            distances[i] = metric.distance(values, vantage * dims, values, rows[i] * dims, dims);
+        }
+        int middle = (lo + 1 + hi) / 2;
+        select(lo + 1, hi - 1, middle, distances);
+        thresholds[lo] = distances[middle];
+        middles[lo] = middle;
+        build(lo + 1, middle, distances, random);
+        build(middle, hi, distances, random);
+    }
+
+    /**
+     * Quickselect of [lo, hi] on distances, moving the rows along.
+     */
+    private void select(int lo, int hi, int nth, double[] distances) {
+        while (lo < hi) {
+            double pivot = distances[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (distances[i] < pivot) {
+                    i++;
+                }
+                while (distances[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    double d = distances[i];
+                    distances[i] = distances[j];
+                    distances[j] = d;
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (nth <= j) {
+                hi = j;
+            } else if (nth >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int row = rows[i];
+        rows[i] = rows[j];
+        rows[j] = row;
+    }
+
+    /**
+     * @param best receives the distance to the nearest row in best[0]
+     * @return the nearest row to the point read at offset in point, one of them when several are equally
+     * near: the rounding of the distances can prune the lowest one
+     */
+    public int nearest(double[] point, int offset, double[] best) {
+        best[0] = Double.POSITIVE_INFINITY;
+        int[] nearest = {-1};
+        search(0, rows.length, point, offset, best, nearest);
+        return nearest[0];
+    }
+
+    private void search(int lo, int hi, double[] point, int offset, double[] best, int[] nearest) {
+        if (lo >= hi) {
+            return;
+        }
+        int vantage = rows[lo];
+        double d = metric.distance(values, vantage * dims, point, offset, dims);
+        if (d < best[0] || (d == best[0] && vantage < nearest[0])) {
+            best[0] = d;
+            nearest[0] = vantage;
+        }
+        int middle = middles[lo];
+        if (middle >= hi) {
+            return;
+        }
+        double threshold = thresholds[lo];
+        if (d < threshold) {
+            search(lo + 1, middle, point, offset, best, nearest);
+            if (d + best[0] >= threshold) {
+                search(middle, hi, point, offset, best, nearest);
+            }
+        } else {
+            search(middle, hi, point, offset, best, nearest);
+            if (d - best[0] <= threshold) {
+                search(lo + 1, middle, point, offset, best, nearest);
+            }
+        }
+    }
+}
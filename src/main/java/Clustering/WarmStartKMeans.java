@@ -0,0 +1,380 @@
+package Clustering;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.iterator.ClusterWritable;
+import org.apache.mahout.clustering.iterator.KMeansClusteringPolicy;
+import org.apache.mahout.clustering.kmeans.Kluster;
+import org.apache.mahout.clustering.topdown.PathDirectory;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.common.iterator.sequencefile.PathFilters;
+import org.apache.mahout.common.iterator.sequencefile.PathType;
+import org.apache.mahout.common.iterator.sequencefile.SequenceFileDirValueIterable;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Incremental k-means from the model of a previous run. The output of every run records, in its
+ * _warmstart file, the input file and the number of its bytes and of its data lines clustered so far; the
+ * next run only vectorizes the lines appended since, keyed after the previous ones, and iterates from the
+ * previous clusters-N-final over them alone, every previous cluster standing for its points by its center
+ * weighted by its number of observations.
+ * <p>
+ * The new clusters go to clusters-(N + iterations)-final, the previous final clusters becoming
+ * clusters-N, and the assignments of the new points are added to clusteredPoints as a new part file,
+ * numbered after the existing ones.
+ * The previous points are not assigned again: when the new points are much farther from the previous
+ * centers than the previous points were, the model has drifted and the caller should cluster all the
+ * input again.
+ */
+public class WarmStartKMeans {
+
+    private static final Logger log = LoggerFactory.getLogger(WarmStartKMeans.class);
+
+    static final String STATE_FILE = "_warmstart"; // the underscore hides it from the part file filters
+
+    private static final Pattern FINAL_CLUSTERS = Pattern.compile(
+            Pattern.quote(Cluster.CLUSTERS_DIR) + "(\\d+)" + Pattern.quote(Cluster.FINAL_ITERATION_SUFFIX));
+
+    private static final String INPUT_KEY = "input";
+
+    private static final String OFFSET_KEY = "offset";
+
+    private static final String NEXT_KEY_KEY = "nextKey";
+
+    private static final Pattern PART = Pattern.compile("part-[mr]-(\\d+)");
+
+    private final Configuration conf;
+
+    private final Path output;
+
+    private final DistanceMeasure measure;
+
+    private final int numThreads;
+
+    private final DistanceKernel kernel; // null when the measure has no kernel
+
+    private List<Cluster> previousClusters;
+
+    private int previousIteration; // N of the previous clusters-N-final
+
+    private long offset;
+
+    private long nextKey;
+
+    public WarmStartKMeans(Configuration conf, Path output, DistanceMeasure measure, int numThreads) {
+        this.conf = conf;
+        this.output = output;
+        this.measure = measure;
+        this.numThreads = numThreads;
+        this.kernel = DistanceKernel.forMeasure(measure);
+    }
+
+    /**
+     * Loads the previous run from the output, if it clustered the same input and the input has only grown.
+     *
+     * @return whether the run can start from the previous model
+     */
+    public boolean load(File input) throws IOException {
+        FileSystem fs = output.getFileSystem(conf);
+        Path statePath = new Path(output, STATE_FILE);
+        if (!fs.exists(statePath)) {
+            log.info("No previous run in {}", output);
+            return false;
+        }
+        Properties state = new Properties();
+        InputStream in = fs.open(statePath);
+        try {
+            state.load(new InputStreamReader(in, Charsets.UTF_8));
+        } finally {
+            Closeables.close(in, true);
+        }
+        if (!input.getCanonicalPath().equals(state.getProperty(INPUT_KEY))) {
+            log.info("The previous run in {} clustered {}, not {}", output, state.getProperty(INPUT_KEY), input);
+            return false;
+        }
+        if (state.getProperty(NEXT_KEY_KEY) == null) {
+            log.info("The previous run in {} did not record the number of its lines", output);
+            return false;
+        }
+        offset = Long.parseLong(state.getProperty(OFFSET_KEY));
+        nextKey = Long.parseLong(state.getProperty(NEXT_KEY_KEY));
+        if (input.length() < offset) {
+            log.info("{} is shorter than when it was clustered, it has been rewritten", input);
+            return false;
+        }
+
+        Path finalClusters = null;
+        for (FileStatus status : fs.listStatus(output)) {
+            Matcher matcher = FINAL_CLUSTERS.matcher(status.getPath().getName());
+            if (matcher.matches()) {
+                finalClusters = status.getPath();
+                previousIteration = Integer.parseInt(matcher.group(1));
+            }
+        }
+        if (finalClusters == null) {
+            log.info("No final clusters in {}", output);
+            return false;
+        }
+        previousClusters = Lists.newArrayList();
+        for (ClusterWritable writable : new SequenceFileDirValueIterable<ClusterWritable>(finalClusters,
+                PathType.LIST, PathFilters.partFilter(), conf)) {
+            previousClusters.add(writable.getValue());
+        }
+        log.info("Warm start from the {} clusters of {}, {} bytes of {} clustered", previousClusters.size(),
+                finalClusters, offset, input);
+        return !previousClusters.isEmpty();
+    }
+
+    /**
+     * @return the number of bytes of the input clustered by the previous run
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the key following the data lines clustered by the previous run, the first key of the new lines
+     */
+    public long getNextKey() {
+        return nextKey;
+    }
+
+    public List<Cluster> getPreviousClusters() {
+        return previousClusters;
+    }
+
+    /**
+     * Relative increase of the mean squared distance of the points to their nearest center from the
+     * previous points, as recorded by the cluster radiuses, to the new ones.
+     *
+     * @return 0 when the new points fit the previous model as well as the previous points did
+     */
+    public double drift(PointMatrix newPoints) {
+        if (newPoints.numRows() == 0) {
+            return 0;
+        }
+        double previousError = 0;
+        long previousPoints = 0;
+        for (Cluster cluster : previousClusters) {
+            Vector radius = cluster.getRadius();
+            if (radius != null) {
+                previousError += cluster.getNumObservations() * radius.getLengthSquared();
+            }
+            previousPoints += cluster.getNumObservations();
+        }
+        int dims = newPoints.numCols();
+        int k = previousClusters.size();
+        double[] centers = centers(previousClusters, dims);
+        double[] norms = kernel == null ? null : kernel.norms(centers, k, dims);
+        double newError = 0;
+        for (int row = 0; row < newPoints.numRows(); row++) {
+            int offset = newPoints.offset(row);
+            int nearest = nearest(centers, norms, k, newPoints.values(), offset, dims);
+            newError += DistanceKernel.squaredEuclidean(centers, nearest * dims, newPoints.values(), offset, dims);
+        }
+        double previousMean = previousPoints == 0 ? 0 : previousError / previousPoints;
+        double newMean = newError / newPoints.numRows();
+        double drift = previousMean > 0 ? newMean / previousMean - 1 : newMean > 0 ? Double.POSITIVE_INFINITY : 0;
+        log.info(String.format(Locale.ENGLISH, "Mean squared distance to the centers: %.6f before, %.6f for the "
+                + "%d new points, drift %.4f", previousMean, newMean, newPoints.numRows(), drift));
+        return drift;
+    }
+
+    /**
+     * Iterates from the previous clusters over the new points, then writes the new final clusters and the
+     * assignments of the new points.
+     *
+     * @return the number of iterations run
+     */
+    public int run(PointMatrix newPoints, double convergenceDelta, int maxIterations) throws Exception {
+        int k = previousClusters.size();
+        int dims = newPoints.numCols();
+        if (newPoints.numRows() == 0) {
+            log.info("No new points, the model is unchanged");
+            return 0;
+        }
+        double[] previousCenters = centers(previousClusters, dims);
+        double[] weights = new double[k];
+        for (int c = 0; c < k; c++) {
+            weights[c] = previousClusters.get(c).getNumObservations();
+        }
+
+        double[] centers = previousCenters.clone();
+        double[] lastCenters = centers;
+        int[] assignments = new int[newPoints.numRows()];
+        int iterations = 0;
+        boolean converged = false;
+        while (!converged && iterations < maxIterations) {
+            double[] sums = new double[k * dims];
+            long[] counts = new long[k];
+            double[] norms = kernel == null ? null : kernel.norms(centers, k, dims);
+            for (int row = 0; row < newPoints.numRows(); row++) {
+                int offset = newPoints.offset(row);
+                int nearest = nearest(centers, norms, k, newPoints.values(), offset, dims);
+                assignments[row] = nearest;
+                counts[nearest]++;
+                for (int d = 0; d < dims; d++) {
+                    sums[nearest * dims + d] += newPoints.values()[offset + d];
+                }
+            }
+            double[] next = new double[k * dims];
+            converged = true;
+            for (int c = 0; c < k; c++) {
+                double total = weights[c] + counts[c];
+                for (int d = 0; d < dims; d++) {
+                    int i = c * dims + d;
+                    next[i] = total == 0 ? centers[i] : (weights[c] * previousCenters[i] + sums[i]) / total;
+                }
+                if (distance(centers, c * dims, next, c * dims, dims) > convergenceDelta) {
+                    converged = false;
+                }
+            }
+            lastCenters = centers;
+            centers = next;
+            iterations++;
+        }
+        log.info("Warm-started k-means {} after {} iterations over {} new points",
+                converged ? "converged" : "stopped", iterations, newPoints.numRows());
+
+        // like InMemoryKMeans.getClusters, from the centers of the last assignment
+        List<Cluster> clusters = Lists.newArrayListWithCapacity(k);
+        for (int c = 0; c < k; c++) {
+            Cluster previous = previousClusters.get(c);
+            Kluster kluster = new Kluster(row(lastCenters, c, dims), previous.getId(), measure);
+            long n = previous.getNumObservations();
+            if (n > 0) {
+                // two observations at center +- radius restore the first two moments of the previous points
+                Vector center = row(previousCenters, c, dims);
+                Vector radius = previous.getRadius() == null ? new DenseVector(dims) : previous.getRadius();
+                kluster.observe(center.plus(radius), n / 2.0);
+                kluster.observe(center.minus(radius), n / 2.0);
+            }
+            clusters.add(kluster);
+        }
+        for (int row = 0; row < newPoints.numRows(); row++) {
+            ((Kluster) clusters.get(assignments[row])).observe(newPoints.rowVector(row));
+        }
+        for (Cluster cluster : clusters) {
+            ((Kluster) cluster).calculateConvergence(convergenceDelta);
+            cluster.computeParameters();
+        }
+
+        FileSystem fs = output.getFileSystem(conf);
+        Path previousFinal = new Path(output,
+                Cluster.CLUSTERS_DIR + previousIteration + Cluster.FINAL_ITERATION_SUFFIX);
+        fs.rename(previousFinal, new Path(output, Cluster.CLUSTERS_DIR + previousIteration));
+        ClusteringOutputWriter.writeFinalClusters(output, previousIteration + iterations, clusters,
+                new KMeansClusteringPolicy(convergenceDelta));
+
+        ClusterAssignments newAssignments = new InMemoryKMeans(newPoints, clusters, measure, numThreads)
+                .classify(clusters);
+        ClusteringOutputWriter.writeClusteredPoints(conf, output, nextPartName(fs), newPoints, clusters,
+                newAssignments);
+        return iterations;
+    }
+
+    /**
+     * @return the name of the part file following the existing part files of clusteredPoints
+     */
+    private String nextPartName(FileSystem fs) throws IOException {
+        Path clusteredPoints = new Path(output, PathDirectory.CLUSTERED_POINTS_DIRECTORY);
+        int next = 0;
+        if (fs.exists(clusteredPoints)) {
+            for (FileStatus status : fs.listStatus(clusteredPoints, PathFilters.partFilter())) {
+                Matcher matcher = PART.matcher(status.getPath().getName());
+                if (matcher.matches()) {
+                    next = Math.max(next, Integer.parseInt(matcher.group(1)) + 1);
+                }
+            }
+        }
+        return String.format(Locale.ENGLISH, "part-m-%05d", next);
+    }
+
+    /**
+     * Records in the output that the first offset bytes of input, its data lines up to nextKey, have been
+     * clustered.
+     */
+    public static void saveState(Configuration conf, Path output, File input, long offset, long nextKey)
+            throws IOException {
+        Properties state = new Properties();
+        state.setProperty(INPUT_KEY, input.getCanonicalPath());
+        state.setProperty(OFFSET_KEY, Long.toString(offset));
+        state.setProperty(NEXT_KEY_KEY, Long.toString(nextKey));
+        FileSystem fs = output.getFileSystem(conf);
+        OutputStream out = fs.create(new Path(output, STATE_FILE), true);
+        try {
+            OutputStreamWriter writer = new OutputStreamWriter(out, Charsets.UTF_8);
+            state.store(writer, "clustered input");
+            writer.flush();
+        } finally {
+            Closeables.close(out, false);
+        }
+    }
+
+    private int nearest(double[] centers, double[] norms, int k, double[] values, int offset, int dims) {
+        if (kernel != null) {
+            return kernel.nearest(values, offset, centers, norms, k, dims);
+        }
+        int best = 0;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < k; c++) {
+            double d = distance(centers, c * dims, values, offset, dims);
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Distance between two rows, consistent with measure.distance(a, b).
+     */
+    private double distance(double[] a, int aOffset, double[] b, int bOffset, int dims) {
+        if (kernel != null) {
+            return kernel.distance(a, aOffset, b, bOffset, dims);
+        }
+        double[] x = new double[dims];
+        double[] y = new double[dims];
+        System.arraycopy(a, aOffset, x, 0, dims);
+        System.arraycopy(b, bOffset, y, 0, dims);
+        return measure.distance(new DenseVector(x, true), new DenseVector(y, true));
+    }
+
+    private static double[] centers(List<Cluster> clusters, int dims) {
+        double[] centers = new double[clusters.size() * dims];
+        for (int c = 0; c < clusters.size(); c++) {
+            for (Vector.Element element : clusters.get(c).getCenter().nonZeroes()) {
+                centers[c * dims + element.index()] = element.get();
+            }
+        }
+        return centers;
+    }
+
+    private static Vector row(double[] values, int row, int dims) {
+        double[] copy = new double[dims];
+        System.arraycopy(values, row * dims, copy, 0, dims);
+        return new DenseVector(copy, true);
+    }
+}
@@ -0,0 +1,229 @@
+package Common;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+import org.apache.hadoop.io.Writable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Periodic checkpoints of the state of an iterative job, as files of a local directory, one per step. A
+ * checkpoint is written to a temporary file, forced to disk and renamed over its final name, so that a
+ * crash leaves the previous checkpoints and never a partial one. Its header holds the step and a CRC32 of
+ * the state: restore skips any checkpoint that does not check out and falls back to the previous one.
+ * Only the KEEP newest checkpoints are kept.
+ * <p>
+ * A job keeps the checkpoints of a run in the directory of {@link #runDirectory}, named after the digest
+ * of everything the run depends on, so that resuming never restores the state of another run.
+ */
+public final class CheckpointStore {
+
+    private static final Logger log = LoggerFactory.getLogger(CheckpointStore.class);
+
+    static final int MAGIC = 0x434b5054; // "CKPT"
+
+    static final int VERSION = 1;
+
+    static final int KEEP = 2;
+
+    private static final Pattern CHECKPOINT = Pattern.compile("checkpoint-(\\d+)");
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final File directory;
+
+    private final int interval;
+
+    /**
+     * @param interval steps between two checkpoints, 0 to only restore
+     */
+    public CheckpointStore(File directory, int interval) {
+        Preconditions.checkArgument(interval >= 0, "interval must not be negative");
+        this.directory = directory;
+        this.interval = interval;
+    }
+
+    /**
+     * @param run the input and the parameters of the run, such as "input|length|k|measure"
+     * @return the directory under parent of the checkpoints of the run, named after the SHA-1 of run
+     */
+    public static File runDirectory(File parent, String run) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM has SHA-1
+        }
+        StringBuilder name = new StringBuilder("run-");
+        for (byte b : digest.digest(run.getBytes(Charsets.UTF_8))) {
+            name.append(String.format("%02x", b & 0xff));
+        }
+        return new File(parent, name.toString());
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return whether the state after step should be saved
+     */
+    public boolean isDue(int step) {
+        return interval > 0 && step > 0 && step % interval == 0;
+    }
+
+    /**
+     * Saves the state after step, atomically.
+     */
+    public void save(int step, Writable state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream stateOut = new DataOutputStream(bytes);
+        state.write(stateOut);
+        stateOut.flush();
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File temporary = new File(directory, name(step) + TEMPORARY_SUFFIX);
+        FileOutputStream file = new FileOutputStream(temporary);
+        boolean threw = true;
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(step);
+            out.writeInt(payload.length);
+            out.writeLong(crc.getValue());
+            out.write(payload);
+            out.flush();
+            file.getFD().sync();
+            threw = false;
+        } finally {
+            Closeables.close(file, threw);
+        }
+        Files.move(temporary.toPath(), new File(directory, name(step)).toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        log.debug("Checkpointed step {} in {}, {} bytes", step, directory, payload.length);
+
+        List<Integer> steps = steps();
+        for (int i = KEEP; i < steps.size(); i++) {
+            delete(new File(directory, name(steps.get(i))));
+        }
+    }
+
+    /**
+     * Reads the newest valid checkpoint into state.
+     *
+     * @return the step of the checkpoint, 0 when there is none
+     */
+    public int restore(Writable state) throws IOException {
+        for (int step : steps()) {
+            File file = new File(directory, name(step));
+            byte[] payload = read(file, step);
+            if (payload == null) {
+                log.warn("Skipping the invalid checkpoint {}", file);
+                continue;
+            }
+            state.readFields(new DataInputStream(new ByteArrayInputStream(payload)));
+            log.info("Restored the checkpoint of step {} from {}", step, directory);
+            return step;
+        }
+        log.info("No checkpoint in {}", directory);
+        return 0;
+    }
+
+    /**
+     * Deletes every checkpoint, once the job they were taken from completed.
+     */
+    public void clear() throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (CHECKPOINT.matcher(file.getName()).lookingAt()) {
+                delete(file);
+            }
+        }
+    }
+
+    /**
+     * @return the payload of the checkpoint, null if it is truncated, of another step or corrupt
+     */
+    private static byte[] read(File file, int step) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != step) {
+                return null;
+            }
+            int length = in.readInt();
+            long checksum = in.readLong();
+            if (length < 0 || length > file.length()) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, length);
+            return crc.getValue() == checksum ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        } finally {
+            Closeables.close(in, true);
+        }
+    }
+
+    /**
+     * @return the steps of the checkpoints, newest first
+     */
+    private List<Integer> steps() {
+        List<Integer> steps = new ArrayList<Integer>();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                Matcher matcher = CHECKPOINT.matcher(name);
+                if (matcher.matches()) {
+                    steps.add(Integer.parseInt(matcher.group(1)));
+                }
+            }
+        }
+        Collections.sort(steps, Collections.<Integer>reverseOrder());
+        return steps;
+    }
+
+    private static String name(int step) {
+        return String.format("checkpoint-%08d", step);
+    }
+
+    private static void delete(File file) throws IOException {
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Cannot delete " + file);
+        }
+    }
+}
@@ -0,0 +1,794 @@
+package Common;
+
+import com.google.common.io.Closeables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Columnar binary copy of a delimited text file, kept next to it in a file named after it with the SUFFIX
+ * extension, so that a dataset is parsed once per version rather than by every run of every driver. The
+ * text is parsed like CsvVectorizer parses it, fields separated by commas and/or blanks, plus double
+ * quoted fields; blank lines are not rows.
+ * <p>
+ * Every column gets the narrowest type holding all its fields: INT columns are 4-byte ints, DOUBLE columns
+ * 8-byte doubles and the others CATEGORICAL, 4-byte codes into a dictionary of their distinct fields in the
+ * order they first appear. The header holds the schema, the offsets of the columns and dictionaries, and
+ * the length, modification time and CRC32 of the text file. The cache is built on the first open, written
+ * to a temporary file renamed over its final name, and memory-mapped on the next ones; when the length of
+ * the text file changed, or its modification time changed and its CRC32 too, it is rebuilt.
+ * <p>
+ * Files whose lines do not all have the same number of fields are not cached: open returns null and the
+ * drivers fall back to parsing the text.
+ */
+public final class ColumnarCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ColumnarCache.class);
+
+    static final int MAGIC = 0x434f4c53; // "COLS"
+
+    static final int VERSION = 1;
+
+    public static final String SUFFIX = ".columns";
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final int CRC_BUFFER_SIZE = 65536;
+
+    /**
+     * Storage type of a column.
+     */
+    public enum ColumnType {
+        INT(4), DOUBLE(8), CATEGORICAL(4);
+
+        private final int width;
+
+        ColumnType(int width) {
+            this.width = width;
+        }
+
+        int getWidth() {
+            return width;
+        }
+    }
+
+    private final File source;
+
+    private final int numRows;
+
+    private final String[] names;
+
+    private final ColumnType[] types;
+
+    private final IntBuffer[] ints; // INT values or CATEGORICAL codes, null for DOUBLE columns
+
+    private final DoubleBuffer[] doubles; // DOUBLE values, null for the other columns
+
+    private final String[][] dictionaries; // null but for CATEGORICAL columns
+
+    private final double[][] dictionaryValues; // the dictionary entries as numbers, NaN for non-numeric ones
+
+    private ColumnarCache(File source, int numRows, String[] names, ColumnType[] types, IntBuffer[] ints,
+                          DoubleBuffer[] doubles, String[][] dictionaries) {
+        this.source = source;
+        this.numRows = numRows;
+        this.names = names;
+        this.types = types;
+        this.ints = ints;
+        this.doubles = doubles;
+        this.dictionaries = dictionaries;
+        dictionaryValues = new double[names.length][];
+        for (int column = 0; column < names.length; column++) {
+            if (dictionaries[column] != null) {
+                dictionaryValues[column] = new double[dictionaries[column].length];
+                for (int code = 0; code < dictionaries[column].length; code++) {
+                    dictionaryValues[column][code] = parseNumber(dictionaries[column][code]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the cache file of the text file
+     */
+    public static File cacheFile(File source) {
+        return new File(source.getPath() + SUFFIX);
+    }
+
+    /**
+     * Opens the cache of the text file, building it first if it is missing or stale.
+     *
+     * @param header whether the first line holds the column names
+     * @return the cache, null if the file cannot be cached
+     */
+    public static ColumnarCache open(File source, boolean header) throws IOException {
+        File file = cacheFile(source);
+        if (file.isFile()) {
+            ColumnarCache cache;
+            try {
+                cache = read(source, file, header);
+            } catch (IOException e) {
+                log.warn("Could not read the column cache " + file, e);
+                cache = null;
+            }
+            if (cache != null) {
+                log.debug("Opened the column cache {}", file);
+                return cache;
+            }
+            log.info("Rebuilding the stale column cache {}", file);
+        }
+        long time = System.currentTimeMillis();
+        try {
+            if (!build(source, file, header)) {
+                return null;
+            }
+        } catch (IOException e) {
+            log.warn("Could not cache " + source + " in " + file, e);
+            return null;
+        }
+        ColumnarCache cache = read(source, file, header);
+        if (cache != null) {
+            log.info("Cached {} rows of {} columns of {} in {} ms", cache.numRows, cache.names.length, source,
+                    System.currentTimeMillis() - time);
+        }
+        return cache;
+    }
+
+    public File getSource() {
+        return source;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public int getNumColumns() {
+        return names.length;
+    }
+
+    public String getName(int column) {
+        return names[column];
+    }
+
+    public ColumnType getType(int column) {
+        return types[column];
+    }
+
+    /**
+     * @return the value of an INT column
+     */
+    public int getInt(int column, int row) {
+        return ints[column].get(row);
+    }
+
+    /**
+     * @return the field as a number, NaN for a CATEGORICAL field that is not one
+     */
+    public double getDouble(int column, int row) {
+        switch (types[column]) {
+            case INT:
+                return ints[column].get(row);
+            case DOUBLE:
+                return doubles[column].get(row);
+            default:
+                return dictionaryValues[column][ints[column].get(row)];
+        }
+    }
+
+    /**
+     * @return the dictionary code of a CATEGORICAL field
+     */
+    public int getCode(int column, int row) {
+        return ints[column].get(row);
+    }
+
+    /**
+     * @return the dictionary of a CATEGORICAL column, indexed by code
+     */
+    public String[] getDictionary(int column) {
+        return dictionaries[column].clone();
+    }
+
+    /**
+     * @return the field as text, the original text for INT and CATEGORICAL columns
+     */
+    public String getString(int column, int row) {
+        switch (types[column]) {
+            case INT:
+                return Integer.toString(ints[column].get(row));
+            case DOUBLE:
+                return Double.toString(doubles[column].get(row));
+            default:
+                return dictionaries[column][ints[column].get(row)];
+        }
+    }
+
+    /**
+     * @return the row as a comma separated line, the fields holding separators double quoted
+     */
+    public String line(int row) {
+        StringBuilder line = new StringBuilder();
+        for (int column = 0; column < names.length; column++) {
+            if (column > 0) {
+                line.append(',');
+            }
+            appendField(line, getString(column, row));
+        }
+        return line.toString();
+    }
+
+    /**
+     * @return the column names as a comma separated line of double quoted fields
+     */
+    public String headerLine() {
+        StringBuilder line = new StringBuilder();
+        for (int column = 0; column < names.length; column++) {
+            if (column > 0) {
+                line.append(',');
+            }
+            line.append('"').append(names[column]).append('"');
+        }
+        return line.toString();
+    }
+
+    private static void appendField(StringBuilder line, String field) {
+        boolean quote = field.isEmpty();
+        for (int i = 0; i < field.length() && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == ' ' || c == '\t';
+        }
+        if (quote) {
+            line.append('"').append(field).append('"');
+        } else {
+            line.append(field);
+        }
+    }
+
+    /**
+     * @return the cache, null if it is not a cache of the current text file
+     */
+    private static ColumnarCache read(File source, File file, boolean header) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readBoolean() != header) {
+                return null;
+            }
+            long sourceLength = in.readLong();
+            long sourceModified = in.readLong();
+            long sourceChecksum = in.readLong();
+            if (sourceLength != source.length()) {
+                return null;
+            }
+            if (sourceModified != source.lastModified() && sourceChecksum != checksum(source)) {
+                return null;
+            }
+            int numRows = in.readInt();
+            int numColumns = in.readInt();
+            String[] names = new String[numColumns];
+            ColumnType[] types = new ColumnType[numColumns];
+            long[] offsets = new long[numColumns];
+            long[] dictionaryOffsets = new long[numColumns];
+            for (int column = 0; column < numColumns; column++) {
+                names[column] = in.readUTF();
+                types[column] = ColumnType.values()[in.readByte()];
+                offsets[column] = in.readLong();
+                dictionaryOffsets[column] = in.readLong();
+            }
+
+            IntBuffer[] ints = new IntBuffer[numColumns];
+            DoubleBuffer[] doubles = new DoubleBuffer[numColumns];
+            String[][] dictionaries = new String[numColumns][];
+            for (int column = 0; column < numColumns; column++) {
+                // the mappings outlive the channel
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offsets[column],
+                        (long) numRows * types[column].getWidth());
+                if (types[column] == ColumnType.DOUBLE) {
+                    doubles[column] = buffer.asDoubleBuffer();
+                } else {
+                    ints[column] = buffer.asIntBuffer();
+                }
+                if (types[column] == ColumnType.CATEGORICAL) {
+                    channel.position(dictionaryOffsets[column]);
+                    DataInputStream dictionary = new DataInputStream(
+                            new BufferedInputStream(Channels.newInputStream(channel)));
+                    dictionaries[column] = new String[dictionary.readInt()];
+                    for (int code = 0; code < dictionaries[column].length; code++) {
+                        dictionaries[column][code] = dictionary.readUTF();
+                    }
+                }
+            }
+            return new ColumnarCache(source, numRows, names, types, ints, doubles, dictionaries);
+        } finally {
+            Closeables.close(raf, true);
+        }
+    }
+
+    /**
+     * Parses the text file twice: once for the schema and checksum, once for the fields, which are written
+     * straight to the mapped columns of the cache.
+     *
+     * @return false if the file cannot be cached
+     */
+    private static boolean build(File source, File file, boolean header) throws IOException {
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileChannel channel = in.getChannel();
+            long sourceLength = channel.size();
+            long sourceModified = source.lastModified();
+            long[] bounds = MappedLineRanges.split(channel, 1);
+
+            SchemaScan schema = new SchemaScan(header);
+            CRC32 crc = new CRC32();
+            if (!scan(channel, bounds, schema, crc)) {
+                log.info("Not caching {}: {}", source, schema.problem);
+                return false;
+            }
+            if (schema.numColumns == 0) {
+                log.info("Not caching {}: no data", source);
+                return false;
+            }
+            int numColumns = schema.numColumns;
+            int numRows = (int) schema.numRows;
+            long[] offsets = new long[numColumns];
+            long[] dictionaryOffsets = new long[numColumns];
+            byte[] headerBytes = header(header, sourceLength, sourceModified, crc.getValue(), numRows, schema.names,
+                    schema.types, offsets, dictionaryOffsets);
+            long position = align(headerBytes.length);
+            for (int column = 0; column < numColumns; column++) {
+                long size = (long) numRows * schema.types[column].getWidth();
+                if (size > Integer.MAX_VALUE) {
+                    log.info("Not caching {}: column {} is too large to map", source, column);
+                    return false;
+                }
+                offsets[column] = position;
+                position = align(position + size);
+            }
+
+            File temporary = new File(file.getPath() + TEMPORARY_SUFFIX);
+            RandomAccessFile out = new RandomAccessFile(temporary, "rw");
+            boolean threw = true;
+            try {
+                out.setLength(position);
+                FileChannel cacheChannel = out.getChannel();
+                FieldWriter fields = new FieldWriter(schema.types, header);
+                for (int column = 0; column < numColumns; column++) {
+                    fields.columns[column] = cacheChannel.map(FileChannel.MapMode.READ_WRITE, offsets[column],
+                            (long) numRows * schema.types[column].getWidth());
+                }
+                scan(channel, bounds, fields, null);
+                for (MappedByteBuffer column : fields.columns) {
+                    column.force();
+                }
+
+                cacheChannel.position(position);
+                DataOutputStream dictionaryOut = new DataOutputStream(new BufferedOutputStream(
+                        Channels.newOutputStream(cacheChannel)));
+                for (int column = 0; column < numColumns; column++) {
+                    if (schema.types[column] == ColumnType.CATEGORICAL) {
+                        dictionaryOffsets[column] = position + dictionaryOut.size();
+                        String[] dictionary = fields.dictionary(column);
+                        dictionaryOut.writeInt(dictionary.length);
+                        for (String entry : dictionary) {
+                            dictionaryOut.writeUTF(entry);
+                        }
+                    }
+                }
+                dictionaryOut.flush();
+                headerBytes = header(header, sourceLength, sourceModified, crc.getValue(), numRows, schema.names,
+                        schema.types, offsets, dictionaryOffsets);
+                cacheChannel.write(ByteBuffer.wrap(headerBytes), 0);
+                cacheChannel.force(true);
+                threw = false;
+            } finally {
+                Closeables.close(out, threw);
+                if (threw && !temporary.delete()) {
+                    log.warn("Could not delete {}", temporary);
+                }
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } finally {
+            Closeables.close(in, true);
+        }
+    }
+
+    private static byte[] header(boolean header, long sourceLength, long sourceModified, long sourceChecksum,
+                                 int numRows, String[] names, ColumnType[] types, long[] offsets,
+                                 long[] dictionaryOffsets) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeBoolean(header);
+        out.writeLong(sourceLength);
+        out.writeLong(sourceModified);
+        out.writeLong(sourceChecksum);
+        out.writeInt(numRows);
+        out.writeInt(names.length);
+        for (int column = 0; column < names.length; column++) {
+            out.writeUTF(names[column]);
+            out.writeByte(types[column].ordinal());
+            out.writeLong(offsets[column]);
+            out.writeLong(dictionaryOffsets[column]);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    private static long checksum(File source) throws IOException {
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileChannel channel = in.getChannel();
+            CRC32 crc = new CRC32();
+            long[] bounds = MappedLineRanges.split(channel, 1);
+            for (int range = 0; range + 1 < bounds.length; range++) {
+                update(crc, channel.map(FileChannel.MapMode.READ_ONLY, bounds[range],
+                        bounds[range + 1] - bounds[range]));
+            }
+            return crc.getValue();
+        } finally {
+            Closeables.close(in, true);
+        }
+    }
+
+    private static void update(CRC32 crc, ByteBuffer buffer) {
+        byte[] chunk = new byte[CRC_BUFFER_SIZE];
+        ByteBuffer bytes = buffer.duplicate();
+        while (bytes.hasRemaining()) {
+            int length = Math.min(chunk.length, bytes.remaining());
+            bytes.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+    }
+
+    /**
+     * Feeds every non-blank line of the ranges to the visitor, and the bytes to crc if not null.
+     *
+     * @return false as soon as the visitor rejects a line
+     */
+    private static boolean scan(FileChannel channel, long[] bounds, LineVisitor visitor, CRC32 crc)
+            throws IOException {
+        for (int range = 0; range + 1 < bounds.length; range++) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, bounds[range],
+                    bounds[range + 1] - bounds[range]);
+            if (crc != null) {
+                update(crc, buffer);
+            }
+            int limit = buffer.limit();
+            int pos = 0;
+            while (pos < limit) {
+                int lineEnd = pos;
+                while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                int contentEnd = lineEnd > pos && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                if (!isBlankLine(buffer, pos, contentEnd) && !visitor.visit(buffer, pos, contentEnd)) {
+                    return false;
+                }
+                pos = lineEnd + 1;
+            }
+        }
+        return true;
+    }
+
+    private abstract static class LineVisitor {
+
+        final Tokenizer tokenizer = new Tokenizer();
+
+        private final boolean header;
+
+        long numRows; // data lines visited
+
+        private boolean first = true;
+
+        LineVisitor(boolean header) {
+            this.header = header;
+        }
+
+        boolean visit(ByteBuffer buffer, int start, int end) throws IOException {
+            tokenizer.tokenize(buffer, start, end);
+            boolean isHeader = first && header;
+            first = false;
+            if (isHeader) {
+                return header(buffer);
+            }
+            if (!row(buffer, (int) numRows)) {
+                return false;
+            }
+            numRows++;
+            return true;
+        }
+
+        abstract boolean header(ByteBuffer buffer);
+
+        abstract boolean row(ByteBuffer buffer, int row) throws IOException;
+    }
+
+    /**
+     * Counts the rows and narrows the type of every column down to what its fields hold.
+     */
+    private static final class SchemaScan extends LineVisitor {
+
+        int numColumns;
+
+        String[] names;
+
+        ColumnType[] types;
+
+        String problem;
+
+        SchemaScan(boolean header) {
+            super(header);
+        }
+
+        @Override
+        boolean header(ByteBuffer buffer) {
+            names = new String[tokenizer.count];
+            for (int field = 0; field < names.length; field++) {
+                names[field] = tokenizer.string(buffer, field);
+            }
+            return true;
+        }
+
+        @Override
+        boolean row(ByteBuffer buffer, int row) {
+            if (numRows == Integer.MAX_VALUE) {
+                problem = "too many rows";
+                return false;
+            }
+            if (types == null) {
+                numColumns = tokenizer.count;
+                types = new ColumnType[numColumns];
+                Arrays.fill(types, ColumnType.INT);
+                if (names == null) {
+                    names = new String[numColumns];
+                    for (int column = 0; column < numColumns; column++) {
+                        names[column] = "c" + column;
+                    }
+                } else if (names.length != numColumns) {
+                    problem = names.length + " column names for " + numColumns + " fields";
+                    return false;
+                }
+            }
+            if (tokenizer.count != numColumns) {
+                problem = "row " + row + " has " + tokenizer.count + " fields instead of " + numColumns;
+                return false;
+            }
+            for (int column = 0; column < numColumns; column++) {
+                int start = tokenizer.starts[column];
+                int end = tokenizer.ends[column];
+                if (types[column] == ColumnType.INT && !isInt(buffer, start, end)) {
+                    types[column] = ColumnType.DOUBLE;
+                }
+                if (types[column] == ColumnType.DOUBLE && !isDouble(buffer, start, end)) {
+                    types[column] = ColumnType.CATEGORICAL;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Writes the fields of every row to the mapped columns and builds the dictionaries.
+     */
+    private static final class FieldWriter extends LineVisitor {
+
+        final MappedByteBuffer[] columns;
+
+        private final ColumnType[] types;
+
+        private final Map<String, Integer>[] codes;
+
+        @SuppressWarnings("unchecked")
+        FieldWriter(ColumnType[] types, boolean header) {
+            super(header);
+            this.types = types;
+            columns = new MappedByteBuffer[types.length];
+            codes = new Map[types.length];
+            for (int column = 0; column < types.length; column++) {
+                if (types[column] == ColumnType.CATEGORICAL) {
+                    codes[column] = new HashMap<String, Integer>();
+                }
+            }
+        }
+
+        @Override
+        boolean header(ByteBuffer buffer) {
+            return true;
+        }
+
+        @Override
+        boolean row(ByteBuffer buffer, int row) {
+            for (int column = 0; column < types.length; column++) {
+                int start = tokenizer.starts[column];
+                int end = tokenizer.ends[column];
+                switch (types[column]) {
+                    case INT:
+                        columns[column].putInt(row * 4, (int) NumberParser.parseDouble(buffer, start, end));
+                        break;
+                    case DOUBLE:
+                        columns[column].putDouble(row * 8, NumberParser.parseDouble(buffer, start, end));
+                        break;
+                    default:
+                        String field = tokenizer.string(buffer, column);
+                        Integer code = codes[column].get(field);
+                        if (code == null) {
+                            code = codes[column].size();
+                            codes[column].put(field, code);
+                        }
+                        columns[column].putInt(row * 4, code);
+                }
+            }
+            return true;
+        }
+
+        String[] dictionary(int column) {
+            String[] dictionary = new String[codes[column].size()];
+            for (Map.Entry<String, Integer> entry : codes[column].entrySet()) {
+                dictionary[entry.getValue()] = entry.getKey();
+            }
+            return dictionary;
+        }
+    }
+
+    /**
+     * Splits a line into fields, like CsvVectorizer, and strips the double quotes around quoted fields.
+     */
+    private static final class Tokenizer {
+
+        int[] starts = new int[16];
+
+        int[] ends = new int[16];
+
+        int count;
+
+        void tokenize(ByteBuffer buffer, int start, int end) {
+            count = 0;
+            int i = start;
+            while (true) {
+                while (i < end && isBlank(buffer.get(i))) {
+                    i++;
+                }
+                int tokenStart = i;
+                int tokenEnd;
+                if (i < end && buffer.get(i) == '"') {
+                    tokenStart = ++i;
+                    while (i < end && buffer.get(i) != '"') {
+                        i++;
+                    }
+                    tokenEnd = i;
+                    if (i < end) {
+                        i++;
+                    }
+                    while (i < end && !isSeparator(buffer.get(i))) {
+                        i++;
+                    }
+                } else {
+                    while (i < end && !isSeparator(buffer.get(i))) {
+                        i++;
+                    }
+                    tokenEnd = i;
+                }
+                add(tokenStart, tokenEnd);
+                while (i < end && isBlank(buffer.get(i))) {
+                    i++;
+                }
+                if (i >= end) {
+                    return;
+                }
+                if (buffer.get(i) == ',') {
+                    i++;
+                }
+            }
+        }
+
+        String string(ByteBuffer buffer, int field) {
+            byte[] bytes = new byte[ends[field] - starts[field]];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(starts[field] + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private void add(int start, int end) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+    }
+
+    /**
+     * @return whether the bytes are an int written as Integer.toString writes it
+     */
+    private static boolean isInt(ByteBuffer buffer, int start, int end) {
+        int i = start;
+        boolean negative = i < end && buffer.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        int digits = end - i;
+        if (digits == 0 || digits > 10 || (digits > 1 && buffer.get(i) == '0')
+                || (negative && digits == 1 && buffer.get(i) == '0')) {
+            return false;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                return false;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return negative ? -value >= Integer.MIN_VALUE : value <= Integer.MAX_VALUE;
+    }
+
+    private static boolean isDouble(ByteBuffer buffer, int start, int end) {
+        if (start == end) {
+            return false;
+        }
+        try {
+            NumberParser.parseDouble(buffer, start, end);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static double parseNumber(String field) {
+        try {
+            return Double.parseDouble(field);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static boolean isBlankLine(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!isBlank(buffer.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == ',' || b == ' ' || b == '\t';
+    }
+}
@@ -0,0 +1,37 @@
+package Common;
+
+/**
+ * Failures of the driver runs of this JVM. The driver main methods log the exceptions of their runs rather
+ * than throw them, so that the command line tools end quietly; they also record them here, so that a caller
+ * of a main method, such as the DriverLauncher of the benchmarks, can tell a failed run from a finished one:
+ * <pre>
+ *     DriverStatus.clear();
+ *     Kmeans.main(args);
+ *     boolean finished = DriverStatus.getFailure() == null;
+ * </pre>
+ */
+public final class DriverStatus {
+
+    private static volatile Throwable failure;
+
+    private DriverStatus() {
+    }
+
+    /**
+     * Records the failure of a driver run.
+     */
+    public static void failed(Throwable cause) {
+        failure = cause;
+    }
+
+    /**
+     * @return the last failure recorded since clear, null if none
+     */
+    public static Throwable getFailure() {
+        return failure;
+    }
+
+    public static void clear() {
+        failure = null;
+    }
+}
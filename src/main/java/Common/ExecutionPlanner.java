@@ -0,0 +1,195 @@
+package Common;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Chooses how a job runs from the size of its input and the resources of the JVM: in-process on a single
+ * thread, in-process on several threads, or as MapReduce jobs. A job runs in-process as long as its
+ * points, held as doubles, fit in a fraction of the free heap, and sequentially as long as it is small
+ * enough for thread start-up and synchronization to cost more than they save. The decision is logged
+ * with its reason, and can be overridden.
+ */
+public final class ExecutionPlanner {
+
+    private static final Logger log = LoggerFactory.getLogger(ExecutionPlanner.class);
+
+    /**
+     * How a job runs.
+     */
+    public enum Mode {
+        SEQUENTIAL, PARALLEL, MAPREDUCE;
+
+        /**
+         * @param name sequential, parallel, mapreduce, or auto for null
+         */
+        public static Mode fromName(String name) {
+            String lower = name.toLowerCase(Locale.ENGLISH);
+            if ("auto".equals(lower)) {
+                return null;
+            }
+            if ("sequential".equals(lower)) {
+                return SEQUENTIAL;
+            }
+            if ("parallel".equals(lower)) {
+                return PARALLEL;
+            }
+            if ("mapreduce".equals(lower) || "mr".equals(lower)) {
+                return MAPREDUCE;
+            }
+            throw new IllegalArgumentException("Unknown execution mode: " + name);
+        }
+    }
+
+    /**
+     * Decision of the planner.
+     */
+    public static final class Plan {
+        private final Mode mode;
+        private final int numThreads;
+        private final String reason;
+
+        Plan(Mode mode, int numThreads, String reason) {
+            this.mode = mode;
+            this.numThreads = numThreads;
+            this.reason = reason;
+        }
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        /**
+         * @return the threads of an in-process run, 1 when sequential
+         */
+        public int getNumThreads() {
+            return numThreads;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        public boolean isInProcess() {
+            return mode != Mode.MAPREDUCE;
+        }
+    }
+
+    // points, copies of them such as the clustered points and the per-thread buffers
+    static final int WORKING_SET_FACTOR = 4;
+
+    static final double HEAP_FRACTION = 0.5; // of the free heap an in-process run may take
+
+    static final long SEQUENTIAL_MAX_VALUES = 100000; // rows x dims below which one thread is enough
+
+    static final long MIN_VALUES_PER_THREAD = 50000; // rows x dims worth a thread of its own
+
+    private static final Pattern FIELD_SEPARATOR = Pattern.compile("[,\\s]+");
+
+    private final int cores;
+
+    private final long freeHeap;
+
+    public ExecutionPlanner() {
+        this(Runtime.getRuntime().availableProcessors(), freeHeap());
+    }
+
+    public ExecutionPlanner(int cores, long freeHeap) {
+        Preconditions.checkArgument(cores > 0, "cores must be positive");
+        this.cores = cores;
+        this.freeHeap = freeHeap;
+    }
+
+    private static long freeHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * Plans a job over rows points of dims dimensions.
+     *
+     * @param job      name of the job, for the log
+     * @param override mode to use whatever the size, null to choose
+     */
+    public Plan plan(String job, long rows, int dims, Mode override) {
+        long values = rows * Math.max(1, dims);
+        long bytes = values * 8 * WORKING_SET_FACTOR;
+        Plan plan;
+        if (override != null) {
+            plan = new Plan(override, override == Mode.PARALLEL ? cores : 1, "requested");
+        } else if (bytes > freeHeap * HEAP_FRACTION) {
+            plan = new Plan(Mode.MAPREDUCE, 1, String.format(Locale.ENGLISH,
+                    "about %d MB in memory, more than %.0f%% of the %d MB of free heap", bytes >> 20,
+                    HEAP_FRACTION * 100, freeHeap >> 20));
+        } else if (values <= SEQUENTIAL_MAX_VALUES || cores == 1) {
+            plan = new Plan(Mode.SEQUENTIAL, 1, String.format(Locale.ENGLISH,
+                    "%d values on %d cores, too few to share", values, cores));
+        } else {
+            int threads = (int) Math.min(cores, Math.max(1, values / MIN_VALUES_PER_THREAD));
+            plan = new Plan(threads == 1 ? Mode.SEQUENTIAL : Mode.PARALLEL, threads, String.format(Locale.ENGLISH,
+                    "%d values, about %d MB in memory, on %d cores", values, bytes >> 20, cores));
+        }
+        log.info("{}: {} rows x {} dims, running {}{} ({})", job, rows, dims, plan.mode,
+                plan.mode == Mode.PARALLEL ? " on " + plan.numThreads + " threads" : "", plan.reason);
+        return plan;
+    }
+
+    /**
+     * Plans a job over a delimited text file, one point per line.
+     *
+     * @param dims dimensions of the points, or 0 to count the fields of the first line
+     */
+    public Plan plan(String job, File input, int dims, Mode override) throws IOException {
+        return plan(job, countLines(input), dims > 0 ? dims : countFields(input), override);
+    }
+
+    /**
+     * @return the number of lines of the file, read memory-mapped
+     */
+    public static long countLines(File input) throws IOException {
+        FileInputStream in = new FileInputStream(input);
+        try {
+            FileChannel channel = in.getChannel();
+            long[] bounds = MappedLineRanges.split(channel, 1);
+            long lines = 0;
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                lines += MappedLineRanges.countLines(channel.map(FileChannel.MapMode.READ_ONLY, bounds[i],
+                        bounds[i + 1] - bounds[i]));
+            }
+            return lines;
+        } finally {
+            Closeables.close(in, true);
+        }
+    }
+
+    /**
+     * @return the number of fields of the first non-blank line of the file, 0 if there is none
+     */
+    public static int countFields(File input) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(input), Charsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String trimmed = line.trim();
+                if (!trimmed.isEmpty()) {
+                    return FIELD_SEPARATOR.split(trimmed).length;
+                }
+            }
+            return 0;
+        } finally {
+            Closeables.close(reader, true);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package Common;
+
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Cuts a text file into byte ranges aligned on line boundaries, so that every range can be memory-mapped
+ * and parsed on its own thread.
+ */
+public final class MappedLineRanges {
+
+    private static final int ALIGN_BUFFER_SIZE = 8192;
+
+    private MappedLineRanges() {
+    }
+
+    /**
+     * Cuts the file into numPartitions byte ranges, moving every cut forward to the start of the next
+     * line. A range is never larger than what a single MappedByteBuffer can address, and empty ranges
+     * are dropped.
+     *
+     * @return the range bounds, range i being [bounds[i], bounds[i + 1])
+     */
+    public static long[] split(FileChannel channel, int numPartitions) throws IOException {
+        return split(channel, 0, numPartitions);
+    }
+
+    /**
+     * Cuts the end of the file from start, which must be the start of a line, into numPartitions byte
+     * ranges, like {@link #split(FileChannel, int)}.
+     */
+    public static long[] split(FileChannel channel, long start, int numPartitions) throws IOException {
+        return split(channel, start, channel.size(), numPartitions);
+    }
+
+    /**
+     * Cuts the bytes of the file from start to end, which must both be line boundaries, into numPartitions
+     * byte ranges, like {@link #split(FileChannel, int)}.
+     */
+    public static long[] split(FileChannel channel, long start, long end, int numPartitions) throws IOException {
+        long size = Math.min(end, channel.size());
+        if (size <= start) {
+            return new long[] {size};
+        }
+        long length = size - start;
+        int partitions = (int) Math.max(numPartitions, (length + Integer.MAX_VALUE - 1) / Integer.MAX_VALUE);
+
+        List<Long> bounds = Lists.newArrayList();
+        bounds.add(start);
+        for (int i = 1; i < partitions; i++) {
+            long cut = alignToLine(channel, start + length * i / partitions, size);
+            if (cut > bounds.get(bounds.size() - 1) && cut < size) {
+                bounds.add(cut);
+            }
+        }
+        bounds.add(size);
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @return the offset just past the last newline of the file from start, start when there is none: the
+     * end of the complete lines, leaving out a last line still being written
+     */
+    public static long completeLinesEnd(FileChannel channel, long start) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ALIGN_BUFFER_SIZE);
+        long end = channel.size();
+        while (end > start) {
+            long offset = Math.max(start, end - ALIGN_BUFFER_SIZE);
+            buffer.clear();
+            buffer.limit((int) (end - offset));
+            while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+                // read the whole block
+            }
+            for (int i = buffer.position() - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            end = offset;
+        }
+        return start;
+    }
+
+    /**
+     * @return the number of lines between the position and the limit of the buffer, a last line without
+     * newline included
+     */
+    public static long countLines(ByteBuffer buffer) {
+        long lines = 0;
+        int limit = buffer.limit();
+        for (int i = buffer.position(); i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                lines++;
+            }
+        }
+        if (limit > buffer.position() && buffer.get(limit - 1) != '\n') {
+            lines++;
+        }
+        return lines;
+    }
+
+    private static long alignToLine(FileChannel channel, long position, long size) throws IOException {
+        if (position == 0) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(ALIGN_BUFFER_SIZE);
+        // start one byte early so that a cut falling right after a newline stays where it is
+        long offset = position - 1;
+        while (offset < size) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,571 @@
+package Common;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Process-wide cache of the models the drivers score with, so that scoring again with a model does not read
+ * and deserialize it again. A model is cached under its local file, or directory, along with the CRC32 of its
+ * content and its stamp, the size and modification time of its files. Every hit checks the stamp, which
+ * only takes a stat of the files, and loads the model again if its content changed, so a changed model is
+ * never served stale, watched or not. The least recently used models are evicted once the estimated heap
+ * size of the cached models exceeds the capacity, CAPACITY_PROPERTY bytes, DEFAULT_CAPACITY by default.
+ * <p>
+ * The directories of the cached models are watched by a daemon thread: once a model has been written and its
+ * directory has been quiet for SETTLE_MILLIS, its content is hashed again and, if it changed, the new version
+ * is loaded on that thread and swapped in, usually before any scoring thread asks for it again. Scoring threads
+ * keep the model they got until they ask again; a version that cannot be loaded, being written or corrupted,
+ * is skipped and the previous one kept. The directories are no longer watched once their models are evicted.
+ * <p>
+ * The cached models are shared between threads, and must only be read when scoring.
+ */
+public final class ModelCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ModelCache.class);
+
+    public static final String CAPACITY_PROPERTY = "mahoutml.modelcache.bytes";
+
+    static final long DEFAULT_CAPACITY = 256L << 20;
+
+    static final long SETTLE_MILLIS = 200;
+
+    private static final ModelCache SHARED = new ModelCache(Long.getLong(CAPACITY_PROPERTY, DEFAULT_CAPACITY));
+
+    /**
+     * Reads a kind of model from its file or directory.
+     */
+    public abstract static class Loader<M> {
+
+        public abstract M load(File file) throws IOException;
+
+        /**
+         * @param fileBytes the size of the file, or of the files of the directory
+         * @return an estimate of the heap size of the model, its size on disk by default
+         */
+        public long estimateBytes(M model, long fileBytes) {
+            return fileBytes;
+        }
+    }
+
+    /**
+     * Counters of a cache since it was created.
+     */
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long reloads;
+        private final long evictions;
+        private final long loadMillis;
+        private final int models;
+        private final long bytes;
+
+        Stats(long hits, long misses, long reloads, long evictions, long loadMillis, int models, long bytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.reloads = reloads;
+            this.evictions = evictions;
+            this.loadMillis = loadMillis;
+            this.models = models;
+            this.bytes = bytes;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return the new versions loaded by the watcher
+         */
+        public long getReloads() {
+            return reloads;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return the time spent loading models, on misses and reloads
+         */
+        public long getLoadMillis() {
+            return loadMillis;
+        }
+
+        public int getModels() {
+            return models;
+        }
+
+        /**
+         * @return the estimated heap size of the cached models
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d hits, %d misses, %d reloads, %d evictions, %d ms loading, %d models (~%d KB)",
+                    hits, misses, reloads, evictions, loadMillis, models, bytes / 1024);
+        }
+    }
+
+    /**
+     * A version of a model and what it was loaded from.
+     */
+    private static final class Version {
+        final Object model;
+        final long crc;
+        final long bytes;
+        final long[] stamp;
+
+        Version(Object model, long crc, long bytes, long[] stamp) {
+            this.model = model;
+            this.crc = crc;
+            this.bytes = bytes;
+            this.stamp = stamp;
+        }
+    }
+
+    private static final class Entry {
+        final File file;
+        final Loader<?> loader;
+        final boolean directory; // the file is a directory, watched itself
+        volatile Version version;
+
+        Entry(File file, Loader<?> loader, boolean directory, Version version) {
+            this.file = file;
+            this.loader = loader;
+            this.directory = directory;
+            this.version = version;
+        }
+    }
+
+    private final long capacity;
+
+    private final LinkedHashMap<File, Entry> entries = new LinkedHashMap<File, Entry>(16, 0.75f, true);
+
+    private long bytes; // estimated heap size of the entries, guarded by this
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong reloads = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong loadNanos = new AtomicLong();
+
+    private Watcher watcher; // started with the first entry, guarded by this
+
+    ModelCache(long capacity) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        this.capacity = capacity;
+    }
+
+    public static ModelCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return the current version of the model of the file or directory, loaded with loader on a miss
+     */
+    @SuppressWarnings("unchecked")
+    public <M> M get(File file, Loader<M> loader) throws IOException {
+        File key = file.getAbsoluteFile();
+        Entry cached;
+        synchronized (this) {
+            cached = entries.get(key);
+            if (cached != null) {
+                checkLoader(cached, loader);
+                hits.incrementAndGet();
+            }
+        }
+        if (cached != null) {
+            if (!isCurrent(cached)) {
+                reload(key);
+            }
+            return (M) cached.version.model;
+        }
+        misses.incrementAndGet();
+        Version version = load(key, loader);
+        synchronized (this) {
+            Entry loaded = entries.get(key);
+            if (loaded != null) {
+                // loaded by another thread meanwhile
+                checkLoader(loaded, loader);
+                return (M) loaded.version.model;
+            }
+            Entry entry = new Entry(key, loader, key.isDirectory(), version);
+            entries.put(key, entry);
+            bytes += version.bytes;
+            watch(entry);
+            evict();
+        }
+        return (M) version.model;
+    }
+
+    /**
+     * Removes the model of the file or directory, which is loaded again when next asked for.
+     */
+    public synchronized void invalidate(File file) {
+        Entry entry = entries.remove(file.getAbsoluteFile());
+        if (entry != null) {
+            bytes -= entry.version.bytes;
+            unwatch(entry);
+        }
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits.get(), misses.get(), reloads.get(), evictions.get(),
+                TimeUnit.NANOSECONDS.toMillis(loadNanos.get()), entries.size(), bytes);
+    }
+
+    private static void checkLoader(Entry entry, Loader<?> loader) {
+        if (entry.loader.getClass() != loader.getClass()) {
+            throw new IllegalArgumentException(entry.file + " is cached as another kind of model");
+        }
+    }
+
+    /**
+     * @return whether the stamp of the file of the entry is still that of its version, true if the file cannot
+     * be read any more, its last version being kept
+     */
+    private static boolean isCurrent(Entry entry) {
+        try {
+            return Arrays.equals(stamp(entry.file), entry.version.stamp);
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private <M> Version load(File file, Loader<M> loader) throws IOException {
+        long start = System.nanoTime();
+        // stamped before reading, so that a change while reading shows on the next hit
+        long[] stamp = stamp(file);
+        long[] content = content(file);
+        M model = loader.load(file);
+        long modelBytes = loader.estimateBytes(model, content[1]);
+        long nanos = System.nanoTime() - start;
+        loadNanos.addAndGet(nanos);
+        log.debug("Loaded {} in {} ms, ~{} bytes", file, TimeUnit.NANOSECONDS.toMillis(nanos), modelBytes);
+        return new Version(model, content[0], modelBytes, stamp);
+    }
+
+    /**
+     * Evicts the least recently used entries, but the most recent one, while the entries exceed the capacity.
+     */
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (bytes > capacity && entries.size() > 1) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            bytes -= entry.version.bytes;
+            unwatch(entry);
+            evictions.incrementAndGet();
+            log.info("Evicted {} from the model cache, {} bytes cached over {}", entry.file, bytes, capacity);
+        }
+    }
+
+    /**
+     * Loads the new version of the model of the file if its content changed and it is still cached.
+     */
+    void reload(File file) {
+        Entry entry = peek(file);
+        if (entry == null || !file.exists()) {
+            return;
+        }
+        Version previous = entry.version;
+        long[] stamp = null;
+        Version version;
+        try {
+            stamp = stamp(file);
+            if (content(file)[0] == previous.crc) {
+                // touched, not changed: the hits need not hash it again
+                entry.version = new Version(previous.model, previous.crc, previous.bytes, stamp);
+                return;
+            }
+            version = load(file, entry.loader);
+        } catch (IOException e) {
+            log.warn("Cannot reload " + file + ", keeping the previous version", e);
+            skip(entry, previous, stamp);
+            return;
+        } catch (RuntimeException e) {
+            log.warn("Cannot reload " + file + ", keeping the previous version", e);
+            skip(entry, previous, stamp);
+            return;
+        }
+        synchronized (this) {
+            if (peek(file) != entry) {
+                return;
+            }
+            bytes += version.bytes - entry.version.bytes;
+            entry.version = version;
+            evict();
+        }
+        reloads.incrementAndGet();
+        log.info("Reloaded {}, content changed", file);
+    }
+
+    /**
+     * Keeps the previous version of an entry under the stamp of a version that cannot be loaded, so that the
+     * hits do not try it again until it changes.
+     */
+    private static void skip(Entry entry, Version previous, long[] stamp) {
+        if (stamp != null) {
+            entry.version = new Version(previous.model, previous.crc, previous.bytes, stamp);
+        }
+    }
+
+    /**
+     * @return the entry of the file, without making it the most recently used one as get does
+     */
+    private synchronized Entry peek(File file) {
+        for (Entry entry : entries.values()) {
+            if (entry.file.equals(file)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the CRC32 and the size of the file, or of the files of the directory in the order of their names
+     */
+    static long[] content(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = 0;
+        byte[] buffer = new byte[1 << 16];
+        for (File part : files(file)) {
+            InputStream in = new FileInputStream(part);
+            try {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    crc.update(buffer, 0, read);
+                    size += read;
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return new long[] {crc.getValue(), size};
+    }
+
+    /**
+     * @return the size, the latest modification time and the number of the files of the file or directory,
+     * which change with its content and only take a stat of the files
+     */
+    static long[] stamp(File file) throws IOException {
+        long size = 0;
+        long modified = 0;
+        List<File> files = files(file);
+        for (File part : files) {
+            size += part.length();
+            modified = Math.max(modified, part.lastModified());
+        }
+        return new long[] {size, modified, files.size()};
+    }
+
+    private static List<File> files(File file) throws IOException {
+        if (!file.isDirectory()) {
+            if (!file.isFile()) {
+                throw new IOException(file + " does not exist");
+            }
+            return Arrays.asList(file);
+        }
+        File[] children = file.listFiles();
+        if (children == null) {
+            throw new IOException("Cannot list " + file);
+        }
+        Arrays.sort(children);
+        List<File> files = new ArrayList<File>();
+        for (File child : children) {
+            // skip the hidden files, such as the checksums of the local Hadoop file system
+            if (child.isFile() && !child.getName().startsWith(".")) {
+                files.add(child);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Watches the directory of the file of the entry, and the file itself if it is a directory.
+     */
+    private void watch(Entry entry) {
+        if (watcher == null) {
+            try {
+                watcher = new Watcher(FileSystems.getDefault().newWatchService());
+            } catch (IOException e) {
+                log.warn("Cannot watch the cached models, they will not be reloaded", e);
+                return;
+            } catch (UnsupportedOperationException e) {
+                log.warn("Cannot watch the cached models, they will not be reloaded", e);
+                return;
+            }
+            watcher.start();
+        }
+        watcher.register(entry.file.getParentFile());
+        if (entry.directory) {
+            watcher.register(entry.file);
+        }
+    }
+
+    /**
+     * Stops watching the directories of an entry removed from the cache that no other entry needs.
+     */
+    private void unwatch(Entry entry) {
+        if (watcher == null) {
+            return;
+        }
+        watcher.unregister(entry.file.getParentFile());
+        if (entry.directory) {
+            watcher.unregister(entry.file);
+        }
+    }
+
+    /**
+     * @return the number of directories watched
+     */
+    synchronized int watchedDirectories() {
+        return watcher == null ? 0 : watcher.size();
+    }
+
+    /**
+     * Reloads the models of the files the watched directories report changes of, once the directories have
+     * been quiet for SETTLE_MILLIS so that the files being written are complete.
+     */
+    private final class Watcher extends Thread {
+
+        private final WatchService service;
+
+        private final Map<WatchKey, File> directories = new HashMap<WatchKey, File>();
+
+        private final Map<File, WatchKey> keys = new HashMap<File, WatchKey>(); // guarded by directories
+
+        private final Map<File, Integer> references = new HashMap<File, Integer>(); // entries per directory
+
+        Watcher(WatchService service) {
+            super("model-cache-watcher");
+            setDaemon(true);
+            this.service = service;
+        }
+
+        void register(File directory) {
+            if (directory == null) {
+                return;
+            }
+            synchronized (directories) {
+                Integer count = references.get(directory);
+                if (count != null) {
+                    references.put(directory, count + 1);
+                    return;
+                }
+                try {
+                    WatchKey key = directory.toPath().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                    directories.put(key, directory);
+                    keys.put(directory, key);
+                    references.put(directory, 1);
+                } catch (IOException e) {
+                    log.warn("Cannot watch " + directory + ", its models will not be reloaded on change", e);
+                }
+            }
+        }
+
+        /**
+         * Cancels the watch of the directory once no entry needs it.
+         */
+        void unregister(File directory) {
+            if (directory == null) {
+                return;
+            }
+            synchronized (directories) {
+                Integer count = references.get(directory);
+                if (count == null) {
+                    return;
+                }
+                if (count > 1) {
+                    references.put(directory, count - 1);
+                    return;
+                }
+                references.remove(directory);
+                WatchKey key = keys.remove(directory);
+                directories.remove(key);
+                key.cancel();
+            }
+        }
+
+        int size() {
+            synchronized (directories) {
+                return keys.size();
+            }
+        }
+
+        @Override
+        public void run() {
+            Set<File> changed = new HashSet<File>();
+            try {
+                while (true) {
+                    WatchKey key = changed.isEmpty() ? service.take()
+                            : service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                    if (key == null) {
+                        for (File file : changed) {
+                            reload(file);
+                        }
+                        changed.clear();
+                        continue;
+                    }
+                    File directory;
+                    synchronized (directories) {
+                        directory = directories.get(key);
+                    }
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            synchronized (ModelCache.this) {
+                                changed.addAll(entries.keySet());
+                            }
+                        } else if (directory != null) {
+                            // a cached file, or a file of a cached directory
+                            File file = new File(directory, event.context().toString());
+                            changed.add(file);
+                            changed.add(directory);
+                        }
+                    }
+                    key.reset();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ClosedWatchServiceException e) {
+                log.debug("Model cache watcher closed");
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package Common;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Java Flight Recorder event around a stage of a driver, named NAME: the driver, the stage, and the rows it
+ * processed and the bytes it read and wrote. The event type is defined at runtime with jdk.jfr.EventFactory,
+ * looked up reflectively, so that the drivers still build for and run on JVMs without Flight Recorder, where
+ * no stage is recorded. When no recording enables the event, a stage costs the creation of a disabled event,
+ * and isRecording lets the drivers skip measuring what it processed. src/main/resources/mahoutml.jfc enables
+ * it, with the JDK events telling where the time of a stage went:
+ * <pre>
+ *     java -XX:StartFlightRecording=settings=src/main/resources/mahoutml.jfc,filename=run.jfr ...
+ *     jfr print --events MahoutML.Stage run.jfr
+ * </pre>
+ * A stage is committed once, when it ends:
+ * <pre>
+ *     StageEvent stage = StageEvent.begin("Kmeans", "iterate");
+ *     try {
+ *         ...
+ *         stage.addRows(points.numRows());
+ *     } finally {
+ *         stage.commit();
+ *     }
+ * </pre>
+ */
+public final class StageEvent {
+
+    private static final Logger log = LoggerFactory.getLogger(StageEvent.class);
+
+    public static final String NAME = "MahoutML.Stage";
+
+    // indexes of the fields of the event type
+    private static final int DRIVER = 0;
+    private static final int STAGE = 1;
+    private static final int ROWS = 2;
+    private static final int BYTES_READ = 3;
+    private static final int BYTES_WRITTEN = 4;
+
+    private static final StageEvent DISABLED = new StageEvent(null);
+
+    private static final EventType TYPE = EventType.create();
+
+    private final Object event; // the jdk.jfr.Event, null when the stage is not recorded
+
+    private long rows;
+
+    private long bytesRead;
+
+    private long bytesWritten;
+
+    private StageEvent(Object event) {
+        this.event = event;
+    }
+
+    /**
+     * Begins a stage, recorded if a recording enables NAME.
+     */
+    public static StageEvent begin(String driver, String stage) {
+        if (TYPE == null) {
+            return DISABLED;
+        }
+        Object event = TYPE.newEvent();
+        if (event == null) {
+            return DISABLED;
+        }
+        TYPE.set(event, DRIVER, driver);
+        TYPE.set(event, STAGE, stage);
+        TYPE.invoke(event, TYPE.begin);
+        return new StageEvent(event);
+    }
+
+    /**
+     * @return whether the stage is recorded, the rows and bytes being ignored otherwise
+     */
+    public boolean isRecording() {
+        return event != null;
+    }
+
+    public void addRows(long rows) {
+        if (event != null) {
+            this.rows += rows;
+        }
+    }
+
+    public void addBytesRead(long bytes) {
+        if (event != null) {
+            bytesRead += bytes;
+        }
+    }
+
+    public void addBytesWritten(long bytes) {
+        if (event != null) {
+            bytesWritten += bytes;
+        }
+    }
+
+    /**
+     * Adds the size of the file, or of the files of the directory, to the bytes read, if the stage is recorded.
+     */
+    public void addBytesRead(Configuration conf, Path path) {
+        if (event != null) {
+            bytesRead += size(conf, path);
+        }
+    }
+
+    /**
+     * Adds the size of the file, or of the files of the directory, to the bytes written, if the stage is
+     * recorded.
+     */
+    public void addBytesWritten(Configuration conf, Path path) {
+        if (event != null) {
+            bytesWritten += size(conf, path);
+        }
+    }
+
+    /**
+     * Ends the stage and commits it if it is recorded and lasted at least the threshold of the recording.
+     */
+    public void commit() {
+        if (event == null) {
+            return;
+        }
+        TYPE.set(event, ROWS, rows);
+        TYPE.set(event, BYTES_READ, bytesRead);
+        TYPE.set(event, BYTES_WRITTEN, bytesWritten);
+        TYPE.invoke(event, TYPE.end);
+        TYPE.invoke(event, TYPE.commit);
+    }
+
+    private static long size(Configuration conf, Path path) {
+        if (path == null) {
+            return 0;
+        }
+        try {
+            FileSystem fs = path.getFileSystem(conf);
+            return fs.exists(path) ? fs.getContentSummary(path).getLength() : 0;
+        } catch (IOException e) {
+            log.debug("Cannot measure " + path, e);
+            return 0;
+        }
+    }
+
+    /**
+     * The jdk.jfr event type of the stages and the jdk.jfr.Event methods, null without Flight Recorder.
+     */
+    private static final class EventType {
+
+        private final Object factory;
+
+        private final Method newEvent;
+
+        private final Method isEnabled;
+
+        private final Method set;
+
+        final Method begin;
+
+        final Method end;
+
+        final Method commit;
+
+        private EventType(Object factory, Class<?> eventFactoryClass, Class<?> eventClass)
+                throws NoSuchMethodException {
+            this.factory = factory;
+            newEvent = eventFactoryClass.getMethod("newEvent");
+            isEnabled = eventClass.getMethod("isEnabled");
+            set = eventClass.getMethod("set", int.class, Object.class);
+            begin = eventClass.getMethod("begin");
+            end = eventClass.getMethod("end");
+            commit = eventClass.getMethod("commit");
+        }
+
+        static EventType create() {
+            try {
+                Class<?> eventFactoryClass = Class.forName("jdk.jfr.EventFactory");
+                Class<?> eventClass = Class.forName("jdk.jfr.Event");
+                Constructor<?> annotation = Class.forName("jdk.jfr.AnnotationElement")
+                        .getConstructor(Class.class, Object.class);
+                Constructor<?> field = Class.forName("jdk.jfr.ValueDescriptor")
+                        .getConstructor(Class.class, String.class, List.class);
+                Class<?> label = Class.forName("jdk.jfr.Label");
+                Class<?> dataAmount = Class.forName("jdk.jfr.DataAmount");
+
+                List<Object> annotations = Arrays.asList(
+                        annotation.newInstance(Class.forName("jdk.jfr.Name"), NAME),
+                        annotation.newInstance(label, "Stage"),
+                        annotation.newInstance(Class.forName("jdk.jfr.Description"), "A stage of a MahoutML driver"),
+                        annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] {"MahoutML"}),
+                        annotation.newInstance(Class.forName("jdk.jfr.StackTrace"), false));
+                // in the order of the field indexes
+                List<Object> fields = new ArrayList<Object>();
+                fields.add(field.newInstance(String.class, "driver",
+                        Arrays.asList(annotation.newInstance(label, "Driver"))));
+                fields.add(field.newInstance(String.class, "stage",
+                        Arrays.asList(annotation.newInstance(label, "Stage"))));
+                fields.add(field.newInstance(long.class, "rows",
+                        Arrays.asList(annotation.newInstance(label, "Rows"))));
+                fields.add(field.newInstance(long.class, "bytesRead", Arrays.asList(
+                        annotation.newInstance(label, "Bytes Read"), annotation.newInstance(dataAmount, "BYTES"))));
+                fields.add(field.newInstance(long.class, "bytesWritten", Arrays.asList(
+                        annotation.newInstance(label, "Bytes Written"), annotation.newInstance(dataAmount, "BYTES"))));
+
+                Object factory = eventFactoryClass.getMethod("create", List.class, List.class)
+                        .invoke(null, annotations, fields);
+                return new EventType(factory, eventFactoryClass, eventClass);
+            } catch (ClassNotFoundException e) {
+                log.debug("No Flight Recorder, the stages are not recorded");
+                return null;
+            } catch (Exception e) {
+                log.warn("Cannot define the " + NAME + " event, the stages are not recorded", e);
+                return null;
+            }
+        }
+
+        /**
+         * @return a new event, null if no recording enables it
+         */
+        Object newEvent() {
+            Object event = invoke(factory, newEvent);
+            return event != null && Boolean.TRUE.equals(invoke(event, isEnabled)) ? event : null;
+        }
+
+        void set(Object event, int index, Object value) {
+            try {
+                set.invoke(event, index, value);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        Object invoke(Object target, Method method) {
+            try {
+                return method.invoke(target);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package Classification;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.classifier.df.DFUtils;
+import org.apache.mahout.classifier.df.DecisionForest;
+import org.apache.mahout.classifier.df.data.DataConverter;
+import org.apache.mahout.classifier.df.data.DataLoader;
+import org.apache.mahout.classifier.df.data.Dataset;
+import org.apache.mahout.classifier.df.data.Instance;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class LocalPartialBuilderTest {
+
+    private static final int NUM_INSTANCES = 400;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Dataset dataset;
+
+    @Test
+    public void morePartitionsThanTreesLeaveNoInstanceOut() throws Exception {
+        LocalPartialBuilder builder = newBuilder();
+        builder.setNumPartitions(10);
+        DecisionForest forest = builder.build(3);
+        assertEquals(3, numTrees(forest));
+        assertEquals(NUM_INSTANCES, builder.getNumInstances());
+        // the yes instances are the last ones, out of the first three of ten partitions
+        Instance instance = new DataConverter(dataset).convert("5.0,5.0,yes");
+        assertEquals("yes", dataset.getLabelString(forest.classify(dataset, new Random(1), instance)));
+    }
+
+    @Test
+    public void theTreesAreSpreadOverThePartitions() throws Exception {
+        LocalPartialBuilder builder = newBuilder();
+        builder.setNumPartitions(3);
+        assertEquals(10, numTrees(builder.build(10)));
+        assertEquals(4, LocalPartialBuilder.nbTrees(3, 10, 0));
+        assertEquals(3, LocalPartialBuilder.nbTrees(3, 10, 1));
+        assertEquals(3, LocalPartialBuilder.nbTrees(3, 10, 2));
+    }
+
+    /**
+     * @return the number of trees, which the forest writes first
+     */
+    private static int numTrees(DecisionForest forest) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        forest.write(new DataOutputStream(bytes));
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())).readInt();
+    }
+
+    /**
+     * @return a builder over two numerical attributes, the label being whether their sum is positive, the
+     * instances in increasing order of the sum
+     */
+    private LocalPartialBuilder newBuilder() throws Exception {
+        Random random = new Random(42);
+        double[][] points = new double[NUM_INSTANCES][];
+        for (int i = 0; i < NUM_INSTANCES; i++) {
+            points[i] = new double[] {random.nextGaussian(), random.nextGaussian()};
+        }
+        Arrays.sort(points, new Comparator<double[]>() {
+            @Override
+            public int compare(double[] a, double[] b) {
+                return Double.compare(a[0] + a[1], b[0] + b[1]);
+            }
+        });
+        String[] lines = new String[NUM_INSTANCES];
+        for (int i = 0; i < NUM_INSTANCES; i++) {
+            double x = points[i][0];
+            double y = points[i][1];
+            lines[i] = x + "," + y + "," + (x + y > 0 ? "yes" : "no");
+        }
+        File data = folder.newFile("data.csv");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(data), StandardCharsets.UTF_8);
+        try {
+            for (String line : lines) {
+                writer.write(line + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        dataset = DataLoader.generateDataset("N N L", false, lines);
+        Path datasetPath = new Path(folder.getRoot().getAbsolutePath(), "data.info");
+        DFUtils.storeString(conf, datasetPath, dataset.toJSON());
+        LocalPartialBuilder builder = new LocalPartialBuilder(new Path(data.getAbsolutePath()), datasetPath, 1L, conf);
+        builder.setNumThreads(2);
+        return builder;
+    }
+}
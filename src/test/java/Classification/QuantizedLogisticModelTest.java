@@ -0,0 +1,170 @@
+package Classification;
+
+import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QuantizedLogisticModelTest {
+
+    private static final int NUM_FEATURES = 20;
+
+    private static final int NUM_INSTANCES = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<Vector> instances;
+
+    private int[] targets;
+
+    @Test
+    public void float32ScoresLikeTheRegression() {
+        for (int categories = 2; categories <= 3; categories++) {
+            LogisticModelParameters lmp = train(categories);
+            OnlineLogisticRegression reference = lmp.createRegression();
+            QuantizedLogisticModel model =
+                    QuantizedLogisticModel.quantize(lmp, QuantizedLogisticModel.Precision.FLOAT32);
+            assertEquals(categories, model.numCategories());
+
+            QuantizedLogisticModel.Accuracy accuracy =
+                    QuantizedLogisticModel.compare(reference, model, instances, targets);
+            assertEquals(NUM_INSTANCES, accuracy.getRows());
+            // float rounding may only flip near ties
+            assertTrue(accuracy.toString(), accuracy.getAgreement() >= 0.999);
+            assertEquals(0, accuracy.getMaxScoreError(), 1.0e-5);
+            assertEquals(0, accuracy.getCoefficientError(), 1.0e-6);
+        }
+    }
+
+    @Test
+    public void classifyScalarIsTheProbabilityOfTheSecondCategory() {
+        LogisticModelParameters lmp = train(2);
+        OnlineLogisticRegression reference = lmp.createRegression();
+        QuantizedLogisticModel model = QuantizedLogisticModel.quantize(lmp, QuantizedLogisticModel.Precision.FLOAT32);
+        for (Vector instance : instances) {
+            assertEquals(reference.classifyScalar(instance), model.classifyScalar(instance), 1.0e-5);
+            assertEquals(model.classifyFull(instance).get(1), model.classifyScalar(instance), 1.0e-12);
+        }
+    }
+
+    @Test
+    public void int8StaysCloseToTheRegression() {
+        for (int categories = 2; categories <= 3; categories++) {
+            LogisticModelParameters lmp = train(categories);
+            OnlineLogisticRegression reference = lmp.createRegression();
+            QuantizedLogisticModel model = QuantizedLogisticModel.quantize(lmp, QuantizedLogisticModel.Precision.INT8);
+
+            // each coefficient is rounded to the nearest step of its row, the largest of the row over 127
+            for (int row = 0; row < categories - 1; row++) {
+                double max = 0;
+                for (int feature = 0; feature < NUM_FEATURES; feature++) {
+                    max = Math.max(max, Math.abs(reference.getBeta().get(row, feature)));
+                }
+                for (int feature = 0; feature < NUM_FEATURES; feature++) {
+                    assertEquals(reference.getBeta().get(row, feature), model.getCoefficient(row, feature),
+                            max / 254 * 1.001);
+                }
+            }
+
+            QuantizedLogisticModel.Accuracy accuracy =
+                    QuantizedLogisticModel.compare(reference, model, instances, targets);
+            assertTrue(accuracy.toString(), accuracy.getAgreement() >= 0.97);
+            assertTrue(accuracy.toString(), accuracy.getMaxScoreError() < 0.1);
+            assertTrue(accuracy.toString(), accuracy.getCoefficientError() < 0.02);
+        }
+    }
+
+    @Test
+    public void aSavedModelScoresTheSame() throws IOException {
+        LogisticModelParameters lmp = train(3);
+        for (QuantizedLogisticModel.Precision precision : QuantizedLogisticModel.Precision.values()) {
+            QuantizedLogisticModel model = QuantizedLogisticModel.quantize(lmp, precision);
+            File file = new File(folder.getRoot(), precision.name() + ".model");
+            OutputStream out = new FileOutputStream(file);
+            try {
+                model.saveTo(out);
+            } finally {
+                out.close();
+            }
+
+            QuantizedLogisticModel loaded = QuantizedLogisticModel.loadFrom(file);
+            assertEquals(precision, loaded.getPrecision());
+            assertEquals(NUM_FEATURES, loaded.getNumFeatures());
+            assertEquals(lmp.getTargetCategories(), loaded.newCsvRecordFactory().getTargetCategories());
+            for (Vector instance : instances) {
+                Vector expected = model.classifyFull(instance);
+                Vector actual = loaded.classifyFull(instance);
+                for (int category = 0; category < expected.size(); category++) {
+                    assertEquals(expected.get(category), actual.get(category), 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Trains a regression on instances whose category is the best of random linear scores.
+     */
+    private LogisticModelParameters train(int categories) {
+        Random random = new Random(42);
+        double[][] weights = new double[categories][NUM_FEATURES];
+        for (double[] row : weights) {
+            for (int feature = 0; feature < NUM_FEATURES; feature++) {
+                row[feature] = random.nextGaussian();
+            }
+        }
+        instances = new ArrayList<Vector>(NUM_INSTANCES);
+        targets = new int[NUM_INSTANCES];
+        for (int i = 0; i < NUM_INSTANCES; i++) {
+            Vector instance = new DenseVector(NUM_FEATURES);
+            // the first feature is the bias term
+            instance.set(0, 1);
+            for (int feature = 1; feature < NUM_FEATURES; feature++) {
+                instance.set(feature, random.nextGaussian());
+            }
+            int best = 0;
+            for (int category = 1; category < categories; category++) {
+                if (new DenseVector(weights[category]).dot(instance) > new DenseVector(weights[best]).dot(instance)) {
+                    best = category;
+                }
+            }
+            instances.add(instance);
+            targets[i] = best;
+        }
+
+        List<String> names = new ArrayList<String>();
+        for (int category = 0; category < categories; category++) {
+            names.add("c" + category);
+        }
+        LogisticModelParameters lmp = new LogisticModelParameters();
+        lmp.setTargetVariable("target");
+        lmp.setMaxTargetCategories(categories);
+        lmp.setTargetCategories(names);
+        lmp.setNumFeatures(NUM_FEATURES);
+        lmp.setTypeMap(Arrays.asList("x", "y"), Arrays.asList("numeric"));
+        lmp.setUseBias(true);
+        lmp.setLambda(1.0e-4);
+        lmp.setLearningRate(1);
+        OnlineLogisticRegression lr = lmp.createRegression();
+        for (int pass = 0; pass < 20; pass++) {
+            for (int i = 0; i < NUM_INSTANCES; i++) {
+                lr.train(targets[i], instances.get(i));
+            }
+        }
+        return lmp;
+    }
+}
@@ -0,0 +1,207 @@
+package Clustering;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.kmeans.Kluster;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
+import org.apache.mahout.common.distance.SquaredEuclideanDistanceMeasure;
+import org.apache.mahout.math.DenseVector;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AssignmentServerTest {
+
+    private AssignmentServer server;
+
+    @After
+    public void stopServer() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void pointsGoToTheirNearestCenter() {
+        // below and above the threshold of the VP-tree
+        checkNearestCenter(new EuclideanDistanceMeasure(), 5);
+        checkNearestCenter(new SquaredEuclideanDistanceMeasure(), ClusterAssigner.VP_TREE_THRESHOLD + 36);
+    }
+
+    @Test
+    public void membershipsSumToOne() {
+        ClusterAssigner assigner = new ClusterAssigner(clusters(4, 3, 1), new EuclideanDistanceMeasure(), 2);
+        PointMatrix points = ClusteringTestData.blobs(50, 3, 4, 1.0, 2);
+        ClusterAssigner.Assignment[] assignments = assigner.assign(points, true);
+        for (ClusterAssigner.Assignment assignment : assignments) {
+            double sum = 0;
+            double max = 0;
+            int argMax = -1;
+            double[] memberships = assignment.getMemberships();
+            for (int c = 0; c < memberships.length; c++) {
+                sum += memberships[c];
+                if (memberships[c] > max) {
+                    max = memberships[c];
+                    argMax = c;
+                }
+            }
+            assertEquals(1, sum, 1.0e-9);
+            // the nearest center has the largest membership
+            assertEquals(assignment.getClusterId(), assigner.getClusterIds()[argMax]);
+        }
+        assertNull(assigner.assign(points, false)[0].getMemberships());
+    }
+
+    @Test
+    public void queryParametersAreMatchedByName() {
+        assertFalse(AssignmentServer.booleanParameter(null, "memberships"));
+        assertTrue(AssignmentServer.booleanParameter("memberships=true", "memberships"));
+        assertTrue(AssignmentServer.booleanParameter("x=1&memberships=TRUE", "memberships"));
+        assertTrue(AssignmentServer.booleanParameter("memberships", "memberships"));
+        assertFalse(AssignmentServer.booleanParameter("nomemberships=true", "memberships"));
+        assertFalse(AssignmentServer.booleanParameter("memberships=false&other=true", "memberships"));
+        assertTrue(AssignmentServer.booleanParameter("member%73hips=true", "memberships"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aQueryParameterMustBeABoolean() {
+        AssignmentServer.booleanParameter("memberships=yes", "memberships");
+    }
+
+    @Test
+    public void theEndpointAnswersTheAssignments() throws IOException {
+        ClusterAssigner assigner = new ClusterAssigner(twoClusters(), new EuclideanDistanceMeasure(), 2);
+        server = new AssignmentServer(assigner, 0, 2);
+        server.start();
+
+        String json = post("/assign", "0 0\n\n10,10\n");
+        assertTrue(json, json.startsWith("{\"assignments\":[{\"clusterId\":3,\"distance\":0.0}"));
+        assertTrue(json, json.contains("{\"clusterId\":7,\"distance\":0.0}"));
+        assertFalse(json, json.contains("memberships"));
+        assertFalse(post("/assign?nomemberships=true", "1 1\n").contains("memberships"));
+        assertTrue(post("/assign?memberships=true", "1 1\n").contains("\"memberships\":["));
+        assertEquals("{\"clusters\":2,\"dimensions\":2,\"clusterIds\":[3,7]}", get("/model"));
+
+        assertEquals(400, status("/assign", "1 2 3\n"));
+        assertEquals(400, status("/assign?memberships=maybe", "1 2\n"));
+        String metrics = get("/metrics");
+        assertTrue(metrics, metrics.startsWith("{\"requests\":3,\"points\":4,\"errors\":2,"));
+    }
+
+    @Test
+    public void aFailedAssignmentIsAnsweredAndCounted() throws IOException {
+        ClusterAssigner assigner = new ClusterAssigner(twoClusters(), new EuclideanDistanceMeasure(), 2) {
+            @Override
+            public Assignment[] assign(PointMatrix points, boolean withMemberships) {
+                throw new IllegalStateException("broken model");
+            }
+        };
+        server = new AssignmentServer(assigner, 0, 1);
+        server.start();
+        assertEquals(500, status("/assign", "1 1\n"));
+        // the connection of the next request is served
+        assertEquals(500, status("/assign", "2 2\n"));
+        assertTrue(get("/metrics").contains("\"errors\":2,"));
+    }
+
+    private static void checkNearestCenter(DistanceMeasure measure, int k) {
+        List<Cluster> clusters = clusters(k, 4, 3);
+        ClusterAssigner assigner = new ClusterAssigner(clusters, measure, 2);
+        PointMatrix points = ClusteringTestData.blobs(500, 4, k, 2.0, 4);
+        ClusterAssigner.Assignment[] assignments = assigner.assign(points, false);
+        for (int row = 0; row < points.numRows(); row++) {
+            int nearest = -1;
+            double min = Double.MAX_VALUE;
+            for (Cluster cluster : clusters) {
+                double distance = measure.distance(cluster.getCenter(), points.rowVector(row));
+                if (distance < min) {
+                    min = distance;
+                    nearest = cluster.getId();
+                }
+            }
+            assertEquals(nearest, assignments[row].getClusterId());
+            assertEquals(min, assignments[row].getDistance(), 1.0e-9 * Math.max(1, min));
+        }
+    }
+
+    /**
+     * @return k clusters of random centers in [0, 10)^dims, their ids 10 apart
+     */
+    private static List<Cluster> clusters(int k, int dims, long seed) {
+        Random random = new Random(seed);
+        List<Cluster> clusters = new ArrayList<Cluster>();
+        for (int c = 0; c < k; c++) {
+            double[] center = new double[dims];
+            for (int d = 0; d < dims; d++) {
+                center[d] = 10 * random.nextDouble();
+            }
+            clusters.add(new Kluster(new DenseVector(center), 10 * c, new EuclideanDistanceMeasure()));
+        }
+        return clusters;
+    }
+
+    private static List<Cluster> twoClusters() {
+        List<Cluster> clusters = new ArrayList<Cluster>();
+        clusters.add(new Kluster(new DenseVector(new double[] {0, 0}), 3, new EuclideanDistanceMeasure()));
+        clusters.add(new Kluster(new DenseVector(new double[] {10, 10}), 7, new EuclideanDistanceMeasure()));
+        return clusters;
+    }
+
+    private String get(String path) throws IOException {
+        HttpURLConnection connection = connect(path);
+        return read(connection.getInputStream());
+    }
+
+    private String post(String path, String body) throws IOException {
+        HttpURLConnection connection = send(path, body);
+        assertEquals(200, connection.getResponseCode());
+        return read(connection.getInputStream());
+    }
+
+    private int status(String path, String body) throws IOException {
+        HttpURLConnection connection = send(path, body);
+        int status = connection.getResponseCode();
+        assertTrue(read(connection.getErrorStream()).startsWith("{\"error\":"));
+        return status;
+    }
+
+    private HttpURLConnection send(String path, String body) throws IOException {
+        HttpURLConnection connection = connect(path);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        OutputStream out = connection.getOutputStream();
+        try {
+            out.write(body.getBytes(Charsets.UTF_8));
+        } finally {
+            out.close();
+        }
+        return connection;
+    }
+
+    private HttpURLConnection connect(String path) throws IOException {
+        return (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try {
+            return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+}
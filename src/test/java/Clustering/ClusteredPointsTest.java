@@ -0,0 +1,163 @@
+package Clustering;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.kmeans.KMeansDriver;
+import org.apache.mahout.clustering.kmeans.Kluster;
+import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.NamedVector;
+import org.apache.mahout.math.Vector;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ClusteredPointsTest {
+
+    private static final int NUM_LINES = 500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Keys of the data lines that are vectorized, mapped to their features.
+     */
+    private final TreeMap<Long, double[]> expected = new TreeMap<Long, double[]>();
+
+    @Test
+    public void multiPartPointsAreKeyedByTheirInputLine() throws Exception {
+        checkClassifiedPoints(false);
+    }
+
+    @Test
+    public void cachedPointsAreKeyedByTheirInputLine() throws Exception {
+        checkClassifiedPoints(true);
+    }
+
+    @Test
+    public void writtenPointsAreReadInKeyOrder() throws Exception {
+        Configuration conf = localConf();
+        Path output = new Path(folder.getRoot().getAbsolutePath(), "output");
+        PointMatrix points = ClusteringTestData.blobs(100, 3, 2, 0.5, 7);
+        long[] keys = new long[points.numRows()];
+        for (int row = 0; row < keys.length; row++) {
+            keys[row] = 3L * row;
+        }
+        List<Cluster> clusters = new ArrayList<Cluster>();
+        clusters.add(new Kluster(points.rowVector(0), 0, new EuclideanDistanceMeasure()));
+        ClusterAssignments assignments = new ClusterAssignments(points.numRows());
+
+        // the second half of the keys goes to the first part name
+        PointMatrix first = slice(points, keys, 50, 100);
+        PointMatrix second = slice(points, keys, 0, 50);
+        ClusteringOutputWriter.writeClusteredPoints(conf, output, "part-m-00000", first, clusters, assignments);
+        ClusteringOutputWriter.writeClusteredPoints(conf, output, "part-m-00001", second, clusters, assignments);
+
+        ClusteredPoints read = ClusteredPoints.read(conf, output, 2, true);
+        assertEquals(points.numRows(), read.size());
+        for (int point = 0; point < read.size(); point++) {
+            assertEquals(keys[point], read.getKey(point));
+            assertVectorEquals(points.rowVector(point), read.getVector(point));
+        }
+    }
+
+    private void checkClassifiedPoints(boolean columnCache) throws Exception {
+        Configuration conf = localConf();
+        File csv = writeCsv(new File(folder.getRoot(), columnCache ? "cached.csv" : "parsed.csv"));
+        Path root = new Path(folder.getRoot().getAbsolutePath(), columnCache ? "cached" : "parsed");
+        Path input = new Path(root, "points");
+        Path clustersIn = new Path(root, "clusters/part-00000");
+        Path output = new Path(root, "output");
+
+        CsvVectorizer vectorizer = new CsvVectorizer(conf);
+        vectorizer.setSkipHeader(true);
+        vectorizer.setColumns(new int[] {0, 1});
+        vectorizer.setNumParts(3);
+        vectorizer.setNumThreads(3);
+        vectorizer.setColumnCache(columnCache);
+        assertEquals(expected.size(), vectorizer.vectorize(csv, input));
+
+        List<Kluster> initial = new ArrayList<Kluster>();
+        initial.add(new Kluster(new DenseVector(new double[] {0, 0}), 0, new EuclideanDistanceMeasure()));
+        initial.add(new Kluster(new DenseVector(new double[] {10, 10}), 1, new EuclideanDistanceMeasure()));
+        ClusteringTestData.writeKlusters(conf, clustersIn, initial);
+        KMeansDriver.run(conf, input, clustersIn.getParent(), output, 0.001, 10, true, 0.0, true);
+
+        ClusteredPoints points = ClusteredPoints.read(conf, output, 2, true);
+        assertEquals(expected.size(), points.size());
+        int point = 0;
+        for (Long key : expected.keySet()) {
+            assertEquals(key.longValue(), points.getKey(point));
+            assertVectorEquals(new DenseVector(expected.get(key)), points.getVector(point));
+            // the points of the first blob are those of the even lines
+            assertEquals(key % 2 == 0, points.getVector(point).get(0) < 5);
+            point++;
+        }
+    }
+
+    /**
+     * Writes a header, then NUM_LINES data lines around (0, 0) on even keys and (10, 10) on odd ones, with a
+     * blank line and a non-numeric line in between.
+     */
+    private File writeCsv(File file) throws IOException {
+        expected.clear();
+        Random random = new Random(42);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+        try {
+            writer.write("x,y,label\n");
+            for (long key = 0; key < NUM_LINES; key++) {
+                if (key == 100) {
+                    writer.write("\n");
+                }
+                if (key == 200) {
+                    writer.write("n/a,1,b\n");
+                    continue;
+                }
+                double center = key % 2 == 0 ? 0 : 10;
+                double[] features = {center + random.nextGaussian(), center + random.nextGaussian()};
+                writer.write(features[0] + "," + features[1] + "," + (key % 2 == 0 ? "a" : "b") + "\n");
+                expected.put(key, features);
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private static PointMatrix slice(PointMatrix points, long[] keys, int from, int to) {
+        PointMatrix slice = new PointMatrix(Arrays.copyOfRange(points.values(), points.offset(from),
+                points.offset(to)), points.numCols());
+        slice.setKeys(Arrays.copyOfRange(keys, from, to));
+        return slice;
+    }
+
+    private static Configuration localConf() {
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        return conf;
+    }
+
+    private static void assertVectorEquals(Vector expected, Vector actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), actual.get(i), 1.0e-12);
+        }
+        assertFalse(actual instanceof NamedVector);
+    }
+}
@@ -0,0 +1,146 @@
+package Clustering;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.kmeans.Kluster;
+import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
+import org.apache.mahout.math.DenseVector;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ClusteringEvaluatorTest {
+
+    private static final int NUM_LINES = 300;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void measuresOfTheTextbookExample() {
+        // Manning, Raghavan and Schuetze, Introduction to Information Retrieval, figure 16.4
+        long[][] table = {{5, 1, 0}, {1, 4, 1}, {2, 0, 3}};
+        String[] labels = {"x", "o", "d"};
+        ClusteringEvaluator evaluator = new ClusteringEvaluator(false);
+        for (int cluster = 0; cluster < table.length; cluster++) {
+            for (int label = 0; label < labels.length; label++) {
+                for (long i = 0; i < table[cluster][label]; i++) {
+                    evaluator.add(cluster, labels[label], 1.0);
+                }
+            }
+        }
+        assertEquals(17, evaluator.getNumPoints());
+        assertEquals(3, evaluator.getNumClusters());
+        assertEquals(3, evaluator.getNumLabels());
+        assertEquals(6, evaluator.getClusterSize(0));
+        assertEquals(17, evaluator.getSse(), 1.0e-12);
+        assertEquals(12.0 / 17, evaluator.getPurity(), 1.0e-12);
+        assertEquals(0.36456, evaluator.getNormalizedMutualInformation(), 1.0e-5);
+        // 20 pairs together in both, 40 in the clusters and 44 in the labels, out of 136
+        double expected = 40.0 * 44 / 136;
+        assertEquals((20 - expected) / (42 - expected), evaluator.getAdjustedRandIndex(), 1.0e-12);
+    }
+
+    @Test
+    public void renumberedClustersScoreOne() {
+        ClusteringEvaluator evaluator = new ClusteringEvaluator(true);
+        for (int i = 0; i < 90; i++) {
+            evaluator.add(7 - i % 3, "label" + i % 3, 0.5);
+        }
+        assertEquals(1, evaluator.getPurity(), 1.0e-12);
+        assertEquals(1, evaluator.getNormalizedMutualInformation(), 1.0e-12);
+        assertEquals(1, evaluator.getAdjustedRandIndex(), 1.0e-12);
+        assertEquals(45, evaluator.getSse(), 1.0e-12);
+    }
+
+    @Test
+    public void labelsAreMatchedToThePointsByKey() throws Exception {
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        Path output = new Path(folder.getRoot().getAbsolutePath(), "output");
+        File labels = writeLabels(new File(folder.getRoot(), "labels.csv"));
+
+        // the points of the lines whose key is a multiple of 7 were skipped; the cluster of the others is
+        // their label, written in two parts whose name order is not the key order
+        List<Cluster> clusters = new ArrayList<Cluster>();
+        for (int c = 0; c < 3; c++) {
+            clusters.add(new Kluster(new DenseVector(new double[] {c}), c, new EuclideanDistanceMeasure()));
+        }
+        writePart(conf, output, "part-m-00000", NUM_LINES / 2, NUM_LINES, clusters);
+        writePart(conf, output, "part-m-00001", 0, NUM_LINES / 2, clusters);
+
+        ClusteredPoints points = ClusteredPoints.read(conf, output, 2, false);
+        ClusteringEvaluator evaluator = ClusteringEvaluator.evaluate(points, false, labels, 1, true);
+        assertEquals(points.size(), evaluator.getNumPoints());
+        assertEquals(3, evaluator.getNumLabels());
+        assertEquals(1, evaluator.getPurity(), 1.0e-12);
+        assertEquals(1, evaluator.getAdjustedRandIndex(), 1.0e-12);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aShorterLabelFileIsRejected() throws Exception {
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        Path output = new Path(folder.getRoot().getAbsolutePath(), "output");
+        List<Cluster> clusters = new ArrayList<Cluster>();
+        clusters.add(new Kluster(new DenseVector(new double[] {0}), 0, new EuclideanDistanceMeasure()));
+        writePart(conf, output, "part-m-00000", 0, NUM_LINES + 1, clusters);
+        ClusteringEvaluator.evaluate(ClusteredPoints.read(conf, output, 1, false), false,
+                writeLabels(new File(folder.getRoot(), "labels.csv")), 1, true);
+    }
+
+    /**
+     * Writes a header and the label of every key, with blank lines in between.
+     */
+    private static File writeLabels(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+        try {
+            writer.write("x,label\n");
+            for (int key = 0; key < NUM_LINES; key++) {
+                if (key % 50 == 10) {
+                    writer.write("\n");
+                }
+                writer.write(key + ",c" + key % 3 + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * Writes the points of the keys in [from, to) that are not multiples of 7, in the cluster of their label.
+     */
+    private static void writePart(Configuration conf, Path output, String partName, int from, int to,
+                                  List<Cluster> clusters) throws IOException {
+        List<Long> keys = new ArrayList<Long>();
+        for (long key = from; key < to; key++) {
+            if (key % 7 != 0) {
+                keys.add(key);
+            }
+        }
+        PointMatrix points = new PointMatrix(keys.size(), 1);
+        long[] pointKeys = new long[keys.size()];
+        ClusterAssignments assignments = new ClusterAssignments(keys.size());
+        for (int row = 0; row < keys.size(); row++) {
+            long key = keys.get(row);
+            points.set(row, 0, key);
+            pointKeys[row] = key;
+            assignments.set(row, (int) (key % clusters.size()), 1.0, 0.0);
+        }
+        points.setKeys(pointKeys);
+        ClusteringOutputWriter.writeClusteredPoints(conf, output, partName, points, clusters, assignments);
+    }
+}
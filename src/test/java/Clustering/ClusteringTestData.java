@@ -0,0 +1,95 @@
+package Clustering;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.iterator.ClusterWritable;
+import org.apache.mahout.clustering.kmeans.Kluster;
+import org.apache.mahout.common.iterator.sequencefile.PathFilters;
+import org.apache.mahout.common.iterator.sequencefile.PathType;
+import org.apache.mahout.common.iterator.sequencefile.SequenceFileDirValueIterable;
+import org.apache.mahout.math.VectorWritable;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Points and sequence files shared by the tests comparing the in-memory engines with the Mahout drivers.
+ */
+final class ClusteringTestData {
+
+    private ClusteringTestData() {
+    }
+
+    /**
+     * @return numPoints points around numBlobs random centers, in a random order
+     */
+    static PointMatrix blobs(int numPoints, int dims, int numBlobs, double spread, long seed) {
+        Random random = new Random(seed);
+        double[] centers = new double[numBlobs * dims];
+        for (int i = 0; i < centers.length; i++) {
+            centers[i] = random.nextDouble() * 10;
+        }
+        PointMatrix points = new PointMatrix(numPoints, dims);
+        for (int row = 0; row < numPoints; row++) {
+            int blob = random.nextInt(numBlobs);
+            for (int d = 0; d < dims; d++) {
+                points.set(row, d, centers[blob * dims + d] + random.nextGaussian() * spread);
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Writes the points as the VectorWritable sequence file CsvVectorizer writes.
+     */
+    static void writePoints(Configuration conf, Path path, PointMatrix points) throws IOException {
+        SequenceFile.Writer writer = SequenceFile.createWriter(conf,
+                SequenceFile.Writer.file(path),
+                SequenceFile.Writer.keyClass(LongWritable.class),
+                SequenceFile.Writer.valueClass(VectorWritable.class));
+        try {
+            for (int row = 0; row < points.numRows(); row++) {
+                writer.append(new LongWritable(row), new VectorWritable(points.rowVector(row)));
+            }
+        } finally {
+            Closeables.close(writer, false);
+        }
+    }
+
+    /**
+     * Writes the initial clusters the way Kmeans does.
+     */
+    static void writeKlusters(Configuration conf, Path path, List<Kluster> clusters) throws IOException {
+        SequenceFile.Writer writer = SequenceFile.createWriter(conf,
+                SequenceFile.Writer.file(path),
+                SequenceFile.Writer.keyClass(Text.class),
+                SequenceFile.Writer.valueClass(Kluster.class));
+        try {
+            for (Kluster cluster : clusters) {
+                writer.append(new Text(cluster.getIdentifier()), cluster);
+            }
+        } finally {
+            Closeables.close(writer, false);
+        }
+    }
+
+    /**
+     * @return the clusters of the clusters-*-final directory under output
+     */
+    static List<Cluster> readFinalClusters(Configuration conf, Path output) throws IOException {
+        Path parts = new Path(output, Cluster.CLUSTERS_DIR + '*' + Cluster.FINAL_ITERATION_SUFFIX + "/part-*");
+        List<Cluster> clusters = Lists.newArrayList();
+        for (ClusterWritable writable : new SequenceFileDirValueIterable<ClusterWritable>(parts, PathType.GLOB,
+                PathFilters.logsCRCFilter(), conf)) {
+            clusters.add(writable.getValue());
+        }
+        return clusters;
+    }
+}
@@ -0,0 +1,191 @@
+package Clustering;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.common.iterator.sequencefile.PathType;
+import org.apache.mahout.common.iterator.sequencefile.SequenceFileDirValueIterable;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.NamedVector;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CsvVectorizerTest {
+
+    private static final int NUM_LINES = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Keys of the data lines that are vectorized, mapped to their features.
+     */
+    private final Map<Long, double[]> expected = new TreeMap<Long, double[]>();
+
+    @Test
+    public void columnsAreParsedFromRanges() {
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4, 5, 6, 7, 8}, CsvVectorizer.parseColumns("0-8"));
+        assertArrayEquals(new int[] {1, 3, 5, 6, 7}, CsvVectorizer.parseColumns("1, 3,5-7"));
+    }
+
+    @Test
+    public void everyPartIsWrittenInLineOrder() throws Exception {
+        File csv = writeCsv(new File(folder.getRoot(), "points.csv"), false);
+        for (int parts : new int[] {1, 4, 7}) {
+            Path output = new Path(folder.getRoot().getAbsolutePath(), "parts-" + parts);
+            CsvVectorizer vectorizer = newVectorizer(parts);
+            vectorizer.setVectorType(CsvVectorizer.VectorType.DENSE);
+            assertEquals(expected.size(), vectorizer.vectorize(csv, output));
+            assertEquals(1, vectorizer.getSkippedLines());
+            assertEquals(NUM_LINES, vectorizer.getNextKey());
+            assertEquals(csv.length(), vectorizer.getEndOffset());
+            checkOutput(output, DenseVector.class);
+            checkPoints(vectorizer.getPoints());
+        }
+    }
+
+    @Test
+    public void theColumnCacheGivesTheSamePoints() throws Exception {
+        File csv = writeCsv(new File(folder.getRoot(), "points.csv"), false);
+        Path output = new Path(folder.getRoot().getAbsolutePath(), "cached");
+        CsvVectorizer vectorizer = newVectorizer(3);
+        vectorizer.setVectorType(CsvVectorizer.VectorType.RANDOM_SPARSE);
+        vectorizer.setColumnCache(true);
+        assertEquals(expected.size(), vectorizer.vectorize(csv, output));
+        checkOutput(output, RandomAccessSparseVector.class);
+        checkPoints(vectorizer.getPoints());
+    }
+
+    @Test
+    public void sparseInputsGetSparseVectors() throws Exception {
+        File csv = writeCsv(new File(folder.getRoot(), "sparse.csv"), true);
+        Path output = new Path(folder.getRoot().getAbsolutePath(), "sparse");
+        CsvVectorizer vectorizer = newVectorizer(2);
+        vectorizer.setVectorType(CsvVectorizer.VectorType.AUTO);
+        vectorizer.vectorize(csv, output);
+        assertEquals(CsvVectorizer.VectorType.SEQUENTIAL_SPARSE, vectorizer.getSelectedType());
+        assertEquals(0.25, vectorizer.getDensity(), 0.01);
+        checkOutput(output, SequentialAccessSparseVector.class);
+    }
+
+    @Test
+    public void collectedPointsMustFitAnArray() {
+        assertEquals(9000, CsvVectorizer.collectedValues(1000, 9));
+        assertEquals(CsvVectorizer.MAX_ARRAY_LENGTH, CsvVectorizer.collectedValues(CsvVectorizer.MAX_ARRAY_LENGTH, 1));
+        checkTooMany(300000000L, 9); // 2.7 billion values
+        checkTooMany(1L << 32, 1); // as many lines as would wrap to zero
+        checkTooMany(1L << 31, 0);
+    }
+
+    private static void checkTooMany(long lines, int dims) {
+        try {
+            CsvVectorizer.collectedValues(lines, dims);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(lines + " lines of " + dims + " features"));
+            return;
+        }
+        throw new AssertionError(lines + " lines of " + dims + " features were collected");
+    }
+
+    private CsvVectorizer newVectorizer(int parts) {
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        CsvVectorizer vectorizer = new CsvVectorizer(conf);
+        vectorizer.setSkipHeader(true);
+        vectorizer.setNumParts(parts);
+        vectorizer.setNumThreads(3);
+        vectorizer.setCollectPoints(true);
+        return vectorizer;
+    }
+
+    /**
+     * Checks that the part files hold the expected vectors, named after their line key.
+     */
+    private void checkOutput(Path output, Class<? extends Vector> type) {
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        Map<Long, Vector> written = new TreeMap<Long, Vector>();
+        for (VectorWritable writable : new SequenceFileDirValueIterable<VectorWritable>(
+                new Path(output, "part-*"), PathType.GLOB, conf)) {
+            NamedVector vector = (NamedVector) writable.get();
+            assertEquals(type, vector.getDelegate().getClass());
+            written.put(Long.parseLong(vector.getName()), vector.getDelegate());
+        }
+        assertEquals(expected.keySet(), written.keySet());
+        for (Map.Entry<Long, double[]> entry : expected.entrySet()) {
+            Vector vector = written.get(entry.getKey());
+            for (int d = 0; d < entry.getValue().length; d++) {
+                assertEquals(entry.getValue()[d], vector.get(d), 1.0e-12);
+            }
+        }
+    }
+
+    private void checkPoints(PointMatrix points) {
+        assertEquals(expected.size(), points.numRows());
+        int row = 0;
+        for (Map.Entry<Long, double[]> entry : expected.entrySet()) {
+            assertEquals(entry.getKey().longValue(), points.getKey(row));
+            for (int d = 0; d < entry.getValue().length; d++) {
+                assertEquals(entry.getValue()[d], points.get(row, d), 1.0e-12);
+            }
+            row++;
+        }
+    }
+
+    /**
+     * Writes a header and NUM_LINES data lines of four features, separated by commas or blanks, with blank
+     * lines in between and one line that is not numeric; a single feature of every line of the sparse file
+     * is not zero.
+     */
+    private File writeCsv(File file, boolean sparse) throws IOException {
+        expected.clear();
+        Random random = new Random(42);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+        try {
+            writer.write("a,b,c,d\n");
+            for (long key = 0; key < NUM_LINES; key++) {
+                if (key % 150 == 3) {
+                    writer.write("\n");
+                }
+                if (key == 500) {
+                    writer.write("1,2,x,4\n");
+                    continue;
+                }
+                double[] features = new double[4];
+                for (int d = 0; d < features.length; d++) {
+                    features[d] = !sparse || d == key % 4 ? random.nextGaussian() : 0;
+                }
+                StringBuilder line = new StringBuilder();
+                for (int d = 0; d < features.length; d++) {
+                    if (d > 0) {
+                        line.append(!sparse && key % 2 == 0 ? "  " : ",");
+                    }
+                    line.append(features[d]);
+                }
+                writer.write(line.append('\n').toString());
+                expected.put(key, features);
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,116 @@
+package Clustering;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.fuzzykmeans.FuzzyKMeansDriver;
+import org.apache.mahout.clustering.kmeans.Kluster;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
+import org.apache.mahout.common.distance.SquaredEuclideanDistanceMeasure;
+import org.apache.mahout.math.Vector;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class InMemoryFuzzyKMeansTest {
+
+    private static final int K = 4;
+
+    private static final double DELTA = 1.0e-4;
+
+    private static final int MAX_ITERATIONS = 30;
+
+    private static final double TOLERANCE = 1.0e-6;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void clustersMatchTheSequentialFuzzyKMeansDriver() throws Exception {
+        checkAgainstDriver(new EuclideanDistanceMeasure(), 2, "euclidean");
+        checkAgainstDriver(new SquaredEuclideanDistanceMeasure(), 1.5f, "squared");
+    }
+
+    @Test
+    public void theThreadsDoNotChangeTheClusters() throws Exception {
+        PointMatrix points = ClusteringTestData.blobs(3000, 3, K, 1.0, 5);
+        DistanceMeasure measure = new EuclideanDistanceMeasure();
+        List<Kluster> initial = initialClusters(points, measure);
+        InMemoryFuzzyKMeans single = new InMemoryFuzzyKMeans(points, initial, measure, 2, 1);
+        InMemoryFuzzyKMeans parallel = new InMemoryFuzzyKMeans(points, initial, measure, 2, 4);
+        assertEquals(single.run(DELTA, MAX_ITERATIONS), parallel.run(DELTA, MAX_ITERATIONS));
+        List<Cluster> expected = single.getClusters(DELTA);
+        List<Cluster> actual = parallel.getClusters(DELTA);
+        for (int c = 0; c < K; c++) {
+            assertVectorEquals(expected.get(c).getCenter(), actual.get(c).getCenter());
+        }
+    }
+
+    private void checkAgainstDriver(DistanceMeasure measure, float m, String name) throws Exception {
+        PointMatrix points = ClusteringTestData.blobs(500, 4, K, 0.8, 17);
+        List<Kluster> initial = initialClusters(points, measure);
+
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        Path root = new Path(folder.getRoot().getAbsolutePath(), name);
+        Path input = new Path(root, "points/part-m-00000");
+        Path clustersIn = new Path(root, "clusters/part-00000");
+        Path output = new Path(root, "output");
+        ClusteringTestData.writePoints(conf, input, points);
+        ClusteringTestData.writeKlusters(conf, clustersIn, initial);
+        FuzzyKMeansDriver.run(conf, input.getParent(), clustersIn.getParent(), output, DELTA, MAX_ITERATIONS, m,
+                true, true, 0.0, true);
+        Map<Integer, Cluster> expected = new HashMap<Integer, Cluster>();
+        for (Cluster cluster : ClusteringTestData.readFinalClusters(conf, output)) {
+            expected.put(cluster.getId(), cluster);
+        }
+        assertEquals(K, expected.size());
+
+        InMemoryFuzzyKMeans fuzzyKMeans = new InMemoryFuzzyKMeans(points, initial, measure, m, 3);
+        fuzzyKMeans.run(DELTA, MAX_ITERATIONS);
+        List<Cluster> clusters = fuzzyKMeans.getClusters(DELTA);
+        for (Cluster cluster : clusters) {
+            Cluster reference = expected.get(cluster.getId());
+            assertNotNull(reference);
+            assertEquals(reference.getNumObservations(), cluster.getNumObservations(), TOLERANCE);
+            assertVectorEquals(reference.getCenter(), cluster.getCenter());
+        }
+
+        // the most likely cluster of every point, as the classification step of the driver emits it
+        ClusteredPoints classified = ClusteredPoints.read(conf, output, 2, false);
+        ClusterAssignments assignments = fuzzyKMeans.classify(clusters);
+        assertEquals(points.numRows(), classified.size());
+        for (int point = 0; point < classified.size(); point++) {
+            int row = (int) classified.getKey(point);
+            assertEquals(classified.getClusterId(point), clusters.get(assignments.getClusterIndex(row)).getId());
+            assertEquals(classified.getWeight(point), assignments.getWeight(row), TOLERANCE);
+        }
+    }
+
+    /**
+     * @return K clusters centered on evenly spaced rows of the points
+     */
+    private static List<Kluster> initialClusters(PointMatrix points, DistanceMeasure measure) {
+        List<Kluster> clusters = new ArrayList<Kluster>(K);
+        for (int i = 0; i < K; i++) {
+            clusters.add(new Kluster(points.rowVector(i * (points.numRows() / K)), i, measure));
+        }
+        return clusters;
+    }
+
+    private static void assertVectorEquals(Vector expected, Vector actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), actual.get(i), TOLERANCE);
+        }
+    }
+}
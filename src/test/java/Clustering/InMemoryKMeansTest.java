@@ -0,0 +1,146 @@
+package Clustering;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.kmeans.KMeansDriver;
+import org.apache.mahout.clustering.kmeans.Kluster;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
+import org.apache.mahout.common.distance.ManhattanDistanceMeasure;
+import org.apache.mahout.common.distance.SquaredEuclideanDistanceMeasure;
+import org.apache.mahout.math.Vector;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryKMeansTest {
+
+    private static final int K = 6;
+
+    private static final double DELTA = 1.0e-4;
+
+    private static final int MAX_ITERATIONS = 50;
+
+    private static final double TOLERANCE = 1.0e-9;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void hamerlyAssignsLikeLloyd() throws Exception {
+        checkBoundsAgainstLloyd(InMemoryKMeans.Assignment.HAMERLY, new EuclideanDistanceMeasure());
+        checkBoundsAgainstLloyd(InMemoryKMeans.Assignment.HAMERLY, new SquaredEuclideanDistanceMeasure());
+    }
+
+    @Test
+    public void elkanAssignsLikeLloyd() throws Exception {
+        checkBoundsAgainstLloyd(InMemoryKMeans.Assignment.ELKAN, new EuclideanDistanceMeasure());
+        checkBoundsAgainstLloyd(InMemoryKMeans.Assignment.ELKAN, new SquaredEuclideanDistanceMeasure());
+    }
+
+    @Test
+    public void boundsFallBackToLloydWithOtherMeasures() throws Exception {
+        PointMatrix points = ClusteringTestData.blobs(400, 4, K, 0.5, 7);
+        DistanceMeasure measure = new ManhattanDistanceMeasure();
+        InMemoryKMeans kmeans = new InMemoryKMeans(points, initialClusters(points, measure), measure, 2);
+        kmeans.setAssignment(InMemoryKMeans.Assignment.ELKAN);
+        kmeans.run(DELTA, MAX_ITERATIONS);
+        assertEquals(0, kmeans.getPrunedEvaluations());
+    }
+
+    @Test
+    public void clustersMatchTheSequentialKMeansDriver() throws Exception {
+        PointMatrix points = ClusteringTestData.blobs(600, 5, K, 0.8, 42);
+        DistanceMeasure measure = new EuclideanDistanceMeasure();
+        List<Kluster> initial = initialClusters(points, measure);
+
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        Path root = new Path(folder.getRoot().getAbsolutePath());
+        Path input = new Path(root, "points/part-m-00000");
+        Path clustersIn = new Path(root, "clusters/part-00000");
+        Path output = new Path(root, "output");
+        ClusteringTestData.writePoints(conf, input, points);
+        ClusteringTestData.writeKlusters(conf, clustersIn, initial);
+        KMeansDriver.run(conf, input.getParent(), clustersIn.getParent(), output, DELTA, MAX_ITERATIONS, false, 0.0,
+                true);
+        Map<Integer, Cluster> expected = byId(ClusteringTestData.readFinalClusters(conf, output));
+        assertEquals(K, expected.size());
+
+        for (InMemoryKMeans.Assignment assignment : InMemoryKMeans.Assignment.values()) {
+            InMemoryKMeans kmeans = new InMemoryKMeans(points, initial, measure, 3);
+            kmeans.setAssignment(assignment);
+            kmeans.run(DELTA, MAX_ITERATIONS);
+            for (Cluster cluster : kmeans.getClusters(DELTA)) {
+                Cluster reference = expected.get(cluster.getId());
+                assertNotNull(reference);
+                assertEquals(assignment.name(), reference.getNumObservations(), cluster.getNumObservations(), 0);
+                assertVectorEquals(reference.getCenter(), cluster.getCenter());
+            }
+        }
+    }
+
+    private static void checkBoundsAgainstLloyd(InMemoryKMeans.Assignment assignment, DistanceMeasure measure)
+            throws Exception {
+        PointMatrix points = ClusteringTestData.blobs(2000, 6, K, 1.0, 11);
+        List<Kluster> initial = initialClusters(points, measure);
+
+        InMemoryKMeans lloyd = new InMemoryKMeans(points, initial, measure, 3);
+        int lloydIterations = lloyd.run(DELTA, MAX_ITERATIONS);
+        assertEquals(0, lloyd.getPrunedEvaluations());
+        List<Cluster> lloydClusters = lloyd.getClusters(DELTA);
+
+        InMemoryKMeans bounded = new InMemoryKMeans(points, initial, measure, 3);
+        bounded.setAssignment(assignment);
+        assertEquals(lloydIterations, bounded.run(DELTA, MAX_ITERATIONS));
+        assertTrue(assignment + " pruned nothing", bounded.getPrunedEvaluations() > 0);
+        List<Cluster> boundedClusters = bounded.getClusters(DELTA);
+
+        assertEquals(lloydClusters.size(), boundedClusters.size());
+        for (int c = 0; c < lloydClusters.size(); c++) {
+            assertEquals(lloydClusters.get(c).getId(), boundedClusters.get(c).getId());
+            assertVectorEquals(lloydClusters.get(c).getCenter(), boundedClusters.get(c).getCenter());
+        }
+        ClusterAssignments expected = lloyd.classify(lloydClusters);
+        ClusterAssignments actual = bounded.classify(boundedClusters);
+        for (int row = 0; row < points.numRows(); row++) {
+            assertEquals(expected.getClusterIndex(row), actual.getClusterIndex(row));
+        }
+    }
+
+    /**
+     * @return K clusters centered on evenly spaced rows of the points
+     */
+    private static List<Kluster> initialClusters(PointMatrix points, DistanceMeasure measure) {
+        List<Kluster> clusters = new ArrayList<Kluster>(K);
+        for (int i = 0; i < K; i++) {
+            clusters.add(new Kluster(points.rowVector(i * (points.numRows() / K)), i, measure));
+        }
+        return clusters;
+    }
+
+    private static Map<Integer, Cluster> byId(List<Cluster> clusters) {
+        Map<Integer, Cluster> map = new HashMap<Integer, Cluster>();
+        for (Cluster cluster : clusters) {
+            map.put(cluster.getId(), cluster);
+        }
+        return map;
+    }
+
+    private static void assertVectorEquals(Vector expected, Vector actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), actual.get(i), TOLERANCE);
+        }
+    }
+}
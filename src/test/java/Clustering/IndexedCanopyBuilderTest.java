@@ -0,0 +1,83 @@
+package Clustering;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.canopy.Canopy;
+import org.apache.mahout.clustering.canopy.CanopyDriver;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
+import org.apache.mahout.common.distance.ManhattanDistanceMeasure;
+import org.apache.mahout.math.Vector;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IndexedCanopyBuilderTest {
+
+    private static final double TOLERANCE = 1.0e-9;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void kdTreeCanopiesMatchTheSequentialCanopyDriver() throws Exception {
+        // up to MAX_KD_TREE_DIMS dimensions, the centers are indexed by their coordinates
+        checkAgainstCanopyDriver(3, new EuclideanDistanceMeasure(), 4.0, 2.0);
+    }
+
+    @Test
+    public void projectedCanopiesMatchTheSequentialCanopyDriver() throws Exception {
+        // above, by random projections of them
+        checkAgainstCanopyDriver(IndexedCanopyBuilder.MAX_KD_TREE_DIMS + 4, new EuclideanDistanceMeasure(), 9.0, 6.0);
+    }
+
+    @Test
+    public void manhattanCanopiesMatchTheSequentialCanopyDriver() throws Exception {
+        checkAgainstCanopyDriver(3, new ManhattanDistanceMeasure(), 6.0, 3.0);
+    }
+
+    private void checkAgainstCanopyDriver(int dims, DistanceMeasure measure, double t1, double t2)
+            throws Exception {
+        PointMatrix points = ClusteringTestData.blobs(1500, dims, 8, 1.0, 42);
+
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        Path root = new Path(folder.getRoot().getAbsolutePath(), "d" + dims + measure.getClass().getSimpleName());
+        Path input = new Path(root, "points");
+        Path output = new Path(root, "output");
+        ClusteringTestData.writePoints(conf, new Path(input, "part-m-00000"), points);
+        CanopyDriver.run(conf, input, output, measure, t1, t2, false, 0.0, true);
+        List<Cluster> expected = ClusteringTestData.readFinalClusters(conf, output);
+        assertTrue(expected.size() > 1);
+
+        List<Canopy> actual = new IndexedCanopyBuilder(measure, t1, t2, 7).build(points, 0.0);
+        assertEquals(expected.size(), actual.size());
+        for (int c = 0; c < expected.size(); c++) {
+            assertEquals(expected.get(c).getId(), actual.get(c).getId());
+            assertEquals(expected.get(c).getNumObservations(), actual.get(c).getNumObservations());
+            assertVectorEquals(expected.get(c).getCenter(), actual.get(c).getCenter());
+        }
+
+        // the file based run writes the same canopies where CanopyDriver does
+        Path indexedOutput = new Path(root, "indexed");
+        new IndexedCanopyBuilder(measure, t1, t2, 7).run(conf, input, indexedOutput, 0.0);
+        List<Cluster> written = ClusteringTestData.readFinalClusters(conf, indexedOutput);
+        assertEquals(expected.size(), written.size());
+        for (int c = 0; c < expected.size(); c++) {
+            assertVectorEquals(expected.get(c).getCenter(), written.get(c).getCenter());
+        }
+    }
+
+    private static void assertVectorEquals(Vector expected, Vector actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), actual.get(i), TOLERANCE);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package Clustering;
+
+import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
+import org.apache.mahout.common.distance.ManhattanDistanceMeasure;
+import org.apache.mahout.common.distance.SquaredEuclideanDistanceMeasure;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KMeansSeederTest {
+
+    private static final int NUM_BLOBS = 5;
+
+    @Test
+    public void randomRowsAreDistinctAndReproducible() {
+        PointMatrix points = separatedBlobs(1000);
+        KMeansSeeder seeder = new KMeansSeeder(points, new EuclideanDistanceMeasure(), 3);
+        int[] rows = seeder.random(50);
+        Set<Integer> distinct = new HashSet<Integer>();
+        for (int row : rows) {
+            assertTrue(row >= 0 && row < points.numRows());
+            distinct.add(row);
+        }
+        assertEquals(rows.length, distinct.size());
+        assertArrayEquals(rows, new KMeansSeeder(points, new EuclideanDistanceMeasure(), 3).random(50));
+        assertEquals(points.numRows(), seeder.random(points.numRows()).length);
+    }
+
+    @Test
+    public void kMeansPlusPlusSeedsEveryBlob() {
+        PointMatrix points = separatedBlobs(1000);
+        assertEveryBlob(new KMeansSeeder(points, new SquaredEuclideanDistanceMeasure(), 1).kMeansPlusPlus(NUM_BLOBS));
+        assertEveryBlob(new KMeansSeeder(points, new ManhattanDistanceMeasure(), 2).kMeansPlusPlus(NUM_BLOBS));
+    }
+
+    @Test
+    public void kMeansParallelSeedsEveryBlobWhateverTheThreads() throws Exception {
+        // several blocks of rows
+        PointMatrix points = separatedBlobs(10000);
+        KMeansSeeder seeder = new KMeansSeeder(points, new EuclideanDistanceMeasure(), 4);
+        int[] rows = seeder.kMeansParallel(NUM_BLOBS, 2 * NUM_BLOBS, 5, 1);
+        assertEveryBlob(rows);
+        assertArrayEquals(rows, seeder.kMeansParallel(NUM_BLOBS, 2 * NUM_BLOBS, 5, 4));
+    }
+
+    @Test
+    public void fewerDistinctPointsThanCenters() throws Exception {
+        PointMatrix points = new PointMatrix(20, 2);
+        for (int row = 0; row < points.numRows(); row++) {
+            points.set(row, 0, row % 2);
+        }
+        KMeansSeeder seeder = new KMeansSeeder(points, new EuclideanDistanceMeasure(), 5);
+        assertEquals(4, seeder.kMeansPlusPlus(4).length);
+        assertEquals(4, seeder.kMeansParallel(4, 8, 5, 2).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void moreCentersThanPointsAreRejected() {
+        new KMeansSeeder(separatedBlobs(10), new EuclideanDistanceMeasure(), 1).kMeansPlusPlus(11);
+    }
+
+    private static void assertEveryBlob(int[] rows) {
+        assertEquals(NUM_BLOBS, rows.length);
+        Set<Integer> blobs = new HashSet<Integer>();
+        for (int row : rows) {
+            blobs.add(row % NUM_BLOBS);
+        }
+        assertEquals(NUM_BLOBS, blobs.size());
+    }
+
+    /**
+     * @return points in NUM_BLOBS tight blobs 100 apart, row r being in blob r % NUM_BLOBS
+     */
+    private static PointMatrix separatedBlobs(int numPoints) {
+        Random random = new Random(11);
+        PointMatrix points = new PointMatrix(numPoints, 3);
+        for (int row = 0; row < numPoints; row++) {
+            for (int d = 0; d < points.numCols(); d++) {
+                points.set(row, d, (d == 0 ? 100 * (row % NUM_BLOBS) : 0) + 0.1 * random.nextGaussian());
+            }
+        }
+        return points;
+    }
+}
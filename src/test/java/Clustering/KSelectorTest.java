@@ -0,0 +1,79 @@
+package Clustering;
+
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KSelectorTest {
+
+    private static final double DELTA = 1.0e-4;
+
+    @Test
+    public void separatedBlobsGetTheirNumber() throws Exception {
+        PointMatrix points = separatedBlobs(1200, 4);
+        KSelector selector = new KSelector(points, new EuclideanDistanceMeasure(), 7, 4);
+        List<Cluster> clusters = selector.select(2, 8, DELTA, 50);
+        assertEquals(4, selector.getRecommendedK());
+        assertEquals(4, clusters.size());
+        assertTrue(selector.getRecommendedIterations() > 0);
+
+        List<KSelector.Score> scores = selector.getScores();
+        assertEquals(7, scores.size());
+        for (int i = 0; i < scores.size(); i++) {
+            assertEquals(2 + i, scores.get(i).getK());
+        }
+        KSelector.Score four = scores.get(2);
+        assertTrue(four.getSilhouette() > 0.9);
+        // the SSE drops sharply up to the true k only
+        assertTrue(scores.get(1).getSse() > 10 * four.getSse());
+        assertTrue(four.getSse() < 2 * scores.get(3).getSse());
+        for (KSelector.Score score : scores) {
+            assertTrue(score.getDaviesBouldin() >= four.getDaviesBouldin());
+        }
+    }
+
+    @Test
+    public void theThreadsDoNotChangeTheScores() throws Exception {
+        PointMatrix points = separatedBlobs(600, 3);
+        KSelector single = new KSelector(points, new EuclideanDistanceMeasure(), 3, 1);
+        KSelector parallel = new KSelector(points, new EuclideanDistanceMeasure(), 3, 6);
+        single.select(2, 5, DELTA, 50);
+        parallel.select(2, 5, DELTA, 50);
+        assertEquals(single.getRecommendedK(), parallel.getRecommendedK());
+        for (int i = 0; i < single.getScores().size(); i++) {
+            assertEquals(single.getScores().get(i).getSse(), parallel.getScores().get(i).getSse(), 1.0e-6);
+            assertEquals(single.getScores().get(i).getSilhouette(), parallel.getScores().get(i).getSilhouette(),
+                    1.0e-9);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aSingleClusterIsNotARange() throws Exception {
+        new KSelector(separatedBlobs(100, 2), new EuclideanDistanceMeasure(), 1, 1).select(1, 4, DELTA, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void moreClustersThanPointsAreRejected() throws Exception {
+        new KSelector(separatedBlobs(10, 2), new EuclideanDistanceMeasure(), 1, 1).select(2, 11, DELTA, 10);
+    }
+
+    /**
+     * @return points in tight blobs 50 apart on the diagonal, row r being in blob r % numBlobs
+     */
+    private static PointMatrix separatedBlobs(int numPoints, int numBlobs) {
+        Random random = new Random(21);
+        PointMatrix points = new PointMatrix(numPoints, 2);
+        for (int row = 0; row < numPoints; row++) {
+            for (int d = 0; d < 2; d++) {
+                points.set(row, d, 50 * (row % numBlobs) + random.nextGaussian());
+            }
+        }
+        return points;
+    }
+}
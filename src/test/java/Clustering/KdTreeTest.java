@@ -0,0 +1,79 @@
+package Clustering;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class KdTreeTest {
+
+    private static final int DIMS = 3;
+
+    @Test
+    public void idsAreTheInsertionOrder() {
+        KdTree tree = new KdTree(DIMS);
+        double[] values = {5, 5, 5, 1, 1, 1, 9, 9, 9};
+        for (int id = 0; id < 3; id++) {
+            assertEquals(id, tree.add(values, id * DIMS));
+        }
+        assertEquals(3, tree.size());
+    }
+
+    @Test
+    public void rangeFindsThePointsOfAScan() {
+        Random random = new Random(42);
+        int numPoints = 2000;
+        double[] points = new double[numPoints * DIMS];
+        KdTree tree = new KdTree(DIMS);
+        for (int i = 0; i < numPoints; i++) {
+            for (int d = 0; d < DIMS; d++) {
+                // duplicated coordinates on purpose: ties go right
+                points[i * DIMS + d] = random.nextInt(50) / 5.0;
+            }
+            tree.add(points, i * DIMS);
+        }
+
+        double[] query = new double[DIMS];
+        for (int q = 0; q < 200; q++) {
+            for (int d = 0; d < DIMS; d++) {
+                query[d] = random.nextDouble() * 10;
+            }
+            double radius = random.nextDouble() * 3;
+            final Set<Integer> found = new TreeSet<Integer>();
+            tree.range(query, 0, radius, new KdTree.Visitor() {
+                @Override
+                public void visit(int id) {
+                    found.add(id);
+                }
+            });
+            assertEquals(scan(points, numPoints, query, radius), found);
+        }
+    }
+
+    @Test
+    public void rangeOfAnEmptyTreeVisitsNothing() {
+        new KdTree(DIMS).range(new double[DIMS], 0, 1, new KdTree.Visitor() {
+            @Override
+            public void visit(int id) {
+                throw new AssertionError("visited " + id);
+            }
+        });
+    }
+
+    private static Set<Integer> scan(double[] points, int numPoints, double[] query, double radius) {
+        Set<Integer> inside = new TreeSet<Integer>();
+        for (int i = 0; i < numPoints; i++) {
+            boolean within = true;
+            for (int d = 0; d < DIMS; d++) {
+                within &= Math.abs(points[i * DIMS + d] - query[d]) <= radius;
+            }
+            if (within) {
+                inside.add(i);
+            }
+        }
+        return inside;
+    }
+}
@@ -0,0 +1,183 @@
+package Clustering;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.kmeans.Kluster;
+import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
+import org.apache.mahout.common.distance.ManhattanDistanceMeasure;
+import org.apache.mahout.math.DenseVector;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MiniBatchKMeansTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void aSingleCenterMovesToTheMeanOfItsPoints() {
+        List<Kluster> initial = new ArrayList<Kluster>();
+        initial.add(new Kluster(new DenseVector(new double[] {100, -100}), 4, new ManhattanDistanceMeasure()));
+        MiniBatchKMeans kmeans = new MiniBatchKMeans(initial, new ManhattanDistanceMeasure());
+        PointMatrix points = ClusteringTestData.blobs(60, 2, 3, 1.0, 5);
+        double[] mean = new double[2];
+        for (int row = 0; row < points.numRows(); row++) {
+            for (int d = 0; d < 2; d++) {
+                mean[d] += points.get(row, d) / points.numRows();
+            }
+        }
+        // the learning rate of 1 / count keeps the center at the running mean of the points it saw
+        kmeans.update(slice(points, 0, 25));
+        kmeans.update(slice(points, 25, 60));
+        Cluster cluster = kmeans.getClusters().get(0);
+        assertEquals(4, cluster.getId());
+        assertEquals(mean[0], cluster.getCenter().get(0), 1.0e-9);
+        assertEquals(mean[1], cluster.getCenter().get(1), 1.0e-9);
+        assertEquals(2, kmeans.getBatches());
+        assertEquals(60, kmeans.getPoints());
+        assertEquals(0, kmeans.update(slice(points, 0, 0)), 0);
+    }
+
+    @Test
+    public void randomBatchesFindTheBlobs() throws IOException {
+        Configuration conf = localConf();
+        Path input = new Path(folder.getRoot().getAbsolutePath(), "points");
+        PointMatrix points = new PointMatrix(2000, 2);
+        Random random = new Random(3);
+        for (int row = 0; row < points.numRows(); row++) {
+            double center = row % 2 == 0 ? 0 : 10;
+            points.set(row, 0, center + random.nextGaussian());
+            points.set(row, 1, center + random.nextGaussian());
+        }
+        ClusteringTestData.writePoints(conf, new Path(input, "part-m-00000"), points);
+
+        List<Kluster> initial = new ArrayList<Kluster>();
+        initial.add(new Kluster(new DenseVector(new double[] {1, 2}), 0, new EuclideanDistanceMeasure()));
+        initial.add(new Kluster(new DenseVector(new double[] {8, 7}), 1, new EuclideanDistanceMeasure()));
+        MiniBatchKMeans kmeans = new MiniBatchKMeans(initial, new EuclideanDistanceMeasure());
+        MiniBatchReader reader = new MiniBatchReader(conf, input, 100, 500, 9);
+        try {
+            for (int step = 0; step < 60; step++) {
+                kmeans.update(reader.nextBatch());
+            }
+            assertTrue(reader.getEpoch() >= 2);
+        } finally {
+            reader.close();
+        }
+        List<Cluster> clusters = kmeans.getClusters();
+        for (int c = 0; c < 2; c++) {
+            assertEquals(10 * c, clusters.get(c).getCenter().get(0), 0.2);
+            assertEquals(10 * c, clusters.get(c).getCenter().get(1), 0.2);
+        }
+    }
+
+    @Test
+    public void batchesAreDrawnFromTheInput() throws IOException {
+        Configuration conf = localConf();
+        Path input = writeNumbered(conf, "numbered", 250);
+        List<Double> first = new ArrayList<Double>();
+        MiniBatchReader reader = new MiniBatchReader(conf, input, 30, 100, 1);
+        try {
+            for (int batch = 0; batch < 20; batch++) {
+                PointMatrix points = reader.nextBatch();
+                assertEquals(30, points.numRows());
+                for (int row = 0; row < points.numRows(); row++) {
+                    double id = points.get(row, 0);
+                    assertTrue(id >= 0 && id < 250 && id == Math.rint(id));
+                    assertEquals(2 * id, points.get(row, 1), 0);
+                    if (batch == 0) {
+                        first.add(id);
+                    }
+                }
+            }
+            // 600 points drawn out of 250, the buffer being refilled over the passes
+            assertEquals(2, reader.getEpoch());
+        } finally {
+            reader.close();
+        }
+
+        // the same seed draws the same batches
+        MiniBatchReader again = new MiniBatchReader(conf, input, 30, 100, 1);
+        try {
+            PointMatrix points = again.nextBatch();
+            for (int row = 0; row < points.numRows(); row++) {
+                assertEquals(first.get(row), points.get(row, 0), 0);
+            }
+        } finally {
+            again.close();
+        }
+    }
+
+    @Test
+    public void smallAndEmptyInputs() throws IOException {
+        Configuration conf = localConf();
+        MiniBatchReader small = new MiniBatchReader(conf, writeNumbered(conf, "small", 7), 20, 50, 1);
+        try {
+            assertEquals(7, small.nextBatch().numRows());
+        } finally {
+            small.close();
+        }
+        MiniBatchReader empty = new MiniBatchReader(conf, writeNumbered(conf, "empty", 0), 20, 50, 1);
+        try {
+            assertNull(empty.nextBatch());
+        } finally {
+            empty.close();
+        }
+    }
+
+    @Test
+    public void theSampleHoldsDistinctInputPoints() throws IOException {
+        Configuration conf = localConf();
+        Path input = writeNumbered(conf, "sampled", 500);
+        PointMatrix sample = MiniBatchReader.sample(conf, input, 40, 2);
+        assertEquals(40, sample.numRows());
+        Set<Double> ids = new HashSet<Double>();
+        for (int row = 0; row < sample.numRows(); row++) {
+            ids.add(sample.get(row, 0));
+            assertEquals(2 * sample.get(row, 0), sample.get(row, 1), 0);
+        }
+        assertEquals(40, ids.size());
+        assertEquals(sample.get(7, 0), MiniBatchReader.sample(conf, input, 40, 2).get(7, 0), 0);
+        assertEquals(500, MiniBatchReader.sample(conf, input, 1000, 2).numRows());
+    }
+
+    /**
+     * Writes the points (i, 2i) for i below count, in two parts.
+     */
+    private Path writeNumbered(Configuration conf, String name, int count) throws IOException {
+        Path input = new Path(folder.getRoot().getAbsolutePath(), name);
+        PointMatrix points = new PointMatrix(count, 2);
+        for (int row = 0; row < count; row++) {
+            points.set(row, 0, row);
+            points.set(row, 1, 2 * row);
+        }
+        ClusteringTestData.writePoints(conf, new Path(input, "part-m-00000"), slice(points, 0, count / 2));
+        ClusteringTestData.writePoints(conf, new Path(input, "part-m-00001"), slice(points, count / 2, count));
+        return input;
+    }
+
+    private static PointMatrix slice(PointMatrix points, int from, int to) {
+        PointMatrix slice = new PointMatrix(to - from, points.numCols());
+        System.arraycopy(points.values(), points.offset(from), slice.values(), 0, (to - from) * points.numCols());
+        return slice;
+    }
+
+    private static Configuration localConf() {
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        return conf;
+    }
+}
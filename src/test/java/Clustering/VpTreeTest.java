@@ -0,0 +1,57 @@
+package Clustering;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class VpTreeTest {
+
+    private static final int DIMS = 8;
+
+    @Test
+    public void nearestIsTheNearestOfAScanInEuclideanDistance() {
+        checkAgainstScan(DistanceKernel.EUCLIDEAN);
+    }
+
+    @Test
+    public void nearestIsTheNearestOfAScanInManhattanDistance() {
+        checkAgainstScan(DistanceKernel.MANHATTAN);
+    }
+
+    @Test
+    public void nearestOfASingleRowIsThatRow() {
+        double[] values = {1, 2, 3, 4, 5, 6, 7, 8};
+        VpTree tree = new VpTree(values, 1, DIMS, DistanceKernel.EUCLIDEAN, 7);
+        double[] best = new double[1];
+        assertEquals(0, tree.nearest(values, 0, best));
+        assertEquals(0, best[0], 0);
+    }
+
+    private static void checkAgainstScan(DistanceKernel metric) {
+        Random random = new Random(42);
+        int numRows = 500;
+        double[] values = new double[numRows * DIMS];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextGaussian();
+        }
+        VpTree tree = new VpTree(values, numRows, DIMS, metric, 11);
+
+        double[] query = new double[DIMS];
+        double[] best = new double[1];
+        for (int q = 0; q < 300; q++) {
+            for (int d = 0; d < DIMS; d++) {
+                query[d] = random.nextGaussian() * 1.5;
+            }
+            int nearest = tree.nearest(query, 0, best);
+            double expected = Double.POSITIVE_INFINITY;
+            for (int row = 0; row < numRows; row++) {
+                expected = Math.min(expected, metric.distance(values, row * DIMS, query, 0, DIMS));
+            }
+            // ties may return any of the nearest rows, so the distances are compared
+            assertEquals(expected, best[0], 1e-12);
+            assertEquals(best[0], metric.distance(values, nearest * DIMS, query, 0, DIMS), 0);
+        }
+    }
+}
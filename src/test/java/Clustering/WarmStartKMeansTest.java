@@ -0,0 +1,129 @@
+package Clustering;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.clustering.Cluster;
+import org.apache.mahout.clustering.iterator.KMeansClusteringPolicy;
+import org.apache.mahout.clustering.kmeans.Kluster;
+import org.apache.mahout.clustering.topdown.PathDirectory;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
+import org.apache.mahout.math.DenseVector;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WarmStartKMeansTest {
+
+    private static final double DELTA = 0.001;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random random = new Random(42);
+
+    private long lines; // data lines written so far
+
+    private final List<Long> skipped = new ArrayList<Long>();
+
+    @Test
+    public void appendedLinesAreKeyedAfterThePreviousOnes() throws Exception {
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        Path root = new Path(folder.getRoot().getAbsolutePath());
+        Path output = new Path(root, "output");
+        File csv = new File(folder.getRoot(), "points.csv");
+        DistanceMeasure measure = new EuclideanDistanceMeasure();
+        append(csv, 300);
+
+        // the first run clusters the whole input, as Kmeans does with its in-memory engine
+        CsvVectorizer vectorizer = new CsvVectorizer(conf);
+        vectorizer.setSkipHeader(true);
+        vectorizer.setColumns(new int[] {0, 1});
+        vectorizer.setNumParts(3);
+        vectorizer.setCollectPoints(true);
+        vectorizer.vectorize(csv, new Path(root, "points"));
+        PointMatrix points = vectorizer.getPoints();
+        List<Kluster> initial = new ArrayList<Kluster>();
+        initial.add(new Kluster(new DenseVector(new double[] {0, 0}), 0, measure));
+        initial.add(new Kluster(new DenseVector(new double[] {10, 10}), 1, measure));
+        InMemoryKMeans kmeans = new InMemoryKMeans(points, initial, measure, 2);
+        int iterations = kmeans.run(DELTA, 10);
+        List<Cluster> clusters = kmeans.getClusters(DELTA);
+        ClusteringOutputWriter.writeFinalClusters(output, iterations, clusters, new KMeansClusteringPolicy(DELTA));
+        ClusteringOutputWriter.writeClusteredPoints(conf, output, points, clusters, kmeans.classify(clusters));
+        WarmStartKMeans.saveState(conf, output, csv, vectorizer.getEndOffset(), vectorizer.getNextKey());
+        assertEquals(lines, vectorizer.getNextKey());
+
+        // two warm starts over appended lines
+        for (int run = 1; run <= 2; run++) {
+            append(csv, 100);
+            WarmStartKMeans warmStart = new WarmStartKMeans(conf, output, measure, 2);
+            assertTrue(warmStart.load(csv));
+            vectorizer.setStartOffset(warmStart.getOffset());
+            vectorizer.setFirstKey(warmStart.getNextKey());
+            vectorizer.vectorize(csv, new Path(root, "points"));
+            warmStart.run(vectorizer.getPoints(), DELTA, 10);
+            WarmStartKMeans.saveState(conf, output, csv, vectorizer.getEndOffset(), vectorizer.getNextKey());
+            assertEquals(lines, vectorizer.getNextKey());
+            FileSystem fs = output.getFileSystem(conf);
+            assertTrue(fs.exists(new Path(output, PathDirectory.CLUSTERED_POINTS_DIRECTORY + "/part-m-0000" + run)));
+        }
+
+        ClusteredPoints clustered = ClusteredPoints.read(conf, output, 2, false);
+        assertEquals(lines - skipped.size(), clustered.size());
+        int point = 0;
+        for (long key = 0; key < lines; key++) {
+            if (!skipped.contains(key)) {
+                assertEquals(key, clustered.getKey(point));
+                point++;
+            }
+        }
+        ClusteringEvaluator evaluator = ClusteringEvaluator.evaluate(clustered, false, csv, 2, true);
+        assertEquals(clustered.size(), evaluator.getNumPoints());
+        assertEquals(1, evaluator.getPurity(), 1.0e-12);
+    }
+
+    /**
+     * Appends data lines around (0, 0) labelled a or around (10, 10) labelled b, the first one unreadable,
+     * after a header if the file is new.
+     */
+    private void append(File csv, int count) throws IOException {
+        boolean created = !csv.exists();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(csv, true), StandardCharsets.UTF_8);
+        try {
+            if (created) {
+                writer.write("x,y,label\n");
+            }
+            writer.write("\n");
+            for (int i = 0; i < count; i++) {
+                if (i == 0) {
+                    writer.write("?,?,a\n");
+                    skipped.add(lines);
+                } else {
+                    boolean a = random.nextBoolean();
+                    double center = a ? 0 : 10;
+                    writer.write((center + random.nextGaussian()) + "," + (center + random.nextGaussian()) + ","
+                            + (a ? "a" : "b") + "\n");
+                }
+                lines++;
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package Common;
+
+import org.apache.hadoop.io.Writable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CheckpointStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void checkpointsAreDueEveryInterval() {
+        CheckpointStore store = new CheckpointStore(folder.getRoot(), 3);
+        assertFalse(store.isDue(0));
+        assertFalse(store.isDue(2));
+        assertTrue(store.isDue(3));
+        assertTrue(store.isDue(6));
+        assertFalse(new CheckpointStore(folder.getRoot(), 0).isDue(3));
+    }
+
+    @Test
+    public void runsWithOtherParametersHaveTheirOwnDirectory() throws IOException {
+        File parent = folder.getRoot();
+        File run = CheckpointStore.runDirectory(parent, "points.csv|1000|k=2|0.001");
+        assertEquals(parent, run.getParentFile());
+        assertTrue(run.getName(), run.getName().matches("run-[0-9a-f]{40}"));
+        assertEquals(run, CheckpointStore.runDirectory(parent, "points.csv|1000|k=2|0.001"));
+        File other = CheckpointStore.runDirectory(parent, "points.csv|1000|k=3|0.001");
+        assertFalse(run.equals(other));
+
+        new CheckpointStore(run, 1).save(1, new State(7));
+        assertEquals(0, new CheckpointStore(other, 1).restore(new State()));
+    }
+
+    @Test
+    public void restoreReadsTheNewestCheckpoint() throws IOException {
+        CheckpointStore store = new CheckpointStore(new File(folder.getRoot(), "checkpoints"), 1);
+        State empty = new State();
+        assertEquals(0, store.restore(empty));
+
+        store.save(1, new State(10));
+        store.save(2, new State(20));
+        State state = new State();
+        assertEquals(2, store.restore(state));
+        assertEquals(20, state.value);
+    }
+
+    @Test
+    public void onlyTheNewestCheckpointsAreKept() throws IOException {
+        File directory = new File(folder.getRoot(), "checkpoints");
+        CheckpointStore store = new CheckpointStore(directory, 1);
+        for (int step = 1; step <= 5; step++) {
+            store.save(step, new State(step));
+        }
+        assertEquals(CheckpointStore.KEEP, directory.list().length);
+
+        store.clear();
+        assertEquals(0, directory.list().length);
+        assertEquals(0, store.restore(new State()));
+    }
+
+    @Test
+    public void aCorruptCheckpointFallsBackToThePreviousOne() throws IOException {
+        File directory = new File(folder.getRoot(), "checkpoints");
+        CheckpointStore store = new CheckpointStore(directory, 1);
+        store.save(1, new State(10));
+        store.save(2, new State(20));
+
+        // flip the last byte of the state of step 2
+        RandomAccessFile newest = new RandomAccessFile(new File(directory, "checkpoint-00000002"), "rw");
+        try {
+            newest.seek(newest.length() - 1);
+            byte last = newest.readByte();
+            newest.seek(newest.length() - 1);
+            newest.writeByte(last ^ 0xff);
+        } finally {
+            newest.close();
+        }
+
+        State state = new State();
+        assertEquals(1, store.restore(state));
+        assertEquals(10, state.value);
+    }
+
+    @Test
+    public void aTruncatedCheckpointFallsBackToThePreviousOne() throws IOException {
+        File directory = new File(folder.getRoot(), "checkpoints");
+        CheckpointStore store = new CheckpointStore(directory, 1);
+        store.save(1, new State(10));
+        store.save(2, new State(20));
+
+        RandomAccessFile newest = new RandomAccessFile(new File(directory, "checkpoint-00000002"), "rw");
+        try {
+            newest.setLength(newest.length() - 3);
+        } finally {
+            newest.close();
+        }
+
+        State state = new State();
+        assertEquals(1, store.restore(state));
+        assertEquals(10, state.value);
+    }
+
+    private static final class State implements Writable {
+
+        private long value;
+
+        State() {
+        }
+
+        State(long value) {
+            this.value = value;
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeLong(value);
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            value = in.readLong();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package Common;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnarCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void columnsGetTheNarrowestType() throws IOException {
+        File csv = write("data.csv", "id,size,kind\n1,2.5,small\n\n3,4,\"large\"\n-7,1e3,small\n", false);
+        ColumnarCache cache = ColumnarCache.open(csv, true);
+        assertNotNull(cache);
+
+        // the blank line is not a row
+        assertEquals(3, cache.getNumRows());
+        assertEquals(3, cache.getNumColumns());
+        assertEquals("id", cache.getName(0));
+        assertEquals("kind", cache.getName(2));
+        assertEquals(ColumnarCache.ColumnType.INT, cache.getType(0));
+        assertEquals(ColumnarCache.ColumnType.DOUBLE, cache.getType(1));
+        assertEquals(ColumnarCache.ColumnType.CATEGORICAL, cache.getType(2));
+
+        assertEquals(-7, cache.getInt(0, 2));
+        assertEquals(3.0, cache.getDouble(0, 1), 0);
+        assertEquals(2.5, cache.getDouble(1, 0), 0);
+        assertEquals(1000.0, cache.getDouble(1, 2), 0);
+        assertEquals("large", cache.getString(2, 1));
+        assertArrayEquals(new String[] {"small", "large"}, cache.getDictionary(2));
+        assertEquals(cache.getCode(2, 0), cache.getCode(2, 2));
+        assertTrue(Double.isNaN(cache.getDouble(2, 0)));
+    }
+
+    @Test
+    public void theCacheFileIsReadOnTheNextOpen() throws IOException {
+        File csv = write("data.csv", "1 2\n3 4\n", false);
+        ColumnarCache built = ColumnarCache.open(csv, false);
+        assertNotNull(built);
+        File cacheFile = ColumnarCache.cacheFile(csv);
+        assertTrue(cacheFile.isFile());
+        long modified = cacheFile.lastModified();
+
+        ColumnarCache read = ColumnarCache.open(csv, false);
+        assertNotNull(read);
+        assertEquals(modified, cacheFile.lastModified());
+        assertEquals(built.getNumRows(), read.getNumRows());
+        for (int row = 0; row < read.getNumRows(); row++) {
+            for (int column = 0; column < read.getNumColumns(); column++) {
+                assertEquals(built.getDouble(column, row), read.getDouble(column, row), 0);
+            }
+        }
+    }
+
+    @Test
+    public void anAppendedFileIsCachedAgain() throws IOException {
+        File csv = write("data.csv", "1,2\n3,4\n", false);
+        assertEquals(2, ColumnarCache.open(csv, false).getNumRows());
+
+        write("data.csv", "5,6.5\n", true);
+        ColumnarCache cache = ColumnarCache.open(csv, false);
+        assertEquals(3, cache.getNumRows());
+        assertEquals(ColumnarCache.ColumnType.DOUBLE, cache.getType(1));
+        assertEquals(6.5, cache.getDouble(1, 2), 0);
+    }
+
+    @Test
+    public void aRaggedFileIsNotCached() throws IOException {
+        File csv = write("ragged.csv", "1,2,3\n4,5\n", false);
+        assertNull(ColumnarCache.open(csv, false));
+    }
+
+    private File write(String name, String text, boolean append) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        OutputStream out = new FileOutputStream(file, append);
+        try {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,102 @@
+package Common;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ModelCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Loads the content of the file as a string.
+     */
+    private static class TextLoader extends ModelCache.Loader<String> {
+        @Override
+        public String load(File file) throws IOException {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void hitsReturnTheCachedModel() throws IOException {
+        ModelCache cache = new ModelCache(1 << 20);
+        File file = write(folder.newFile("model"), "first");
+        String model = cache.get(file, new TextLoader());
+        assertSame(model, cache.get(file, new TextLoader()));
+        assertEquals(1, cache.stats().getHits());
+        assertEquals(1, cache.stats().getMisses());
+    }
+
+    @Test
+    public void aChangedFileIsNotServedStale() throws IOException {
+        ModelCache cache = new ModelCache(1 << 20);
+        File file = write(folder.newFile("model"), "first");
+        assertEquals("first", cache.get(file, new TextLoader()));
+        // asked again before the watcher could see the change
+        write(file, "second version");
+        assertEquals("second version", cache.get(file, new TextLoader()));
+        assertEquals(1, cache.stats().getMisses());
+        assertEquals(1, cache.stats().getReloads());
+    }
+
+    @Test
+    public void aCorruptVersionKeepsThePreviousOne() throws IOException {
+        ModelCache cache = new ModelCache(1 << 20);
+        File file = write(folder.newFile("model"), "first");
+        ModelCache.Loader<String> loader = new TextLoader() {
+            @Override
+            public String load(File file) throws IOException {
+                String text = super.load(file);
+                if (text.startsWith("corrupt")) {
+                    throw new IOException("corrupt model");
+                }
+                return text;
+            }
+        };
+        assertEquals("first", cache.get(file, loader));
+        write(file, "corrupt version");
+        assertEquals("first", cache.get(file, loader));
+        assertEquals("first", cache.get(file, loader));
+        write(file, "fixed version");
+        assertEquals("fixed version", cache.get(file, loader));
+    }
+
+    @Test
+    public void evictedModelsAreNoLongerWatched() throws IOException {
+        // room for one model only
+        ModelCache cache = new ModelCache(10);
+        File first = write(new File(folder.newFolder("first"), "model"), "first");
+        File second = write(new File(folder.newFolder("second"), "model"), "second");
+        File sibling = write(new File(second.getParentFile(), "sibling"), "third");
+
+        cache.get(first, new TextLoader());
+        assertEquals(1, cache.watchedDirectories());
+        cache.get(second, new TextLoader());
+        assertEquals(1, cache.stats().getEvictions());
+        assertEquals(1, cache.watchedDirectories());
+
+        // the second model is evicted by its sibling, which keeps their directory watched
+        cache.get(sibling, new TextLoader());
+        assertEquals(1, cache.watchedDirectories());
+        cache.invalidate(sibling);
+        assertEquals(0, cache.watchedDirectories());
+
+        assertEquals("first", cache.get(first, new TextLoader()));
+        assertEquals(4, cache.stats().getMisses());
+    }
+
+    private static File write(File file, String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}